@@ -0,0 +1,84 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.benchmark;
+
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.StringTableImpl;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Utility;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Measures lookups of absent keys in a freshly opened lazy table with Bloom filters of parts and after the
+ * filter files are removed.<br/>
+ * Usage: {@code BloomFilterBenchmark [records count] [lookups count]}.
+ */
+public final class BloomFilterBenchmark {
+    private static final int DEFAULT_RECORDS_COUNT = 500_000;
+    private static final int DEFAULT_LOOKUPS_COUNT = 2_000;
+    private static final int ROUNDS_COUNT = 5;
+
+    private BloomFilterBenchmark() {
+
+    }
+
+    public static void main(String[] args) throws IOException {
+        int recordsCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_RECORDS_COUNT;
+        int lookupsCount = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_LOOKUPS_COUNT;
+
+        Path root = Files.createTempDirectory("bloom-filter-benchmark");
+        try {
+            Path tableRoot = root.resolve("table");
+            StringTableImpl table = StringTableImpl.createTable(tableRoot);
+            for (int i = 0; i < recordsCount; i++) {
+                table.put("key" + i, "value of record number " + i);
+            }
+            long startTime = System.nanoTime();
+            table.commit();
+            System.out.println(
+                    String.format(
+                            "%d records committed in %.0f ms", recordsCount, (System.nanoTime() - startTime) / 1e6));
+            table.close();
+
+            measure(tableRoot, lookupsCount, "with filters");
+
+            List<Path> filters;
+            try (Stream<Path> files = Files.walk(tableRoot)) {
+                filters = files.filter(path -> path.toString().endsWith(".bloom")).collect(Collectors.toList());
+            }
+            for (Path filter : filters) {
+                Files.delete(filter);
+            }
+            measure(tableRoot, lookupsCount, "without filters");
+        } finally {
+            Utility.rm(root);
+        }
+    }
+
+    private static void measure(Path tableRoot, int lookupsCount, String caseName) throws IOException {
+        long totalTime = 0;
+        String metrics = null;
+        for (int round = 0; round < ROUNDS_COUNT; round++) {
+            StringTableImpl table = StringTableImpl.getTable(tableRoot, path -> false, true);
+            long startTime = System.nanoTime();
+            for (int i = 0; i < lookupsCount; i++) {
+                if (table.get("absent" + i) != null) {
+                    throw new IllegalStateException("Absent key found");
+                }
+            }
+            totalTime += System.nanoTime() - startTime;
+            metrics = table.getBloomFilterMetrics().toString();
+            table.close();
+        }
+        System.out.println(
+                String.format(
+                        "%-15s: %d absent lookups after opening in %8.2f ms (%.2f us per lookup); %s",
+                        caseName,
+                        lookupsCount,
+                        totalTime / 1e6 / ROUNDS_COUNT,
+                        totalTime / 1e3 / ROUNDS_COUNT / lookupsCount,
+                        metrics));
+    }
+}
@@ -0,0 +1,157 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.benchmark;
+
+import ru.fizteh.fivt.storage.structured.Table;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.AutoCloseableProvider;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.BulkImporter;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.DBTableProviderFactory;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.ImportMetrics;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Utility;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures loading of rows from a TSV file into an empty table: row by row through {@link Table#put} followed
+ * by one commit versus {@link BulkImporter}. Peak heap usage, including garbage, is sampled during each load;
+ * run it with a small {@code -Xmx} and {@code -Dfizteh.db.lazy=true} to see which case fits in memory.<br/>
+ * Run it where the log of the logging proxy cannot be created, so that calls are not logged.<br/>
+ * Usage: {@code BulkImportBenchmark [rows count] [buffered rows count]}.
+ */
+public final class BulkImportBenchmark {
+    private static final int DEFAULT_ROWS_COUNT = 1_000_000;
+    private static final List<Class<?>> COLUMN_TYPES = Arrays.asList(Integer.class, String.class, Long.class);
+    private static final long HEAP_SAMPLING_INTERVAL_MILLIS = 5;
+
+    private BulkImportBenchmark() {
+
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rowsCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS_COUNT;
+        int bufferedRowsCount = args.length > 1 ? Integer.parseInt(args[1]) : BulkImporter.DEFAULT_BUFFERED_ROWS_COUNT;
+
+        Path source = Files.createTempFile("bulk-import-benchmark", ".tsv");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(source, StandardCharsets.UTF_8)) {
+                for (int i = 0; i < rowsCount; i++) {
+                    writer.write("key" + i + "\t" + i + "\tvalue of row number " + i + "\t" + (i * 31L));
+                    writer.newLine();
+                }
+            }
+
+            System.out.println(
+                    String.format(
+                            "%d rows, %d MB source, %d buffered rows",
+                            rowsCount,
+                            Files.size(source) >> 20,
+                            bufferedRowsCount));
+            measureOrReport("put and commit", source, null);
+            measureOrReport("bulk import", source, bufferedRowsCount);
+        } finally {
+            Files.delete(source);
+        }
+    }
+
+    /**
+     * Measures the case; running out of memory is reported as its result, so that both cases can be compared
+     * with a small heap.
+     */
+    private static void measureOrReport(String caseName, Path source, Integer bufferedRowsCount) throws Exception {
+        try {
+            measure(caseName, source, bufferedRowsCount);
+        } catch (OutOfMemoryError exc) {
+            System.out.println(String.format("%-16s: out of memory", caseName));
+        }
+    }
+
+    /**
+     * Loads the rows into a new table.
+     * @param bufferedRowsCount
+     *         Buffer of the importer or null to put rows one by one.
+     */
+    private static void measure(String caseName, Path source, Integer bufferedRowsCount) throws Exception {
+        Path root = Files.createTempDirectory("bulk-import-benchmark");
+        HeapSampler sampler = new HeapSampler();
+        try (DBTableProviderFactory factory = new DBTableProviderFactory()) {
+            AutoCloseableProvider provider = factory.create(root.toString());
+            Table table = provider.createTable("table", COLUMN_TYPES);
+            System.gc();
+
+            sampler.start();
+            long startTime = System.nanoTime();
+            long rowsCount = 0;
+            if (bufferedRowsCount == null) {
+                try (BufferedReader reader = Files.newBufferedReader(source, StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        String[] fields = line.split("\t");
+                        table.put(
+                                fields[0],
+                                provider.createFor(
+                                        table,
+                                        Arrays.asList(
+                                                Integer.parseInt(fields[1]), fields[2], Long.parseLong(fields[3]))));
+                        rowsCount++;
+                    }
+                }
+                table.commit();
+            } else {
+                BulkImporter importer = new BulkImporter(
+                        table, Runtime.getRuntime().availableProcessors(), bufferedRowsCount);
+                ImportMetrics metrics = importer.importFile(source, BulkImporter.Format.TSV);
+                rowsCount = metrics.getRowsCount();
+            }
+            long time = System.nanoTime() - startTime;
+            sampler.stop();
+
+            System.out.println(
+                    String.format(
+                            "%-16s: %8.0f rows/s, %6.2f s, peak heap %5d MB",
+                            caseName,
+                            rowsCount * 1e9 / time,
+                            time / 1e9,
+                            sampler.peakBytes.get() >> 20));
+            provider.close();
+        } finally {
+            Utility.rm(root);
+        }
+    }
+
+    /**
+     * Samples used heap in background.
+     */
+    private static final class HeapSampler {
+        private final AtomicLong peakBytes = new AtomicLong();
+        private final AtomicBoolean stopped = new AtomicBoolean();
+        private Thread thread;
+
+        void start() {
+            thread = new Thread(
+                    () -> {
+                        Runtime runtime = Runtime.getRuntime();
+                        while (!stopped.get()) {
+                            peakBytes.accumulateAndGet(runtime.totalMemory() - runtime.freeMemory(), Math::max);
+                            try {
+                                Thread.sleep(HEAP_SAMPLING_INTERVAL_MILLIS);
+                            } catch (InterruptedException exc) {
+                                return;
+                            }
+                        }
+                    }, "Heap sampler");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void stop() throws InterruptedException {
+            stopped.set(true);
+            thread.join();
+        }
+    }
+}
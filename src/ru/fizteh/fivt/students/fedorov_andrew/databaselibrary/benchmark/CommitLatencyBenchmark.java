@@ -0,0 +1,72 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.benchmark;
+
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.StringTableImpl;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.TableLayout;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.TableLayout.PartFormat;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Utility;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Measures latency of small commits to a large table part in plain and log formats.<br/>
+ * All records are stored in a single part, so that each commit touches the same file.<br/>
+ * Usage: {@code CommitLatencyBenchmark [committed records count]}.
+ */
+public final class CommitLatencyBenchmark {
+    private static final int DEFAULT_RECORDS_COUNT = 200_000;
+    private static final int[] DIFF_SIZES = {1, 10, 100};
+    private static final int COMMITS_COUNT = 50;
+
+    private CommitLatencyBenchmark() {
+
+    }
+
+    public static void main(String[] args) throws IOException {
+        int recordsCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_RECORDS_COUNT;
+
+        Path root = Files.createTempDirectory("commit-benchmark");
+        try {
+            System.out.println("Committed records: " + recordsCount + ", commits per diff size: " + COMMITS_COUNT);
+            for (PartFormat format : PartFormat.values()) {
+                measure(root.resolve(format.name()), format, recordsCount);
+            }
+        } finally {
+            Utility.rm(root);
+        }
+    }
+
+    private static void measure(Path tableRoot, PartFormat format, int recordsCount) throws IOException {
+        StringTableImpl table =
+                StringTableImpl.createTable(tableRoot, TableLayout.withPartsCount(1).withFormat(format));
+        for (int i = 0; i < recordsCount; i++) {
+            table.put("key" + i, "value of record number " + i);
+        }
+        table.commit();
+
+        int counter = 0;
+        for (int diffSize : DIFF_SIZES) {
+            long[] latencies = new long[COMMITS_COUNT];
+            for (int commit = 0; commit < COMMITS_COUNT; commit++) {
+                for (int i = 0; i < diffSize; i++) {
+                    table.put("key" + (counter++ % recordsCount), "changed value " + counter);
+                }
+                long startTime = System.nanoTime();
+                table.commit();
+                latencies[commit] = System.nanoTime() - startTime;
+            }
+
+            Arrays.sort(latencies);
+            System.out.println(
+                    String.format(
+                            "%-5s diff %3d: median %8.3f ms, p90 %8.3f ms",
+                            format,
+                            diffSize,
+                            latencies[COMMITS_COUNT / 2] / 1e6,
+                            latencies[COMMITS_COUNT * 9 / 10] / 1e6));
+        }
+        table.close();
+    }
+}
@@ -0,0 +1,150 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.benchmark;
+
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.StringTableImpl;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Utility;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures latency of reads from a table while another thread commits large changes to it as fast as it
+ * can, and without commits for comparison. Readers read until the given number of commits is written or, when
+ * there are no commits, for the same time.<br/>
+ * Usage: {@code CommitReadLatencyBenchmark [committed records count] [changed records per commit]}.
+ */
+public final class CommitReadLatencyBenchmark {
+    private static final int DEFAULT_RECORDS_COUNT = 200_000;
+    private static final int DEFAULT_DIFF_SIZE = 2000;
+    private static final int COMMITS_COUNT = 20;
+    private static final int READERS_COUNT = 4;
+    /**
+     * Latencies of reads after this number are not recorded by a reader.
+     */
+    private static final int MAX_RECORDED_READS = 4_000_000;
+
+    private CommitReadLatencyBenchmark() {
+
+    }
+
+    public static void main(String[] args) throws Exception {
+        int recordsCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_RECORDS_COUNT;
+        int diffSize = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_DIFF_SIZE;
+
+        Path root = Files.createTempDirectory("commit-read-benchmark");
+        try {
+            StringTableImpl table = StringTableImpl.createTable(root.resolve("table"));
+            for (int i = 0; i < recordsCount; i++) {
+                table.put("key" + i, "value of record number " + i);
+            }
+            table.commit();
+
+            System.out.println(
+                    String.format(
+                            "Committed records: %d, %d readers, %d commits",
+                            recordsCount,
+                            READERS_COUNT,
+                            COMMITS_COUNT));
+            long commitsTime = measure("commits of " + diffSize, table, recordsCount, diffSize, 0);
+            measure("idle", table, recordsCount, 0, commitsTime);
+            table.close();
+        } finally {
+            Utility.rm(root);
+        }
+    }
+
+    /**
+     * Runs readers while the commits are written or, if there are no commits, for the given time.
+     * @return Time of the run in nanoseconds.
+     */
+    private static long measure(String caseName,
+                                StringTableImpl table,
+                                int recordsCount,
+                                int diffSize,
+                                long idleTime) throws Exception {
+        AtomicBoolean committerDone = new AtomicBoolean(false);
+        Thread committer = new Thread(
+                () -> {
+                    try {
+                        if (diffSize == 0) {
+                            Thread.sleep(idleTime / 1_000_000);
+                            return;
+                        }
+                        int counter = 0;
+                        for (int commit = 0; commit < COMMITS_COUNT; commit++) {
+                            for (int i = 0; i < diffSize; i++) {
+                                int record = ThreadLocalRandom.current().nextInt(recordsCount);
+                                table.put("key" + record, "changed value " + counter++);
+                            }
+                            table.commit();
+                        }
+                    } catch (Exception exc) {
+                        throw new RuntimeException(exc);
+                    } finally {
+                        committerDone.set(true);
+                    }
+                }, "Committer");
+
+        long[][] latencies = new long[READERS_COUNT][];
+        int[] readsCounts = new int[READERS_COUNT];
+        Thread[] readers = new Thread[READERS_COUNT];
+        for (int r = 0; r < READERS_COUNT; r++) {
+            int readerIndex = r;
+            readers[r] = new Thread(
+                    () -> {
+                        long[] readerLatencies = new long[1024];
+                        int readsCount = 0;
+                        while (!committerDone.get() && readsCount < MAX_RECORDED_READS) {
+                            String key = "key" + ThreadLocalRandom.current().nextInt(recordsCount);
+                            long startTime = System.nanoTime();
+                            if (table.get(key) == null) {
+                                throw new IllegalStateException("Key not found: " + key);
+                            }
+                            long latency = System.nanoTime() - startTime;
+                            if (readsCount == readerLatencies.length) {
+                                readerLatencies = Arrays.copyOf(readerLatencies, readsCount * 2);
+                            }
+                            readerLatencies[readsCount++] = latency;
+                        }
+                        latencies[readerIndex] = readerLatencies;
+                        readsCounts[readerIndex] = readsCount;
+                    }, "Reader " + r);
+        }
+
+        long startTime = System.nanoTime();
+        committer.start();
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        committer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        long time = System.nanoTime() - startTime;
+
+        int count = 0;
+        for (int readsCount : readsCounts) {
+            count += readsCount;
+        }
+        long[] allLatencies = new long[count];
+        int offset = 0;
+        for (int r = 0; r < READERS_COUNT; r++) {
+            System.arraycopy(latencies[r], 0, allLatencies, offset, readsCounts[r]);
+            offset += readsCounts[r];
+        }
+        Arrays.sort(allLatencies);
+        System.out.println(
+                String.format(
+                        "%-16s: %6.2f s, %8d reads, p50 %7.1f us, p99 %8.1f us, p99.9 %9.1f us, max %9.1f us",
+                        caseName,
+                        time / 1e9,
+                        count,
+                        allLatencies[count / 2] / 1e3,
+                        allLatencies[(int) (count * 0.99)] / 1e3,
+                        allLatencies[(int) (count * 0.999)] / 1e3,
+                        allLatencies[count - 1] / 1e3));
+        return time;
+    }
+}
@@ -0,0 +1,95 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.benchmark;
+
+import ru.fizteh.fivt.storage.structured.Table;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.AutoCloseableProvider;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.AutoCloseableTable;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.DBTableProviderFactory;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.LoggingTable;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.CallLogger;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.LoggingProxyFactoryXML;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Utility;
+
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Measures per-call overhead of reading a table through the logging {@link java.lang.reflect.Proxy} and through
+ * {@link LoggingTable}, with logging off and on. Reports are written to a writer that discards them, so only
+ * the work on the caller's thread is measured.<br/>
+ * Run it where the log of the logging proxy cannot be created, so that the provider gives tables that are not
+ * decorated yet.<br/>
+ * Usage: {@code DecoratorBenchmark [calls count]}.
+ */
+public final class DecoratorBenchmark {
+    private static final int DEFAULT_CALLS_COUNT = 1_000_000;
+    private static final int KEYS_COUNT = 1000;
+    private static final int ROUNDS_COUNT = 5;
+
+    private DecoratorBenchmark() {
+
+    }
+
+    public static void main(String[] args) throws Exception {
+        int callsCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CALLS_COUNT;
+
+        Path root = Files.createTempDirectory("decorator-benchmark");
+        try (DBTableProviderFactory factory = new DBTableProviderFactory();
+             AutoCloseableProvider provider = factory.create(root.toString())) {
+            AutoCloseableTable table = provider.createTable("table", Arrays.asList(Integer.class, String.class));
+            String[] keys = new String[KEYS_COUNT];
+            for (int i = 0; i < KEYS_COUNT; i++) {
+                keys[i] = "key" + i;
+                table.put(keys[i], provider.createFor(table, Arrays.asList(i, "value" + i)));
+            }
+            table.commit();
+
+            Writer nullWriter = new Writer() {
+                @Override
+                public void write(char[] cbuf, int off, int len) {
+                }
+
+                @Override
+                public void flush() {
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+            LoggingProxyFactoryXML loggingFactory = new LoggingProxyFactoryXML();
+            Table proxy = (Table) loggingFactory.wrap(nullWriter, table, AutoCloseableTable.class);
+            Table decorator = new LoggingTable(table, new CallLogger(loggingFactory, nullWriter));
+
+            System.out.println(String.format("%d calls of get:", callsCount));
+            measure("direct", table, keys, callsCount);
+            loggingFactory.setLoggingEnabled(false);
+            measure("proxy, off", proxy, keys, callsCount);
+            measure("decorator, off", decorator, keys, callsCount);
+            loggingFactory.setLoggingEnabled(true);
+            measure("proxy, on", proxy, keys, callsCount / 10);
+            measure("decorator, on", decorator, keys, callsCount / 10);
+        } finally {
+            Utility.rm(root);
+        }
+    }
+
+    private static void measure(String caseName, Table table, String[] keys, int callsCount) {
+        long bestTime = Long.MAX_VALUE;
+        long checksum = 0;
+        for (int round = 0; round < ROUNDS_COUNT; round++) {
+            long startTime = System.nanoTime();
+            for (int i = 0; i < callsCount; i++) {
+                checksum += table.get(keys[i % keys.length]).getIntAt(0);
+            }
+            bestTime = Math.min(bestTime, System.nanoTime() - startTime);
+        }
+        System.out.println(
+                String.format(
+                        "  %-15s: %7.0f ns per call (checksum %d)",
+                        caseName,
+                        (double) bestTime / callsCount,
+                        checksum));
+    }
+}
@@ -0,0 +1,61 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.benchmark;
+
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.CommitMetrics;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.StringTableImpl;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Utility;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Measures commits of a large table with the default layout depending on the number of changed keys; keys
+ * are spread among table parts by hash, so the number of dirty parts grows with them. {@link CommitMetrics}
+ * of the last commit are printed for each case.<br/>
+ * Usage: {@code DirtyPartsCommitBenchmark [committed records count]}.
+ */
+public final class DirtyPartsCommitBenchmark {
+    private static final int DEFAULT_RECORDS_COUNT = 200_000;
+    private static final int[] CHANGED_KEYS_COUNTS = {1, 4, 16, 64, 1024};
+    private static final int COMMITS_COUNT = 20;
+
+    private DirtyPartsCommitBenchmark() {
+
+    }
+
+    public static void main(String[] args) throws IOException {
+        int recordsCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_RECORDS_COUNT;
+
+        Path root = Files.createTempDirectory("dirty-parts-benchmark");
+        try {
+            StringTableImpl table = StringTableImpl.createTable(root.resolve("table"));
+            for (int i = 0; i < recordsCount; i++) {
+                table.put("key" + i, "value of record number " + i);
+            }
+            table.commit();
+
+            System.out.println("Committed records: " + recordsCount + ", commits per case: " + COMMITS_COUNT);
+            for (int changedKeysCount : CHANGED_KEYS_COUNTS) {
+                long totalTime = 0;
+                for (int commit = 0; commit < COMMITS_COUNT; commit++) {
+                    for (int i = 0; i < changedKeysCount; i++) {
+                        table.put("key" + i, "changed value " + commit);
+                    }
+                    long startTime = System.nanoTime();
+                    table.commit();
+                    totalTime += System.nanoTime() - startTime;
+                }
+
+                System.out.println(
+                        String.format(
+                                "changed keys %4d: mean %8.3f ms; last commit: %s",
+                                changedKeysCount,
+                                totalTime / 1e6 / COMMITS_COUNT,
+                                table.getLastCommitMetrics()));
+            }
+            table.close();
+        } finally {
+            Utility.rm(root);
+        }
+    }
+}
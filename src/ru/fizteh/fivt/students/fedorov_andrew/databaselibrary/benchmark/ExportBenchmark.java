@@ -0,0 +1,148 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.benchmark;
+
+import ru.fizteh.fivt.storage.structured.Table;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.AutoCloseableProvider;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.BulkImporter;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.DBTableProviderFactory;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.ExportMetrics;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.TableExporter;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Utility;
+
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures export of a table snapshot in both formats against copying of the exported file, which bounds
+ * the speed by the disk. Meanwhile another thread makes small commits to the table; their latency is
+ * compared with commits made without the export.<br/>
+ * Run it where the log of the logging proxy cannot be created, so that calls are not logged.<br/>
+ * Usage: {@code ExportBenchmark [rows count]}.
+ */
+public final class ExportBenchmark {
+    private static final int DEFAULT_ROWS_COUNT = 1_000_000;
+    private static final List<Class<?>> COLUMN_TYPES = Arrays.asList(Integer.class, String.class, Long.class);
+    private static final int ROWS_PER_COMMIT = 10;
+
+    private ExportBenchmark() {
+
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rowsCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS_COUNT;
+
+        Path root = Files.createTempDirectory("export-benchmark");
+        try (DBTableProviderFactory factory = new DBTableProviderFactory()) {
+            AutoCloseableProvider provider = factory.create(root.resolve("db").toString());
+            Table table = provider.createTable("table", COLUMN_TYPES);
+
+            Path source = root.resolve("source.tsv");
+            try (BufferedWriter writer = Files.newBufferedWriter(source, StandardCharsets.UTF_8)) {
+                for (int i = 0; i < rowsCount; i++) {
+                    writer.write("key" + i + "\t" + i + "\tvalue of row number " + i + "\t" + (i * 31L));
+                    writer.newLine();
+                }
+            }
+            new BulkImporter(table).importFile(source, BulkImporter.Format.TSV);
+            Files.delete(source);
+
+            CommitLoop idleLoop = new CommitLoop(provider, table);
+            idleLoop.start();
+            Thread.sleep(1000);
+            idleLoop.stop();
+            System.out.println(String.format("%d rows; without export: %s", rowsCount, idleLoop));
+
+            for (TableExporter.Format format : TableExporter.Format.values()) {
+                Path file = root.resolve("table." + format.getName());
+
+                CommitLoop loop = new CommitLoop(provider, table);
+                loop.start();
+                ExportMetrics metrics = new TableExporter(table).exportFile(file, format);
+                loop.stop();
+
+                long startTime = System.nanoTime();
+                Files.copy(file, root.resolve("copy"), StandardCopyOption.REPLACE_EXISTING);
+                long copyTime = System.nanoTime() - startTime;
+
+                System.out.println(
+                        String.format(
+                                "%-5s: %6.1f MB/s, %5.2f s, %4d MB; file copy %6.1f MB/s; during export: %s",
+                                format.getName(),
+                                metrics.getMegabytesPerSecond(),
+                                metrics.getWallTimeNanos() / 1e9,
+                                metrics.getBytesCount() >> 20,
+                                metrics.getBytesCount() * 1e9 / copyTime / (1 << 20),
+                                loop));
+                Files.delete(file);
+            }
+            provider.close();
+        } finally {
+            Utility.rm(root);
+        }
+    }
+
+    /**
+     * Commits a few rows in a loop in background and measures latency of the commits.
+     */
+    private static final class CommitLoop {
+        private final AutoCloseableProvider provider;
+        private final Table table;
+        private final AtomicBoolean stopped = new AtomicBoolean();
+        private Thread thread;
+        private int commitsCount;
+        private long totalNanos;
+        private long maxNanos;
+        private volatile Exception failure;
+
+        CommitLoop(AutoCloseableProvider provider, Table table) {
+            this.provider = provider;
+            this.table = table;
+        }
+
+        void start() {
+            thread = new Thread(
+                    () -> {
+                        try {
+                            while (!stopped.get()) {
+                                for (int i = 0; i < ROWS_PER_COMMIT; i++) {
+                                    table.put(
+                                            "committed" + i,
+                                            provider.createFor(table, Arrays.asList(commitsCount, "value", 1L)));
+                                }
+                                long startTime = System.nanoTime();
+                                table.commit();
+                                long time = System.nanoTime() - startTime;
+                                commitsCount++;
+                                totalNanos += time;
+                                maxNanos = Math.max(maxNanos, time);
+                            }
+                        } catch (Exception exc) {
+                            failure = exc;
+                        }
+                    }, "Commit loop");
+            thread.start();
+        }
+
+        void stop() throws Exception {
+            stopped.set(true);
+            thread.join();
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "%d commits, average %.2f ms, max %.2f ms",
+                    commitsCount,
+                    commitsCount == 0 ? 0 : totalNanos / 1e6 / commitsCount,
+                    maxNanos / 1e6);
+        }
+    }
+}
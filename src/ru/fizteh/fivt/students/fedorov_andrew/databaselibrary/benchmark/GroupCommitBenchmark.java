@@ -0,0 +1,76 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.benchmark;
+
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.StringTableImpl;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.TableLayout;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.TableLayout.PartFormat;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Utility;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures commit throughput of a table in log format when many threads commit small changes at once.<br/>
+ * Usage: {@code GroupCommitBenchmark [commits per thread]}.
+ */
+public final class GroupCommitBenchmark {
+    private static final int DEFAULT_COMMITS_COUNT = 200;
+    private static final int[] THREADS_COUNTS = {1, 2, 4, 8, 16, 32};
+
+    private GroupCommitBenchmark() {
+
+    }
+
+    public static void main(String[] args) throws Exception {
+        int commitsCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_COMMITS_COUNT;
+
+        Path root = Files.createTempDirectory("group-commit-benchmark");
+        try {
+            System.out.println("Commits per thread: " + commitsCount);
+            for (int threadsCount : THREADS_COUNTS) {
+                measure(root.resolve("table" + threadsCount), threadsCount, commitsCount);
+            }
+        } finally {
+            Utility.rm(root);
+        }
+    }
+
+    private static void measure(Path tableRoot, int threadsCount, int commitsCount) throws Exception {
+        StringTableImpl table = StringTableImpl.createTable(tableRoot, TableLayout.DEFAULT.withFormat(PartFormat.LOG));
+        ExecutorService executor = Executors.newFixedThreadPool(threadsCount);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            long startTime = System.nanoTime();
+            for (int t = 0; t < threadsCount; t++) {
+                int thread = t;
+                futures.add(
+                        executor.submit(
+                                () -> {
+                                    for (int c = 0; c < commitsCount; c++) {
+                                        table.put("key" + thread + "_" + c, "value " + c);
+                                        table.commit();
+                                    }
+                                    return null;
+                                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            long time = System.nanoTime() - startTime;
+
+            System.out.println(
+                    String.format(
+                            "threads %2d: %8.0f commits/s; last batch: %s",
+                            threadsCount,
+                            threadsCount * commitsCount / (time / 1e9),
+                            table.getLastCommitMetrics()));
+        } finally {
+            executor.shutdown();
+            table.close();
+        }
+    }
+}
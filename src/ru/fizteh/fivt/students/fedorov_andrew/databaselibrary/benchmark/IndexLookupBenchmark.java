@@ -0,0 +1,117 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.benchmark;
+
+import ru.fizteh.fivt.storage.structured.Index;
+import ru.fizteh.fivt.storage.structured.Storeable;
+import ru.fizteh.fivt.storage.structured.Table;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.AutoCloseableProvider;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.DBTableProviderFactory;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.RowCodec;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.StringTableImpl;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.TableLayout.RowFormat;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.TableValidation;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Utility;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares finding a row by a column value with an index and with a full scan of the table ({@code list()},
+ * then reading and decoding each row). Also measures building the index and reading it back when the
+ * provider is opened again.<br/>
+ * Usage: {@code IndexLookupBenchmark [rows count]}.
+ */
+public final class IndexLookupBenchmark {
+    private static final int DEFAULT_ROWS_COUNT = 1_000_000;
+    private static final int INDEX_LOOKUPS_COUNT = 100_000;
+    private static final int SCAN_LOOKUPS_COUNT = 3;
+    private static final List<Class<?>> COLUMN_TYPES = Arrays.asList(String.class, Integer.class);
+
+    private IndexLookupBenchmark() {
+
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rowsCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS_COUNT;
+        // Rows are not validated when the provider is opened, to measure index reading alone.
+        System.setProperty(TableValidation.PROPERTY_NAME, TableValidation.ON_READ.name());
+
+        Path root = Files.createTempDirectory("index-lookup-benchmark");
+        try (DBTableProviderFactory factory = new DBTableProviderFactory()) {
+            Path tableRoot = root.resolve("table");
+            try (AutoCloseableProvider provider = factory.create(root.toString())) {
+                provider.createTable("table", COLUMN_TYPES);
+            }
+            StringTableImpl store = StringTableImpl.getTable(tableRoot, path -> true);
+            for (int i = 0; i < rowsCount; i++) {
+                store.put("key" + i, "[\"name " + i + "\", " + i + "]");
+            }
+            store.commit();
+            store.close();
+            System.out.println("Rows: " + rowsCount);
+
+            Random random = new Random(1);
+            try (AutoCloseableProvider provider = factory.create(root.toString())) {
+                Table table = provider.getTable("table");
+
+                long startTime = System.nanoTime();
+                provider.createIndex(table, 1, "numbers");
+                System.out.println(String.format("create index: %8.2f ms", (System.nanoTime() - startTime) / 1e6));
+
+                Index index = provider.getIndex("numbers");
+                long checksum = 0;
+                startTime = System.nanoTime();
+                for (int i = 0; i < INDEX_LOOKUPS_COUNT; i++) {
+                    checksum += index.get(String.valueOf(random.nextInt(rowsCount))).getIntAt(1);
+                }
+                System.out.println(
+                        String.format(
+                                "indexed lookup: mean %8.2f us (checksum %d)",
+                                (System.nanoTime() - startTime) / 1e3 / INDEX_LOOKUPS_COUNT,
+                                checksum));
+            }
+
+            StringTableImpl scannedStore = StringTableImpl.getTable(tableRoot, path -> true);
+            RowCodec codec = RowCodec.forFormat(RowFormat.JSON, COLUMN_TYPES);
+            long checksum = 0;
+            long startTime = System.nanoTime();
+            for (int i = 0; i < SCAN_LOOKUPS_COUNT; i++) {
+                checksum += scan(scannedStore, codec, random.nextInt(rowsCount));
+            }
+            System.out.println(
+                    String.format(
+                            "full scan lookup: mean %8.2f us (checksum %d)",
+                            (System.nanoTime() - startTime) / 1e3 / SCAN_LOOKUPS_COUNT,
+                            checksum));
+            scannedStore.close();
+
+            startTime = System.nanoTime();
+            try (AutoCloseableProvider provider = factory.create(root.toString())) {
+                Index index = provider.getIndex("numbers");
+                System.out.println(
+                        String.format(
+                                "open provider and read index: %8.2f ms (found %s)",
+                                (System.nanoTime() - startTime) / 1e6,
+                                index.get("1").getStringAt(0)));
+            }
+        } finally {
+            Utility.rm(root);
+        }
+    }
+
+    /**
+     * Finds the row with the given number as a user without indexes would do.
+     */
+    private static int scan(StringTableImpl store, RowCodec codec, int number) throws ParseException {
+        for (String key : store.list()) {
+            Storeable row = codec.decode(store.get(key));
+            if (row.getIntAt(1) == number) {
+                return row.getIntAt(1);
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,148 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.benchmark;
+
+import ru.fizteh.fivt.storage.structured.Storeable;
+import ru.fizteh.fivt.storage.structured.Table;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.AutoCloseableProvider;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.DBTableProviderFactory;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.json.JSONParsedObject;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.json.JSONParser;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Utility;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares parsing of typical rows by the general {@link JSONParser} followed by parsing of each value from its
+ * string, as rows were parsed before, with the single-pass parser behind
+ * {@link ru.fizteh.fivt.storage.structured.TableProvider#deserialize(Table, String) deserialize}.<br/>
+ * Run it where the log of the logging proxy cannot be created, otherwise logging of each call dominates.<br/>
+ * Usage: {@code JSONRowParserBenchmark [rows count]}.
+ */
+public final class JSONRowParserBenchmark {
+    private static final int DEFAULT_ROWS_COUNT = 200_000;
+    private static final int ROUNDS_COUNT = 5;
+    private static final List<Class<?>> COLUMN_TYPES = Arrays.asList(
+            String.class, Integer.class, Long.class, Double.class, Boolean.class, Byte.class, Float.class,
+            String.class);
+
+    private JSONRowParserBenchmark() {
+
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rowsCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS_COUNT;
+
+        String[] rows = new String[rowsCount];
+        for (int i = 0; i < rowsCount; i++) {
+            rows[i] = String.format(
+                    "[\"name of row %d\", %d, %d, %d.5, %b, %d, %d.25, %s]",
+                    i,
+                    i,
+                    i * 1000L,
+                    i,
+                    i % 2 == 0,
+                    i % 100,
+                    i % 1000,
+                    i % 3 == 0 ? "null" : "\"say \\\"" + i + "\\\"\"");
+        }
+
+        Path root = Files.createTempDirectory("json-row-parser-benchmark");
+        try (DBTableProviderFactory factory = new DBTableProviderFactory();
+             AutoCloseableProvider provider = factory.create(root.toString())) {
+            Table table = provider.createTable("table", COLUMN_TYPES);
+
+            long bestLegacy = Long.MAX_VALUE;
+            long bestSinglePass = Long.MAX_VALUE;
+            long legacyBytes = 0;
+            long singlePassBytes = 0;
+            long checksum = 0;
+
+            for (int round = 0; round < ROUNDS_COUNT; round++) {
+                long allocated = allocatedBytes();
+                long startTime = System.nanoTime();
+                for (String row : rows) {
+                    checksum += parseLegacy(provider.createFor(table), row).getIntAt(1);
+                }
+                bestLegacy = Math.min(bestLegacy, System.nanoTime() - startTime);
+                legacyBytes = allocatedBytes() - allocated;
+
+                allocated = allocatedBytes();
+                startTime = System.nanoTime();
+                for (String row : rows) {
+                    checksum += provider.deserialize(table, row).getIntAt(1);
+                }
+                bestSinglePass = Math.min(bestSinglePass, System.nanoTime() - startTime);
+                singlePassBytes = allocatedBytes() - allocated;
+            }
+
+            System.out.println(
+                    String.format("%d rows of %d columns (checksum %d):", rowsCount, COLUMN_TYPES.size(), checksum));
+            report("JSONParser", bestLegacy, legacyBytes, rowsCount);
+            report("single pass", bestSinglePass, singlePassBytes, rowsCount);
+        } finally {
+            Utility.rm(root);
+        }
+    }
+
+    /**
+     * Parses the row the way it was done before the single-pass parser.
+     */
+    private static Storeable parseLegacy(Storeable storeable, String data) throws ParseException {
+        Object[] values = JSONParser.parseJSON(data.substring(data.indexOf('['), data.lastIndexOf(']') + 1))
+                .asArray();
+        for (int i = 0; i < values.length; i++) {
+            Object value = values[i];
+            if (value instanceof JSONParsedObject) {
+                throw new ParseException("Complex types are not supported", i);
+            }
+            if (value != null) {
+                Class<?> type = COLUMN_TYPES.get(i);
+                String str = value.toString();
+                if (type == String.class) {
+                    str = ('\"' + str + '\"').substring(1, str.length() + 1);
+                    value = str;
+                } else if (type == Integer.class) {
+                    value = Integer.parseInt(str);
+                } else if (type == Long.class) {
+                    value = Long.parseLong(str);
+                } else if (type == Byte.class) {
+                    value = Byte.parseByte(str);
+                } else if (type == Double.class) {
+                    value = Double.parseDouble(str);
+                } else if (type == Float.class) {
+                    value = Float.parseFloat(str);
+                } else {
+                    value = Boolean.parseBoolean(str);
+                }
+            }
+            storeable.setColumnAt(i, value);
+        }
+        return storeable;
+    }
+
+    private static void report(String caseName, long time, long allocatedBytes, int rowsCount) {
+        System.out.println(
+                String.format(
+                        "  %-12s: %8.1f ms, %6.0f ns and %6d bytes allocated per row",
+                        caseName,
+                        time / 1e6,
+                        (double) time / rowsCount,
+                        allocatedBytes / rowsCount));
+    }
+
+    /**
+     * Returns number of bytes allocated by the current thread or 0 if the JVM does not count them.
+     */
+    private static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        } else {
+            return 0;
+        }
+    }
+}
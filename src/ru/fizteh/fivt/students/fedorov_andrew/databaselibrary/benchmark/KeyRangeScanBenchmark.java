@@ -0,0 +1,115 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.benchmark;
+
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.ScannableTable;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.StringTableImpl;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.TableLayout;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.TableLayout.KeyOrder;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Utility;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Compares prefix scans of a table with listing all keys, filtering and sorting them, for both key orders.
+ * Also measures commit of one record, which keeps sorted snapshots up to date in sorted tables and drops
+ * them in hash ordered ones, and the first scan after it.<br/>
+ * Usage: {@code KeyRangeScanBenchmark [records count]}.
+ */
+public final class KeyRangeScanBenchmark {
+    private static final int DEFAULT_RECORDS_COUNT = 500_000;
+    private static final int ROUNDS_COUNT = 20;
+    /**
+     * Prefix that matches 1/1000 of the keys.
+     */
+    private static final String PREFIX = "key123";
+
+    private KeyRangeScanBenchmark() {
+
+    }
+
+    public static void main(String[] args) throws IOException {
+        int recordsCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_RECORDS_COUNT;
+
+        Path root = Files.createTempDirectory("key-range-scan-benchmark");
+        try {
+            for (KeyOrder keyOrder : KeyOrder.values()) {
+                StringTableImpl table = StringTableImpl.createTable(
+                        root.resolve(keyOrder.name()), TableLayout.DEFAULT.withKeyOrder(keyOrder));
+                for (int i = 0; i < recordsCount; i++) {
+                    table.put(String.format("key%06d", i), "value of record number " + i);
+                }
+                long startTime = System.nanoTime();
+                table.commit();
+                long fillTime = System.nanoTime() - startTime;
+
+                long commitTime = 0;
+                long firstScanTime = 0;
+                long scanTime = 0;
+                long filterTime = 0;
+                long checksum = 0;
+                int found = 0;
+
+                for (int round = 0; round < ROUNDS_COUNT; round++) {
+                    table.put(PREFIX + "x", "round " + round);
+                    startTime = System.nanoTime();
+                    table.commit();
+                    commitTime += System.nanoTime() - startTime;
+
+                    startTime = System.nanoTime();
+                    checksum += consume(table.prefixScan(PREFIX));
+                    firstScanTime += System.nanoTime() - startTime;
+
+                    startTime = System.nanoTime();
+                    Iterator<Map.Entry<String, String>> rows = table.prefixScan(PREFIX);
+                    found = 0;
+                    while (rows.hasNext()) {
+                        checksum += rows.next().getValue().length();
+                        found++;
+                    }
+                    scanTime += System.nanoTime() - startTime;
+
+                    startTime = System.nanoTime();
+                    String end = ScannableTable.prefixEnd(PREFIX);
+                    List<String> keys = table.list().stream().filter(
+                            key -> key.compareTo(PREFIX) >= 0 && key.compareTo(end) < 0).sorted().collect(
+                            Collectors.toList());
+                    for (String key : keys) {
+                        checksum -= table.get(key).length();
+                    }
+                    filterTime += System.nanoTime() - startTime;
+                }
+
+                System.out.println(
+                        String.format(
+                                "%-6s %d records: fill commit %6.0f ms, one-record commit %7.2f ms, "
+                                + "first scan %7.3f ms, scan %7.3f ms (%d rows), list+filter %7.2f ms "
+                                + "(checksum %d)",
+                                keyOrder,
+                                recordsCount,
+                                fillTime / 1e6,
+                                commitTime / 1e6 / ROUNDS_COUNT,
+                                firstScanTime / 1e6 / ROUNDS_COUNT,
+                                scanTime / 1e6 / ROUNDS_COUNT,
+                                found,
+                                filterTime / 1e6 / ROUNDS_COUNT,
+                                checksum));
+                table.close();
+            }
+        } finally {
+            Utility.rm(root);
+        }
+    }
+
+    private static long consume(Iterator<Map.Entry<String, String>> rows) {
+        long checksum = 0;
+        while (rows.hasNext()) {
+            checksum += rows.next().getValue().length();
+        }
+        return checksum;
+    }
+}
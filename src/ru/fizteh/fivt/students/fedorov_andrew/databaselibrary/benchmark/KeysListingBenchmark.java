@@ -0,0 +1,103 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.benchmark;
+
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.KeysPage;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.StringTableImpl;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Utility;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Compares listing all keys of a table by {@code list()} with listing them page by page as the table grows:
+ * time, bytes allocated by the listing thread and the largest number of keys held at once.<br/>
+ * Usage: {@code KeysListingBenchmark [page size]}.
+ */
+public final class KeysListingBenchmark {
+    private static final int DEFAULT_PAGE_SIZE = 1024;
+    private static final int[] RECORDS_COUNTS = {10_000, 100_000, 500_000};
+    private static final int ROUNDS_COUNT = 5;
+
+    private KeysListingBenchmark() {
+
+    }
+
+    public static void main(String[] args) throws IOException {
+        int pageSize = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PAGE_SIZE;
+
+        Path root = Files.createTempDirectory("keys-listing-benchmark");
+        try {
+            StringTableImpl table = StringTableImpl.createTable(root.resolve("table"));
+            System.out.println("Page size: " + pageSize + ", rounds per case: " + ROUNDS_COUNT);
+
+            int recordsCount = 0;
+            for (int targetCount : RECORDS_COUNTS) {
+                for (; recordsCount < targetCount; recordsCount++) {
+                    table.put("key" + recordsCount, "value of record number " + recordsCount);
+                }
+                table.commit();
+
+                long listTime = 0;
+                long listBytes = 0;
+                long pagesTime = 0;
+                long pagesBytes = 0;
+                int maxPageSize = 0;
+                long checksum = 0;
+
+                for (int round = 0; round < ROUNDS_COUNT; round++) {
+                    long startBytes = allocatedBytes();
+                    long startTime = System.nanoTime();
+                    List<String> keys = table.list();
+                    for (String key : keys) {
+                        checksum += key.length();
+                    }
+                    listTime += System.nanoTime() - startTime;
+                    listBytes += allocatedBytes() - startBytes;
+
+                    startBytes = allocatedBytes();
+                    startTime = System.nanoTime();
+                    KeysPage.Position position = KeysPage.FIRST_POSITION;
+                    while (position != KeysPage.END_POSITION) {
+                        KeysPage page = table.listKeys(position, pageSize);
+                        for (String key : page.getKeys()) {
+                            checksum -= key.length();
+                        }
+                        maxPageSize = Math.max(maxPageSize, page.getKeys().size());
+                        position = page.getNextPosition();
+                    }
+                    pagesTime += System.nanoTime() - startTime;
+                    pagesBytes += allocatedBytes() - startBytes;
+                }
+
+                System.out.println(
+                        String.format(
+                                "records %6d: list() %7.2f ms, %6.2f MB, %6d keys at once; "
+                                + "pages %7.2f ms, %6.2f MB, %6d keys at once (checksum %d)",
+                                recordsCount,
+                                listTime / 1e6 / ROUNDS_COUNT,
+                                listBytes / 1e6 / ROUNDS_COUNT,
+                                recordsCount,
+                                pagesTime / 1e6 / ROUNDS_COUNT,
+                                pagesBytes / 1e6 / ROUNDS_COUNT,
+                                maxPageSize,
+                                checksum));
+            }
+            table.close();
+        } finally {
+            Utility.rm(root);
+        }
+    }
+
+    /**
+     * Returns bytes allocated by the current thread or 0 if the JVM cannot tell it.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
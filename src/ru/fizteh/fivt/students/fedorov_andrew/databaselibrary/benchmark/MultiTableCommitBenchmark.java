@@ -0,0 +1,99 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.benchmark;
+
+import ru.fizteh.fivt.storage.structured.Table;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.AutoCloseableProvider;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.DBTableProviderFactory;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Utility;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Measures throughput of commits that change several tables: each table committed by its own
+ * {@link Table#commit()} versus all of them committed at once by {@link AutoCloseableProvider#commit}. Time
+ * of closing the provider, which writes changes that are still in the commit log to part files, is reported
+ * separately.<br/>
+ * Run it where the log of the logging proxy cannot be created, so that calls are not logged.<br/>
+ * Usage: {@code MultiTableCommitBenchmark [commits count] [changed rows per table]}.
+ */
+public final class MultiTableCommitBenchmark {
+    private static final int DEFAULT_COMMITS_COUNT = 200;
+    private static final int DEFAULT_CHANGES_PER_TABLE = 10;
+    private static final int[] TABLES_COUNTS = {1, 4, 16};
+    private static final int ROWS_PER_TABLE = 2000;
+
+    private MultiTableCommitBenchmark() {
+
+    }
+
+    public static void main(String[] args) throws Exception {
+        int commitsCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_COMMITS_COUNT;
+        int changesPerTable = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_CHANGES_PER_TABLE;
+
+        System.out.println(
+                String.format(
+                        "%d commits, %d changed rows per table, %d rows in each table",
+                        commitsCount,
+                        changesPerTable,
+                        ROWS_PER_TABLE));
+        for (int tablesCount : TABLES_COUNTS) {
+            for (boolean atOnce : new boolean[] {false, true}) {
+                measure(tablesCount, atOnce, commitsCount, changesPerTable);
+            }
+        }
+    }
+
+    private static void measure(int tablesCount, boolean atOnce, int commitsCount, int changesPerTable)
+            throws Exception {
+        Path root = Files.createTempDirectory("multi-table-commit-benchmark");
+        try (DBTableProviderFactory factory = new DBTableProviderFactory()) {
+            AutoCloseableProvider provider = factory.create(root.toString());
+            List<Table> tables = new ArrayList<>(tablesCount);
+            for (int t = 0; t < tablesCount; t++) {
+                Table table = provider.createTable("table" + t, Arrays.asList(Integer.class, String.class));
+                for (int i = 0; i < ROWS_PER_TABLE; i++) {
+                    table.put("key" + i, provider.createFor(table, Arrays.asList(i, "initial value " + i)));
+                }
+                table.commit();
+                tables.add(table);
+            }
+
+            long startTime = System.nanoTime();
+            for (int commit = 0; commit < commitsCount; commit++) {
+                for (Table table : tables) {
+                    for (int i = 0; i < changesPerTable; i++) {
+                        int row = ThreadLocalRandom.current().nextInt(ROWS_PER_TABLE);
+                        table.put("key" + row, provider.createFor(table, Arrays.asList(commit, "changed " + row)));
+                    }
+                }
+                if (atOnce) {
+                    provider.commit(tables);
+                } else {
+                    for (Table table : tables) {
+                        table.commit();
+                    }
+                }
+            }
+            long commitsTime = System.nanoTime() - startTime;
+
+            startTime = System.nanoTime();
+            provider.close();
+            long closeTime = System.nanoTime() - startTime;
+
+            System.out.println(
+                    String.format(
+                            "%2d tables, %-18s: %8.1f commits/s, %7.3f ms per commit, close %7.1f ms",
+                            tablesCount,
+                            atOnce ? "provider commit" : "commit of each",
+                            commitsCount * 1e9 / commitsTime,
+                            commitsTime / 1e6 / commitsCount,
+                            closeTime / 1e6));
+        } finally {
+            Utility.rm(root);
+        }
+    }
+}
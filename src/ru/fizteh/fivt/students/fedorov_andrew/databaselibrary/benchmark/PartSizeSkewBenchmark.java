@@ -0,0 +1,84 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.benchmark;
+
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.StringTableImpl;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.TableLayout;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Utility;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Shows how evenly table part files are filled with keys that share common prefixes, for first byte
+ * hashing and for full key hashing.<br/>
+ * Usage: {@code PartSizeSkewBenchmark [keys count]}.
+ */
+public final class PartSizeSkewBenchmark {
+    private static final String[] PREFIXES = {"user:", "order:", "item:"};
+    private static final int DEFAULT_KEYS_COUNT = 100_000;
+
+    private PartSizeSkewBenchmark() {
+
+    }
+
+    public static void main(String[] args) throws IOException {
+        int keysCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_KEYS_COUNT;
+
+        Path root = Files.createTempDirectory("skew-benchmark");
+        try {
+            System.out.println("Keys: " + keysCount + ", prefixes: " + String.join(" ", PREFIXES));
+            report("first byte", measure(root.resolve("legacy"), TableLayout.LEGACY, keysCount));
+            report("full key", measure(root.resolve("full"), TableLayout.DEFAULT, keysCount));
+        } finally {
+            Utility.rm(root);
+        }
+    }
+
+    private static List<Long> measure(Path tableRoot, TableLayout layout, int keysCount) throws IOException {
+        StringTableImpl table = StringTableImpl.createTable(tableRoot, layout);
+        for (int i = 0; i < keysCount; i++) {
+            table.put(PREFIXES[i % PREFIXES.length] + i, "value of record number " + i);
+        }
+
+        long startTime = System.nanoTime();
+        table.commit();
+        long commitMillis = (System.nanoTime() - startTime) / 1_000_000;
+        System.out.println(layout + ": commit took " + commitMillis + " ms");
+
+        List<Long> sizes = new ArrayList<>(layout.getPartsCount());
+        try (Stream<Path> files = Files.walk(tableRoot)) {
+            for (Path file : files.filter(path -> path.toString().endsWith(".dat"))
+                                  .collect(Collectors.toList())) {
+                sizes.add(Files.size(file));
+            }
+        }
+        while (sizes.size() < layout.getPartsCount()) {
+            sizes.add(0L);
+        }
+        return sizes;
+    }
+
+    private static void report(String name, List<Long> sizes) {
+        long total = sizes.stream().mapToLong(Long::longValue).sum();
+        long max = sizes.stream().mapToLong(Long::longValue).max().orElse(0);
+        long nonEmpty = sizes.stream().filter(size -> size > 0).count();
+        double mean = (double) total / sizes.size();
+        double variance = sizes.stream().mapToDouble(size -> (size - mean) * (size - mean)).sum() / sizes.size();
+
+        System.out.println(
+                String.format(
+                        "%-10s total %d bytes, non-empty parts %d/%d, largest part %d bytes, "
+                        + "max/mean %.1f, stddev %.0f bytes",
+                        name,
+                        total,
+                        nonEmpty,
+                        sizes.size(),
+                        max,
+                        mean == 0 ? 0 : max / mean,
+                        Math.sqrt(variance)));
+    }
+}
@@ -0,0 +1,91 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.benchmark;
+
+import ru.fizteh.fivt.storage.structured.Table;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.AutoCloseableProvider;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.AutoCloseableTableProviderFactory;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.DBTableProviderFactory;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.TableValidation;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Utility;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures how long it takes to open a database with many large tables for every {@link TableValidation
+ * validation mode}: time until the provider is created, time until the first row is read and time until
+ * background validation finishes.<br/>
+ * Usage: {@code ProviderStartupBenchmark [tables count] [rows per table]}.
+ */
+public final class ProviderStartupBenchmark {
+    private static final int DEFAULT_TABLES_COUNT = 20;
+    private static final int DEFAULT_ROWS_COUNT = 20_000;
+    private static final List<Class<?>> COLUMN_TYPES = Arrays.asList(Integer.class, String.class, Double.class);
+
+    private ProviderStartupBenchmark() {
+
+    }
+
+    public static void main(String[] args) throws Exception {
+        int tablesCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_TABLES_COUNT;
+        int rowsCount = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ROWS_COUNT;
+
+        Path root = Files.createTempDirectory("startup-benchmark");
+        try {
+            fill(root, tablesCount, rowsCount);
+
+            System.out.println("Tables: " + tablesCount + ", rows per table: " + rowsCount);
+            // Warming up.
+            measure(root, TableValidation.EAGER, true);
+
+            for (TableValidation validation : TableValidation.values()) {
+                measure(root, validation, false);
+            }
+        } finally {
+            System.clearProperty(TableValidation.PROPERTY_NAME);
+            Utility.rm(root);
+        }
+    }
+
+    private static void fill(Path root, int tablesCount, int rowsCount) throws IOException {
+        try (AutoCloseableTableProviderFactory factory = new DBTableProviderFactory();
+             AutoCloseableProvider provider = factory.create(root.toString())) {
+            for (int t = 0; t < tablesCount; t++) {
+                Table table = provider.createTable("table" + t, COLUMN_TYPES);
+                for (int i = 0; i < rowsCount; i++) {
+                    table.put("key" + i, provider.createFor(table, Arrays.asList(i, "value " + i, i / 3.0)));
+                }
+                table.commit();
+            }
+        }
+    }
+
+    private static void measure(Path root, TableValidation validation, boolean quiet) throws Exception {
+        System.setProperty(TableValidation.PROPERTY_NAME, validation.name());
+
+        try (AutoCloseableTableProviderFactory factory = new DBTableProviderFactory()) {
+            long startTime = System.nanoTime();
+            AutoCloseableProvider provider = factory.create(root.toString());
+            long createTime = System.nanoTime() - startTime;
+
+            provider.getTable("table0").get("key0");
+            long firstReadTime = System.nanoTime() - startTime;
+
+            provider.awaitValidation();
+            long validatedTime = System.nanoTime() - startTime;
+
+            if (!quiet) {
+                System.out.println(
+                        String.format(
+                                "%-10s provider created %8.1f ms, first row read %8.1f ms, "
+                                + "all tables validated %8.1f ms",
+                                validation,
+                                createTime / 1e6,
+                                firstReadTime / 1e6,
+                                validatedTime / 1e6));
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.benchmark;
+
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.AsyncLogWriter;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.LoggingProxyFactoryXML;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Measures latency of calls through the logging proxy that writes the log to a file synchronously, through
+ * {@link AsyncLogWriter} with both overflow policies and with sampling.<br/>
+ * Usage: {@code ProxyLogBenchmark [calls count]}.
+ */
+public final class ProxyLogBenchmark {
+    private static final int DEFAULT_CALLS_COUNT = 200_000;
+    private static final int KEYS_COUNT = 1000;
+    private static final int QUEUE_CAPACITY = 8192;
+    private static final int BATCH_SIZE = 256;
+    private static final int SAMPLING_PERIOD = 100;
+    private static final double PERCENTILE = 0.99;
+
+    private ProxyLogBenchmark() {
+
+    }
+
+    public static void main(String[] args) throws Exception {
+        int callsCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CALLS_COUNT;
+        Path log = Files.createTempFile("proxy-log-benchmark", ".log");
+        try {
+            System.out.println(String.format("%d calls of get and put:", callsCount));
+            measureSync("sync", log, callsCount, 1);
+            measureAsync("async block", log, callsCount, AsyncLogWriter.OverflowPolicy.BLOCK);
+            measureAsync("async drop", log, callsCount, AsyncLogWriter.OverflowPolicy.DROP);
+            measureSync("sync 1/" + SAMPLING_PERIOD, log, callsCount, SAMPLING_PERIOD);
+        } finally {
+            Files.deleteIfExists(log);
+        }
+    }
+
+    private static Writer open(Path log) throws IOException {
+        return new OutputStreamWriter(new FileOutputStream(log.toFile()));
+    }
+
+    /**
+     * Casts the proxy of a map of strings, which is created for the raw interface.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, String> asStringMap(Object proxy) {
+        return (Map<String, String>) proxy;
+    }
+
+    private static void measureSync(String caseName, Path log, int callsCount, int samplingPeriod)
+            throws IOException {
+        LoggingProxyFactoryXML factory = new LoggingProxyFactoryXML();
+        factory.setSamplingPeriod(samplingPeriod);
+        try (Writer writer = open(log)) {
+            Map<String, String> map = asStringMap(factory.wrap(writer, new HashMap<>(), Map.class));
+            report(caseName, run(map, callsCount), "");
+        }
+    }
+
+    private static void measureAsync(String caseName, Path log, int callsCount, AsyncLogWriter.OverflowPolicy policy)
+            throws Exception {
+        LoggingProxyFactoryXML factory = new LoggingProxyFactoryXML();
+        AsyncLogWriter writer = new AsyncLogWriter(open(log), QUEUE_CAPACITY, policy, BATCH_SIZE);
+        try {
+            Map<String, String> map = asStringMap(factory.wrap(writer, new HashMap<>(), Map.class));
+            long[] latencies = run(map, callsCount);
+            writer.flush();
+            report(
+                    caseName,
+                    latencies,
+                    String.format(", %d written, %d dropped", writer.getWrittenCount(), writer.getDroppedCount()));
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static long[] run(Map<String, String> map, int callsCount) {
+        long[] latencies = new long[callsCount];
+        for (int i = 0; i < callsCount; i++) {
+            String key = "key" + i % KEYS_COUNT;
+            long startTime = System.nanoTime();
+            if ((i & 1) == 0) {
+                map.put(key, "value" + i);
+            } else {
+                map.get(key);
+            }
+            latencies[i] = System.nanoTime() - startTime;
+        }
+        return latencies;
+    }
+
+    private static void report(String caseName, long[] latencies, String extra) {
+        long total = 0;
+        for (long latency : latencies) {
+            total += latency;
+        }
+        Arrays.sort(latencies);
+        System.out.println(
+                String.format(
+                        "  %-12s: mean %6.0f ns, p99 %7d ns%s",
+                        caseName,
+                        (double) total / latencies.length,
+                        latencies[(int) (latencies.length * PERCENTILE)],
+                        extra));
+    }
+}
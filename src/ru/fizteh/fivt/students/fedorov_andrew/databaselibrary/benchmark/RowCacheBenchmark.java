@@ -0,0 +1,107 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.benchmark;
+
+import ru.fizteh.fivt.storage.structured.Table;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.AutoCloseableProvider;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.DBTableProviderFactory;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.StoreableTableImpl;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.StringTableImpl;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.TableValidation;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Utility;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures reads of a structured table with keys chosen by Zipf distribution, with rows decoded on each read
+ * and with the cache of decoded rows.<br/>
+ * Usage: {@code RowCacheBenchmark [rows count] [reads count] [cache size]}.
+ */
+public final class RowCacheBenchmark {
+    private static final int DEFAULT_ROWS_COUNT = 100_000;
+    private static final int DEFAULT_READS_COUNT = 1_000_000;
+    private static final int DEFAULT_CACHE_SIZE = 8192;
+    private static final double ZIPF_EXPONENT = 1.0;
+    private static final int ROUNDS_COUNT = 3;
+    private static final List<Class<?>> COLUMN_TYPES =
+            Arrays.asList(String.class, Integer.class, Long.class, Double.class, Boolean.class);
+
+    private RowCacheBenchmark() {
+
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rowsCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS_COUNT;
+        int readsCount = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_READS_COUNT;
+        int cacheSize = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_CACHE_SIZE;
+        System.setProperty(TableValidation.PROPERTY_NAME, TableValidation.ON_READ.name());
+
+        Path root = Files.createTempDirectory("row-cache-benchmark");
+        try (DBTableProviderFactory factory = new DBTableProviderFactory()) {
+            try (AutoCloseableProvider provider = factory.create(root.toString())) {
+                provider.createTable("table", COLUMN_TYPES);
+            }
+            StringTableImpl store = StringTableImpl.getTable(root.resolve("table"), path -> true);
+            for (int i = 0; i < rowsCount; i++) {
+                store.put(
+                        "key" + i,
+                        String.format("[\"name of row %d\", %d, %d, %d.5, %b]", i, i, i * 1000L, i, i % 2 == 0));
+            }
+            store.commit();
+            store.close();
+
+            String[] keys = zipfKeys(rowsCount, readsCount);
+            System.out.println(String.format("Rows: %d, reads: %d, cache size: %d", rowsCount, readsCount, cacheSize));
+
+            System.clearProperty(StoreableTableImpl.ROW_CACHE_SIZE_PROPERTY_NAME);
+            measure(factory, root, keys, "decode on read");
+            System.setProperty(StoreableTableImpl.ROW_CACHE_SIZE_PROPERTY_NAME, String.valueOf(cacheSize));
+            measure(factory, root, keys, "row cache");
+        } finally {
+            Utility.rm(root);
+        }
+    }
+
+    private static String[] zipfKeys(int rowsCount, int readsCount) {
+        double[] cumulative = new double[rowsCount];
+        double sum = 0;
+        for (int rank = 0; rank < rowsCount; rank++) {
+            sum += 1 / Math.pow(rank + 1, ZIPF_EXPONENT);
+            cumulative[rank] = sum;
+        }
+
+        Random random = new Random(1);
+        String[] keys = new String[readsCount];
+        for (int i = 0; i < readsCount; i++) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            keys[i] = "key" + Math.min(rowsCount - 1, index < 0 ? -index - 1 : index);
+        }
+        return keys;
+    }
+
+    private static void measure(DBTableProviderFactory factory, Path root, String[] keys, String caseName)
+            throws Exception {
+        try (AutoCloseableProvider provider = factory.create(root.toString())) {
+            Table table = provider.getTable("table");
+            long checksum = 0;
+            long bestTime = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS_COUNT; round++) {
+                long startTime = System.nanoTime();
+                for (String key : keys) {
+                    checksum += table.get(key).getIntAt(1);
+                }
+                bestTime = Math.min(bestTime, System.nanoTime() - startTime);
+            }
+            System.out.println(
+                    String.format(
+                            "%-15s: best of %d rounds %8.1f ms, %.2f us per read (checksum %d)",
+                            caseName,
+                            ROUNDS_COUNT,
+                            bestTime / 1e6,
+                            bestTime / 1e3 / keys.length,
+                            checksum));
+        }
+    }
+}
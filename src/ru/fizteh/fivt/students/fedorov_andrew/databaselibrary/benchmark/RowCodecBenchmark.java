@@ -0,0 +1,117 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.benchmark;
+
+import ru.fizteh.fivt.storage.structured.Storeable;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.RowCodec;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.StringTableImpl;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.TableLayout;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.TableLayout.RowFormat;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Utility;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compares row formats: encoding and decoding throughput, mean encoded row size and size of a committed
+ * table on disk.<br/>
+ * Usage: {@code RowCodecBenchmark [rows count]}.
+ */
+public final class RowCodecBenchmark {
+    private static final int DEFAULT_ROWS_COUNT = 200_000;
+    private static final int ROUNDS_COUNT = 5;
+    private static final List<Class<?>> COLUMN_TYPES = Arrays.asList(
+            Integer.class, Long.class, Double.class, Boolean.class, String.class, String.class);
+
+    private RowCodecBenchmark() {
+
+    }
+
+    public static void main(String[] args) throws IOException, ParseException {
+        int rowsCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS_COUNT;
+
+        RowCodec jsonCodec = RowCodec.forFormat(RowFormat.JSON, COLUMN_TYPES);
+        Storeable[] rows = new Storeable[rowsCount];
+        for (int i = 0; i < rowsCount; i++) {
+            rows[i] = jsonCodec.decode(
+                    String.format(
+                            "[%d, %d, %s, %b, \"name of \\\"record\\\" %d\", %s]",
+                            i,
+                            i * 1_000_003L,
+                            i / 7.0,
+                            i % 2 == 0,
+                            i,
+                            i % 3 == 0 ? "null" : "\"comment " + i + "\""));
+        }
+        System.out.println(
+                "Rows: " + rowsCount + ", rounds: " + ROUNDS_COUNT + ", columns: "
+                + COLUMN_TYPES.stream().map(Class::getSimpleName).collect(Collectors.joining(" ")));
+
+        Path root = Files.createTempDirectory("row-codec-benchmark");
+        try {
+            for (int attempt = 0; attempt < 2; attempt++) {
+                for (RowFormat format : RowFormat.values()) {
+                    measure(format, rows, root.resolve(format.name() + attempt));
+                }
+            }
+        } finally {
+            Utility.rm(root);
+        }
+    }
+
+    private static void measure(RowFormat format, Storeable[] rows, Path tableRoot)
+            throws IOException, ParseException {
+        RowCodec codec = RowCodec.forFormat(format, COLUMN_TYPES);
+        String[] encoded = new String[rows.length];
+
+        long startTime = System.nanoTime();
+        for (int round = 0; round < ROUNDS_COUNT; round++) {
+            for (int i = 0; i < rows.length; i++) {
+                encoded[i] = codec.encode(rows[i]);
+            }
+        }
+        long encodeTime = System.nanoTime() - startTime;
+
+        long checksum = 0;
+        startTime = System.nanoTime();
+        for (int round = 0; round < ROUNDS_COUNT; round++) {
+            for (String data : encoded) {
+                checksum += codec.decode(data).getIntAt(0);
+            }
+        }
+        long decodeTime = System.nanoTime() - startTime;
+
+        long encodedBytes = 0;
+        for (String data : encoded) {
+            encodedBytes += data.getBytes(StandardCharsets.UTF_8).length;
+        }
+
+        StringTableImpl table =
+                StringTableImpl.createTable(tableRoot, TableLayout.DEFAULT.withRowFormat(format));
+        for (int i = 0; i < rows.length; i++) {
+            table.put("key" + i, encoded[i]);
+        }
+        table.commit();
+        table.close();
+        long diskBytes;
+        try (Stream<Path> files = Files.walk(tableRoot)) {
+            diskBytes = files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        }
+
+        System.out.println(
+                String.format(
+                        "%-6s encode %7.0f rows/ms, decode %7.0f rows/ms, %6.2f bytes/row, "
+                        + "table on disk %6.2f MB (checksum %d)",
+                        format,
+                        (double) rows.length * ROUNDS_COUNT / (encodeTime / 1e6),
+                        (double) rows.length * ROUNDS_COUNT / (decodeTime / 1e6),
+                        (double) encodedBytes / rows.length,
+                        diskBytes / 1e6,
+                        checksum));
+    }
+}
@@ -0,0 +1,116 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.benchmark;
+
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.json.JSONComplexObject;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.json.JSONField;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.json.JSONMaker;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.xml.XMLComplexObject;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.xml.XMLField;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.xml.XMLMaker;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.IntFunction;
+
+/**
+ * Measures {@link JSONMaker} and {@link XMLMaker} on reports like those of the logging proxy and on plain
+ * arrays like serialized rows.<br/>
+ * Usage: {@code SerializationBenchmark [calls count]}.
+ */
+public final class SerializationBenchmark {
+    private static final int DEFAULT_CALLS_COUNT = 500_000;
+    private static final int ROUNDS_COUNT = 5;
+
+    private SerializationBenchmark() {
+
+    }
+
+    public static void main(String[] args) {
+        int callsCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CALLS_COUNT;
+
+        measure("JSON report", callsCount, i -> JSONMaker.makeJSON(new JSONReport(i)));
+        measure("JSON row", callsCount, i -> JSONMaker.makeJSON(row(i)));
+        measure("XML report", callsCount, i -> XMLMaker.makeXML(new XMLReport(i), "invoke"));
+    }
+
+    private static Object[] row(int seed) {
+        return new Object[] {"name of row " + seed, seed, seed * 1000L, seed + 0.5, seed % 2 == 0, null};
+    }
+
+    private static void measure(String caseName, int callsCount, IntFunction<String> call) {
+        long bestTime = Long.MAX_VALUE;
+        long bytes = 0;
+        long checksum = 0;
+        for (int round = 0; round < ROUNDS_COUNT; round++) {
+            long allocated = allocatedBytes();
+            long startTime = System.nanoTime();
+            for (int i = 0; i < callsCount; i++) {
+                checksum += call.apply(i).length();
+            }
+            bestTime = Math.min(bestTime, System.nanoTime() - startTime);
+            bytes = allocatedBytes() - allocated;
+        }
+        System.out.println(
+                String.format(
+                        "%-12s: %8.1f ms, %6.0f ns and %6d bytes allocated per call (checksum %d)",
+                        caseName,
+                        bestTime / 1e6,
+                        (double) bestTime / callsCount,
+                        bytes / callsCount,
+                        checksum));
+    }
+
+    /**
+     * Returns number of bytes allocated by the current thread or 0 if the JVM does not count them.
+     */
+    private static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        } else {
+            return 0;
+        }
+    }
+
+    @JSONComplexObject
+    private static class JSONReport {
+        @JSONField
+        final long timestamp = 1_400_000_000_000L;
+
+        @JSONField(name = "class")
+        final String invokeeClass = "StoreableTableImpl";
+
+        @JSONField(name = "method")
+        final String invokeeMethod = "put";
+
+        @JSONField
+        final Object[] arguments;
+
+        @JSONField
+        final Object returnValue = null;
+
+        JSONReport(int seed) {
+            arguments = new Object[] {"key" + seed, row(seed)};
+        }
+    }
+
+    @XMLComplexObject
+    private static class XMLReport {
+        @XMLField(inline = true)
+        final long timestamp = 1_400_000_000_000L;
+
+        @XMLField(name = "class", inline = true)
+        final String invokeeClass = "StoreableTableImpl";
+
+        @XMLField(name = "name", inline = true)
+        final String invokeeMethod = "put";
+
+        @XMLField(childName = "argument", nullPolicy = XMLField.NULLPOLICY_EMPTY_IF_NULL)
+        final Object[] arguments;
+
+        @XMLField(name = "return", nullPolicy = XMLField.NULLPOLICY_IGNORE_IF_NULL)
+        final Object returnValue = null;
+
+        XMLReport(int seed) {
+            arguments = new Object[] {"key" + seed, "value" + seed};
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.benchmark;
+
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.StringTableImpl;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Utility;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Measures latency of {@code size()} and {@code list()} of a table as the number of committed records grows;
+ * each call is made by a transaction having a few uncommitted changes on top of the committed snapshot.<br/>
+ * Usage: {@code SnapshotReadBenchmark [calls per case]}.
+ */
+public final class SnapshotReadBenchmark {
+    private static final int DEFAULT_CALLS_COUNT = 50;
+    private static final int[] RECORDS_COUNTS = {10_000, 50_000, 100_000, 500_000};
+    private static final int UNCOMMITTED_CHANGES_COUNT = 100;
+
+    private SnapshotReadBenchmark() {
+
+    }
+
+    public static void main(String[] args) throws IOException {
+        int callsCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CALLS_COUNT;
+
+        Path root = Files.createTempDirectory("snapshot-read-benchmark");
+        try {
+            StringTableImpl table = StringTableImpl.createTable(root.resolve("table"));
+            System.out.println("Calls per case: " + callsCount);
+
+            int recordsCount = 0;
+            for (int targetCount : RECORDS_COUNTS) {
+                for (; recordsCount < targetCount; recordsCount++) {
+                    table.put("key" + recordsCount, "value of record number " + recordsCount);
+                }
+                table.commit();
+
+                for (int i = 0; i < UNCOMMITTED_CHANGES_COUNT; i++) {
+                    table.put("new key" + i, "uncommitted value");
+                    table.remove("key" + i);
+                }
+
+                long sizeTime = 0;
+                long listTime = 0;
+                long checksum = 0;
+                for (int call = 0; call < callsCount; call++) {
+                    long startTime = System.nanoTime();
+                    checksum += table.size();
+                    sizeTime += System.nanoTime() - startTime;
+
+                    startTime = System.nanoTime();
+                    checksum += table.list().size();
+                    listTime += System.nanoTime() - startTime;
+                }
+                table.rollback();
+
+                System.out.println(
+                        String.format(
+                                "records %7d: size() mean %9.4f ms, list() mean %9.3f ms (checksum %d)",
+                                recordsCount,
+                                sizeTime / 1e6 / callsCount,
+                                listTime / 1e6 / callsCount,
+                                checksum));
+            }
+            table.close();
+        } finally {
+            Utility.rm(root);
+        }
+    }
+}
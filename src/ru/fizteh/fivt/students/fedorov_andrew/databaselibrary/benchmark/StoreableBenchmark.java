@@ -0,0 +1,220 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.benchmark;
+
+import ru.fizteh.fivt.storage.structured.Storeable;
+import ru.fizteh.fivt.storage.structured.Table;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.AutoCloseableProvider;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.DBTableProviderFactory;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.StoreableImpl;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Utility;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures building and reading rows of 10 to 100 columns (ints, longs, doubles, booleans and strings in
+ * turn) through boxing {@link Storeable} methods and through unboxed accessors of {@link StoreableImpl}.<br/>
+ * Usage: {@code StoreableBenchmark [rows count]}.
+ */
+public final class StoreableBenchmark {
+    private static final int DEFAULT_ROWS_COUNT = 200_000;
+    private static final int[] COLUMNS_COUNTS = {10, 50, 100};
+    private static final Class<?>[] TYPES_CYCLE =
+            {Integer.class, Long.class, Double.class, Boolean.class, String.class};
+    private static final int ROUNDS_COUNT = 5;
+    private static final String STRING_VALUE = "value";
+
+    private StoreableBenchmark() {
+
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rowsCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS_COUNT;
+
+        Path root = Files.createTempDirectory("storeable-benchmark");
+        try (DBTableProviderFactory factory = new DBTableProviderFactory();
+             AutoCloseableProvider provider = factory.create(root.toString())) {
+            for (int columnsCount : COLUMNS_COUNTS) {
+                List<Class<?>> types = new ArrayList<>();
+                for (int column = 0; column < columnsCount; column++) {
+                    types.add(TYPES_CYCLE[column % TYPES_CYCLE.length]);
+                }
+                Table table = provider.createTable("table" + columnsCount, types);
+
+                StoreableImpl[] rows = new StoreableImpl[rowsCount];
+                long bestBoxedBuild = Long.MAX_VALUE;
+                long bestUnboxedBuild = Long.MAX_VALUE;
+                long bestBoxedRead = Long.MAX_VALUE;
+                long bestUnboxedRead = Long.MAX_VALUE;
+                long boxedBuildBytes = 0;
+                long unboxedBuildBytes = 0;
+                long boxedReadBytes = 0;
+                long unboxedReadBytes = 0;
+                long checksum = 0;
+
+                for (int round = 0; round < ROUNDS_COUNT; round++) {
+                    long allocated = allocatedBytes();
+                    long startTime = System.nanoTime();
+                    for (int i = 0; i < rowsCount; i++) {
+                        rows[i] = buildBoxed(provider.createFor(table), columnsCount, i);
+                    }
+                    bestBoxedBuild = Math.min(bestBoxedBuild, System.nanoTime() - startTime);
+                    boxedBuildBytes = allocatedBytes() - allocated;
+
+                    allocated = allocatedBytes();
+                    startTime = System.nanoTime();
+                    for (StoreableImpl row : rows) {
+                        checksum += readBoxed(row, columnsCount);
+                    }
+                    bestBoxedRead = Math.min(bestBoxedRead, System.nanoTime() - startTime);
+                    boxedReadBytes = allocatedBytes() - allocated;
+
+                    allocated = allocatedBytes();
+                    startTime = System.nanoTime();
+                    for (int i = 0; i < rowsCount; i++) {
+                        rows[i] = buildUnboxed((StoreableImpl) provider.createFor(table), columnsCount, i);
+                    }
+                    bestUnboxedBuild = Math.min(bestUnboxedBuild, System.nanoTime() - startTime);
+                    unboxedBuildBytes = allocatedBytes() - allocated;
+
+                    allocated = allocatedBytes();
+                    startTime = System.nanoTime();
+                    for (StoreableImpl row : rows) {
+                        checksum += readUnboxed(row, columnsCount);
+                    }
+                    bestUnboxedRead = Math.min(bestUnboxedRead, System.nanoTime() - startTime);
+                    unboxedReadBytes = allocatedBytes() - allocated;
+                }
+
+                System.out.println(
+                        String.format("%d columns, %d rows (checksum %d):", columnsCount, rowsCount, checksum));
+                report("build boxed", bestBoxedBuild, boxedBuildBytes, rowsCount);
+                report("build unboxed", bestUnboxedBuild, unboxedBuildBytes, rowsCount);
+                report("read boxed", bestBoxedRead, boxedReadBytes, rowsCount);
+                report("read unboxed", bestUnboxedRead, unboxedReadBytes, rowsCount);
+            }
+        } finally {
+            Utility.rm(root);
+        }
+    }
+
+    private static StoreableImpl buildBoxed(Storeable row, int columnsCount, int seed) {
+        for (int column = 0; column < columnsCount; column++) {
+            Object value;
+            switch (column % TYPES_CYCLE.length) {
+                case 0:
+                    value = seed + column;
+                    break;
+                case 1:
+                    value = (long) seed * column;
+                    break;
+                case 2:
+                    value = seed * 0.5;
+                    break;
+                case 3:
+                    value = (seed & 1) == 0;
+                    break;
+                default:
+                    value = STRING_VALUE;
+                    break;
+            }
+            row.setColumnAt(column, value);
+        }
+        return (StoreableImpl) row;
+    }
+
+    private static StoreableImpl buildUnboxed(StoreableImpl row, int columnsCount, int seed) {
+        for (int column = 0; column < columnsCount; column++) {
+            switch (column % TYPES_CYCLE.length) {
+                case 0:
+                    row.setInt(column, seed + column);
+                    break;
+                case 1:
+                    row.setLong(column, (long) seed * column);
+                    break;
+                case 2:
+                    row.setDouble(column, seed * 0.5);
+                    break;
+                case 3:
+                    row.setBoolean(column, (seed & 1) == 0);
+                    break;
+                default:
+                    row.setString(column, STRING_VALUE);
+                    break;
+            }
+        }
+        return row;
+    }
+
+    private static long readBoxed(Storeable row, int columnsCount) {
+        long sum = 0;
+        for (int column = 0; column < columnsCount; column++) {
+            switch (column % TYPES_CYCLE.length) {
+                case 0:
+                    sum += row.getIntAt(column);
+                    break;
+                case 1:
+                    sum += row.getLongAt(column);
+                    break;
+                case 2:
+                    sum += (long) (double) row.getDoubleAt(column);
+                    break;
+                case 3:
+                    sum += row.getBooleanAt(column) ? 1 : 0;
+                    break;
+                default:
+                    sum += row.getStringAt(column).length();
+                    break;
+            }
+        }
+        return sum;
+    }
+
+    private static long readUnboxed(StoreableImpl row, int columnsCount) {
+        long sum = 0;
+        for (int column = 0; column < columnsCount; column++) {
+            switch (column % TYPES_CYCLE.length) {
+                case 0:
+                    sum += row.getInt(column);
+                    break;
+                case 1:
+                    sum += row.getLong(column);
+                    break;
+                case 2:
+                    sum += (long) row.getDouble(column);
+                    break;
+                case 3:
+                    sum += row.getBoolean(column) ? 1 : 0;
+                    break;
+                default:
+                    sum += row.getStringAt(column).length();
+                    break;
+            }
+        }
+        return sum;
+    }
+
+    private static void report(String caseName, long time, long allocatedBytes, int rowsCount) {
+        System.out.println(
+                String.format(
+                        "  %-14s: %8.1f ms, %6.0f ns and %6d bytes allocated per row",
+                        caseName,
+                        time / 1e6,
+                        (double) time / rowsCount,
+                        allocatedBytes / rowsCount));
+    }
+
+    /**
+     * Returns number of bytes allocated by the current thread or 0 if the JVM does not count them.
+     */
+    private static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        } else {
+            return 0;
+        }
+    }
+}
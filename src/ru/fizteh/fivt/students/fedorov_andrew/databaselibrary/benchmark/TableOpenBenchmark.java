@@ -0,0 +1,93 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.benchmark;
+
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.StringTableImpl;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Utility;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Compares eager and lazy opening of a large table: time to open, time of the first random reads and heap
+ * retained by the opened table.<br/>
+ * Usage: {@code TableOpenBenchmark [records count] [value length]}.
+ */
+public final class TableOpenBenchmark {
+    private static final int DEFAULT_RECORDS_COUNT = 100_000;
+    private static final int DEFAULT_VALUE_LENGTH = 500;
+    private static final int READS_COUNT = 1000;
+
+    private TableOpenBenchmark() {
+
+    }
+
+    public static void main(String[] args) throws IOException {
+        int recordsCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_RECORDS_COUNT;
+        int valueLength = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_VALUE_LENGTH;
+
+        Path root = Files.createTempDirectory("open-benchmark");
+        try {
+            Path tableRoot = root.resolve("table");
+            StringTableImpl table = StringTableImpl.createTable(tableRoot);
+            char[] value = new char[valueLength];
+            Arrays.fill(value, 'v');
+            for (int i = 0; i < recordsCount; i++) {
+                table.put("key" + i, i + new String(value));
+            }
+            table.commit();
+            table = null;
+
+            System.out.println("Records: " + recordsCount + ", value length: " + valueLength);
+            // Warming up.
+            measure(tableRoot, false, recordsCount, true);
+            measure(tableRoot, true, recordsCount, true);
+
+            measure(tableRoot, false, recordsCount, false);
+            measure(tableRoot, true, recordsCount, false);
+        } finally {
+            Utility.rm(root);
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void measure(Path tableRoot, boolean lazy, int recordsCount, boolean quiet)
+            throws IOException {
+        long heapBefore = usedHeap();
+
+        long startTime = System.nanoTime();
+        StringTableImpl table = StringTableImpl.getTable(tableRoot, path -> false, lazy);
+        long openTime = System.nanoTime() - startTime;
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        startTime = System.nanoTime();
+        for (int i = 0; i < READS_COUNT; i++) {
+            table.get("key" + random.nextInt(recordsCount));
+        }
+        long readTime = System.nanoTime() - startTime;
+
+        long retainedHeap = usedHeap() - heapBefore;
+
+        if (!quiet) {
+            System.out.println(
+                    String.format(
+                            "%-5s open %7.1f ms, %d random reads %7.1f ms, retained heap %6.1f MB",
+                            lazy ? "lazy" : "eager",
+                            openTime / 1e6,
+                            READS_COUNT,
+                            readTime / 1e6,
+                            retainedHeap / 1024.0 / 1024.0));
+        }
+
+        // Keeping the table reachable until the heap is measured.
+        table.getName();
+    }
+}
@@ -0,0 +1,76 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.benchmark;
+
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.StringTableImpl;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Utility;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Measures {@code size()} of an open table with a few uncommitted changes, and the time to open tables in
+ * lazy mode and get their sizes, as {@code show tables} does.<br/>
+ * Usage: {@code TableSizeBenchmark [tables count] [rows per table]}.
+ */
+public final class TableSizeBenchmark {
+    private static final int DEFAULT_TABLES_COUNT = 10;
+    private static final int DEFAULT_ROWS_COUNT = 50_000;
+    private static final int CALLS_COUNT = 1000;
+    private static final int UNCOMMITTED_CHANGES_COUNT = 10;
+
+    private TableSizeBenchmark() {
+
+    }
+
+    public static void main(String[] args) throws IOException {
+        int tablesCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_TABLES_COUNT;
+        int rowsCount = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ROWS_COUNT;
+
+        Path root = Files.createTempDirectory("table-size-benchmark");
+        try {
+            for (int t = 0; t < tablesCount; t++) {
+                StringTableImpl table = StringTableImpl.createTable(root.resolve("table" + t));
+                for (int i = 0; i < rowsCount; i++) {
+                    table.put("key" + i, "value of record number " + i);
+                }
+                table.commit();
+                table.close();
+            }
+            System.out.println("Tables: " + tablesCount + ", rows per table: " + rowsCount);
+
+            StringTableImpl table = StringTableImpl.getTable(root.resolve("table0"), path -> false, false);
+            for (int i = 0; i < UNCOMMITTED_CHANGES_COUNT; i++) {
+                table.put("new key" + i, "uncommitted value");
+            }
+            long checksum = 0;
+            long startTime = System.nanoTime();
+            for (int call = 0; call < CALLS_COUNT; call++) {
+                checksum += table.size();
+            }
+            System.out.println(
+                    String.format(
+                            "size() of open table: mean %8.2f us (checksum %d)",
+                            (System.nanoTime() - startTime) / 1e3 / CALLS_COUNT,
+                            checksum));
+            table.close();
+
+            for (int attempt = 0; attempt < 3; attempt++) {
+                checksum = 0;
+                startTime = System.nanoTime();
+                for (int t = 0; t < tablesCount; t++) {
+                    StringTableImpl lazyTable =
+                            StringTableImpl.getTable(root.resolve("table" + t), path -> false, true);
+                    checksum += lazyTable.size();
+                    lazyTable.close();
+                }
+                System.out.println(
+                        String.format(
+                                "lazy open and size() of all tables: %8.2f ms (checksum %d)",
+                                (System.nanoTime() - startTime) / 1e6,
+                                checksum));
+            }
+        } finally {
+            Utility.rm(root);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.benchmark;
+
+import ru.fizteh.fivt.storage.structured.Table;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.AutoCloseableProvider;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.AutoCloseableTable;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.DBTableProviderFactory;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.ProviderWrap;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Utility;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.ValidityController;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.ValidityController.UseLock;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * Measures throughput of {@link ValidityController#use()} shared by many threads, alone and as a part of
+ * {@link Table#get(String)} through {@link ProviderWrap}, where each call enters several controllers.<br/>
+ * Run it where the log of the logging proxy cannot be created, so that calls are not logged.<br/>
+ * Usage: {@code ValidityContentionBenchmark [calls count per thread]}.
+ */
+public final class ValidityContentionBenchmark {
+    private static final int DEFAULT_CALLS_COUNT = 1_000_000;
+    private static final int[] THREADS_COUNTS = {1, 8, 32};
+    private static final int KEYS_COUNT = 1000;
+    private static final int ROUNDS_COUNT = 3;
+
+    private ValidityContentionBenchmark() {
+
+    }
+
+    public static void main(String[] args) throws Exception {
+        int callsCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CALLS_COUNT;
+
+        ValidityController controller = new ValidityController();
+        System.out.println(String.format("%d calls of use() per thread:", callsCount));
+        for (int threadsCount : THREADS_COUNTS) {
+            measure(
+                    threadsCount, callsCount, index -> {
+                        try (UseLock lock = controller.use()) {
+                            return 1;
+                        }
+                    });
+        }
+
+        Path root = Files.createTempDirectory("validity-benchmark");
+        try (DBTableProviderFactory factory = new DBTableProviderFactory();
+             AutoCloseableProvider provider = factory.create(root.toString())) {
+            AutoCloseableTable table = provider.createTable("table", Arrays.asList(Integer.class, String.class));
+            String[] keys = new String[KEYS_COUNT];
+            for (int i = 0; i < KEYS_COUNT; i++) {
+                keys[i] = "key" + i;
+                table.put(keys[i], provider.createFor(table, Arrays.asList(i, "value" + i)));
+            }
+            table.commit();
+
+            ProviderWrap wrap = new ProviderWrap(provider);
+            Table wrappedTable = wrap.getTable("table");
+
+            System.out.println(String.format("%d calls of get through the wrap per thread:", callsCount / 10));
+            for (int threadsCount : THREADS_COUNTS) {
+                measure(threadsCount, callsCount / 10, index -> wrappedTable.get(keys[index % KEYS_COUNT]).getIntAt(0));
+            }
+        } finally {
+            Utility.rm(root);
+        }
+    }
+
+    private static void measure(int threadsCount, int callsCount, Call call) throws Exception {
+        long bestTime = Long.MAX_VALUE;
+        long[] checksums = new long[threadsCount];
+
+        for (int round = 0; round < ROUNDS_COUNT; round++) {
+            CyclicBarrier barrier = new CyclicBarrier(threadsCount + 1);
+            Thread[] threads = new Thread[threadsCount];
+            for (int t = 0; t < threadsCount; t++) {
+                int threadIndex = t;
+                threads[t] = new Thread(
+                        () -> {
+                            try {
+                                barrier.await();
+                            } catch (Exception exc) {
+                                throw new RuntimeException(exc);
+                            }
+                            long checksum = 0;
+                            for (int i = 0; i < callsCount; i++) {
+                                checksum += call.call(i);
+                            }
+                            checksums[threadIndex] += checksum;
+                        }, "Caller " + t);
+                threads[t].start();
+            }
+
+            barrier.await();
+            long startTime = System.nanoTime();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            bestTime = Math.min(bestTime, System.nanoTime() - startTime);
+        }
+
+        long totalCalls = (long) threadsCount * callsCount;
+        System.out.println(
+                String.format(
+                        "  %2d threads: %7.1f ns per call, %6.2f M calls/s (checksum %d)",
+                        threadsCount,
+                        (double) bestTime / totalCalls,
+                        totalCalls * 1e3 / bestTime,
+                        Arrays.stream(checksums).sum()));
+    }
+
+    @FunctionalInterface
+    private interface Call {
+        int call(int index);
+    }
+}
@@ -0,0 +1,139 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.benchmark;
+
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.StringTableImpl;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.ValueCache;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Utility;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures skewed (Zipf-like) reads of a lazily opened table without value cache and with caches of both
+ * eviction policies. Every tenth read belongs to a scan of rarely read keys, which pollutes LRU cache.<br/>
+ * Usage: {@code ValueCacheBenchmark [records count] [reads count] [cache budget in bytes]}.
+ */
+public final class ValueCacheBenchmark {
+    private static final int DEFAULT_RECORDS_COUNT = 100_000;
+    private static final int DEFAULT_READS_COUNT = 2_000_000;
+    private static final long DEFAULT_BUDGET = 32L << 20;
+    private static final int VALUE_LENGTH = 1000;
+    private static final double ZIPF_EXPONENT = 1.0;
+    private static final int SCAN_PERIOD = 10;
+
+    private ValueCacheBenchmark() {
+
+    }
+
+    public static void main(String[] args) throws IOException {
+        int recordsCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_RECORDS_COUNT;
+        int readsCount = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_READS_COUNT;
+        long budget = args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_BUDGET;
+
+        Path root = Files.createTempDirectory("value-cache-benchmark");
+        try {
+            Path tableRoot = root.resolve("table");
+            StringTableImpl table = StringTableImpl.createTable(tableRoot);
+            StringBuilder padding = new StringBuilder();
+            for (int i = 0; i < VALUE_LENGTH; i++) {
+                padding.append((char) ('a' + i % 26));
+            }
+            for (int i = 0; i < recordsCount; i++) {
+                table.put("key" + i, i + " " + padding);
+            }
+            table.commit();
+            table.close();
+
+            int[] keyIndices = zipfSample(recordsCount, readsCount);
+
+            measure(tableRoot, keyIndices, null);
+            for (ValueCache.Policy policy : ValueCache.Policy.values()) {
+                measure(tableRoot, keyIndices, new ValueCache(budget, policy));
+            }
+            System.out.println(String.format("Cache budget: %d bytes", budget));
+        } finally {
+            Utility.rm(root);
+        }
+    }
+
+    /**
+     * Returns indices of keys to read: Zipf distributed ranks interleaved with a sequential scan.
+     */
+    private static int[] zipfSample(int recordsCount, int readsCount) {
+        double[] cumulative = new double[recordsCount];
+        double sum = 0;
+        for (int rank = 0; rank < recordsCount; rank++) {
+            sum += 1 / Math.pow(rank + 1, ZIPF_EXPONENT);
+            cumulative[rank] = sum;
+        }
+
+        Random random = new Random(42);
+        int[] keyIndices = new int[readsCount];
+        int scanPosition = 0;
+        for (int i = 0; i < readsCount; i++) {
+            if (i % SCAN_PERIOD == 0) {
+                keyIndices[i] = scanPosition;
+                scanPosition = (scanPosition + 1) % recordsCount;
+            } else {
+                int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                keyIndices[i] = Math.min(recordsCount - 1, index < 0 ? -index - 1 : index);
+            }
+        }
+        return keyIndices;
+    }
+
+    private static void measure(Path tableRoot, int[] keyIndices, ValueCache cache) throws IOException {
+        StringTableImpl table = StringTableImpl.getTable(tableRoot, path -> false, true, cache);
+        String[] keys = new String[keyIndices.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "key" + keyIndices[i];
+        }
+
+        // Warm up part mappings and the cache with the first half, measure the second one.
+        int half = keys.length / 2;
+        for (int i = 0; i < half; i++) {
+            table.get(keys[i]);
+        }
+        long hitsBefore = table.getValueCacheMetrics().getHits();
+        long missesBefore = table.getValueCacheMetrics().getMisses();
+        long allocatedBefore = allocatedBytes();
+        long startTime = System.nanoTime();
+        for (int i = half; i < keys.length; i++) {
+            if (table.get(keys[i]) == null) {
+                throw new IllegalStateException("Key not found: " + keys[i]);
+            }
+        }
+        long time = System.nanoTime() - startTime;
+        long allocated = allocatedBytes() - allocatedBefore;
+        long hits = table.getValueCacheMetrics().getHits() - hitsBefore;
+        long misses = table.getValueCacheMetrics().getMisses() - missesBefore;
+
+        System.out.println(
+                String.format(
+                        "%-9s: %d reads in %7.1f ms (%.2f Mreads/s), %5d bytes allocated per read, "
+                        + "hit ratio %5.1f%%; %s",
+                        cache == null ? "no cache" : cache.getPolicy(),
+                        keys.length - half,
+                        time / 1e6,
+                        (keys.length - half) * 1e3 / time,
+                        allocated / (keys.length - half),
+                        hits + misses == 0 ? 0 : 100.0 * hits / (hits + misses),
+                        table.getValueCacheMetrics()));
+        table.close();
+    }
+
+    /**
+     * Returns number of bytes allocated by the current thread or 0 if the JVM does not count them.
+     */
+    private static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        } else {
+            return 0;
+        }
+    }
+}
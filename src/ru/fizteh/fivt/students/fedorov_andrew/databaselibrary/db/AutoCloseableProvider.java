@@ -1,11 +1,13 @@
 package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
 
-import ru.fizteh.fivt.storage.structured.TableProvider;
+import ru.fizteh.fivt.storage.structured.IndexProvider;
+import ru.fizteh.fivt.storage.structured.Table;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 
-public interface AutoCloseableProvider extends TableProvider, AutoCloseable {
+public interface AutoCloseableProvider extends IndexProvider, AutoCloseable {
     @Override
     void close();
 
@@ -14,4 +16,32 @@ public interface AutoCloseableProvider extends TableProvider, AutoCloseable {
 
     @Override
     AutoCloseableTable createTable(String name, List<Class<?>> columnTypes) throws IOException;
+
+    /**
+     * Creates a table with the given layout: the way keys are spread among table parts, number of parts and
+     * format of part files.
+     * @param layout
+     *         Layout of the new table, e.g. {@code TableLayout.withPartsCount(64).withFormat(PartFormat.LOG)}.
+     * @see #createTable(String, java.util.List)
+     */
+    AutoCloseableTable createTable(String name, List<Class<?>> columnTypes, TableLayout layout)
+            throws IOException;
+
+    /**
+     * Commits changes made by this thread to all the given tables at once: either all of them survive a crash
+     * or none. Changes of all the tables are written to a log with one sync; table part files are brought up
+     * to date in background.
+     * @return Total number of committed changes.
+     * @throws IllegalArgumentException
+     *         If some table does not belong to this provider.
+     * @see Table#commit()
+     */
+    int commit(Collection<? extends Table> tables) throws IOException;
+
+    /**
+     * Waits until background validation of all loaded tables finishes. Returns immediately if tables are not
+     * validated in background.
+     * @see TableValidation#BACKGROUND
+     */
+    void awaitValidation() throws InterruptedException;
 }
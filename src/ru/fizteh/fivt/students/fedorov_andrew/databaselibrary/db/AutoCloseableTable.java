@@ -1,8 +1,6 @@
 package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
 
-import ru.fizteh.fivt.storage.structured.Table;
-
-public interface AutoCloseableTable extends Table, AutoCloseable {
+public interface AutoCloseableTable extends PageableTable, ScannableTable, IndexableTable, AutoCloseable {
     @Override
     void close();
 }
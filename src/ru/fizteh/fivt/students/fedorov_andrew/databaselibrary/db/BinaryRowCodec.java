@@ -0,0 +1,265 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
+
+import ru.fizteh.fivt.storage.structured.ColumnFormatException;
+import ru.fizteh.fivt.storage.structured.Storeable;
+
+import java.text.ParseException;
+import java.util.List;
+
+/**
+ * Compact row format driven by column types. A row is a sequence of 7-bit units; each unit is stored as a
+ * character from 0 to 127, so that it takes exactly one byte in UTF-8 encoded table part files. The row
+ * consists of:<br/>
+ * - null bitmap: one bit per column, 7 columns per unit;<br/>
+ * - values of non-null columns in column order. Primitives take fixed number of units: boolean 1, byte 2,
+ * int and float 5, long and double 10. Strings are written as their length (6 bits per unit, the upper bit
+ * marks that more units follow) and the characters of the string as is.<br/>
+ * Nothing is quoted or escaped, so rows are decoded without tokenizing.
+ * @see TableLayout.RowFormat#BINARY
+ */
+final class BinaryRowCodec implements RowCodec {
+    private static final int UNIT_BITS = 7;
+    private static final int UNIT_MASK = (1 << UNIT_BITS) - 1;
+    private static final int LENGTH_BITS = 6;
+    private static final int LENGTH_MASK = (1 << LENGTH_BITS) - 1;
+    private static final int LENGTH_CONTINUATION = 1 << LENGTH_BITS;
+    /**
+     * Lengths up to {@link Integer#MAX_VALUE} fit into this number of units.
+     */
+    private static final int MAX_LENGTH_UNITS = 6;
+
+    private final RowLayout layout;
+    private final ColumnType[] types;
+    private final int bitmapUnits;
+
+    BinaryRowCodec(List<Class<?>> columnTypes) {
+        this.layout = new RowLayout(columnTypes);
+        this.types = new ColumnType[columnTypes.size()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = ColumnType.of(columnTypes.get(i));
+        }
+        this.bitmapUnits = (types.length + UNIT_BITS - 1) / UNIT_BITS;
+    }
+
+    @Override
+    public String encode(Storeable row) throws ColumnFormatException {
+        StoreableImpl impl;
+        if (row instanceof StoreableImpl) {
+            impl = (StoreableImpl) row;
+        } else {
+            impl = new StoreableImpl(layout);
+            for (int column = 0; column < types.length; column++) {
+                impl.setColumnAt(column, row.getColumnAt(column));
+            }
+        }
+
+        StringBuilder sb = new StringBuilder(bitmapUnits + types.length * 5);
+
+        for (int unit = 0; unit < bitmapUnits; unit++) {
+            int bits = 0;
+            for (int bit = 0, column = unit * UNIT_BITS; bit < UNIT_BITS && column < types.length; bit++, column++) {
+                if (impl.isNull(column)) {
+                    bits |= 1 << bit;
+                }
+            }
+            sb.append((char) bits);
+        }
+
+        for (int column = 0; column < types.length; column++) {
+            if (impl.isNull(column)) {
+                continue;
+            }
+
+            switch (types[column]) {
+                case BOOLEAN:
+                    sb.append((char) (impl.getBoolean(column) ? 1 : 0));
+                    break;
+                case BYTE:
+                    appendFixed(sb, impl.getByte(column) & 0xFFL, ColumnType.BYTE);
+                    break;
+                case INT:
+                    appendFixed(sb, impl.getInt(column) & 0xFFFFFFFFL, ColumnType.INT);
+                    break;
+                case LONG:
+                    appendFixed(sb, impl.getLong(column), ColumnType.LONG);
+                    break;
+                case FLOAT:
+                    appendFixed(sb, Float.floatToIntBits(impl.getFloat(column)) & 0xFFFFFFFFL, ColumnType.FLOAT);
+                    break;
+                case DOUBLE:
+                    appendFixed(sb, Double.doubleToLongBits(impl.getDouble(column)), ColumnType.DOUBLE);
+                    break;
+                default:
+                    String string = impl.getStringAt(column);
+                    int length = string.length();
+                    while (length > LENGTH_MASK) {
+                        sb.append((char) (LENGTH_CONTINUATION | (length & LENGTH_MASK)));
+                        length >>>= LENGTH_BITS;
+                    }
+                    sb.append((char) length);
+                    sb.append(string);
+                    break;
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private static void appendFixed(StringBuilder sb, long bits, ColumnType type) {
+        for (int unit = type.units - 1; unit >= 0; unit--) {
+            sb.append((char) ((bits >>> (unit * UNIT_BITS)) & UNIT_MASK));
+        }
+    }
+
+    @Override
+    public Storeable decode(String data) throws ParseException {
+        if (data.length() < bitmapUnits) {
+            throw new ParseException("wrong type (Row is too short)", data.length());
+        }
+
+        if (bitmapUnits > 0 && data.charAt(bitmapUnits - 1) >>> (types.length - (bitmapUnits - 1) * UNIT_BITS) != 0) {
+            throw new ParseException("wrong type (Invalid null bitmap)", bitmapUnits - 1);
+        }
+
+        StoreableImpl row = new StoreableImpl(layout);
+        int position = bitmapUnits;
+
+        for (int column = 0; column < types.length; column++) {
+            int nullBits = data.charAt(column / UNIT_BITS);
+            if (nullBits > UNIT_MASK) {
+                throw new ParseException("wrong type (Invalid null bitmap)", column / UNIT_BITS);
+            }
+            if ((nullBits & (1 << (column % UNIT_BITS))) != 0) {
+                continue;
+            }
+
+            ColumnType type = types[column];
+            switch (type) {
+                case BOOLEAN: {
+                    long bits = readFixed(data, position, type);
+                    if (bits > 1) {
+                        throw new ParseException("wrong type (Invalid boolean value)", position);
+                    }
+                    row.setBoolean(column, bits == 1);
+                    break;
+                }
+                case BYTE:
+                    row.setByte(column, (byte) readFixed(data, position, type));
+                    break;
+                case INT:
+                    row.setInt(column, (int) readFixed(data, position, type));
+                    break;
+                case LONG:
+                    row.setLong(column, readFixed(data, position, type));
+                    break;
+                case FLOAT:
+                    row.setFloat(column, Float.intBitsToFloat((int) readFixed(data, position, type)));
+                    break;
+                case DOUBLE:
+                    row.setDouble(column, Double.longBitsToDouble(readFixed(data, position, type)));
+                    break;
+                default: {
+                    long length = 0;
+                    int unit;
+                    int shift = 0;
+                    do {
+                        if (position >= data.length() || shift >= MAX_LENGTH_UNITS * LENGTH_BITS) {
+                            throw new ParseException("wrong type (Invalid string length)", position);
+                        }
+                        unit = data.charAt(position++);
+                        if (unit > UNIT_MASK) {
+                            throw new ParseException("wrong type (Invalid string length)", position - 1);
+                        }
+                        length |= (long) (unit & LENGTH_MASK) << shift;
+                        shift += LENGTH_BITS;
+                    } while ((unit & LENGTH_CONTINUATION) != 0);
+
+                    if (length > data.length() - position) {
+                        throw new ParseException("wrong type (String exceeds the row)", position);
+                    }
+                    row.setString(column, data.substring(position, position + (int) length));
+                    position += (int) length;
+                    break;
+                }
+            }
+            if (type != ColumnType.STRING) {
+                position += type.units;
+            }
+        }
+
+        if (position != data.length()) {
+            throw new ParseException("wrong type (Row has extra data)", position);
+        }
+        return row;
+    }
+
+    /**
+     * Reads a value of fixed width type starting at the given position.
+     * @throws ParseException
+     *         If the row is too short or the units do not encode a value of this type.
+     */
+    private static long readFixed(String data, int position, ColumnType type) throws ParseException {
+        if (data.length() - position < type.units) {
+            throw new ParseException("wrong type (Row is too short)", data.length());
+        }
+
+        // The first unit contains the upper bits that remain after all the other units.
+        int firstUnitBits = type.bits - (type.units - 1) * UNIT_BITS;
+        long bits = 0;
+        for (int i = 0; i < type.units; i++) {
+            int unit = data.charAt(position + i);
+            if (unit > UNIT_MASK || (i == 0 && unit >>> firstUnitBits != 0)) {
+                throw new ParseException("wrong type (Invalid " + type.name().toLowerCase() + " value)", position);
+            }
+            bits = (bits << UNIT_BITS) | unit;
+        }
+        return bits;
+    }
+
+    /**
+     * Supported column types with their widths.
+     */
+    private enum ColumnType {
+        BOOLEAN(1, 1),
+        BYTE(2, 8),
+        INT(5, 32),
+        LONG(10, 64),
+        FLOAT(5, 32),
+        DOUBLE(10, 64),
+        STRING(0, 0);
+
+        /**
+         * Number of units taken by a value; 0 for variable width values.
+         */
+        private final int units;
+        /**
+         * Number of significant bits of a value.
+         */
+        private final int bits;
+
+        ColumnType(int units, int bits) {
+            this.units = units;
+            this.bits = bits;
+        }
+
+        static ColumnType of(Class<?> clazz) {
+            if (clazz == Boolean.class) {
+                return BOOLEAN;
+            } else if (clazz == Byte.class) {
+                return BYTE;
+            } else if (clazz == Integer.class) {
+                return INT;
+            } else if (clazz == Long.class) {
+                return LONG;
+            } else if (clazz == Float.class) {
+                return FLOAT;
+            } else if (clazz == Double.class) {
+                return DOUBLE;
+            } else if (clazz == String.class) {
+                return STRING;
+            } else {
+                throw new IllegalArgumentException("Unsupported column type: " + clazz.getSimpleName());
+            }
+        }
+    }
+}
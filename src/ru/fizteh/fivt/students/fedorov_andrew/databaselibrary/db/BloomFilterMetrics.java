@@ -0,0 +1,48 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
+
+/**
+ * Statistics of Bloom filter checks made by lookups of keys in table parts that have not been loaded yet.<br/>
+ * Immutable.
+ * @see StringTableImpl#getBloomFilterMetrics()
+ * @see PartBloomFilter
+ */
+public final class BloomFilterMetrics {
+    private final long probesAvoided;
+    private final long falsePositives;
+
+    BloomFilterMetrics(long probesAvoided, long falsePositives) {
+        this.probesAvoided = probesAvoided;
+        this.falsePositives = falsePositives;
+    }
+
+    /**
+     * Number of lookups of absent keys answered by filters without loading the part.
+     */
+    public long getProbesAvoided() {
+        return probesAvoided;
+    }
+
+    /**
+     * Number of lookups that loaded the part because the filter contained the key, but the key was absent.
+     */
+    public long getFalsePositives() {
+        return falsePositives;
+    }
+
+    /**
+     * Share of lookups of absent keys that were not answered by filters; 0 if there were no such lookups.
+     */
+    public double getFalsePositiveRate() {
+        long absentLookups = probesAvoided + falsePositives;
+        return absentLookups == 0 ? 0 : (double) falsePositives / absentLookups;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%d probes avoided, %d false positives (%.2f%%)",
+                probesAvoided,
+                falsePositives,
+                getFalsePositiveRate() * 100);
+    }
+}
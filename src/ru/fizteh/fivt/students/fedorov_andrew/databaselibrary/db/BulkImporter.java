@@ -0,0 +1,419 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
+
+import ru.fizteh.fivt.storage.structured.Table;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.exception.DatabaseIOException;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Utility;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Loads rows from a text source into a structured table without keeping them in thread-local diffs of table
+ * parts.<br/>
+ * The calling thread reads lines and hands them in chunks to worker threads by table parts of their keys, so
+ * that each part is filled by one worker only. Workers parse and encode the rows and collect them by parts;
+ * when a worker has collected its share of {@link #getBufferedRowsCount() buffered rows}, it commits them to
+ * the part files directly, like a commit of another thread. Queues of chunks are bounded, so memory taken by
+ * the import does not depend on the size of the source; a smaller buffer makes parts rewritten more often.<br/>
+ * Import is not atomic: if it fails, rows committed before stay in the table. A key given several times gets
+ * the value of its last row. Uncommitted changes of the calling thread are not affected.
+ */
+public final class BulkImporter {
+    /**
+     * Default total number of rows collected by workers before they are committed.
+     */
+    public static final int DEFAULT_BUFFERED_ROWS_COUNT = 256 * 1024;
+
+    /**
+     * Number of lines handed to a worker at once.
+     */
+    private static final int CHUNK_SIZE = 1024;
+    /**
+     * Number of chunks that can wait for each worker; the reader waits when there are more.
+     */
+    private static final int QUEUED_CHUNKS_PER_WORKER = 4;
+    /**
+     * Chunk that tells a worker that there are no more lines.
+     */
+    private static final Chunk END = new Chunk(0);
+
+    private final StoreableTableImpl table;
+    private final int workersCount;
+    private final int bufferedRowsCount;
+
+    /**
+     * Creates importer with a worker per available processor and {@link #DEFAULT_BUFFERED_ROWS_COUNT}.
+     * @throws IllegalArgumentException
+     *         If the table is not a table of a local database.
+     */
+    public BulkImporter(Table table) throws IllegalArgumentException {
+        this(table, Runtime.getRuntime().availableProcessors(), DEFAULT_BUFFERED_ROWS_COUNT);
+    }
+
+    /**
+     * @param workersCount
+     *         Number of threads that parse, encode and commit rows.
+     * @param bufferedRowsCount
+     *         Total number of rows collected by the workers before they are committed.
+     * @throws IllegalArgumentException
+     *         If the table is not a table of a local database or the numbers are not positive.
+     */
+    public BulkImporter(Table table, int workersCount, int bufferedRowsCount) throws IllegalArgumentException {
+        Utility.checkNotNull(table, "Table");
+        if (workersCount <= 0) {
+            throw new IllegalArgumentException("Workers count must be positive");
+        }
+        if (bufferedRowsCount <= 0) {
+            throw new IllegalArgumentException("Buffered rows count must be positive");
+        }
+        this.table = DBTableProvider.unwrap(table);
+        this.workersCount = workersCount;
+        this.bufferedRowsCount = bufferedRowsCount;
+    }
+
+    public int getWorkersCount() {
+        return workersCount;
+    }
+
+    public int getBufferedRowsCount() {
+        return bufferedRowsCount;
+    }
+
+    /**
+     * Imports rows from the file in UTF-8.
+     * @see #importRows(BufferedReader, Format)
+     */
+    public ImportMetrics importFile(Path file, Format format) throws IOException, ParseException {
+        try (BufferedReader input = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return importRows(input, format);
+        }
+    }
+
+    /**
+     * Imports rows from the source, one row per line. Empty lines are skipped.
+     * @throws ParseException
+     *         If some line is not a row of the given format and column types of the table. Its error offset is
+     *         the number of the line counting from 1.
+     */
+    public ImportMetrics importRows(BufferedReader input, Format format) throws IOException, ParseException {
+        Utility.checkNotNull(input, "Input");
+        Utility.checkNotNull(format, "Format");
+
+        long startTime = System.nanoTime();
+        TableLayout layout = table.getLayout();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+
+        Worker[] workers = new Worker[workersCount];
+        Thread[] threads = new Thread[workersCount];
+        for (int i = 0; i < workersCount; i++) {
+            workers[i] = new Worker(format, Math.max(1, bufferedRowsCount / workersCount), failure);
+            threads[i] = new Thread(workers[i], "Bulk import worker " + i);
+            threads[i].start();
+        }
+
+        long rowsCount = 0;
+        try {
+            Chunk[] chunks = new Chunk[workersCount];
+            long lineNumber = 0;
+            String line;
+            while (failure.get() == null && (line = input.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty()) {
+                    continue;
+                }
+
+                String key;
+                try {
+                    key = format.readKey(line);
+                } catch (ParseException exc) {
+                    throw lineError(lineNumber, exc);
+                }
+
+                int worker = layout.getPartIndex(key) % workersCount;
+                if (chunks[worker] == null) {
+                    chunks[worker] = new Chunk(CHUNK_SIZE);
+                }
+                chunks[worker].add(line, lineNumber);
+                rowsCount++;
+                if (chunks[worker].isFull()) {
+                    workers[worker].hand(chunks[worker]);
+                    chunks[worker] = null;
+                }
+            }
+
+            for (int i = 0; i < workersCount; i++) {
+                if (chunks[i] != null) {
+                    workers[i].hand(chunks[i]);
+                }
+            }
+        } catch (IOException | ParseException | RuntimeException exc) {
+            // Workers drop the rows they have not committed yet.
+            failure.compareAndSet(null, exc);
+            throw exc;
+        } finally {
+            // Workers commit what they have collected unless the import has failed.
+            for (Worker worker : workers) {
+                worker.hand(END);
+            }
+            joinAll(threads);
+        }
+
+        Exception exc = failure.get();
+        if (exc instanceof ParseException) {
+            throw (ParseException) exc;
+        } else if (exc instanceof DatabaseIOException) {
+            throw (DatabaseIOException) exc;
+        } else if (exc instanceof RuntimeException) {
+            throw (RuntimeException) exc;
+        }
+
+        int commitsCount = 0;
+        for (Worker worker : workers) {
+            commitsCount += worker.commitsCount;
+        }
+        return new ImportMetrics(rowsCount, commitsCount, System.nanoTime() - startTime);
+    }
+
+    private static ParseException lineError(long lineNumber, ParseException cause) {
+        ParseException exc = new ParseException(
+                "Line " + lineNumber + ": " + cause.getMessage(), (int) Math.min(lineNumber, Integer.MAX_VALUE));
+        exc.initCause(cause);
+        return exc;
+    }
+
+    private static void joinAll(Thread[] threads) {
+        boolean interrupted = false;
+        for (Thread thread : threads) {
+            while (true) {
+                try {
+                    thread.join();
+                    break;
+                } catch (InterruptedException exc) {
+                    // Workers must finish before the table can be used.
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Formats of rows in the source.
+     */
+    public enum Format {
+        /**
+         * Tab separated values: the key followed by values of the columns.
+         * @see TSVRowReader
+         */
+        TSV("tsv") {
+            @Override
+            String readKey(String line) throws ParseException {
+                return TSVRowReader.readKey(line);
+            }
+
+            @Override
+            Map.Entry<String, StoreableImpl> read(String line, RowLayout layout) throws ParseException {
+                return TSVRowReader.read(line, layout);
+            }
+        },
+        /**
+         * JSON arrays of the key followed by values of the columns, e.g. {@code ["key", 1, "value"]}. Line
+         * breaks inside strings are escaped as {@code \n} and {@code \r}.
+         * @see JSONRowReader#readKeyed(String, RowLayout)
+         */
+        JSON_LINES("jsonl") {
+            @Override
+            String readKey(String line) throws ParseException {
+                return JSONRowReader.readKey(line);
+            }
+
+            @Override
+            Map.Entry<String, StoreableImpl> read(String line, RowLayout layout) throws ParseException {
+                return JSONRowReader.readKeyed(line, layout);
+            }
+        };
+
+        private final String name;
+
+        Format(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns format with the given name, which is also the extension of files of the format.
+         * @throws IllegalArgumentException
+         *         If the format is unknown.
+         */
+        public static Format forName(String name) throws IllegalArgumentException {
+            for (Format format : values()) {
+                if (format.name.equalsIgnoreCase(name)) {
+                    return format;
+                }
+            }
+            throw new IllegalArgumentException("Unknown format: " + name);
+        }
+
+        /**
+         * Chooses format by extension of the file.
+         * @throws IllegalArgumentException
+         *         If the extension is not a name of a format.
+         */
+        public static Format forFile(Path file) throws IllegalArgumentException {
+            String fileName = file.getFileName().toString();
+            int dot = fileName.lastIndexOf('.');
+            if (dot < 0) {
+                throw new IllegalArgumentException("Cannot choose format of a file without extension: " + file);
+            }
+            return forName(fileName.substring(dot + 1));
+        }
+
+        abstract String readKey(String line) throws ParseException;
+
+        abstract Map.Entry<String, StoreableImpl> read(String line, RowLayout layout) throws ParseException;
+    }
+
+    /**
+     * Lines handed to a worker at once with their numbers.
+     */
+    private static final class Chunk {
+        private final List<String> lines;
+        private final long[] lineNumbers;
+
+        Chunk(int capacity) {
+            lines = new ArrayList<>(capacity);
+            lineNumbers = new long[capacity];
+        }
+
+        void add(String line, long lineNumber) {
+            lineNumbers[lines.size()] = lineNumber;
+            lines.add(line);
+        }
+
+        boolean isFull() {
+            return lines.size() == lineNumbers.length;
+        }
+    }
+
+    /**
+     * Parses and encodes rows of the parts given to it and commits them when it has collected enough of them.
+     * After a failure of any worker, lines are taken from the queue and dropped, so that the reader is not
+     * blocked.
+     */
+    private final class Worker implements Runnable {
+        private final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(QUEUED_CHUNKS_PER_WORKER);
+        private final Format format;
+        private final int maxBufferedRowsCount;
+        private final AtomicReference<Exception> failure;
+        /**
+         * Encoded rows by part indices.
+         */
+        private Map<Integer, Map<String, String>> buffer = new HashMap<>();
+        private int bufferedRowsCount;
+        private int commitsCount;
+
+        Worker(Format format, int maxBufferedRowsCount, AtomicReference<Exception> failure) {
+            this.format = format;
+            this.maxBufferedRowsCount = maxBufferedRowsCount;
+            this.failure = failure;
+        }
+
+        /**
+         * Puts the chunk to the queue of this worker, waiting for room if necessary.
+         */
+        void hand(Chunk chunk) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    queue.put(chunk);
+                    break;
+                } catch (InterruptedException exc) {
+                    // The worker takes chunks until the end, so there will be room.
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            TableLayout layout = table.getLayout();
+            RowLayout rowLayout = table.getRowLayout();
+            RowCodec rowCodec = table.getRowCodec();
+
+            while (true) {
+                Chunk chunk;
+                try {
+                    chunk = queue.take();
+                } catch (InterruptedException exc) {
+                    // Nobody interrupts workers, but the reader may be waiting for room in the queue.
+                    continue;
+                }
+                if (chunk == END) {
+                    break;
+                }
+                if (failure.get() != null) {
+                    continue;
+                }
+
+                try {
+                    for (int i = 0; i < chunk.lines.size(); i++) {
+                        Map.Entry<String, StoreableImpl> row;
+                        try {
+                            row = format.read(chunk.lines.get(i), rowLayout);
+                        } catch (ParseException exc) {
+                            throw lineError(chunk.lineNumbers[i], exc);
+                        }
+
+                        String key = row.getKey();
+                        Map<String, String> partRows =
+                                buffer.computeIfAbsent(layout.getPartIndex(key), partIndex -> new HashMap<>());
+                        if (partRows.put(key, rowCodec.encode(row.getValue())) == null
+                            && ++bufferedRowsCount >= maxBufferedRowsCount) {
+                            commitBuffer();
+                        }
+                    }
+                } catch (ParseException | DatabaseIOException | RuntimeException exc) {
+                    failure.compareAndSet(null, exc);
+                }
+            }
+
+            if (failure.get() == null) {
+                try {
+                    commitBuffer();
+                } catch (DatabaseIOException | RuntimeException exc) {
+                    failure.compareAndSet(null, exc);
+                }
+            }
+            buffer = null;
+        }
+
+        private void commitBuffer() throws DatabaseIOException {
+            if (bufferedRowsCount == 0) {
+                return;
+            }
+            table.commitImported(buffer);
+            commitsCount++;
+            buffer = new HashMap<>();
+            bufferedRowsCount = 0;
+        }
+    }
+}
@@ -0,0 +1,399 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
+
+import ru.fizteh.fivt.storage.structured.Index;
+import ru.fizteh.fivt.storage.structured.Storeable;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.exception.DBFileCorruptIOException;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.exception.ImproperStoreableException;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Utility;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * Index of committed rows of a structured table by values of one column. Rows with null in the column are
+ * not indexed. If several rows have the same value, the row with the least key is found.<br/>
+ * The index is kept in memory and updated by commits of the table. It is stored in the table root directory
+ * in file {@code <name>.index}: a header, then pairs (column value, row key). The header tells whether the
+ * file is up to date: it is marked outdated before the first commit that changes the table after the file
+ * has been written, and the file is written again when the table is closed. Outdated index is built again
+ * from rows when the table is opened.<br/>
+ * Index is changed only under write lock of the table store and read under its read lock.
+ */
+final class ColumnIndex implements Index {
+    static final String FILE_SUFFIX = ".index";
+
+    private static final int MAGIC = 0x49445831;
+    /**
+     * Offset of the state byte in the file.
+     */
+    private static final int STATE_OFFSET = 4;
+    private static final byte STATE_OUTDATED = 0;
+    private static final byte STATE_ACTUAL = 1;
+
+    private final String name;
+    private final int column;
+    private final Class<?> columnType;
+    private final StringTableImpl store;
+    private final RowCodec rowCodec;
+    private final Path indexPath;
+    /**
+     * Mapping (column value, keys of rows with this value).
+     */
+    private final Map<Object, Keys> keysByValue = new HashMap<>();
+    /**
+     * True if the file does not correspond to the contents of the index.
+     */
+    private boolean outdated = true;
+
+    ColumnIndex(String name, int column, Class<?> columnType, StringTableImpl store, RowCodec rowCodec) {
+        this.name = name;
+        this.column = column;
+        this.columnType = columnType;
+        this.store = store;
+        this.rowCodec = rowCodec;
+        this.indexPath = getIndexPath(store.getTableRoot(), name);
+    }
+
+    static Path getIndexPath(Path tableRoot, String name) {
+        return tableRoot.resolve(name + FILE_SUFFIX);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    int getColumn() {
+        return column;
+    }
+
+    /**
+     * Finds committed row by the column value. Uncommitted changes of all threads are ignored.
+     * @param key
+     *         Column value: string itself for string columns, its text representation for other types.
+     * @throws IllegalArgumentException
+     *         If the key is null or cannot be parsed as a value of the column type.
+     */
+    @Override
+    public Storeable get(String key) throws IllegalArgumentException {
+        Utility.checkNotNull(key, "Key");
+        Object value = parseValue(key);
+
+        String[] rowValue = new String[2];
+        store.runWithoutCommits(
+                () -> {
+                    Keys keys = keysByValue.get(value);
+                    if (keys != null) {
+                        rowValue[0] = keys.first();
+                        rowValue[1] = store.getCommitted(rowValue[0]);
+                    }
+                });
+        if (rowValue[1] == null) {
+            return null;
+        }
+
+        try {
+            return rowCodec.decode(rowValue[1]);
+        } catch (ParseException exc) {
+            throw new ImproperStoreableException(
+                    "Value of improper format found in table " + store.getName() + " for key " + rowValue[0]
+                    + ": " + exc.getMessage(), exc);
+        }
+    }
+
+    /**
+     * Converts text representation of a column value to the value.
+     */
+    private Object parseValue(String text) throws IllegalArgumentException {
+        try {
+            if (columnType == String.class) {
+                return text;
+            } else if (columnType == Integer.class) {
+                return Integer.valueOf(text);
+            } else if (columnType == Long.class) {
+                return Long.valueOf(text);
+            } else if (columnType == Byte.class) {
+                return Byte.valueOf(text);
+            } else if (columnType == Float.class) {
+                return Float.valueOf(text);
+            } else if (columnType == Double.class) {
+                return Double.valueOf(text);
+            } else if ("true".equals(text) || "false".equals(text)) {
+                return Boolean.valueOf(text);
+            }
+        } catch (NumberFormatException exc) {
+            // Reported below.
+        }
+        throw new IllegalArgumentException(
+                "wrong type (" + text + " is not a value of type " + columnType.getSimpleName() + ")");
+    }
+
+    /**
+     * Indexes all committed rows of the table. Must be called when no commit can be published.
+     * @throws IllegalStateException
+     *         If some row cannot be decoded.
+     */
+    void build() throws IllegalStateException {
+        keysByValue.clear();
+        outdated = true;
+        store.forEachCommitted(
+                (key, value) -> {
+                    try {
+                        add(rowCodec.decode(value).getColumnAt(column), key);
+                    } catch (ParseException exc) {
+                        throw new IllegalStateException(
+                                "Value of improper format found in table " + store.getName() + " for key " + key
+                                + ": " + exc.getMessage(), exc);
+                    }
+                });
+    }
+
+    /**
+     * Applies a committed change of a row.
+     * @param oldRow
+     *         Null if the row has been added.
+     * @param newRow
+     *         Null if the row has been removed.
+     */
+    void update(String key, Storeable oldRow, Storeable newRow) {
+        Object oldValue = oldRow == null ? null : oldRow.getColumnAt(column);
+        Object newValue = newRow == null ? null : newRow.getColumnAt(column);
+        if (oldValue != null) {
+            remove(oldValue, key);
+        }
+        if (newValue != null) {
+            add(newValue, key);
+        }
+    }
+
+    private void add(Object value, String key) {
+        if (value == null) {
+            return;
+        }
+        Keys keys = keysByValue.get(value);
+        if (keys == null) {
+            keysByValue.put(value, new Keys(key));
+        } else {
+            keys.add(key);
+        }
+    }
+
+    private void remove(Object value, String key) {
+        Keys keys = keysByValue.get(value);
+        if (keys != null && keys.remove(key)) {
+            keysByValue.remove(value);
+        }
+    }
+
+    /**
+     * Marks the index file outdated, unless it has been marked already. Must be called before the changes
+     * of the table are written.
+     */
+    void markOutdated() throws IOException {
+        if (outdated) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {STATE_OUTDATED}), STATE_OFFSET);
+            channel.force(false);
+        }
+        outdated = true;
+    }
+
+    boolean isOutdated() {
+        return outdated;
+    }
+
+    /**
+     * Writes the index to its file. The old file is replaced atomically.
+     */
+    void write() throws IOException {
+        Path temporaryPath = TablePart.getTemporaryFilePath(indexPath);
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temporaryPath)))) {
+            output.writeInt(MAGIC);
+            output.writeByte(STATE_ACTUAL);
+            output.writeInt(column);
+            for (Map.Entry<Object, Keys> entry : keysByValue.entrySet()) {
+                String value = entry.getKey().toString();
+                for (String key : entry.getValue().all()) {
+                    writeString(output, value);
+                    writeString(output, key);
+                }
+            }
+        }
+        try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temporaryPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        outdated = false;
+    }
+
+    /**
+     * Reads the index from its file; if the file is outdated, builds the index from table rows.
+     * @throws DBFileCorruptIOException
+     *         If the file cannot be read.
+     * @throws IllegalStateException
+     *         If the index is built and some row cannot be decoded.
+     */
+    void read() throws DBFileCorruptIOException, IllegalStateException {
+        boolean actual;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+            if (input.readInt() != MAGIC) {
+                throw new DBFileCorruptIOException("Invalid index file: " + indexPath.getFileName());
+            }
+            actual = input.readByte() == STATE_ACTUAL;
+            if (input.readInt() != column) {
+                throw new DBFileCorruptIOException("Index file of another column: " + indexPath.getFileName());
+            }
+
+            keysByValue.clear();
+            while (actual) {
+                String value = readString(input);
+                if (value == null) {
+                    break;
+                }
+                String key = readString(input);
+                if (key == null) {
+                    throw new DBFileCorruptIOException("Index file is truncated: " + indexPath.getFileName());
+                }
+                add(parseValue(value), key);
+            }
+        } catch (DBFileCorruptIOException exc) {
+            throw exc;
+        } catch (IOException | IllegalArgumentException exc) {
+            throw new DBFileCorruptIOException(
+                    "Failed to read index file " + indexPath.getFileName() + ": " + exc.getMessage());
+        }
+
+        if (actual) {
+            outdated = false;
+        } else {
+            build();
+        }
+    }
+
+    /**
+     * Reads column of the index from the file header.
+     * @throws DBFileCorruptIOException
+     *         If the header cannot be read.
+     */
+    static int readColumn(Path indexPath) throws DBFileCorruptIOException {
+        try (DataInputStream input = new DataInputStream(Files.newInputStream(indexPath))) {
+            if (input.readInt() != MAGIC) {
+                throw new DBFileCorruptIOException("Invalid index file: " + indexPath.getFileName());
+            }
+            input.readByte();
+            return input.readInt();
+        } catch (DBFileCorruptIOException exc) {
+            throw exc;
+        } catch (IOException exc) {
+            throw new DBFileCorruptIOException(
+                    "Failed to read index file " + indexPath.getFileName() + ": " + exc.getMessage(), exc);
+        }
+    }
+
+    private static void writeString(DataOutputStream output, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    /**
+     * Reads string written by {@link #writeString(DataOutputStream, String)}.
+     * @return String or null if the end of stream is reached.
+     */
+    private static String readString(DataInputStream input) throws IOException {
+        int length;
+        try {
+            length = input.readInt();
+        } catch (EOFException exc) {
+            return null;
+        }
+        if (length < 0) {
+            throw new IOException("Negative string length");
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Keys of rows with the same column value. A single key is kept without a set, as most values are unique.
+     */
+    private static final class Keys {
+        /**
+         * The only key or null if there are several keys.
+         */
+        private String key;
+        /**
+         * Keys if there are several of them, otherwise null.
+         */
+        private NavigableSet<String> keysSet;
+
+        Keys(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Returns the least key.
+         */
+        String first() {
+            return keysSet == null ? key : keysSet.first();
+        }
+
+        Iterable<String> all() {
+            return keysSet == null ? Collections.singleton(key) : keysSet;
+        }
+
+        void add(String newKey) {
+            if (keysSet != null) {
+                keysSet.add(newKey);
+            } else if (!key.equals(newKey)) {
+                keysSet = new TreeSet<>();
+                keysSet.add(key);
+                keysSet.add(newKey);
+                key = null;
+            }
+        }
+
+        /**
+         * Removes the key.
+         * @return True if no keys are left.
+         */
+        boolean remove(String oldKey) {
+            if (keysSet == null) {
+                return key.equals(oldKey);
+            }
+            keysSet.remove(oldKey);
+            if (keysSet.size() == 1) {
+                key = keysSet.first();
+                keysSet = null;
+            }
+            return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return ColumnIndex.class.getSimpleName() + "[" + name + " of " + store.getName() + ", column " + column
+               + "]";
+    }
+}
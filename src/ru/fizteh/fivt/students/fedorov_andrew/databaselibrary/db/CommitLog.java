@@ -0,0 +1,367 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
+
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.exception.DBFileCorruptIOException;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log of commits of the tables of one provider.<br/>
+ * Commit of several tables is appended as one record and synced once; its changes are published in memory and
+ * written to table part files later in background. The log is removed as soon as all its records are written
+ * to part files; otherwise it is replayed when the provider is opened. Records of tables that cannot be opened
+ * then are kept in the log until they can.<br/>
+ * While a table has records in the log, all its commits go through the log, so that replay never overrides
+ * newer committed data.<br/>
+ * Structure: {@code <4 bytes: magic>} followed by records. Each record is {@code <4 bytes: payload
+ * length><4 bytes: CRC32 of payload><payload>}. Payload is {@code <4 bytes: tables count>} followed by
+ * {@code <table name><4 bytes: changes count>} and changes {@code <key><value>} of each table. Strings are
+ * {@code <4 bytes: length><UTF-8 bytes>}, removed values have length -1. Changes count -1 means that the table
+ * has been removed. An incomplete or damaged record at the end of the file (e.g. after a crash during append)
+ * is ignored.
+ */
+final class CommitLog {
+    /**
+     * Name of the log file in the database directory. Tables cannot have this name.
+     */
+    static final String FILE_NAME = "commits.wal";
+
+    private static final int MAGIC = 0x465a5741;
+    private static final int HEADER_SIZE = 4;
+    private static final int NULL_LENGTH = -1;
+    private static final int TABLE_REMOVED = -1;
+
+    private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+                Thread thread = new Thread(runnable, "Commit log applier");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private final Path logPath;
+    /**
+     * Open log file or null if the log is empty.
+     */
+    private FileChannel channel;
+    private long validLength;
+    /**
+     * Names of tables that have records in the log.
+     */
+    private final Set<String> loggedTables = new HashSet<>();
+    /**
+     * Numbers of records not written to part files yet, by table names.
+     */
+    private final Map<String, Integer> pendingRecords = new HashMap<>();
+
+    CommitLog(Path databaseRoot) {
+        this.logPath = databaseRoot.resolve(FILE_NAME);
+    }
+
+    /**
+     * Schedules writing of changes of a table to its part files.
+     */
+    static void scheduleApply(Runnable action, long delayMillis) {
+        EXECUTOR.schedule(action, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns true if the table has records in the log.
+     */
+    synchronized boolean isLogged(String tableName) {
+        return loggedTables.contains(tableName);
+    }
+
+    /**
+     * Appends the changes of the given tables as one record and syncs it to the disk.
+     * @param changes
+     *         Changes by table names; a pair (key, null) describes removal.
+     */
+    synchronized void append(Map<String, Map<String, String>> changes) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(1024);
+        DataOutputStream output = new DataOutputStream(payload);
+        output.writeInt(changes.size());
+        for (Entry<String, Map<String, String>> tableChanges : changes.entrySet()) {
+            writeString(output, tableChanges.getKey());
+            output.writeInt(tableChanges.getValue().size());
+            for (Entry<String, String> change : tableChanges.getValue().entrySet()) {
+                writeString(output, change.getKey());
+                writeString(output, change.getValue());
+            }
+        }
+        output.flush();
+
+        writeRecord(payload.toByteArray());
+        for (String tableName : changes.keySet()) {
+            loggedTables.add(tableName);
+            pendingRecords.merge(tableName, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Records that the table has been removed: its earlier records are not replayed. Does nothing if the table
+     * has no records in the log.
+     */
+    synchronized void appendRemoval(String tableName) throws IOException {
+        if (!loggedTables.contains(tableName)) {
+            return;
+        }
+
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(payload);
+        output.writeInt(1);
+        writeString(output, tableName);
+        output.writeInt(TABLE_REMOVED);
+        output.flush();
+
+        writeRecord(payload.toByteArray());
+        pendingRecords.remove(tableName);
+        removeIfApplied();
+    }
+
+    private void writeRecord(byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        if (channel == null) {
+            channel = FileChannel.open(
+                    logPath,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+            validLength = 0;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length + HEADER_SIZE + 8);
+        DataOutputStream output = new DataOutputStream(bytes);
+        if (validLength == 0) {
+            output.writeInt(MAGIC);
+        }
+        output.writeInt(payload.length);
+        output.writeInt((int) crc.getValue());
+        output.write(payload);
+        output.flush();
+
+        try {
+            channel.position(validLength);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException exc) {
+            // The record is not committed: it must not be replayed.
+            try {
+                channel.truncate(validLength);
+            } catch (IOException truncateExc) {
+                Log.log(CommitLog.class, truncateExc, "Failed to cut off failed record of " + logPath);
+            }
+            throw exc;
+        }
+        validLength += bytes.size();
+    }
+
+    /**
+     * Called when the given number of records of the table have been written to its part files. The log is
+     * removed when all its records have been written.
+     */
+    synchronized void onApplied(String tableName, int recordsCount) {
+        Integer pending = pendingRecords.get(tableName);
+        if (pending == null) {
+            return;
+        }
+        if (pending <= recordsCount) {
+            pendingRecords.remove(tableName);
+        } else {
+            pendingRecords.put(tableName, pending - recordsCount);
+        }
+        removeIfApplied();
+    }
+
+    private void removeIfApplied() {
+        if (!pendingRecords.isEmpty() || channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+            channel = null;
+            Files.deleteIfExists(logPath);
+            loggedTables.clear();
+        } catch (IOException exc) {
+            // Replay of the applied records does not harm.
+            Log.log(CommitLog.class, exc, "Failed to remove commit log " + logPath);
+        }
+    }
+
+    /**
+     * Closes the log file. Records that have not been written to part files are replayed when the provider is
+     * opened next time.
+     */
+    synchronized void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException exc) {
+                Log.log(CommitLog.class, exc, "Failed to close commit log " + logPath);
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * Reads the log left by the previous provider and merges its records.
+     * @return Changes by table names in order of their first records; empty if there is no log.
+     */
+    Map<String, Map<String, String>> read() throws IOException {
+        Map<String, Map<String, String>> changes = new LinkedHashMap<>();
+        if (!Files.exists(logPath)) {
+            return changes;
+        }
+
+        long fileSize = Files.size(logPath);
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(logPath)))) {
+            if (fileSize < HEADER_SIZE || input.readInt() != MAGIC) {
+                throw new DBFileCorruptIOException("Not a commit log file: " + logPath);
+            }
+
+            long offset = HEADER_SIZE;
+            validLength = offset;
+            while (offset < fileSize) {
+                byte[] payload;
+                try {
+                    int length = input.readInt();
+                    int checksum = input.readInt();
+                    if (length < 0 || length > fileSize - offset) {
+                        throw new EOFException();
+                    }
+                    payload = new byte[length];
+                    input.readFully(payload);
+
+                    CRC32 crc = new CRC32();
+                    crc.update(payload);
+                    if ((int) crc.getValue() != checksum) {
+                        throw new EOFException();
+                    }
+                } catch (EOFException exc) {
+                    Log.log(CommitLog.class, "Incomplete record at the end of " + logPath + " is ignored");
+                    break;
+                }
+
+                readRecord(payload, changes);
+                offset += 8 + payload.length;
+                validLength = offset;
+            }
+        }
+        return changes;
+    }
+
+    private static void readRecord(byte[] payload, Map<String, Map<String, String>> target) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+        int tablesCount = input.readInt();
+        for (int table = 0; table < tablesCount; table++) {
+            String tableName = readString(input);
+            int changesCount = input.readInt();
+            if (changesCount == TABLE_REMOVED) {
+                target.remove(tableName);
+                continue;
+            }
+
+            Map<String, String> tableChanges = target.computeIfAbsent(tableName, name -> new HashMap<>());
+            for (int change = 0; change < changesCount; change++) {
+                String key = readString(input);
+                tableChanges.put(key, readString(input));
+            }
+        }
+    }
+
+    /**
+     * Keeps the records of the given tables in the log {@link #read() read} before, e.g. because the tables are
+     * corrupt and cannot be replayed now. Records of the other tables are marked as removed, as they have been
+     * replayed. The kept records are replayed when the provider is opened next time; until then the log is not
+     * removed and the kept tables commit through it. Removes the log if no tables are kept.
+     */
+    synchronized void keep(Set<String> keptTables, Set<String> replayedTables) throws IOException {
+        if (keptTables.isEmpty()) {
+            clear();
+            return;
+        }
+
+        channel = FileChannel.open(logPath, StandardOpenOption.WRITE);
+        // An incomplete record at the end would hide the records appended after it.
+        channel.truncate(validLength);
+        if (!replayedTables.isEmpty()) {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(payload);
+            output.writeInt(replayedTables.size());
+            for (String tableName : replayedTables) {
+                writeString(output, tableName);
+                output.writeInt(TABLE_REMOVED);
+            }
+            output.flush();
+            writeRecord(payload.toByteArray());
+        }
+
+        loggedTables.clear();
+        pendingRecords.clear();
+        for (String tableName : keptTables) {
+            loggedTables.add(tableName);
+            // The kept records are never applied by this provider.
+            pendingRecords.put(tableName, 1);
+        }
+    }
+
+    /**
+     * Removes the log after its records have been replayed.
+     */
+    synchronized void clear() throws IOException {
+        close();
+        Files.deleteIfExists(logPath);
+        loggedTables.clear();
+        pendingRecords.clear();
+    }
+
+    private static void writeString(DataOutputStream output, String string) throws IOException {
+        if (string == null) {
+            output.writeInt(NULL_LENGTH);
+            return;
+        }
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        if (length < 0) {
+            throw new DBFileCorruptIOException("Negative length of string in commit log");
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,73 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
+
+/**
+ * Statistics of a batch of table commits written together.<br/>
+ * Immutable.
+ * @see StringTableImpl#getLastCommitMetrics()
+ */
+public final class CommitMetrics {
+    /**
+     * Metrics of a table that has not been committed yet.
+     */
+    static final CommitMetrics NONE = new CommitMetrics(0, 0, 0, 0, 0);
+
+    private final int commitsCount;
+    private final int changesCount;
+    private final int dirtyPartsCount;
+    private final long bytesWritten;
+    private final long wallTimeNanos;
+
+    CommitMetrics(int commitsCount, int changesCount, int dirtyPartsCount, long bytesWritten, long wallTimeNanos) {
+        this.commitsCount = commitsCount;
+        this.changesCount = changesCount;
+        this.dirtyPartsCount = dirtyPartsCount;
+        this.bytesWritten = bytesWritten;
+        this.wallTimeNanos = wallTimeNanos;
+    }
+
+    /**
+     * Number of commits made by different threads that were written together.
+     */
+    public int getCommitsCount() {
+        return commitsCount;
+    }
+
+    /**
+     * Total number of committed changes, as returned by the commits.
+     */
+    public int getChangesCount() {
+        return changesCount;
+    }
+
+    /**
+     * Number of table parts that had changes and were written.
+     */
+    public int getDirtyPartsCount() {
+        return dirtyPartsCount;
+    }
+
+    /**
+     * Number of bytes written to the file system.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Time spent writing the batch, including waiting for the table lock.
+     */
+    public long getWallTimeNanos() {
+        return wallTimeNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%d commits, %d changes, %d dirty parts, %d bytes written, %.3f ms",
+                commitsCount,
+                changesCount,
+                dirtyPartsCount,
+                bytesWritten,
+                wallTimeNanos / 1e6);
+    }
+}
@@ -1,15 +1,12 @@
 package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
 
 import ru.fizteh.fivt.storage.structured.ColumnFormatException;
+import ru.fizteh.fivt.storage.structured.Index;
 import ru.fizteh.fivt.storage.structured.Storeable;
 import ru.fizteh.fivt.storage.structured.Table;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.exception.DatabaseIOException;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.exception.TableCorruptIOException;
-import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.json.JSONMaker;
-import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.json.JSONParsedObject;
-import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.json.JSONParser;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.ConvenientCollection;
-import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.ConvenientMap;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Log;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Utility;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.ValidityController;
@@ -21,47 +18,25 @@ import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.function.Function;
 import java.util.function.Predicate;
 
 final class DBTableProvider implements AutoCloseableProvider {
-    private static final char QUOTE_CHARACTER = '\"';
-
     private static final Collection<Class<?>> SUPPORTED_TYPES = new ConvenientCollection<>(
             new HashSet<Class<?>>()).chainAdd(Integer.class).chainAdd(Long.class).chainAdd(Byte.class)
                                     .chainAdd(Double.class).chainAdd(Float.class).chainAdd(Boolean.class)
                                     .chainAdd(String.class);
 
-    private static final Map<Class<?>, Function<String, Object>> PARSERS =
-            new ConvenientMap<>(new HashMap<Class<?>, Function<String, Object>>())
-                    .chainPut(Integer.class, Integer::parseInt).chainPut(Long.class, Long::parseLong)
-                    .chainPut(Byte.class, Byte::parseByte).chainPut(
-                    Boolean.class, str -> {
-                        Utility.checkNotNull(str, "String to parse");
-                        if (str.matches("(?i)true|false")) {
-                            return Boolean.parseBoolean(str);
-                        } else {
-                            throw new ColumnFormatException("Expected 'true' or 'false' as boolean");
-                        }
-                    }).chainPut(Double.class, Double::parseDouble).chainPut(Float.class, Float::parseFloat)
-                    .chainPut(
-                            String.class, str -> {
-                                if (!str.startsWith(QUOTE_CHARACTER + "") || !str
-                                        .endsWith(QUOTE_CHARACTER + "")) {
-                                    throw new ColumnFormatException("(String expected to be in quotes");
-                                }
-                                return str.substring(1, str.length() - 1);
-                            });
-
     private final Path databaseRoot;
     /**
      * Mapping between table names and tables. Corrupt tables are null.
@@ -77,22 +52,52 @@ final class DBTableProvider implements AutoCloseableProvider {
     private final ReadWriteLock persistenceLock = new ReentrantReadWriteLock(true);
     private final ValidityController validityController = new ValidityController();
     private final DBTableProviderFactory factory;
+    private final TableValidation validation;
+    /**
+     * Log of commits of many tables at once.
+     * @see #commit(Collection)
+     */
+    private final CommitLog commitLog;
+    /**
+     * Mapping (table name, identifier of the table loading) for tables that are being validated in
+     * background. Result of validation is ignored if the table has been removed or reloaded meanwhile.
+     */
+    private final Map<String, Object> validationIds = new HashMap<>();
+    /**
+     * Guards {@link #pendingValidationsCount}.
+     */
+    private final Object validationMonitor = new Object();
+    private int pendingValidationsCount = 0;
     /**
      * Special flag that prevents from reacting on event raised by this object.
      */
     private boolean tableClosedByMe = false;
 
     /**
-     * Constructs a database table provider.
+     * Constructs a database table provider. Tables are validated as {@link TableValidation#PROPERTY_NAME}
+     * system property says.
      * @throws ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.exception.DatabaseIOException
      *         If failed to scan database directory.
+     * @throws IllegalArgumentException
+     *         If validation mode is unknown.
      */
-    DBTableProvider(Path databaseRoot, DBTableProviderFactory factory) throws DatabaseIOException {
+    DBTableProvider(Path databaseRoot, DBTableProviderFactory factory)
+            throws DatabaseIOException, IllegalArgumentException {
         this.databaseRoot = databaseRoot;
         this.factory = factory;
+        this.validation = TableValidation.fromSystemProperties();
         this.tables = new HashMap<>();
         this.corruptTables = new HashMap<>();
-        reloadAllTables();
+        this.commitLog = new CommitLog(databaseRoot);
+
+        // Background validation results must not be applied before the tables are registered.
+        persistenceLock.writeLock().lock();
+        try {
+            reloadAllTables();
+            replayCommitLog();
+        } finally {
+            persistenceLock.writeLock().unlock();
+        }
     }
 
     public Path getDatabaseRoot() {
@@ -114,6 +119,7 @@ final class DBTableProvider implements AutoCloseableProvider {
                     throw new IllegalStateException(name + " not exists");
                 }
 
+                validationIds.remove(name);
                 AutoCloseableTable removed = tables.remove(name);
                 if (removed != null) {
                     // After invalidation all attempts to commit from other threads fail with
@@ -124,6 +130,13 @@ final class DBTableProvider implements AutoCloseableProvider {
 
                 corruptTables.remove(name);
 
+                try {
+                    // Records of this table must not be replayed into a new table with the same name.
+                    commitLog.appendRemoval(name);
+                } catch (IOException exc) {
+                    throw new DatabaseIOException("Failed to write commit log", exc);
+                }
+
                 if (!Files.exists(tablePath)) {
                     return;
                 }
@@ -151,55 +164,7 @@ final class DBTableProvider implements AutoCloseableProvider {
             Utility.checkNotNull(table, "Table");
             Utility.checkNotNull(value, "Value");
 
-            int leftBound = value.indexOf('[');
-            int rightBound = value.lastIndexOf(']');
-
-            if (leftBound < 0 || rightBound < 0) {
-                throw new ParseException("wrong type (Arguments must be inside square brackets)", -1);
-            }
-
-            Storeable storeable = createFor(table);
-
-            JSONParsedObject parsedObject;
-            try {
-                parsedObject = JSONParser.parseJSON(value.substring(leftBound, rightBound + 1));
-            } catch (ParseException exc) {
-                throw new ParseException("wrong type (" + exc.getMessage() + ")", exc.getErrorOffset());
-            }
-            if (!parsedObject.isStandardArray()) {
-                throw new ParseException("wrong type (Arguments must be given as array)", -1);
-            }
-
-            Object[] args = parsedObject.asArray();
-
-            if (args.length != table.getColumnsCount()) {
-                throw new ParseException("wrong type (Irregular number of arguments given)", -1);
-            }
-
-            try {
-                for (int i = 0; i < args.length; i++) {
-                    Object elementObj;
-
-                    if (args[i] == null) {
-                        elementObj = null;
-                    } else if (args[i] instanceof JSONParsedObject) {
-                        throw new ParseException("wrong type (Complex types are not supported)", i);
-                    } else {
-                        String str = args[i].toString();
-                        if (args[i] instanceof String) {
-                            str = QUOTE_CHARACTER + str + QUOTE_CHARACTER;
-                        }
-
-                        elementObj = PARSERS.get(table.getColumnType(i)).apply(str);
-                    }
-
-                    storeable.setColumnAt(i, elementObj);
-                }
-            } catch (RuntimeException exc) {
-                throw new ParseException("wrong type (" + exc.getMessage() + ")", -1);
-            }
-
-            return storeable;
+            return new JSONRowCodec(StoreableImpl.getRowLayout(table)).decode(value);
         }
     }
 
@@ -211,16 +176,7 @@ final class DBTableProvider implements AutoCloseableProvider {
 
             StoreableTableImpl.checkStoreableAppropriate(table, value);
 
-            if (value instanceof StoreableImpl) {
-                // Optimization: we do not create new array.
-                return JSONMaker.makeJSON(value);
-            } else {
-                Object[] values = new Object[table.getColumnsCount()];
-                for (int i = 0; i < values.length; i++) {
-                    values[i] = value.getColumnAt(i);
-                }
-                return JSONMaker.makeJSON(values);
-            }
+            return new JSONRowCodec(StoreableImpl.getRowLayout(table)).encode(value);
         }
     }
 
@@ -276,10 +232,32 @@ final class DBTableProvider implements AutoCloseableProvider {
     private void loadTable(Path tablePath) {
         String tableName = tablePath.getFileName().toString();
 
+        Object validationId = new Object();
+        if (validation == TableValidation.BACKGROUND) {
+            synchronized (validationMonitor) {
+                pendingValidationsCount++;
+            }
+        }
+
         try {
-            AutoCloseableTable table = StoreableTableImpl.getTable(this, this::onTableClosed, tablePath);
+            if (validation == TableValidation.BACKGROUND) {
+                validationIds.put(tableName, validationId);
+            }
+            AutoCloseableTable table = StoreableTableImpl.getTable(
+                    this,
+                    this::onTableClosed,
+                    tablePath,
+                    validation,
+                    reason -> onTableValidated(tableName, validationId, reason),
+                    factory.getValueCache());
+            unwrap(table).setCommitLog(commitLog);
             tables.put(tableName, table);
         } catch (DatabaseIOException exc) {
+            if (validation == TableValidation.BACKGROUND) {
+                validationIds.remove(tableName);
+                onValidationFinished();
+            }
+
             // Mark as corrupt.
             tables.put(tableName, null);
             corruptTables.put(
@@ -302,6 +280,7 @@ final class DBTableProvider implements AutoCloseableProvider {
     private void reloadAllTables() throws DatabaseIOException {
         tables.clear();
         corruptTables.clear();
+        validationIds.clear();
         loadTables((tableName) -> true);
     }
 
@@ -312,7 +291,8 @@ final class DBTableProvider implements AutoCloseableProvider {
     private void loadTables(Predicate<String> loadFilter) throws DatabaseIOException {
         try (DirectoryStream<Path> dirStream = Files.newDirectoryStream(databaseRoot)) {
             for (Path tablePath : dirStream) {
-                if (loadFilter.test(tablePath.getFileName().toString())) {
+                String tableName = tablePath.getFileName().toString();
+                if (!tableName.equals(CommitLog.FILE_NAME) && loadFilter.test(tableName)) {
                     loadTable(tablePath);
                 }
             }
@@ -321,6 +301,141 @@ final class DBTableProvider implements AutoCloseableProvider {
         }
     }
 
+    /**
+     * Commits changes left in the commit log by the previous provider, e.g. after a crash, and removes the log.
+     * Records of missing and corrupt tables are kept in the log until the tables can be opened, as they can be
+     * the only copy of committed data.<br/>
+     * Not thread-safe.
+     */
+    private void replayCommitLog() throws DatabaseIOException {
+        Map<String, Map<String, String>> changes;
+        try {
+            changes = commitLog.read();
+        } catch (DatabaseIOException exc) {
+            throw exc;
+        } catch (IOException exc) {
+            throw new DatabaseIOException("Failed to read commit log", exc);
+        }
+
+        Set<String> keptTables = new HashSet<>();
+        Set<String> replayedTables = new HashSet<>();
+        for (Map.Entry<String, Map<String, String>> tableChanges : changes.entrySet()) {
+            AutoCloseableTable table = tables.get(tableChanges.getKey());
+            if (table == null) {
+                Log.log(
+                        DBTableProvider.class,
+                        "Commit log records of missing or corrupt table " + tableChanges.getKey()
+                        + " are kept until it can be opened");
+                keptTables.add(tableChanges.getKey());
+                continue;
+            }
+            unwrap(table).commitReplayed(tableChanges.getValue());
+            replayedTables.add(tableChanges.getKey());
+        }
+
+        try {
+            commitLog.keep(keptTables, replayedTables);
+        } catch (IOException exc) {
+            throw new DatabaseIOException("Failed to update commit log", exc);
+        }
+    }
+
+    /**
+     * Returns the table behind the decorator the given table of a local provider can be.
+     * @throws IllegalArgumentException
+     *         If the table is not a table of a local provider.
+     */
+    static StoreableTableImpl unwrap(Table table) throws IllegalArgumentException {
+        Table decoratedTable = table instanceof LoggingTable ? ((LoggingTable) table).getDecoratedTable() : table;
+        if (!(decoratedTable instanceof StoreableTableImpl)) {
+            throw new IllegalArgumentException("Not a table of a local database: " + table.getName());
+        }
+        return (StoreableTableImpl) decoratedTable;
+    }
+
+    /**
+     * Commits changes made by this thread to all the given tables at once. The changes are appended to the
+     * commit log of the provider as one record and applied to table part files in background; the log is
+     * replayed when the provider is opened after a crash.
+     * @see StringTableImpl#commit(Collection, CommitLog)
+     */
+    @Override
+    public int commit(Collection<? extends Table> tablesToCommit)
+            throws IllegalArgumentException, DatabaseIOException {
+        try (UseLock useLock = validityController.use()) {
+            Utility.checkNotNull(tablesToCommit, "Tables");
+
+            List<StoreableTableImpl> committedTables = new ArrayList<>(tablesToCommit.size());
+            persistenceLock.readLock().lock();
+            try {
+                for (Table table : tablesToCommit) {
+                    Utility.checkNotNull(table, "Table");
+                    AutoCloseableTable ownTable = tables.get(table.getName());
+                    if (ownTable == null || ownTable != table) {
+                        throw new IllegalArgumentException(
+                                "Table does not belong to this provider: " + table.getName());
+                    }
+                    committedTables.add(unwrap(ownTable));
+                }
+            } finally {
+                persistenceLock.readLock().unlock();
+            }
+
+            return StoreableTableImpl.commit(committedTables, commitLog);
+        }
+    }
+
+    /**
+     * Called when background validation of a table finishes.
+     * @param validationId
+     *         Identifier of the table loading. If the table has been removed or reloaded since then, the
+     *         result is ignored.
+     * @param corruptionReason
+     *         Null if the table is valid.
+     */
+    private void onTableValidated(String tableName, Object validationId, TableCorruptIOException corruptionReason) {
+        try {
+            persistenceLock.writeLock().lock();
+            try {
+                if (validationIds.get(tableName) != validationId) {
+                    return;
+                }
+                validationIds.remove(tableName);
+
+                if (corruptionReason != null) {
+                    Log.log(DBTableProvider.class, corruptionReason, "Background validation failed");
+                    AutoCloseableTable table = tables.get(tableName);
+                    if (table != null) {
+                        table.close();
+                    }
+                    // Mark as corrupt.
+                    tables.put(tableName, null);
+                    corruptTables.put(tableName, corruptionReason);
+                }
+            } finally {
+                persistenceLock.writeLock().unlock();
+            }
+        } finally {
+            onValidationFinished();
+        }
+    }
+
+    private void onValidationFinished() {
+        synchronized (validationMonitor) {
+            pendingValidationsCount--;
+            validationMonitor.notifyAll();
+        }
+    }
+
+    @Override
+    public void awaitValidation() throws InterruptedException {
+        synchronized (validationMonitor) {
+            while (pendingValidationsCount > 0) {
+                validationMonitor.wait();
+            }
+        }
+    }
+
     /**
      * The given table is dismissed.
      * @param table
@@ -359,9 +474,12 @@ final class DBTableProvider implements AutoCloseableProvider {
             tableClosedByMe = true;
             persistenceLock.writeLock().lock();
             try {
+                // Tables write changes committed through the commit log to their part files when they are closed.
                 tables.values().stream().filter(table -> table != null).forEach(AutoCloseableTable::close);
+                commitLog.close();
                 tables.clear();
                 corruptTables.clear();
+                validationIds.clear();
 
                 // Deleting empty files and empty folders.
                 try (DirectoryStream<Path> dirStream = Files.newDirectoryStream(databaseRoot)) {
@@ -426,12 +544,78 @@ final class DBTableProvider implements AutoCloseableProvider {
         }
     }
 
+    @Override
+    public Index getIndex(String name) throws IllegalArgumentException {
+        try (UseLock useLock = validityController.use()) {
+            Utility.checkTableNameIsCorrect(name);
+
+            persistenceLock.readLock().lock();
+            try {
+                for (AutoCloseableTable table : tables.values()) {
+                    Index index = table == null ? null : table.getIndex(name);
+                    if (index != null) {
+                        return index;
+                    }
+                }
+                return null;
+            } finally {
+                persistenceLock.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Creates index of the table by the given column. Names of indexes and tables must not intersect.
+     * @see IndexableTable#createIndex(int, String)
+     */
+    @Override
+    public Index createIndex(Table table, int column, String name)
+            throws IllegalArgumentException, IllegalStateException {
+        try (UseLock useLock = validityController.use()) {
+            Utility.checkNotNull(table, "Table");
+            Utility.checkTableNameIsCorrect(name);
+
+            persistenceLock.writeLock().lock();
+            try {
+                AutoCloseableTable indexedTable = tables.get(table.getName());
+                if (indexedTable == null || indexedTable != table) {
+                    throw new IllegalArgumentException("Table does not belong to this provider: " + table.getName());
+                }
+                if (tables.containsKey(name)) {
+                    throw new IllegalArgumentException("Table with name " + name + " exists");
+                }
+                for (AutoCloseableTable otherTable : tables.values()) {
+                    if (otherTable != null && otherTable != indexedTable && otherTable.getIndex(name) != null) {
+                        throw new IllegalArgumentException(
+                                "Index " + name + " exists for table " + otherTable.getName());
+                    }
+                }
+
+                return indexedTable.createIndex(column, name);
+            } finally {
+                persistenceLock.writeLock().unlock();
+            }
+        }
+    }
+
     @Override
     public AutoCloseableTable createTable(String name, List<Class<?>> columnTypes)
             throws IllegalArgumentException, DatabaseIOException {
+        return createTable(name, columnTypes, TableLayout.DEFAULT);
+    }
+
+    @Override
+    public AutoCloseableTable createTable(String name, List<Class<?>> columnTypes, TableLayout layout)
+            throws IllegalArgumentException, DatabaseIOException {
         try (UseLock useLock = validityController.use()) {
             Utility.checkTableNameIsCorrect(name);
+            if (name.equals(CommitLog.FILE_NAME)) {
+                throw new IllegalArgumentException("Table name is reserved: " + name);
+            }
 
+            if (layout == null) {
+                throw new IllegalArgumentException("Table layout must not be null");
+            }
             if (columnTypes == null) {
                 throw new IllegalArgumentException("Column types list must not be null");
             }
@@ -447,10 +631,32 @@ final class DBTableProvider implements AutoCloseableProvider {
                 if (tables.containsKey(name) && tables.get(name) != null) {
                     return null;
                 }
+                for (AutoCloseableTable table : tables.values()) {
+                    if (table != null && table.getIndex(name) != null) {
+                        throw new IllegalArgumentException(
+                                "Index " + name + " exists for table " + table.getName());
+                    }
+                }
+
+                try {
+                    // Kept records of a corrupt table with the same name must not be replayed into the new one.
+                    commitLog.appendRemoval(name);
+                } catch (IOException exc) {
+                    throw new DatabaseIOException("Failed to write commit log", exc);
+                }
 
                 AutoCloseableTable newTable =
-                        StoreableTableImpl.createTable(this, this::onTableClosed, tablePath, columnTypes);
+                        StoreableTableImpl.createTable(
+                                this,
+                                this::onTableClosed,
+                                tablePath,
+                                columnTypes,
+                                layout,
+                                factory.getValueCache());
+                unwrap(newTable).setCommitLog(commitLog);
                 tables.put(name, newTable);
+                corruptTables.remove(name);
+                validationIds.remove(name);
                 return newTable;
             } finally {
                 persistenceLock.writeLock().unlock();
@@ -1,7 +1,8 @@
 package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
 
-import ru.fizteh.fivt.proxy.LoggingProxyFactory;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.exception.DatabaseIOException;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.AsyncLogWriter;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.CallLogger;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Log;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.LoggingProxyFactoryXML;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Utility;
@@ -20,11 +21,43 @@ import java.nio.file.Paths;
 import java.util.IdentityHashMap;
 
 public final class DBTableProviderFactory implements AutoCloseableTableProviderFactory {
-    private static final LoggingProxyFactory LOGGING_PROXY_FACTORY = new LoggingProxyFactoryXML();
-    private static final Writer LOG_WRITER;
+    /**
+     * Name of system property that turns on writing of the proxy log by {@link AsyncLogWriter}, so that calls
+     * of providers and tables do not wait for the disk. Read once, when this class is loaded.
+     */
+    public static final String PROXY_LOG_ASYNC_PROPERTY_NAME = "fizteh.db.proxyLog.async";
+    /**
+     * Name of system property with maximal number of reports waiting to be written asynchronously.
+     */
+    public static final String PROXY_LOG_CAPACITY_PROPERTY_NAME = "fizteh.db.proxyLog.capacity";
+    /**
+     * Name of system property with {@link AsyncLogWriter.OverflowPolicy} of asynchronous writing; default is
+     * {@link AsyncLogWriter.OverflowPolicy#BLOCK}.
+     */
+    public static final String PROXY_LOG_OVERFLOW_PROPERTY_NAME = "fizteh.db.proxyLog.overflow";
+    /**
+     * Name of system property with sampling period of the proxy log: only one of every this number of calls is
+     * reported.
+     * @see LoggingProxyFactoryXML#setSamplingPeriod(int)
+     */
+    public static final String PROXY_LOG_SAMPLING_PROPERTY_NAME = "fizteh.db.proxyLog.sampling";
+
+    private static final int DEFAULT_PROXY_LOG_CAPACITY = 8192;
+    private static final int PROXY_LOG_BATCH_SIZE = 256;
+
+    private static final LoggingProxyFactoryXML LOGGING_PROXY_FACTORY = new LoggingProxyFactoryXML();
+    /**
+     * Asynchronous writer of the log; null if the log is written synchronously or not written.
+     */
+    private static final AsyncLogWriter ASYNC_LOG_WRITER;
+    /**
+     * Logger used by decorators of providers and tables; null if the log is not written.
+     */
+    private static final CallLogger CALL_LOGGER;
 
     static {
         Writer tempWriter;
+        AsyncLogWriter tempAsyncWriter = null;
 
         try {
             tempWriter = new OutputStreamWriter(new FileOutputStream("Proxy.log"));
@@ -33,7 +66,32 @@ public final class DBTableProviderFactory implements AutoCloseableTableProviderF
             tempWriter = null;
         }
 
-        LOG_WRITER = tempWriter;
+        if (tempWriter != null) {
+            try {
+                LOGGING_PROXY_FACTORY.setSamplingPeriod(Integer.getInteger(PROXY_LOG_SAMPLING_PROPERTY_NAME, 1));
+                if (Boolean.getBoolean(PROXY_LOG_ASYNC_PROPERTY_NAME)) {
+                    String overflow = System.getProperty(
+                            PROXY_LOG_OVERFLOW_PROPERTY_NAME, AsyncLogWriter.OverflowPolicy.BLOCK.name());
+                    tempAsyncWriter = new AsyncLogWriter(
+                            tempWriter,
+                            Integer.getInteger(PROXY_LOG_CAPACITY_PROPERTY_NAME, DEFAULT_PROXY_LOG_CAPACITY),
+                            AsyncLogWriter.OverflowPolicy.valueOf(overflow.trim().toUpperCase()),
+                            PROXY_LOG_BATCH_SIZE);
+                    Runtime.getRuntime().addShutdownHook(new Thread(DBTableProviderFactory::closeAsyncLogWriter));
+                }
+            } catch (IllegalArgumentException exc) {
+                Log.log(DBTableProviderFactory.class, exc, "Invalid proxy log settings; writing it synchronously");
+            }
+        }
+
+        ASYNC_LOG_WRITER = tempAsyncWriter;
+        if (ASYNC_LOG_WRITER != null) {
+            CALL_LOGGER = new CallLogger(LOGGING_PROXY_FACTORY, ASYNC_LOG_WRITER);
+        } else if (tempWriter != null) {
+            CALL_LOGGER = new CallLogger(LOGGING_PROXY_FACTORY, tempWriter);
+        } else {
+            CALL_LOGGER = null;
+        }
     }
 
     private final ValidityController validityController = new ValidityController();
@@ -41,15 +99,72 @@ public final class DBTableProviderFactory implements AutoCloseableTableProviderF
             new IdentityHashMap<>();
 
     private boolean providerClosedByMe = false;
+    /**
+     * Cache of values shared by all tables of the generated providers; null if values are not cached.
+     */
+    private final ValueCache valueCache;
 
-    static <T> T wrapImplementation(T implementation, Class<T> interfaceClass) {
-        if (LOG_WRITER != null) {
-            return (T) LOGGING_PROXY_FACTORY.wrap(LOG_WRITER, implementation, interfaceClass);
-        } else {
-            return implementation;
+    /**
+     * Constructs a factory of providers that read tables as {@link StringTableImpl#LAZY_LOADING_PROPERTY_NAME}
+     * system property says and do not cache values.
+     */
+    public DBTableProviderFactory() {
+        this.valueCache = null;
+    }
+
+    /**
+     * Constructs a factory of providers that open tables in lazy mode and keep frequently read values in a
+     * cache. The cache is shared by all tables of all the generated providers.
+     * @param valueCacheBudget
+     *         Maximal estimated heap size of cached values, in bytes.
+     * @param policy
+     *         How to choose values to evict.
+     * @throws IllegalArgumentException
+     *         If the budget is not positive or the policy is null.
+     */
+    public DBTableProviderFactory(long valueCacheBudget, ValueCache.Policy policy)
+            throws IllegalArgumentException {
+        this.valueCache = new ValueCache(valueCacheBudget, policy);
+    }
+
+    /**
+     * Returns cache of values of the generated providers or null if values are not cached.
+     */
+    public ValueCache getValueCache() {
+        return valueCache;
+    }
+
+    private static void closeAsyncLogWriter() {
+        try {
+            ASYNC_LOG_WRITER.close();
+        } catch (IOException exc) {
+            Log.log(DBTableProviderFactory.class, exc, "Failed to close log");
         }
     }
 
+    /**
+     * Returns asynchronous writer of the proxy log with its counters of queued and dropped reports or null if
+     * the log is written synchronously or not written at all.
+     * @see #PROXY_LOG_ASYNC_PROPERTY_NAME
+     */
+    public static AsyncLogWriter getAsyncLogWriter() {
+        return ASYNC_LOG_WRITER;
+    }
+
+    /**
+     * Wraps the provider into a decorator that reports its calls to the proxy log, if the log is written.
+     */
+    static AutoCloseableProvider wrapProvider(AutoCloseableProvider provider) {
+        return CALL_LOGGER == null ? provider : new LoggingProvider(provider, CALL_LOGGER);
+    }
+
+    /**
+     * Wraps the table into a decorator that reports its calls to the proxy log, if the log is written.
+     */
+    static AutoCloseableTable wrapTable(AutoCloseableTable table) {
+        return CALL_LOGGER == null ? table : new LoggingTable(table, CALL_LOGGER);
+    }
+
     @Override
     public synchronized void close() {
         try (KillLock lock = validityController.useAndKill()) {
@@ -81,7 +196,8 @@ public final class DBTableProviderFactory implements AutoCloseableTableProviderF
 
         try (DirectoryStream<Path> tableDirs = Files.newDirectoryStream(databaseRoot)) {
             for (Path tableDirectory : tableDirs) {
-                if (!Files.isDirectory(tableDirectory)) {
+                if (!Files.isDirectory(tableDirectory)
+                    && !tableDirectory.getFileName().toString().equals(CommitLog.FILE_NAME)) {
                     throw new DatabaseIOException(
                             "Non-directory path found in database folder: " + tableDirectory.getFileName());
                 }
@@ -121,7 +237,7 @@ public final class DBTableProviderFactory implements AutoCloseableTableProviderF
             }
 
             AutoCloseableProvider provider = new DBTableProvider(databaseRoot, this);
-            AutoCloseableProvider wrappedProvider = wrapImplementation(provider, AutoCloseableProvider.class);
+            AutoCloseableProvider wrappedProvider = wrapProvider(provider);
             generatedProviders.put(provider, Boolean.TRUE);
             return wrappedProvider;
         }
@@ -0,0 +1,74 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed-size cache of decoded rows of a structured table, so that rows that are read often are not parsed on
+ * each {@link StoreableTableImpl#get(String)}.<br/>
+ * Each entry remembers the stored string the row has been decoded from and is returned only for the same
+ * string. So the cache never needs to know about thread-local diffs, commits and rollbacks: a thread that
+ * reads another version of the row just decodes it and replaces the entry.<br/>
+ * The slot of an entry is chosen by hash of its key; a new entry replaces the old one in its slot. Cached rows
+ * are never given out: callers receive copies.<br/>
+ * Thread-safe, lock-free.
+ */
+final class DecodedRowCache {
+    private final AtomicReferenceArray<Entry> slots;
+    private final int mask;
+
+    /**
+     * @param capacity
+     *         Maximal number of cached rows; rounded up to a power of two.
+     */
+    DecodedRowCache(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    private int slot(String key) {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * Returns copy of the row decoded from the given stored string or null if it is not cached.
+     */
+    StoreableImpl get(String key, String encoded) {
+        Entry entry = slots.get(slot(key));
+        if (entry != null && entry.key.equals(key) && (entry.encoded == encoded || entry.encoded.equals(encoded))) {
+            return entry.row.copy();
+        }
+        return null;
+    }
+
+    /**
+     * Caches the row decoded from the stored string. The row must not be changed after this call.
+     */
+    void put(String key, String encoded, StoreableImpl row) {
+        slots.set(slot(key), new Entry(key, encoded, row));
+    }
+
+    /**
+     * Drops the row of the key if it is cached.
+     */
+    void invalidate(String key) {
+        int slot = slot(key);
+        Entry entry = slots.get(slot);
+        if (entry != null && entry.key.equals(key)) {
+            slots.compareAndSet(slot, entry, null);
+        }
+    }
+
+    private static final class Entry {
+        private final String key;
+        private final String encoded;
+        private final StoreableImpl row;
+
+        Entry(String key, String encoded, StoreableImpl row) {
+            this.key = key;
+            this.encoded = encoded;
+            this.row = row;
+        }
+    }
+}
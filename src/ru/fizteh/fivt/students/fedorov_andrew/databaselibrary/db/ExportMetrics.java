@@ -0,0 +1,58 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
+
+/**
+ * Statistics of an export of a table snapshot.<br/>
+ * Immutable.
+ * @see TableExporter
+ */
+public final class ExportMetrics {
+    private final long rowsCount;
+    private final long bytesCount;
+    private final long wallTimeNanos;
+
+    ExportMetrics(long rowsCount, long bytesCount, long wallTimeNanos) {
+        this.rowsCount = rowsCount;
+        this.bytesCount = bytesCount;
+        this.wallTimeNanos = wallTimeNanos;
+    }
+
+    /**
+     * Number of exported rows, which is the size of the table at the moment of the snapshot.
+     */
+    public long getRowsCount() {
+        return rowsCount;
+    }
+
+    /**
+     * Number of bytes written to the output.
+     */
+    public long getBytesCount() {
+        return bytesCount;
+    }
+
+    /**
+     * Time of the whole export, from taking of the snapshot to flushing of the output.
+     */
+    public long getWallTimeNanos() {
+        return wallTimeNanos;
+    }
+
+    public double getRowsPerSecond() {
+        return wallTimeNanos == 0 ? 0 : rowsCount * 1e9 / wallTimeNanos;
+    }
+
+    public double getMegabytesPerSecond() {
+        return wallTimeNanos == 0 ? 0 : bytesCount * 1e9 / wallTimeNanos / (1 << 20);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%d rows, %d bytes, %.3f s, %.0f rows/s, %.1f MB/s",
+                rowsCount,
+                bytesCount,
+                wallTimeNanos / 1e9,
+                getRowsPerSecond(),
+                getMegabytesPerSecond());
+    }
+}
@@ -0,0 +1,53 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
+
+/**
+ * Statistics of a bulk import of rows into a table.<br/>
+ * Immutable.
+ * @see BulkImporter
+ */
+public final class ImportMetrics {
+    private final long rowsCount;
+    private final int commitsCount;
+    private final long wallTimeNanos;
+
+    ImportMetrics(long rowsCount, int commitsCount, long wallTimeNanos) {
+        this.rowsCount = rowsCount;
+        this.commitsCount = commitsCount;
+        this.wallTimeNanos = wallTimeNanos;
+    }
+
+    /**
+     * Number of imported rows, including the ones that have overwritten rows imported earlier.
+     */
+    public long getRowsCount() {
+        return rowsCount;
+    }
+
+    /**
+     * Number of commits the rows were written by.
+     */
+    public int getCommitsCount() {
+        return commitsCount;
+    }
+
+    /**
+     * Time of the whole import, from reading of the first row to publishing of the last commit.
+     */
+    public long getWallTimeNanos() {
+        return wallTimeNanos;
+    }
+
+    public double getRowsPerSecond() {
+        return wallTimeNanos == 0 ? 0 : rowsCount * 1e9 / wallTimeNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%d rows, %d commits, %.3f s, %.0f rows/s",
+                rowsCount,
+                commitsCount,
+                wallTimeNanos / 1e9,
+                getRowsPerSecond());
+    }
+}
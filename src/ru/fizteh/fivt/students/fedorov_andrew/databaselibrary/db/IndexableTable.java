@@ -0,0 +1,27 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
+
+import ru.fizteh.fivt.storage.structured.Index;
+import ru.fizteh.fivt.storage.structured.Table;
+
+/**
+ * Table that can find its rows by column values using indexes.
+ * @see ru.fizteh.fivt.storage.structured.IndexProvider
+ */
+public interface IndexableTable extends Table {
+    /**
+     * Builds an index of committed rows by values of the given column. The index is kept up to date by
+     * commits and persisted in the table directory.
+     * @return New index or null if the index with this name already exists for this column.
+     * @throws IllegalArgumentException
+     *         If the column is out of bounds, the name is not correct or is taken by the index of another
+     *         column.
+     * @throws IllegalStateException
+     *         If some committed row cannot be read.
+     */
+    Index createIndex(int column, String name) throws IllegalArgumentException, IllegalStateException;
+
+    /**
+     * Returns index of this table with the given name or null if there is no such index.
+     */
+    Index getIndex(String name);
+}
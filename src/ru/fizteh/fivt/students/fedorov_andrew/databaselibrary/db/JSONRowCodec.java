@@ -0,0 +1,44 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
+
+import ru.fizteh.fivt.storage.structured.ColumnFormatException;
+import ru.fizteh.fivt.storage.structured.Storeable;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.json.JSONMaker;
+
+import java.text.ParseException;
+import java.util.List;
+
+/**
+ * Rows as JSON arrays of column values: the format of {@link ru.fizteh.fivt.storage.structured
+ * .TableProvider#serialize(ru.fizteh.fivt.storage.structured.Table, Storeable) serialize}.
+ * @see TableLayout.RowFormat#JSON
+ */
+final class JSONRowCodec implements RowCodec {
+    private final RowLayout layout;
+
+    JSONRowCodec(List<Class<?>> columnTypes) {
+        this(new RowLayout(columnTypes));
+    }
+
+    JSONRowCodec(RowLayout layout) {
+        this.layout = layout;
+    }
+
+    @Override
+    public String encode(Storeable row) throws ColumnFormatException {
+        if (row instanceof StoreableImpl) {
+            // Optimization: we do not create new array.
+            return JSONMaker.makeJSON(row);
+        } else {
+            Object[] values = new Object[layout.getColumnsCount()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = row.getColumnAt(i);
+            }
+            return JSONMaker.makeJSON(values);
+        }
+    }
+
+    @Override
+    public Storeable decode(String data) throws ParseException {
+        return JSONRowReader.read(data, layout);
+    }
+}
@@ -0,0 +1,310 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
+
+import java.text.ParseException;
+import java.util.AbstractMap;
+import java.util.Map;
+
+/**
+ * Single-pass reader of rows given as JSON arrays of column values.<br/>
+ * Characters are scanned once and each value is parsed right in place according to the type of its column
+ * and written to the row by unboxed setters of {@link StoreableImpl}: no token lists, no intermediate objects
+ * and no substrings except values of string and floating point columns.<br/>
+ * Strings must be quoted; inside them only {@code \"} and {@code \\} are unescaped, other backslashes are kept
+ * as they are. Keyed rows, which are read from files line by line, unescape {@code \n} and {@code \r} too.
+ * {@code null}, {@code true} and {@code false} are case insensitive.<br/>
+ * All errors are reported as {@link ParseException} with message of form {@code wrong type (description)} and
+ * offset of the erroneous place in the source string.
+ */
+final class JSONRowReader {
+    private static final char QUOTE_CHARACTER = '\"';
+    private static final char ESCAPE_CHARACTER = '\\';
+    private static final char ELEMENT_SEPARATOR = ',';
+
+    private final String data;
+    /**
+     * Index of the closing bracket of the array.
+     */
+    private final int end;
+    /**
+     * Whether {@code \n} and {@code \r} inside strings stand for line breaks.
+     */
+    private final boolean lineBreaksEscaped;
+    private int position;
+
+    private JSONRowReader(String data, int begin, int end, boolean lineBreaksEscaped) {
+        this.data = data;
+        this.end = end;
+        this.lineBreaksEscaped = lineBreaksEscaped;
+        this.position = begin;
+    }
+
+    /**
+     * Reads row of the given layout from the JSON array. Symbols before the first opening square bracket and
+     * after the last closing one are ignored.
+     */
+    static StoreableImpl read(String data, RowLayout layout) throws ParseException {
+        int leftBound = data.indexOf('[');
+        int rightBound = data.lastIndexOf(']');
+
+        if (leftBound < 0 || rightBound < leftBound) {
+            throw new ParseException("wrong type (Arguments must be inside square brackets)", -1);
+        }
+
+        return new JSONRowReader(data, leftBound + 1, rightBound, false).readRow(layout);
+    }
+
+    /**
+     * Returns the key of a keyed row: a JSON array whose first element is the key string followed by values of
+     * the columns, e.g. {@code ["key", 1, "value"]}. The values are not read.
+     */
+    static String readKey(String data) throws ParseException {
+        return keyedReader(data).readKey();
+    }
+
+    /**
+     * Reads the key and the row of the given layout from a keyed row.
+     * @see #readKey(String)
+     */
+    static Map.Entry<String, StoreableImpl> readKeyed(String data, RowLayout layout) throws ParseException {
+        JSONRowReader reader = keyedReader(data);
+        String key = reader.readKey();
+        reader.skipWhitespace();
+        if (reader.position == reader.end) {
+            throw reader.error("Irregular number of arguments given", reader.position);
+        }
+        reader.expectSeparator();
+        return new AbstractMap.SimpleImmutableEntry<>(key, reader.readRow(layout));
+    }
+
+    private static JSONRowReader keyedReader(String data) throws ParseException {
+        int leftBound = data.indexOf('[');
+        int rightBound = data.lastIndexOf(']');
+
+        if (leftBound < 0 || rightBound < leftBound) {
+            throw new ParseException("wrong type (Key and values must be inside square brackets)", -1);
+        }
+        return new JSONRowReader(data, leftBound + 1, rightBound, true);
+    }
+
+    private String readKey() throws ParseException {
+        skipWhitespace();
+        if (position == end || data.charAt(position) != QUOTE_CHARACTER) {
+            throw error("Key string expected", position);
+        }
+        return readString();
+    }
+
+    private StoreableImpl readRow(RowLayout layout) throws ParseException {
+        StoreableImpl row = new StoreableImpl(layout);
+        int columnsCount = layout.getColumnsCount();
+
+        skipWhitespace();
+        for (int column = 0; column < columnsCount; column++) {
+            if (column > 0) {
+                if (position == end) {
+                    throw error("Irregular number of arguments given", position);
+                }
+                expectSeparator();
+            }
+            readValue(row, layout, column);
+            skipWhitespace();
+        }
+
+        if (position != end) {
+            expectSeparator();
+            throw error("Irregular number of arguments given", position);
+        }
+        return row;
+    }
+
+    private void expectSeparator() throws ParseException {
+        if (data.charAt(position) != ELEMENT_SEPARATOR) {
+            throw error("Unexpected symbol: '" + data.charAt(position) + "'", position);
+        }
+        position++;
+        skipWhitespace();
+    }
+
+    private void skipWhitespace() {
+        while (position < end && Character.isWhitespace(data.charAt(position))) {
+            position++;
+        }
+    }
+
+    private void readValue(StoreableImpl row, RowLayout layout, int column) throws ParseException {
+        int start = position;
+        if (start == end) {
+            throw error("Irregular number of arguments given", start);
+        }
+
+        char first = data.charAt(start);
+        if (first == QUOTE_CHARACTER) {
+            String value = readString();
+            switch (layout.getKind(column)) {
+                case STRING:
+                    row.setString(column, value);
+                    return;
+                case BOOLEAN:
+                    throw error("Expected 'true' or 'false' as boolean", start);
+                default:
+                    throw error("Column " + column + " expects " + layout.getType(column).getSimpleName()
+                                + " value, not string", start);
+            }
+        } else if (first == '[' || first == '{') {
+            throw error("Complex types are not supported", start);
+        }
+
+        while (position < end && data.charAt(position) != ELEMENT_SEPARATOR
+               && !Character.isWhitespace(data.charAt(position))) {
+            position++;
+        }
+        int length = position - start;
+        if (length == 0) {
+            throw error("Value expected", start);
+        }
+        if (matches(start, length, "null")) {
+            return;
+        }
+
+        switch (layout.getKind(column)) {
+            case BOOLEAN:
+                if (matches(start, length, "true")) {
+                    row.setBoolean(column, true);
+                } else if (matches(start, length, "false")) {
+                    row.setBoolean(column, false);
+                } else {
+                    throw error("Expected 'true' or 'false' as boolean", start);
+                }
+                break;
+            case BYTE:
+                row.setByte(column, (byte) readInteger(layout, column, start, Byte.MIN_VALUE, Byte.MAX_VALUE));
+                break;
+            case INT:
+                row.setInt(column, (int) readInteger(layout, column, start, Integer.MIN_VALUE, Integer.MAX_VALUE));
+                break;
+            case LONG:
+                row.setLong(column, readInteger(layout, column, start, Long.MIN_VALUE, Long.MAX_VALUE));
+                break;
+            case FLOAT:
+            case DOUBLE:
+                String number = readFloatingPoint(layout, column, start);
+                try {
+                    if (layout.getKind(column) == RowLayout.Kind.FLOAT) {
+                        row.setFloat(column, Float.parseFloat(number));
+                    } else {
+                        row.setDouble(column, Double.parseDouble(number));
+                    }
+                } catch (NumberFormatException exc) {
+                    throw wrongNumber(layout, column, start);
+                }
+                break;
+            default:
+                throw error("String expected to be in quotes", start);
+        }
+    }
+
+    private boolean matches(int start, int length, String literal) {
+        return length == literal.length() && data.regionMatches(true, start, literal, 0, length);
+    }
+
+    /**
+     * Reads quoted string starting at the current position and moves to the symbol after the closing quote.
+     */
+    private String readString() throws ParseException {
+        int start = position + 1;
+        boolean escaped = false;
+        int index = start;
+        while (index < end) {
+            char symbol = data.charAt(index);
+            if (symbol == ESCAPE_CHARACTER) {
+                escaped = true;
+                index += 2;
+            } else if (symbol == QUOTE_CHARACTER) {
+                position = index + 1;
+                return escaped ? unescape(start, index) : data.substring(start, index);
+            } else {
+                index++;
+            }
+        }
+        throw error("Unclosed quotes", position);
+    }
+
+    private String unescape(int start, int finish) {
+        StringBuilder sb = new StringBuilder(finish - start);
+        for (int index = start; index < finish; index++) {
+            char symbol = data.charAt(index);
+            if (symbol == ESCAPE_CHARACTER) {
+                char next = data.charAt(index + 1);
+                if (next == QUOTE_CHARACTER || next == ESCAPE_CHARACTER) {
+                    symbol = next;
+                    index++;
+                } else if (lineBreaksEscaped && (next == 'n' || next == 'r')) {
+                    symbol = next == 'n' ? '\n' : '\r';
+                    index++;
+                }
+            }
+            sb.append(symbol);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Parses decimal integer between the given start and the current position without taking substrings.
+     * Leading sign is allowed.
+     */
+    private long readInteger(RowLayout layout, int column, int start, long min, long max)
+            throws ParseException {
+        int index = start;
+        boolean negative = false;
+        char sign = data.charAt(index);
+        if (sign == '-' || sign == '+') {
+            negative = sign == '-';
+            index++;
+        }
+        if (index == position) {
+            throw wrongNumber(layout, column, start);
+        }
+
+        // Accumulating negatively, like Long.parseLong does, to reach the minimal value.
+        long limit = negative ? min : -max;
+        long multiplicationLimit = limit / 10;
+        long result = 0;
+        for (; index < position; index++) {
+            int digit = data.charAt(index) - '0';
+            if (digit < 0 || digit > 9 || result < multiplicationLimit) {
+                throw wrongNumber(layout, column, start);
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                throw wrongNumber(layout, column, start);
+            }
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    /**
+     * Returns floating point number between the given start and the current position, checked to contain only
+     * digits, signs, points and exponent marks: {@code NaN}, {@code Infinity} and type suffixes are not JSON.
+     */
+    private String readFloatingPoint(RowLayout layout, int column, int start) throws ParseException {
+        for (int index = start; index < position; index++) {
+            char symbol = data.charAt(index);
+            if (!(symbol >= '0' && symbol <= '9' || symbol == '.' || symbol == '-' || symbol == '+'
+                  || symbol == 'e' || symbol == 'E')) {
+                throw wrongNumber(layout, column, start);
+            }
+        }
+        return data.substring(start, position);
+    }
+
+    private ParseException wrongNumber(RowLayout layout, int column, int start) {
+        return error(
+                "Column " + column + " expects " + layout.getType(column).getSimpleName() + " value, found: "
+                + data.substring(start, position), start);
+    }
+
+    private ParseException error(String message, int offset) {
+        return new ParseException("wrong type (" + message + ")", offset);
+    }
+}
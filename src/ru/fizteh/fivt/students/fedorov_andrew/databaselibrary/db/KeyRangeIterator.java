@@ -0,0 +1,151 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Iterates over records of several table parts in order of keys within the given range.<br/>
+ * Each part is given by its sorted committed records and sorted uncommitted changes, which are merged lazily:
+ * changes override committed records, removals hide them. Parts are merged by a priority queue of their
+ * cursors, so only one record per part is looked at to choose the next one.
+ */
+final class KeyRangeIterator implements Iterator<Entry<String, String>> {
+    private final PriorityQueue<PartCursor> cursors =
+            new PriorityQueue<>((a, b) -> a.currentKey().compareTo(b.currentKey()));
+    private final String fromKey;
+    private final String toKey;
+
+    /**
+     * @param fromKey
+     *         Least key of the range, inclusive; null for no lower bound.
+     * @param toKey
+     *         Upper bound of the range, exclusive; null for no upper bound.
+     */
+    KeyRangeIterator(String fromKey, String toKey) {
+        this.fromKey = fromKey;
+        this.toKey = toKey;
+    }
+
+    /**
+     * Adds records of a part. Must be called before iteration.
+     * @param records
+     *         Committed records of the part.
+     * @param changes
+     *         Uncommitted changes of the part sorted by keys; null value means removal.
+     */
+    void addPart(SortedRecords records, List<Entry<String, String>> changes) {
+        int recordsFrom = fromKey == null ? 0 : records.lowerBound(fromKey);
+        // Empty range if the bounds are swapped.
+        int recordsTo = toKey == null ? records.size() : Math.max(recordsFrom, records.lowerBound(toKey));
+
+        int changesFrom = 0;
+        while (changesFrom < changes.size()
+               && fromKey != null && changes.get(changesFrom).getKey().compareTo(fromKey) < 0) {
+            changesFrom++;
+        }
+        int changesTo = changesFrom;
+        while (changesTo < changes.size()
+               && (toKey == null || changes.get(changesTo).getKey().compareTo(toKey) < 0)) {
+            changesTo++;
+        }
+
+        PartCursor cursor = new PartCursor(
+                records, recordsFrom, recordsTo, changes.subList(changesFrom, changesTo));
+        if (cursor.skipRemoved()) {
+            cursors.add(cursor);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !cursors.isEmpty();
+    }
+
+    @Override
+    public Entry<String, String> next() {
+        PartCursor cursor = cursors.poll();
+        if (cursor == null) {
+            throw new NoSuchElementException();
+        }
+        Entry<String, String> entry = cursor.current();
+        cursor.advance();
+        if (cursor.skipRemoved()) {
+            cursors.add(cursor);
+        }
+        return entry;
+    }
+
+    /**
+     * Position inside records of one part.
+     */
+    private static final class PartCursor {
+        private final SortedRecords records;
+        private final int recordsTo;
+        private final List<Entry<String, String>> changes;
+        private int recordIndex;
+        private int changeIndex;
+
+        PartCursor(SortedRecords records, int recordsFrom, int recordsTo, List<Entry<String, String>> changes) {
+            this.records = records;
+            this.recordIndex = recordsFrom;
+            this.recordsTo = recordsTo;
+            this.changes = changes;
+        }
+
+        /**
+         * Returns comparison of the current committed key with the current changed key. Exhausted sequence
+         * is considered greater.
+         */
+        private int compareSources() {
+            if (recordIndex == recordsTo) {
+                return 1;
+            } else if (changeIndex == changes.size()) {
+                return -1;
+            } else {
+                return records.getKey(recordIndex).compareTo(changes.get(changeIndex).getKey());
+            }
+        }
+
+        /**
+         * Moves past removed keys.
+         * @return False if there are no more records.
+         */
+        boolean skipRemoved() {
+            while (changeIndex < changes.size() && compareSources() >= 0
+                   && changes.get(changeIndex).getValue() == null) {
+                if (compareSources() == 0) {
+                    recordIndex++;
+                }
+                changeIndex++;
+            }
+            return recordIndex < recordsTo || changeIndex < changes.size();
+        }
+
+        String currentKey() {
+            return compareSources() < 0 ? records.getKey(recordIndex) : changes.get(changeIndex).getKey();
+        }
+
+        Entry<String, String> current() {
+            if (compareSources() < 0) {
+                return new AbstractMap.SimpleImmutableEntry<>(
+                        records.getKey(recordIndex), records.getValue(recordIndex));
+            } else {
+                return new AbstractMap.SimpleImmutableEntry<>(changes.get(changeIndex));
+            }
+        }
+
+        void advance() {
+            int comparison = compareSources();
+            if (comparison <= 0) {
+                recordIndex++;
+            }
+            if (comparison >= 0) {
+                changeIndex++;
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * A page of table keys together with position token the listing can be resumed from.<br/>
+ * Immutable.
+ * @see PageableTable#listKeys(KeysPage.Position, int)
+ */
+public final class KeysPage implements Serializable {
+    /**
+     * Position of the first page.
+     */
+    public static final Position FIRST_POSITION = new Position(0, null);
+    /**
+     * Next position of the last page.
+     */
+    public static final Position END_POSITION = new Position(-1, null);
+
+    private static final long serialVersionUID = 2L;
+
+    private final List<String> keys;
+    private final Position nextPosition;
+
+    public KeysPage(List<String> keys, Position nextPosition) {
+        this.keys = Collections.unmodifiableList(keys);
+        this.nextPosition = nextPosition;
+    }
+
+    public List<String> getKeys() {
+        return keys;
+    }
+
+    /**
+     * Returns position token of the next page or {@link #END_POSITION} if this page is the last one.
+     */
+    public Position getNextPosition() {
+        return nextPosition;
+    }
+
+    public boolean isLast() {
+        return nextPosition == END_POSITION;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d keys, next position %s", keys.size(), nextPosition);
+    }
+
+    /**
+     * Makes an iterator that requests pages one by one, when the keys of the previous page are exhausted.
+     * @param pages
+     *         Returns the page at the given position.
+     */
+    static Iterator<String> iterator(Function<Position, KeysPage> pages) {
+        return new Iterator<String>() {
+            private Iterator<String> pageKeys = Collections.emptyIterator();
+            private Position nextPosition = FIRST_POSITION;
+
+            @Override
+            public boolean hasNext() {
+                while (!pageKeys.hasNext() && nextPosition != END_POSITION) {
+                    KeysPage page = pages.apply(nextPosition);
+                    pageKeys = page.getKeys().iterator();
+                    nextPosition = page.getNextPosition();
+                }
+                return pageKeys.hasNext();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return pageKeys.next();
+            }
+        };
+    }
+
+    /**
+     * Position token the listing can be resumed from: index of the table part and the last key listed from it.
+     * Keys of a part are listed in their natural order, so the listing goes on after the last key even if
+     * other keys of the part have been changed meanwhile.<br/>
+     * Immutable.
+     */
+    public static final class Position implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int partIndex;
+        /**
+         * Last listed key of the part or null if the part has not been listed yet.
+         */
+        private final String lastKey;
+
+        Position(int partIndex, String lastKey) {
+            this.partIndex = partIndex;
+            this.lastKey = lastKey;
+        }
+
+        int getPartIndex() {
+            return partIndex;
+        }
+
+        String getLastKey() {
+            return lastKey;
+        }
+
+        /**
+         * Keeps the constants single, so that positions got through RMI can be compared with them by reference.
+         */
+        private Object readResolve() {
+            if (equals(FIRST_POSITION)) {
+                return FIRST_POSITION;
+            } else if (equals(END_POSITION)) {
+                return END_POSITION;
+            }
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Position)) {
+                return false;
+            }
+            Position other = (Position) obj;
+            return partIndex == other.partIndex && Objects.equals(lastKey, other.lastKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * partIndex + Objects.hashCode(lastKey);
+        }
+
+        @Override
+        public String toString() {
+            return lastKey == null ? Integer.toString(partIndex) : partIndex + " after " + lastKey;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
+
+import ru.fizteh.fivt.storage.structured.ColumnFormatException;
+import ru.fizteh.fivt.storage.structured.Index;
+import ru.fizteh.fivt.storage.structured.Storeable;
+import ru.fizteh.fivt.storage.structured.Table;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.CallLogger;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Decorator that reports calls of provider methods to the log.<br/>
+ * Replaces wrapping by {@link java.lang.reflect.Proxy}: methods of the provider are called directly, and
+ * nothing but {@link CallLogger#isEnabled()} is done while logging is off. Tables are decorated by the provider
+ * itself when it creates them.
+ * @see LoggingTable
+ */
+public final class LoggingProvider implements AutoCloseableProvider {
+    private final AutoCloseableProvider provider;
+    private final CallLogger logger;
+
+    public LoggingProvider(AutoCloseableProvider provider, CallLogger logger) {
+        this.provider = provider;
+        this.logger = logger;
+    }
+
+    @Override
+    public AutoCloseableTable getTable(String name) {
+        if (!logger.isEnabled()) {
+            return provider.getTable(name);
+        }
+        return logger.call(provider, "getTable", () -> provider.getTable(name), name);
+    }
+
+    @Override
+    public AutoCloseableTable createTable(String name, List<Class<?>> columnTypes) throws IOException {
+        if (!logger.isEnabled()) {
+            return provider.createTable(name, columnTypes);
+        }
+        return logger.call(provider, "createTable", () -> provider.createTable(name, columnTypes), name, columnTypes);
+    }
+
+    @Override
+    public AutoCloseableTable createTable(String name, List<Class<?>> columnTypes, TableLayout layout)
+            throws IOException {
+        if (!logger.isEnabled()) {
+            return provider.createTable(name, columnTypes, layout);
+        }
+        return logger.call(
+                provider, "createTable", () -> provider.createTable(name, columnTypes, layout), name, columnTypes,
+                layout);
+    }
+
+    @Override
+    public void removeTable(String name) throws IOException {
+        if (!logger.isEnabled()) {
+            provider.removeTable(name);
+            return;
+        }
+        logger.run(provider, "removeTable", () -> provider.removeTable(name), name);
+    }
+
+    @Override
+    public Storeable deserialize(Table table, String value) throws ParseException {
+        if (!logger.isEnabled()) {
+            return provider.deserialize(table, value);
+        }
+        return logger.call(provider, "deserialize", () -> provider.deserialize(table, value), table, value);
+    }
+
+    @Override
+    public String serialize(Table table, Storeable value) throws ColumnFormatException {
+        if (!logger.isEnabled()) {
+            return provider.serialize(table, value);
+        }
+        return logger.call(provider, "serialize", () -> provider.serialize(table, value), table, value);
+    }
+
+    @Override
+    public Storeable createFor(Table table) {
+        if (!logger.isEnabled()) {
+            return provider.createFor(table);
+        }
+        return logger.call(provider, "createFor", () -> provider.createFor(table), table);
+    }
+
+    @Override
+    public Storeable createFor(Table table, List<?> values) throws ColumnFormatException, IndexOutOfBoundsException {
+        if (!logger.isEnabled()) {
+            return provider.createFor(table, values);
+        }
+        return logger.call(provider, "createFor", () -> provider.createFor(table, values), table, values);
+    }
+
+    @Override
+    public List<String> getTableNames() {
+        if (!logger.isEnabled()) {
+            return provider.getTableNames();
+        }
+        return logger.call(provider, "getTableNames", provider::getTableNames);
+    }
+
+    @Override
+    public Index getIndex(String name) throws IllegalArgumentException {
+        if (!logger.isEnabled()) {
+            return provider.getIndex(name);
+        }
+        return logger.call(provider, "getIndex", () -> provider.getIndex(name), name);
+    }
+
+    @Override
+    public Index createIndex(Table table, int column, String name)
+            throws IllegalArgumentException, IllegalStateException {
+        if (!logger.isEnabled()) {
+            return provider.createIndex(table, column, name);
+        }
+        return logger.call(
+                provider, "createIndex", () -> provider.createIndex(table, column, name), table, column, name);
+    }
+
+    @Override
+    public int commit(Collection<? extends Table> tables) throws IOException {
+        if (!logger.isEnabled()) {
+            return provider.commit(tables);
+        }
+        return logger.call(provider, "commit", () -> provider.commit(tables), tables);
+    }
+
+    @Override
+    public void awaitValidation() throws InterruptedException {
+        if (!logger.isEnabled()) {
+            provider.awaitValidation();
+            return;
+        }
+        logger.run(provider, "awaitValidation", provider::awaitValidation);
+    }
+
+    @Override
+    public void close() {
+        if (!logger.isEnabled()) {
+            provider.close();
+            return;
+        }
+        logger.run(provider, "close", provider::close);
+    }
+
+    @Override
+    public String toString() {
+        return provider.toString();
+    }
+}
@@ -0,0 +1,173 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
+
+import ru.fizteh.fivt.storage.structured.ColumnFormatException;
+import ru.fizteh.fivt.storage.structured.Index;
+import ru.fizteh.fivt.storage.structured.Storeable;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.CallLogger;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decorator that reports calls of table methods to the log.<br/>
+ * Replaces wrapping by {@link java.lang.reflect.Proxy}: methods of the table are called directly, and nothing
+ * but {@link CallLogger#isEnabled()} is done while logging is off.
+ * @see LoggingProvider
+ */
+public final class LoggingTable implements AutoCloseableTable {
+    private final AutoCloseableTable table;
+    private final CallLogger logger;
+
+    public LoggingTable(AutoCloseableTable table, CallLogger logger) {
+        this.table = table;
+        this.logger = logger;
+    }
+
+    AutoCloseableTable getDecoratedTable() {
+        return table;
+    }
+
+    @Override
+    public Storeable put(String key, Storeable value) throws ColumnFormatException {
+        if (!logger.isEnabled()) {
+            return table.put(key, value);
+        }
+        return logger.call(table, "put", () -> table.put(key, value), key, value);
+    }
+
+    @Override
+    public Storeable remove(String key) {
+        if (!logger.isEnabled()) {
+            return table.remove(key);
+        }
+        return logger.call(table, "remove", () -> table.remove(key), key);
+    }
+
+    @Override
+    public int size() {
+        if (!logger.isEnabled()) {
+            return table.size();
+        }
+        return logger.call(table, "size", table::size);
+    }
+
+    @Override
+    public List<String> list() {
+        if (!logger.isEnabled()) {
+            return table.list();
+        }
+        return logger.call(table, "list", table::list);
+    }
+
+    @Override
+    public int commit() throws IOException {
+        if (!logger.isEnabled()) {
+            return table.commit();
+        }
+        return logger.call(table, "commit", table::commit);
+    }
+
+    @Override
+    public int rollback() {
+        if (!logger.isEnabled()) {
+            return table.rollback();
+        }
+        return logger.call(table, "rollback", table::rollback);
+    }
+
+    @Override
+    public int getNumberOfUncommittedChanges() {
+        if (!logger.isEnabled()) {
+            return table.getNumberOfUncommittedChanges();
+        }
+        return logger.call(table, "getNumberOfUncommittedChanges", table::getNumberOfUncommittedChanges);
+    }
+
+    @Override
+    public int getColumnsCount() {
+        if (!logger.isEnabled()) {
+            return table.getColumnsCount();
+        }
+        return logger.call(table, "getColumnsCount", table::getColumnsCount);
+    }
+
+    @Override
+    public Class<?> getColumnType(int columnIndex) throws IndexOutOfBoundsException {
+        if (!logger.isEnabled()) {
+            return table.getColumnType(columnIndex);
+        }
+        return logger.call(table, "getColumnType", () -> table.getColumnType(columnIndex), columnIndex);
+    }
+
+    @Override
+    public String getName() {
+        if (!logger.isEnabled()) {
+            return table.getName();
+        }
+        return logger.call(table, "getName", table::getName);
+    }
+
+    @Override
+    public Storeable get(String key) {
+        if (!logger.isEnabled()) {
+            return table.get(key);
+        }
+        return logger.call(table, "get", () -> table.get(key), key);
+    }
+
+    @Override
+    public KeysPage listKeys(KeysPage.Position position, int limit) throws IllegalArgumentException {
+        if (!logger.isEnabled()) {
+            return table.listKeys(position, limit);
+        }
+        return logger.call(table, "listKeys", () -> table.listKeys(position, limit), position, limit);
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, Storeable>> scan(String fromKey, String toKey) {
+        if (!logger.isEnabled()) {
+            return table.scan(fromKey, toKey);
+        }
+        return logger.call(table, "scan", () -> table.scan(fromKey, toKey), fromKey, toKey);
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, Storeable>> prefixScan(String prefix) throws IllegalArgumentException {
+        if (!logger.isEnabled()) {
+            return table.prefixScan(prefix);
+        }
+        return logger.call(table, "prefixScan", () -> table.prefixScan(prefix), prefix);
+    }
+
+    @Override
+    public Index createIndex(int column, String name) throws IllegalArgumentException, IllegalStateException {
+        if (!logger.isEnabled()) {
+            return table.createIndex(column, name);
+        }
+        return logger.call(table, "createIndex", () -> table.createIndex(column, name), column, name);
+    }
+
+    @Override
+    public Index getIndex(String name) {
+        if (!logger.isEnabled()) {
+            return table.getIndex(name);
+        }
+        return logger.call(table, "getIndex", () -> table.getIndex(name), name);
+    }
+
+    @Override
+    public void close() {
+        if (!logger.isEnabled()) {
+            table.close();
+            return;
+        }
+        logger.run(table, "close", table::close);
+    }
+
+    @Override
+    public String toString() {
+        return table.toString();
+    }
+}
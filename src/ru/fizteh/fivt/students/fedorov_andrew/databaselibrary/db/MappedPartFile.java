@@ -0,0 +1,296 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
+
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.exception.DBFileCorruptIOException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Read-only view of a table part file in {@link TableLayout.PartFormat#PLAIN plain format} that is mapped
+ * into memory.<br/>
+ * Only the key section of the file is scanned on opening: for each key offsets of the key and its value are
+ * remembered in int arrays, and a hash index over them is built. Keys and values are decoded to strings on
+ * demand only, so heap usage does not depend on the size of values.<br/>
+ * Immutable and thread-safe.
+ */
+final class MappedPartFile {
+    private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+
+    private final Path path;
+    private final ByteBuffer buffer;
+    /**
+     * Offset of i-th key. Element with index {@code count} is the end of the key section.
+     */
+    private final int[] keyStarts;
+    private final int[] valueStarts;
+    private final int[] valueEnds;
+    /**
+     * Open addressing hash index: each slot contains entry number plus one, zero means an empty slot.
+     */
+    private final int[] slots;
+    /**
+     * Number of distinct keys.
+     */
+    private final int size;
+
+    private MappedPartFile(Path path, ByteBuffer buffer, int[] keyStarts, int[] valueStarts, int count)
+            throws DBFileCorruptIOException {
+        this.path = path;
+        this.buffer = buffer;
+        this.keyStarts = keyStarts;
+        this.valueStarts = valueStarts;
+        this.valueEnds = computeValueEnds(valueStarts, count, buffer.limit());
+
+        int capacity = Integer.highestOneBit(Math.max(2, count * 2 - 1)) << 1;
+        this.slots = new int[capacity];
+
+        int distinctCount = 0;
+        for (int entry = 0; entry < count; entry++) {
+            int slot = findSlot(buffer, keyStarts[entry], getKeyEnd(entry));
+            // Later duplicates win, like if the file was read into a map.
+            if (slots[slot] == 0) {
+                distinctCount++;
+            }
+            slots[slot] = entry + 1;
+        }
+        this.size = distinctCount;
+    }
+
+    /**
+     * Maps the given file and indexes its keys. If the file does not exist, an empty view is returned.
+     * @throws DBFileCorruptIOException
+     *         If the file cannot be read or its structure is broken.
+     */
+    static MappedPartFile open(Path path) throws DBFileCorruptIOException {
+        ByteBuffer buffer;
+
+        if (!Files.exists(path)) {
+            buffer = EMPTY_BUFFER;
+        } else {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long fileSize = channel.size();
+                if (fileSize > Integer.MAX_VALUE) {
+                    throw new DBFileCorruptIOException("Table part file is too large: " + path);
+                }
+                buffer = fileSize == 0 ? EMPTY_BUFFER : channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            } catch (DBFileCorruptIOException exc) {
+                throw exc;
+            } catch (IOException exc) {
+                throw new DBFileCorruptIOException("Failed to read data from file: " + path.toString(), exc);
+            }
+        }
+
+        return scan(path, buffer);
+    }
+
+    /**
+     * Scans key section of the file.<br/>
+     * Structure: (no spaces or newlines) {@code <key 1 bytes><4 bytes:offset> <key 2 bytes><4 bytes:offset>
+     * ... <value 1 bytes> <value 2 bytes>...}. Offsets are big-endian; end of a key is recognized by the
+     * highest byte of the offset which is always zero.
+     */
+    private static MappedPartFile scan(Path path, ByteBuffer buffer) throws DBFileCorruptIOException {
+        int fileSize = buffer.limit();
+
+        int[] keyStarts = new int[16];
+        int[] valueStarts = new int[16];
+        int count = 0;
+
+        // Start of the value section is the least value offset met.
+        int keySectionEnd = fileSize;
+        int keyStart = 0;
+        int position = 0;
+
+        while (position < keySectionEnd) {
+            if (buffer.get(position) != 0) {
+                position++;
+                continue;
+            }
+
+            if (position + 3 >= fileSize) {
+                throw new DBFileCorruptIOException(
+                        String.format(
+                                "There is no value offset for key '%s' after byte %s",
+                                decode(buffer, keyStart, position),
+                                position));
+            }
+            int valueStart = buffer.getInt(position);
+            int keyEnd = position;
+            position += 4;
+
+            if (valueStart < position || valueStart > fileSize) {
+                throw new DBFileCorruptIOException(
+                        String.format(
+                                "Value shift for key '%s' is out of bounds: %s; current position: %s",
+                                decode(buffer, keyStart, keyEnd),
+                                valueStart,
+                                position));
+            }
+
+            if (count + 1 >= keyStarts.length) {
+                keyStarts = Arrays.copyOf(keyStarts, keyStarts.length * 2);
+                valueStarts = Arrays.copyOf(valueStarts, valueStarts.length * 2);
+            }
+            keyStarts[count] = keyStart;
+            valueStarts[count] = valueStart;
+            count++;
+
+            keySectionEnd = Math.min(keySectionEnd, valueStart);
+            keyStart = position;
+        }
+
+        if (keyStart != position) {
+            throw new DBFileCorruptIOException(
+                    String.format(
+                            "Attempt to read key part from %s to %s, but value should start here",
+                            keyStart,
+                            position));
+        }
+        keyStarts[count] = position;
+
+        return new MappedPartFile(path, buffer, keyStarts, valueStarts, count);
+    }
+
+    /**
+     * Value ends where the nearest next value starts; the last value ends at the end of file.
+     */
+    private static int[] computeValueEnds(int[] valueStarts, int count, int fileSize) {
+        // (value start, entry number) pairs sorted by value start.
+        long[] order = new long[count];
+        for (int entry = 0; entry < count; entry++) {
+            order[entry] = ((long) valueStarts[entry] << 32) | entry;
+        }
+        Arrays.sort(order);
+
+        int[] valueEnds = new int[count];
+        for (int i = 0; i < count; i++) {
+            int entry = (int) order[i];
+            valueEnds[entry] = i + 1 < count ? (int) (order[i + 1] >>> 32) : fileSize;
+        }
+        return valueEnds;
+    }
+
+    private static String decode(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        ByteBuffer view = buffer.duplicate();
+        view.position(start);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int hash(ByteBuffer buffer, int start, int end) {
+        int hash = 1;
+        for (int i = start; i < end; i++) {
+            hash = hash * 31 + buffer.get(i);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int hash(byte[] bytes) {
+        int hash = 1;
+        for (byte b : bytes) {
+            hash = hash * 31 + b;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private int getKeyEnd(int entry) {
+        // Key is followed by 4 bytes of value offset.
+        return keyStarts[entry + 1] - 4;
+    }
+
+    /**
+     * Returns slot that contains the given key or the empty slot where it must be put.
+     */
+    private int findSlot(ByteBuffer keyBuffer, int start, int end) {
+        int mask = slots.length - 1;
+        for (int slot = hash(keyBuffer, start, end) & mask; ; slot = (slot + 1) & mask) {
+            int entry = slots[slot] - 1;
+            if (entry < 0 || keyEquals(entry, keyBuffer, start, end)) {
+                return slot;
+            }
+        }
+    }
+
+    private boolean keyEquals(int entry, ByteBuffer keyBuffer, int start, int end) {
+        int entryStart = keyStarts[entry];
+        if (getKeyEnd(entry) - entryStart != end - start) {
+            return false;
+        }
+        for (int i = 0; i < end - start; i++) {
+            if (buffer.get(entryStart + i) != keyBuffer.get(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns entry number for the given key or -1 if it is not stored.
+     */
+    private int find(String key) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer keyBuffer = ByteBuffer.wrap(keyBytes);
+
+        int mask = slots.length - 1;
+        for (int slot = hash(keyBytes) & mask; ; slot = (slot + 1) & mask) {
+            int entry = slots[slot] - 1;
+            if (entry < 0 || keyEquals(entry, keyBuffer, 0, keyBytes.length)) {
+                return entry;
+            }
+        }
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * Returns value for the given key or null if there is no such key.
+     */
+    String get(String key) {
+        int entry = find(key);
+        return entry < 0 ? null : decode(buffer, valueStarts[entry], valueEnds[entry]);
+    }
+
+    boolean containsKey(String key) {
+        return find(key) >= 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Decodes all keys. Values are not touched.
+     */
+    void forEachKey(Consumer<String> action) {
+        for (int slot : slots) {
+            if (slot != 0) {
+                action.accept(decode(buffer, keyStarts[slot - 1], getKeyEnd(slot - 1)));
+            }
+        }
+    }
+
+    /**
+     * Decodes all records.
+     */
+    void forEach(BiConsumer<String, String> action) {
+        for (int slot : slots) {
+            if (slot != 0) {
+                int entry = slot - 1;
+                action.accept(
+                        decode(buffer, keyStarts[entry], getKeyEnd(entry)),
+                        decode(buffer, valueStarts[entry], valueEnds[entry]));
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
+
+import ru.fizteh.fivt.storage.structured.Table;
+
+import java.util.Iterator;
+
+/**
+ * Table that can list its keys page by page, without building the whole key set.
+ */
+public interface PageableTable extends Table {
+    /**
+     * Returns the next page of keys, considering uncommitted changes. Pages are not a consistent snapshot of
+     * the table: changes committed between calls may be seen partially.
+     * @param position
+     *         {@link KeysPage#FIRST_POSITION} or next position of the previous page.
+     * @param limit
+     *         Maximal number of keys in the page. Only the last page can have fewer keys; it can be empty.
+     * @throws IllegalArgumentException
+     *         If position is not a valid token or limit is not positive.
+     */
+    KeysPage listKeys(KeysPage.Position position, int limit) throws IllegalArgumentException;
+
+    /**
+     * Lists keys of any table: pageable tables are asked for the page, other tables return all keys at once,
+     * whatever the limit is.
+     * @see #listKeys(KeysPage.Position, int)
+     */
+    static KeysPage listKeys(Table table, KeysPage.Position position, int limit) throws IllegalArgumentException {
+        if (table instanceof PageableTable) {
+            return ((PageableTable) table).listKeys(position, limit);
+        }
+        if (!KeysPage.FIRST_POSITION.equals(position)) {
+            throw new IllegalArgumentException("Invalid position: " + position);
+        }
+        return new KeysPage(table.list(), KeysPage.END_POSITION);
+    }
+
+    /**
+     * Iterates over keys of the table, requesting them page by page.
+     * @param pageSize
+     *         Maximal number of keys in each page.
+     */
+    static Iterator<String> keysIterator(Table table, int pageSize) {
+        if (!(table instanceof PageableTable)) {
+            return table.list().iterator();
+        }
+        return KeysPage.iterator(position -> listKeys(table, position, pageSize));
+    }
+}
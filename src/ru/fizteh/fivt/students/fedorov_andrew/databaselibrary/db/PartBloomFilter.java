@@ -0,0 +1,201 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
+
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.exception.DBFileCorruptIOException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.zip.CRC32;
+
+/**
+ * Bloom filter of keys stored in a table part file. It is stored beside the part file as {@code
+ * <part file>.bloom} and lets a lazily loaded table answer that a key is absent without reading the part.<br/>
+ * The filter may contain keys that are not in the part file any more, but never misses a key of the file: it
+ * is replaced before the part file changes and always covers both the old and the new keys.<br/>
+ * About 10 bits per key and 7 hash functions give false positive rate below 1%. Positions are derived from
+ * two hashes of the key by double hashing.<br/>
+ * Immutable.
+ */
+final class PartBloomFilter {
+    static final String FILE_SUFFIX = ".bloom";
+
+    private static final int MAGIC = 0x424C4D31;
+    private static final int BITS_PER_KEY = 10;
+    private static final int HASHES_COUNT = 7;
+    /**
+     * Filter is sized for this number of keys at least, so that small parts can grow without rebuilding.
+     */
+    private static final int MIN_CAPACITY = 64;
+    /**
+     * Header: magic, capacity, keys count, CRC32 of the bits.
+     */
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 8;
+
+    private final long[] bits;
+    private final int capacity;
+    private final int keysCount;
+
+    private PartBloomFilter(long[] bits, int capacity, int keysCount) {
+        this.bits = bits;
+        this.capacity = capacity;
+        this.keysCount = keysCount;
+    }
+
+    /**
+     * Builds a filter of the given keys.
+     */
+    static PartBloomFilter of(Collection<String> keys) {
+        int capacity = Math.max(MIN_CAPACITY, keys.size() + keys.size() / 2);
+        PartBloomFilter filter = new PartBloomFilter(new long[(capacity * BITS_PER_KEY + 63) / 64], capacity, 0);
+        return filter.withKeys(keys);
+    }
+
+    /**
+     * Returns a filter that contains the keys of this filter and the given ones. If there are too many keys
+     * for the size of this filter, a new one must be built from all the keys instead.
+     * @return New filter or null if it would be overfilled.
+     */
+    PartBloomFilter withKeys(Collection<String> keys) {
+        if (keysCount + keys.size() > capacity) {
+            return null;
+        }
+        long[] newBits = Arrays.copyOf(bits, bits.length);
+        long bitsCount = (long) newBits.length * 64;
+        for (String key : keys) {
+            int hash1 = hash1(key);
+            int hash2 = hash2(key);
+            for (int i = 0; i < HASHES_COUNT; i++) {
+                int bit = (int) Math.floorMod(hash1 + (long) i * hash2, bitsCount);
+                newBits[bit >>> 6] |= 1L << bit;
+            }
+        }
+        return new PartBloomFilter(newBits, capacity, keysCount + keys.size());
+    }
+
+    /**
+     * Returns false if the key is surely absent in the part file.
+     */
+    boolean mightContain(String key) {
+        long bitsCount = (long) bits.length * 64;
+        int hash1 = hash1(key);
+        int hash2 = hash2(key);
+        for (int i = 0; i < HASHES_COUNT; i++) {
+            int bit = (int) Math.floorMod(hash1 + (long) i * hash2, bitsCount);
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hash of the whole key spread with murmur3 finalizer.
+     */
+    private static int hash1(String key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+    /**
+     * FNV-1a hash of the key characters; always odd, so that positions do not repeat.
+     */
+    private static int hash2(String key) {
+        int hash = 0x811c9dc5;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x01000193;
+        }
+        return hash | 1;
+    }
+
+    static Path getFilterPath(Path tablePartFilePath) {
+        return tablePartFilePath.resolveSibling(tablePartFilePath.getFileName() + FILE_SUFFIX);
+    }
+
+    /**
+     * Writes the filter to the temporary file of the filter of the given part file. The file is synced to the
+     * disk.
+     * @see #publish(Path)
+     */
+    void writeTemporary(Path tablePartFilePath) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + bits.length * 8);
+        buffer.putInt(MAGIC).putInt(capacity).putInt(keysCount).putLong(0);
+        buffer.asLongBuffer().put(bits);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_SIZE, bits.length * 8);
+        buffer.putLong(HEADER_SIZE - 8, crc.getValue());
+        buffer.rewind();
+
+        Path temporaryPath = TablePart.getTemporaryFilePath(getFilterPath(tablePartFilePath));
+        Files.createDirectories(temporaryPath.getParent());
+        try (FileChannel channel = FileChannel.open(
+                temporaryPath,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Atomically replaces the filter of the part file by the written temporary file.
+     */
+    static void publish(Path tablePartFilePath) throws IOException {
+        Path filterPath = getFilterPath(tablePartFilePath);
+        Files.move(
+                TablePart.getTemporaryFilePath(filterPath),
+                filterPath,
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the filter of the given part file.
+     * @return Filter or null if there is no filter file.
+     * @throws DBFileCorruptIOException
+     *         If the filter file cannot be read or is damaged.
+     */
+    static PartBloomFilter read(Path tablePartFilePath) throws DBFileCorruptIOException {
+        Path filterPath = getFilterPath(tablePartFilePath);
+        if (!Files.exists(filterPath)) {
+            return null;
+        }
+
+        ByteBuffer buffer;
+        try {
+            buffer = ByteBuffer.wrap(Files.readAllBytes(filterPath));
+        } catch (IOException exc) {
+            throw new DBFileCorruptIOException("Failed to read Bloom filter " + filterPath, exc);
+        }
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC
+            || (buffer.remaining() - HEADER_SIZE + 4) % 8 != 0) {
+            throw new DBFileCorruptIOException("Invalid Bloom filter file: " + filterPath);
+        }
+
+        int capacity = buffer.getInt();
+        int keysCount = buffer.getInt();
+        long checksum = buffer.getLong();
+        long[] bits = new long[buffer.remaining() / 8];
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_SIZE, bits.length * 8);
+        if (crc.getValue() != checksum || bits.length == 0 || keysCount < 0 || keysCount > capacity) {
+            throw new DBFileCorruptIOException("Damaged Bloom filter file: " + filterPath);
+        }
+        buffer.asLongBuffer().get(bits);
+        return new PartBloomFilter(bits, capacity, keysCount);
+    }
+}
@@ -0,0 +1,52 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
+
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Log;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Background compaction of table parts stored in {@link TableLayout.PartFormat#LOG log format}.<br/>
+ * All parts of all tables are compacted one by one in a single daemon thread.
+ */
+final class PartCompactor {
+    /**
+     * Part is compacted when overwritten and removal records make up more than this share of its log.
+     */
+    static final double DEAD_RECORDS_THRESHOLD = 0.5;
+    /**
+     * Small logs are not compacted: it is cheaper to keep some garbage.
+     */
+    static final int MIN_RECORDS_TO_COMPACT = 64;
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(
+            runnable -> {
+                Thread thread = new Thread(runnable, "Table part compactor");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private PartCompactor() {
+
+    }
+
+    static boolean needsCompaction(int recordsCount, int liveRecordsCount) {
+        return recordsCount >= MIN_RECORDS_TO_COMPACT
+               && recordsCount - liveRecordsCount > recordsCount * DEAD_RECORDS_THRESHOLD;
+    }
+
+    /**
+     * Schedules compaction of the given part.
+     */
+    static void schedule(TablePart part) {
+        EXECUTOR.execute(
+                () -> {
+                    try {
+                        part.compact();
+                    } catch (IOException exc) {
+                        Log.log(PartCompactor.class, exc, "Failed to compact " + part.getTablePartFilePath());
+                    }
+                });
+    }
+}
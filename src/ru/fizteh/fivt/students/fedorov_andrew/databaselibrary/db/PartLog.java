@@ -0,0 +1,250 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
+
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.exception.DBFileCorruptIOException;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Reading and writing of table parts in {@link TableLayout.PartFormat#LOG log format}.<br/>
+ * Structure: {@code <4 bytes: magic>} followed by records. Each record is {@code <1 byte: type><4 bytes: key
+ * length><key bytes>} and, for puts only, {@code <4 bytes: value length><value bytes>}. Strings are in
+ * UTF-8.<br/>
+ * Replaying records from the beginning gives the committed state of the part. An incomplete record at the end
+ * of the file (e.g. after a crash during append) is ignored and cut off by the next append.
+ */
+final class PartLog {
+    private static final int MAGIC = 0x465a4c47;
+    private static final int HEADER_SIZE = 4;
+    private static final byte RECORD_PUT = 1;
+    private static final byte RECORD_REMOVE = 0;
+
+    private PartLog() {
+
+    }
+
+    /**
+     * Replays the log file into the given map builder.
+     * @return Statistics of the read file.
+     */
+    static Stats read(Path logPath, PersistentHashMap.Builder target) throws IOException {
+        long validLength = HEADER_SIZE;
+        int recordsCount = 0;
+        long fileSize = Files.size(logPath);
+
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(logPath)))) {
+            if (input.readInt() != MAGIC) {
+                throw new DBFileCorruptIOException("Not a log part file: " + logPath);
+            }
+
+            while (true) {
+                int type = input.read();
+                if (type < 0) {
+                    break;
+                }
+
+                long recordLength = 1;
+                try {
+                    byte[] key = readBytes(input, fileSize, logPath);
+                    recordLength += 4 + key.length;
+
+                    if (type == RECORD_PUT) {
+                        byte[] value = readBytes(input, fileSize, logPath);
+                        recordLength += 4 + value.length;
+                        target.put(
+                                new String(key, StandardCharsets.UTF_8),
+                                new String(value, StandardCharsets.UTF_8));
+                    } else if (type == RECORD_REMOVE) {
+                        target.remove(new String(key, StandardCharsets.UTF_8));
+                    } else {
+                        throw new DBFileCorruptIOException(
+                                "Unknown record type " + type + " at byte " + validLength + " in " + logPath);
+                    }
+                } catch (EOFException exc) {
+                    Log.log(PartLog.class, "Incomplete record at the end of " + logPath + " is ignored");
+                    break;
+                }
+
+                validLength += recordLength;
+                recordsCount++;
+            }
+        } catch (EOFException exc) {
+            throw new DBFileCorruptIOException("Log part file is too short: " + logPath, exc);
+        }
+
+        return new Stats(recordsCount, validLength);
+    }
+
+    private static byte[] readBytes(DataInputStream input, long fileSize, Path logPath) throws IOException {
+        int length = input.readInt();
+        if (length < 0) {
+            throw new DBFileCorruptIOException("Negative length of string in " + logPath);
+        }
+        if (length > fileSize) {
+            // Length itself was written, but the data was not.
+            throw new EOFException();
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Appends records describing the given changes to the end of the log and syncs them to the disk. A pair
+     * (key, null) describes removal. The file is created if it does not exist.
+     * @param validLength
+     *         Length of the valid part of the existing file; everything after it is cut off. Ignored if the
+     *         file does not exist.
+     * @return New length of the valid part of the file.
+     */
+    static long append(Path logPath, long validLength, Map<String, String> changes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+
+        boolean created = !Files.exists(logPath);
+        if (created) {
+            Files.createDirectories(logPath.getParent());
+            new DataOutputStream(bytes).writeInt(MAGIC);
+            validLength = 0;
+        }
+
+        writeRecords(bytes, changes);
+
+        try (FileChannel channel = FileChannel.open(
+                logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (channel.size() > validLength) {
+                channel.truncate(validLength);
+            }
+            channel.position(validLength);
+
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+
+        return validLength + bytes.size();
+    }
+
+    /**
+     * Cuts off everything after the valid part of the log. If nothing valid is left, the file is removed.
+     */
+    static void truncate(Path logPath, long validLength) throws IOException {
+        if (validLength == 0) {
+            Files.deleteIfExists(logPath);
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.WRITE)) {
+            channel.truncate(validLength);
+        }
+    }
+
+    /**
+     * Atomically replaces the log with a new one that contains only puts of the given map. The new log is
+     * synced to the disk before it replaces the old one.
+     * @return Length of the new file.
+     */
+    static long rewrite(Path logPath, PersistentHashMap committed) throws IOException {
+        Path temporaryPath = TablePart.getTemporaryFilePath(logPath);
+
+        long length;
+        try (FileChannel channel = FileChannel.open(
+                temporaryPath,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+            new DataOutputStream(bytes).writeInt(MAGIC);
+            DataOutputStream output = new DataOutputStream(bytes);
+            try {
+                committed.forEach(
+                        (key, value) -> {
+                            try {
+                                writeRecord(output, key, value);
+                            } catch (IOException exc) {
+                                throw new UncheckedIOException(exc);
+                            }
+                        });
+            } catch (UncheckedIOException exc) {
+                throw exc.getCause();
+            }
+            output.flush();
+            length = bytes.size();
+
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        } catch (IOException exc) {
+            Files.deleteIfExists(temporaryPath);
+            throw exc;
+        }
+
+        Files.move(
+                temporaryPath, logPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return length;
+    }
+
+    private static void writeRecords(OutputStream stream, Map<String, String> records) throws IOException {
+        DataOutputStream output = new DataOutputStream(stream);
+
+        for (Entry<String, String> entry : records.entrySet()) {
+            writeRecord(output, entry.getKey(), entry.getValue());
+        }
+        output.flush();
+    }
+
+    /**
+     * Writes a put record or, if the value is null, a removal one.
+     */
+    private static void writeRecord(DataOutputStream output, String key, String value) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        output.writeByte(value == null ? RECORD_REMOVE : RECORD_PUT);
+        output.writeInt(keyBytes.length);
+        output.write(keyBytes);
+
+        if (value != null) {
+            byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+            output.writeInt(valueBytes.length);
+            output.write(valueBytes);
+        }
+    }
+
+    /**
+     * Information about log file contents.
+     */
+    static final class Stats {
+        /**
+         * Number of complete records in the file.
+         */
+        final int recordsCount;
+        /**
+         * Length of the file up to the end of the last complete record.
+         */
+        final long validLength;
+
+        Stats(int recordsCount, long validLength) {
+            this.recordsCount = recordsCount;
+            this.validLength = validLength;
+        }
+    }
+}
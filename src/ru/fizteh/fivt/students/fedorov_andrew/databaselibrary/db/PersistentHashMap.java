@@ -0,0 +1,485 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.function.BiConsumer;
+
+/**
+ * Immutable map from strings to strings implemented as a compressed hash-array mapped prefix tree (CHAMP).
+ * <br/>
+ * Each modification returns a new version of the map that shares all unchanged nodes with the old one, so
+ * that any version can be read by any number of threads while newer versions are being built. Batch
+ * modifications mutate the nodes created within the same batch in place, so they do not copy a path of
+ * nodes for every key.<br/>
+ * Null keys and values are not permitted.
+ */
+final class PersistentHashMap {
+    static final PersistentHashMap EMPTY = new PersistentHashMap(BitmapNode.EMPTY, 0);
+
+    private static final int BITS_PER_LEVEL = 5;
+    private static final int HASH_BITS = 32;
+    private static final int LEVEL_MASK = (1 << BITS_PER_LEVEL) - 1;
+
+    private final Node root;
+    private final int size;
+
+    private PersistentHashMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    private static int hash(String key) {
+        int hash = key.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    String get(String key) {
+        return root.get(key, hash(key), 0);
+    }
+
+    boolean containsKey(String key) {
+        return get(key) != null;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns new version of the map with the given changes applied. A pair (key, value) describes put, a
+     * pair (key, null) describes removal. This version is not changed.
+     */
+    PersistentHashMap withChanges(Map<String, String> changes) {
+        if (changes.isEmpty()) {
+            return this;
+        }
+
+        Builder builder = new Builder(this);
+        for (Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                builder.remove(change.getKey());
+            } else {
+                builder.put(change.getKey(), change.getValue());
+            }
+        }
+        return builder.build();
+    }
+
+    void forEach(BiConsumer<String, String> action) {
+        root.forEach(action);
+    }
+
+    /**
+     * Builds a new version of the map by a series of modifications. Nodes created by the builder are
+     * changed in place until {@link #build()} is called.<br/>
+     * Not thread-safe.
+     */
+    static final class Builder {
+        /**
+         * Token that marks nodes owned by this builder.
+         */
+        private Object edit = new Object();
+        private final SizeChange sizeChange = new SizeChange();
+        private final PersistentHashMap base;
+        private Node root;
+
+        Builder() {
+            this(EMPTY);
+        }
+
+        Builder(PersistentHashMap base) {
+            this.base = base;
+            this.root = base.root;
+        }
+
+        private void checkNotBuilt() {
+            if (edit == null) {
+                throw new IllegalStateException("Map has already been built");
+            }
+        }
+
+        void put(String key, String value) {
+            checkNotBuilt();
+            root = root.put(key, value, hash(key), 0, edit, sizeChange);
+        }
+
+        void remove(String key) {
+            checkNotBuilt();
+            root = root.remove(key, hash(key), 0, edit, sizeChange);
+        }
+
+        /**
+         * Returns the built map. The builder cannot be used after that.
+         */
+        PersistentHashMap build() {
+            checkNotBuilt();
+            edit = null;
+            return root == base.root ? base : new PersistentHashMap(root, base.size + sizeChange.delta);
+        }
+    }
+
+    /**
+     * Accumulates change of the number of records during modification.
+     */
+    private static final class SizeChange {
+        private int delta;
+    }
+
+    private abstract static class Node {
+        /**
+         * Token of the modification that created this node; null for nodes that cannot be changed.
+         */
+        Object edit;
+
+        Node(Object edit) {
+            this.edit = edit;
+        }
+
+        boolean isEditableBy(Object edit) {
+            return edit != null && this.edit == edit;
+        }
+
+        abstract String get(String key, int hash, int shift);
+
+        abstract Node put(String key, String value, int hash, int shift, Object edit, SizeChange sizeChange);
+
+        abstract Node remove(String key, int hash, int shift, Object edit, SizeChange sizeChange);
+
+        abstract int payloadArity();
+
+        abstract boolean hasNodes();
+
+        abstract String getKey(int index);
+
+        abstract String getValue(int index);
+
+        abstract void forEach(BiConsumer<String, String> action);
+    }
+
+    /**
+     * Node that holds up to 32 records and subnodes. Keys and values are stored in the beginning of
+     * {@link #content}, subnodes are stored in its end in reverse order.
+     */
+    private static final class BitmapNode extends Node {
+        static final BitmapNode EMPTY = new BitmapNode(null, 0, 0, new Object[0]);
+
+        private int dataMap;
+        private int nodeMap;
+        private Object[] content;
+
+        BitmapNode(Object edit, int dataMap, int nodeMap, Object[] content) {
+            super(edit);
+            this.dataMap = dataMap;
+            this.nodeMap = nodeMap;
+            this.content = content;
+        }
+
+        private static int mask(int hash, int shift) {
+            return (hash >>> shift) & LEVEL_MASK;
+        }
+
+        private static int bitpos(int mask) {
+            return 1 << mask;
+        }
+
+        private static int index(int bitmap, int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        /**
+         * Builds the smallest subtree that contains two records with different keys.
+         */
+        static Node mergeTwo(String key0, String value0, String key1, String value1, int shift, Object edit) {
+            if (shift >= HASH_BITS) {
+                return new CollisionNode(edit, new String[] {key0, key1}, new String[] {value0, value1});
+            }
+
+            int mask0 = mask(hash(key0), shift);
+            int mask1 = mask(hash(key1), shift);
+
+            if (mask0 != mask1) {
+                int dataMap = bitpos(mask0) | bitpos(mask1);
+                Object[] content = mask0 < mask1
+                                   ? new Object[] {key0, value0, key1, value1}
+                                   : new Object[] {key1, value1, key0, value0};
+                return new BitmapNode(edit, dataMap, 0, content);
+            } else {
+                Node node = mergeTwo(key0, value0, key1, value1, shift + BITS_PER_LEVEL, edit);
+                return new BitmapNode(edit, 0, bitpos(mask0), new Object[] {node});
+            }
+        }
+
+        private Node nodeAt(int bit) {
+            return (Node) content[content.length - 1 - index(nodeMap, bit)];
+        }
+
+        /**
+         * Returns this node with the given state if it can be changed in place, or a new node otherwise.
+         */
+        private BitmapNode with(Object edit, int newDataMap, int newNodeMap, Object[] newContent) {
+            if (isEditableBy(edit)) {
+                dataMap = newDataMap;
+                nodeMap = newNodeMap;
+                content = newContent;
+                return this;
+            }
+            return new BitmapNode(edit, newDataMap, newNodeMap, newContent);
+        }
+
+        private Object[] contentForEdit(Object edit) {
+            return isEditableBy(edit) ? content : content.clone();
+        }
+
+        @Override
+        String get(String key, int hash, int shift) {
+            int bit = bitpos(mask(hash, shift));
+
+            if ((dataMap & bit) != 0) {
+                int index = index(dataMap, bit);
+                return key.equals(content[2 * index]) ? (String) content[2 * index + 1] : null;
+            }
+            if ((nodeMap & bit) != 0) {
+                return nodeAt(bit).get(key, hash, shift + BITS_PER_LEVEL);
+            }
+            return null;
+        }
+
+        @Override
+        Node put(String key, String value, int hash, int shift, Object edit, SizeChange sizeChange) {
+            int bit = bitpos(mask(hash, shift));
+
+            if ((dataMap & bit) != 0) {
+                int index = index(dataMap, bit);
+                String currentKey = (String) content[2 * index];
+
+                if (key.equals(currentKey)) {
+                    if (value.equals(content[2 * index + 1])) {
+                        return this;
+                    }
+                    Object[] newContent = contentForEdit(edit);
+                    newContent[2 * index + 1] = value;
+                    return with(edit, dataMap, nodeMap, newContent);
+                }
+
+                // Record is moved down to a new subnode together with the new one.
+                String currentValue = (String) content[2 * index + 1];
+                Node subNode = mergeTwo(currentKey, currentValue, key, value, shift + BITS_PER_LEVEL, edit);
+                sizeChange.delta++;
+                return migrateFromDataToNode(bit, subNode, edit);
+            }
+
+            if ((nodeMap & bit) != 0) {
+                Node subNode = nodeAt(bit);
+                Node newSubNode = subNode.put(key, value, hash, shift + BITS_PER_LEVEL, edit, sizeChange);
+                return newSubNode == subNode ? this : setNode(bit, newSubNode, edit);
+            }
+
+            sizeChange.delta++;
+            int index = 2 * index(dataMap, bit);
+            Object[] newContent = new Object[content.length + 2];
+            System.arraycopy(content, 0, newContent, 0, index);
+            newContent[index] = key;
+            newContent[index + 1] = value;
+            System.arraycopy(content, index, newContent, index + 2, content.length - index);
+            return with(edit, dataMap | bit, nodeMap, newContent);
+        }
+
+        @Override
+        Node remove(String key, int hash, int shift, Object edit, SizeChange sizeChange) {
+            int bit = bitpos(mask(hash, shift));
+
+            if ((dataMap & bit) != 0) {
+                int index = 2 * index(dataMap, bit);
+                if (!key.equals(content[index])) {
+                    return this;
+                }
+
+                sizeChange.delta--;
+                Object[] newContent = new Object[content.length - 2];
+                System.arraycopy(content, 0, newContent, 0, index);
+                System.arraycopy(content, index + 2, newContent, index, content.length - index - 2);
+                return with(edit, dataMap ^ bit, nodeMap, newContent);
+            }
+
+            if ((nodeMap & bit) != 0) {
+                Node subNode = nodeAt(bit);
+                Node newSubNode = subNode.remove(key, hash, shift + BITS_PER_LEVEL, edit, sizeChange);
+                if (newSubNode == subNode) {
+                    return this;
+                }
+                if (!newSubNode.hasNodes() && newSubNode.payloadArity() == 1) {
+                    // Subnode with a single record is inlined to keep the tree canonical.
+                    return migrateFromNodeToData(bit, newSubNode.getKey(0), newSubNode.getValue(0), edit);
+                }
+                return setNode(bit, newSubNode, edit);
+            }
+
+            return this;
+        }
+
+        private BitmapNode setNode(int bit, Node node, Object edit) {
+            Object[] newContent = contentForEdit(edit);
+            newContent[content.length - 1 - index(nodeMap, bit)] = node;
+            return with(edit, dataMap, nodeMap, newContent);
+        }
+
+        private BitmapNode migrateFromDataToNode(int bit, Node node, Object edit) {
+            int oldIndex = 2 * index(dataMap, bit);
+            int newIndex = content.length - 2 - index(nodeMap, bit);
+
+            Object[] newContent = new Object[content.length - 1];
+            System.arraycopy(content, 0, newContent, 0, oldIndex);
+            System.arraycopy(content, oldIndex + 2, newContent, oldIndex, newIndex - oldIndex);
+            newContent[newIndex] = node;
+            System.arraycopy(content, newIndex + 2, newContent, newIndex + 1, content.length - newIndex - 2);
+            return with(edit, dataMap ^ bit, nodeMap | bit, newContent);
+        }
+
+        private BitmapNode migrateFromNodeToData(int bit, String key, String value, Object edit) {
+            int oldIndex = content.length - 1 - index(nodeMap, bit);
+            int newIndex = 2 * index(dataMap, bit);
+
+            Object[] newContent = new Object[content.length + 1];
+            System.arraycopy(content, 0, newContent, 0, newIndex);
+            newContent[newIndex] = key;
+            newContent[newIndex + 1] = value;
+            System.arraycopy(content, newIndex, newContent, newIndex + 2, oldIndex - newIndex);
+            System.arraycopy(content, oldIndex + 1, newContent, oldIndex + 2, content.length - oldIndex - 1);
+            return with(edit, dataMap | bit, nodeMap ^ bit, newContent);
+        }
+
+        @Override
+        int payloadArity() {
+            return Integer.bitCount(dataMap);
+        }
+
+        @Override
+        boolean hasNodes() {
+            return nodeMap != 0;
+        }
+
+        @Override
+        String getKey(int index) {
+            return (String) content[2 * index];
+        }
+
+        @Override
+        String getValue(int index) {
+            return (String) content[2 * index + 1];
+        }
+
+        @Override
+        void forEach(BiConsumer<String, String> action) {
+            int payloadLength = 2 * payloadArity();
+            for (int i = 0; i < payloadLength; i += 2) {
+                action.accept((String) content[i], (String) content[i + 1]);
+            }
+            for (int i = payloadLength; i < content.length; i++) {
+                ((Node) content[i]).forEach(action);
+            }
+        }
+    }
+
+    /**
+     * Node for keys with equal hashes. Contains at least two records.
+     */
+    private static final class CollisionNode extends Node {
+        private String[] keys;
+        private String[] values;
+
+        CollisionNode(Object edit, String[] keys, String[] values) {
+            super(edit);
+            this.keys = keys;
+            this.values = values;
+        }
+
+        private int find(String key) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i].equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private CollisionNode with(Object edit, String[] newKeys, String[] newValues) {
+            if (isEditableBy(edit)) {
+                keys = newKeys;
+                values = newValues;
+                return this;
+            }
+            return new CollisionNode(edit, newKeys, newValues);
+        }
+
+        @Override
+        String get(String key, int hash, int shift) {
+            int index = find(key);
+            return index < 0 ? null : values[index];
+        }
+
+        @Override
+        Node put(String key, String value, int hash, int shift, Object edit, SizeChange sizeChange) {
+            int index = find(key);
+            if (index >= 0) {
+                if (value.equals(values[index])) {
+                    return this;
+                }
+                String[] newValues = isEditableBy(edit) ? values : values.clone();
+                newValues[index] = value;
+                return with(edit, keys, newValues);
+            }
+
+            sizeChange.delta++;
+            String[] newKeys = Arrays.copyOf(keys, keys.length + 1);
+            String[] newValues = Arrays.copyOf(values, values.length + 1);
+            newKeys[keys.length] = key;
+            newValues[values.length] = value;
+            return with(edit, newKeys, newValues);
+        }
+
+        @Override
+        Node remove(String key, int hash, int shift, Object edit, SizeChange sizeChange) {
+            int index = find(key);
+            if (index < 0) {
+                return this;
+            }
+
+            sizeChange.delta--;
+            String[] newKeys = new String[keys.length - 1];
+            String[] newValues = new String[values.length - 1];
+            System.arraycopy(keys, 0, newKeys, 0, index);
+            System.arraycopy(keys, index + 1, newKeys, index, keys.length - index - 1);
+            System.arraycopy(values, 0, newValues, 0, index);
+            System.arraycopy(values, index + 1, newValues, index, values.length - index - 1);
+            return with(edit, newKeys, newValues);
+        }
+
+        @Override
+        int payloadArity() {
+            return keys.length;
+        }
+
+        @Override
+        boolean hasNodes() {
+            return false;
+        }
+
+        @Override
+        String getKey(int index) {
+            return keys[index];
+        }
+
+        @Override
+        String getValue(int index) {
+            return values[index];
+        }
+
+        @Override
+        void forEach(BiConsumer<String, String> action) {
+            for (int i = 0; i < keys.length; i++) {
+                action.accept(keys[i], values[i]);
+            }
+        }
+    }
+}
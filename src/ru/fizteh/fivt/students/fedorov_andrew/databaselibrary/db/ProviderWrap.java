@@ -1,6 +1,8 @@
 package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
 
 import ru.fizteh.fivt.storage.structured.ColumnFormatException;
+import ru.fizteh.fivt.storage.structured.Index;
+import ru.fizteh.fivt.storage.structured.IndexProvider;
 import ru.fizteh.fivt.storage.structured.Storeable;
 import ru.fizteh.fivt.storage.structured.Table;
 import ru.fizteh.fivt.storage.structured.TableProvider;
@@ -11,7 +13,11 @@ import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.ValidityCo
 
 import java.io.IOException;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Wraps the given table provider.<br/>
@@ -93,6 +99,63 @@ public class ProviderWrap implements AutoCloseableProvider {
         }
     }
 
+    @Override
+    public AutoCloseableTable createTable(String name, List<Class<?>> columnTypes, TableLayout layout)
+            throws IOException {
+        try (UseLock lock = providerVC.use()) {
+            if (!(provider instanceof AutoCloseableProvider)) {
+                throw new UnsupportedOperationException("Wrapped provider does not support table layouts");
+            }
+            Table table = ((AutoCloseableProvider) provider).createTable(name, columnTypes, layout);
+            return table == null ? null : new TableWrap(table);
+        }
+    }
+
+    @Override
+    public int commit(Collection<? extends Table> tables) throws IOException {
+        try (UseLock lock = providerVC.use()) {
+            if (!(provider instanceof AutoCloseableProvider)) {
+                throw new UnsupportedOperationException("Wrapped provider does not support commits of many tables");
+            }
+            List<Table> wrappedTables = new ArrayList<>(tables.size());
+            for (Table table : tables) {
+                wrappedTables.add(table instanceof TableWrap ? ((TableWrap) table).table : table);
+            }
+            return ((AutoCloseableProvider) provider).commit(wrappedTables);
+        }
+    }
+
+    @Override
+    public void awaitValidation() throws InterruptedException {
+        try (UseLock lock = providerVC.use()) {
+            if (provider instanceof AutoCloseableProvider) {
+                ((AutoCloseableProvider) provider).awaitValidation();
+            }
+        }
+    }
+
+    @Override
+    public Index getIndex(String name) throws IllegalArgumentException {
+        try (UseLock lock = providerVC.use()) {
+            if (!(provider instanceof IndexProvider)) {
+                throw new UnsupportedOperationException("Wrapped provider does not support indexes");
+            }
+            return ((IndexProvider) provider).getIndex(name);
+        }
+    }
+
+    @Override
+    public Index createIndex(Table table, int column, String name)
+            throws IllegalArgumentException, IllegalStateException {
+        try (UseLock lock = providerVC.use()) {
+            if (!(provider instanceof IndexProvider)) {
+                throw new UnsupportedOperationException("Wrapped provider does not support indexes");
+            }
+            Table wrappedTable = table instanceof TableWrap ? ((TableWrap) table).table : table;
+            return ((IndexProvider) provider).createIndex(wrappedTable, column, name);
+        }
+    }
+
     class TableWrap implements AutoCloseableTable {
         private final Table table;
         private final ValidityController tableVC = new ValidityController();
@@ -162,6 +225,57 @@ public class ProviderWrap implements AutoCloseableProvider {
             }
         }
 
+        @Override
+        public KeysPage listKeys(KeysPage.Position position, int limit) throws IllegalArgumentException {
+            try (UseLock tableLock = tableVC.use()) {
+                try (UseLock providerLock = providerVC.use()) {
+                    return PageableTable.listKeys(table, position, limit);
+                } catch (InvalidatedObjectException exc) {
+                    forceClose(tableLock);
+                    throw exc;
+                }
+            }
+        }
+
+        @Override
+        public Iterator<Map.Entry<String, Storeable>> scan(String fromKey, String toKey) {
+            try (UseLock tableLock = tableVC.use()) {
+                try (UseLock providerLock = providerVC.use()) {
+                    return ScannableTable.scan(table, fromKey, toKey);
+                } catch (InvalidatedObjectException exc) {
+                    forceClose(tableLock);
+                    throw exc;
+                }
+            }
+        }
+
+        @Override
+        public Index createIndex(int column, String name) throws IllegalArgumentException, IllegalStateException {
+            try (UseLock tableLock = tableVC.use()) {
+                try (UseLock providerLock = providerVC.use()) {
+                    if (!(table instanceof IndexableTable)) {
+                        throw new UnsupportedOperationException("Wrapped table does not support indexes");
+                    }
+                    return ((IndexableTable) table).createIndex(column, name);
+                } catch (InvalidatedObjectException exc) {
+                    forceClose(tableLock);
+                    throw exc;
+                }
+            }
+        }
+
+        @Override
+        public Index getIndex(String name) {
+            try (UseLock tableLock = tableVC.use()) {
+                try (UseLock providerLock = providerVC.use()) {
+                    return table instanceof IndexableTable ? ((IndexableTable) table).getIndex(name) : null;
+                } catch (InvalidatedObjectException exc) {
+                    forceClose(tableLock);
+                    throw exc;
+                }
+            }
+        }
+
         @Override
         public int commit() throws IOException {
             try (UseLock tableLock = tableVC.use()) {
@@ -0,0 +1,37 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
+
+import ru.fizteh.fivt.storage.structured.ColumnFormatException;
+import ru.fizteh.fivt.storage.structured.Storeable;
+
+import java.text.ParseException;
+import java.util.List;
+
+/**
+ * Converts rows of a structured table to strings stored in table parts and back.
+ * @see TableLayout.RowFormat
+ */
+public interface RowCodec {
+    /**
+     * Encodes the row. The row must be already checked to match column types.
+     */
+    String encode(Storeable row) throws ColumnFormatException;
+
+    /**
+     * Decodes the row.
+     * @throws ParseException
+     *         If the data is not a row of the expected format and column types.
+     */
+    Storeable decode(String data) throws ParseException;
+
+    /**
+     * Returns codec of the given format for rows with the given column types.
+     */
+    static RowCodec forFormat(TableLayout.RowFormat format, List<Class<?>> columnTypes) {
+        switch (format) {
+            case BINARY:
+                return new BinaryRowCodec(columnTypes);
+            default:
+                return new JSONRowCodec(columnTypes);
+        }
+    }
+}
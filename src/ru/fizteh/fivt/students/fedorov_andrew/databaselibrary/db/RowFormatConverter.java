@@ -0,0 +1,76 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
+
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.TableLayout.RowFormat;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.exception.DBFileCorruptIOException;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.exception.DatabaseIOException;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Log;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.util.List;
+
+/**
+ * Offline tool that rewrites all rows of a table in another {@link RowFormat row format}.<br/>
+ * Table must not be used by anybody during conversion. Parts layout of the table is preserved. The table is
+ * rebuilt the same way as {@link TableRebucketer} does it.
+ */
+public final class RowFormatConverter {
+    private RowFormatConverter() {
+
+    }
+
+    /**
+     * Usage: {@code RowFormatConverter <table directory> <JSON|BINARY>}.
+     */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: RowFormatConverter <table directory> <JSON|BINARY>");
+            System.exit(1);
+        }
+
+        try {
+            Path tableRoot = Paths.get(args[0]).toAbsolutePath().normalize();
+            RowFormat rowFormat = RowFormat.valueOf(args[1]);
+
+            int recordsCount = convert(tableRoot, rowFormat);
+            System.out.println(
+                    "Converted " + recordsCount + " records of " + tableRoot.getFileName() + " to " + rowFormat
+                    + " format");
+        } catch (IOException | IllegalArgumentException exc) {
+            Log.log(RowFormatConverter.class, exc, "Row format conversion failed");
+            System.err.println(exc.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Converts rows of the table located in the given directory.
+     * @param tableRoot
+     *         Table root directory.
+     * @param rowFormat
+     *         New row format.
+     * @return Number of converted records.
+     * @throws DatabaseIOException
+     *         If failed to read the old table, some row cannot be decoded or failed to write the new table.
+     *         The old table is left untouched in this case.
+     */
+    public static int convert(Path tableRoot, RowFormat rowFormat) throws DatabaseIOException {
+        String tableName = tableRoot.getFileName().toString();
+        List<Class<?>> columnTypes = StoreableTableImpl.readColumnTypes(tableRoot, tableName);
+        RowCodec sourceCodec = RowCodec.forFormat(TableLayout.readFrom(tableRoot).getRowFormat(), columnTypes);
+        RowCodec targetCodec = RowCodec.forFormat(rowFormat, columnTypes);
+
+        return TableRebucketer.rebuild(
+                tableRoot, oldLayout -> oldLayout.withRowFormat(rowFormat), (key, value) -> {
+                    try {
+                        return targetCodec.encode(sourceCodec.decode(value));
+                    } catch (ParseException exc) {
+                        throw new DBFileCorruptIOException(
+                                "Improper value in table " + tableName + " for key " + key + ": "
+                                + exc.getMessage());
+                    }
+                });
+    }
+}
@@ -0,0 +1,115 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Placement of column values of {@link StoreableImpl} rows: each primitive column takes a slot in the array of
+ * longs, each string column takes a slot in the array of strings. Built once per table or codec and shared
+ * by its rows.<br/>
+ * Immutable.
+ */
+final class RowLayout implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final List<Class<?>> types;
+    private final Class<?>[] classes;
+    private final Kind[] kinds;
+    /**
+     * Index of the slot of each column in the array of its kind.
+     */
+    private final int[] slots;
+    private final int primitivesCount;
+    private final int stringsCount;
+
+    /**
+     * @param types
+     *         Column types. The list is shared, not copied.
+     * @throws IllegalArgumentException
+     *         If some type is not supported.
+     */
+    RowLayout(List<Class<?>> types) throws IllegalArgumentException {
+        this.types = types;
+        this.classes = types.toArray(new Class<?>[types.size()]);
+        this.kinds = new Kind[classes.length];
+        this.slots = new int[classes.length];
+
+        int primitives = 0;
+        int strings = 0;
+        for (int column = 0; column < classes.length; column++) {
+            kinds[column] = Kind.of(classes[column]);
+            slots[column] = kinds[column] == Kind.STRING ? strings++ : primitives++;
+        }
+        this.primitivesCount = primitives;
+        this.stringsCount = strings;
+    }
+
+    List<Class<?>> getTypes() {
+        return types;
+    }
+
+    int getColumnsCount() {
+        return classes.length;
+    }
+
+    Class<?> getType(int column) {
+        return classes[column];
+    }
+
+    Kind getKind(int column) {
+        return kinds[column];
+    }
+
+    int getSlot(int column) {
+        return slots[column];
+    }
+
+    int getPrimitivesCount() {
+        return primitivesCount;
+    }
+
+    int getStringsCount() {
+        return stringsCount;
+    }
+
+    /**
+     * Returns true if rows of both layouts keep the same kinds of values in the same slots.
+     */
+    boolean isCompatibleWith(RowLayout other) {
+        return this == other || Arrays.equals(kinds, other.kinds);
+    }
+
+    /**
+     * Supported column types.
+     */
+    enum Kind {
+        BOOLEAN,
+        BYTE,
+        INT,
+        LONG,
+        FLOAT,
+        DOUBLE,
+        STRING;
+
+        static Kind of(Class<?> clazz) throws IllegalArgumentException {
+            if (clazz == Boolean.class) {
+                return BOOLEAN;
+            } else if (clazz == Byte.class) {
+                return BYTE;
+            } else if (clazz == Integer.class) {
+                return INT;
+            } else if (clazz == Long.class) {
+                return LONG;
+            } else if (clazz == Float.class) {
+                return FLOAT;
+            } else if (clazz == Double.class) {
+                return DOUBLE;
+            } else if (clazz == String.class) {
+                return STRING;
+            } else {
+                throw new IllegalArgumentException("Unsupported column type: " + clazz.getSimpleName());
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
+
+import ru.fizteh.fivt.storage.structured.Storeable;
+import ru.fizteh.fivt.storage.structured.Table;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Table that can iterate over its rows in order of keys within a key range.
+ */
+public interface ScannableTable extends Table {
+    /**
+     * Returns rows with keys in the given range in order of keys, considering uncommitted changes. Rows are
+     * read lazily while iterating; the set of rows is the one at the moment of this call.
+     * @param fromKey
+     *         Least key, inclusive; null for no lower bound.
+     * @param toKey
+     *         Upper bound, exclusive; null for no upper bound.
+     */
+    Iterator<Map.Entry<String, Storeable>> scan(String fromKey, String toKey);
+
+    /**
+     * Returns rows with keys that start with the given prefix in order of keys.
+     * @throws IllegalArgumentException
+     *         If the prefix is null.
+     * @see #scan(String, String)
+     */
+    default Iterator<Map.Entry<String, Storeable>> prefixScan(String prefix) throws IllegalArgumentException {
+        if (prefix == null) {
+            throw new IllegalArgumentException("Prefix must not be null");
+        }
+        return scan(prefix, prefixEnd(prefix));
+    }
+
+    /**
+     * Returns the least string that is greater than all strings with the given prefix or null if there is no
+     * such string.
+     */
+    static String prefixEnd(String prefix) {
+        int end = prefix.length();
+        while (end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE) {
+            end--;
+        }
+        if (end == 0) {
+            return null;
+        }
+        return prefix.substring(0, end - 1) + (char) (prefix.charAt(end - 1) + 1);
+    }
+
+    /**
+     * Scans any table: scannable tables are asked for the range, keys of other tables are listed, filtered
+     * and sorted.
+     * @see #scan(String, String)
+     */
+    static Iterator<Map.Entry<String, Storeable>> scan(Table table, String fromKey, String toKey) {
+        if (table instanceof ScannableTable) {
+            return ((ScannableTable) table).scan(fromKey, toKey);
+        }
+
+        List<String> keys = table.list().stream().filter(
+                key -> (fromKey == null || key.compareTo(fromKey) >= 0)
+                       && (toKey == null || key.compareTo(toKey) < 0)).sorted().collect(Collectors.toList());
+        Iterator<String> keysIterator = keys.iterator();
+        return new Iterator<Map.Entry<String, Storeable>>() {
+            @Override
+            public boolean hasNext() {
+                return keysIterator.hasNext();
+            }
+
+            @Override
+            public Map.Entry<String, Storeable> next() {
+                String key = keysIterator.next();
+                return new AbstractMap.SimpleImmutableEntry<>(key, table.get(key));
+            }
+        };
+    }
+}
@@ -0,0 +1,117 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Records of a table part sorted by keys. Immutable: changes produce a new instance.
+ * @see TablePart#getSortedRecords()
+ */
+final class SortedRecords {
+    static final SortedRecords EMPTY = new SortedRecords(new String[0], new String[0]);
+
+    private final String[] keys;
+    private final String[] values;
+
+    private SortedRecords(String[] keys, String[] values) {
+        this.keys = keys;
+        this.values = values;
+    }
+
+    /**
+     * Collects and sorts records given by the source. Records that are already in order are sorted in linear
+     * time.
+     * @param source
+     *         Passes each record to the given consumer. Keys must be unique.
+     */
+    static SortedRecords of(Consumer<BiConsumer<String, String>> source) {
+        List<String[]> records = new ArrayList<>();
+        source.accept((key, value) -> records.add(new String[] {key, value}));
+        records.sort((a, b) -> a[0].compareTo(b[0]));
+
+        String[] keys = new String[records.size()];
+        String[] values = new String[records.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = records.get(i)[0];
+            values[i] = records.get(i)[1];
+        }
+        return new SortedRecords(keys, values);
+    }
+
+    /**
+     * Returns records with the given changes applied.
+     * @param changes
+     *         A pair (key, value) describes put, a pair (key, null) describes removal.
+     */
+    SortedRecords withChanges(Map<String, String> changes) {
+        if (changes.isEmpty()) {
+            return this;
+        }
+        String[] changedKeys = changes.keySet().toArray(new String[changes.size()]);
+        Arrays.sort(changedKeys);
+
+        List<String> newKeys = new ArrayList<>(keys.length + changedKeys.length);
+        List<String> newValues = new ArrayList<>(keys.length + changedKeys.length);
+        int i = 0;
+        int j = 0;
+        while (i < keys.length || j < changedKeys.length) {
+            int comparison = i == keys.length ? 1 : j == changedKeys.length ? -1 : keys[i].compareTo(changedKeys[j]);
+            if (comparison < 0) {
+                newKeys.add(keys[i]);
+                newValues.add(values[i]);
+                i++;
+            } else {
+                String newValue = changes.get(changedKeys[j]);
+                if (newValue != null) {
+                    newKeys.add(changedKeys[j]);
+                    newValues.add(newValue);
+                }
+                if (comparison == 0) {
+                    i++;
+                }
+                j++;
+            }
+        }
+        return new SortedRecords(
+                newKeys.toArray(new String[newKeys.size()]), newValues.toArray(new String[newValues.size()]));
+    }
+
+    int size() {
+        return keys.length;
+    }
+
+    String getKey(int index) {
+        return keys[index];
+    }
+
+    String getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * Returns index of the first key that is not less than the given one, or {@link #size()} if there is no
+     * such key.
+     * @param key
+     *         Key or null that means the end of the records.
+     */
+    int lowerBound(String key) {
+        if (key == null) {
+            return keys.length;
+        }
+        int index = Arrays.binarySearch(keys, key);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * Passes records to the consumer in order of keys.
+     */
+    void forEach(BiConsumer<String, String> action) {
+        for (int i = 0; i < keys.length; i++) {
+            action.accept(keys[i], values[i]);
+        }
+    }
+}
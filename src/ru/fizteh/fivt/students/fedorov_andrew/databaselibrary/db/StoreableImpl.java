@@ -3,25 +3,36 @@ package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
 import ru.fizteh.fivt.storage.structured.ColumnFormatException;
 import ru.fizteh.fivt.storage.structured.Storeable;
 import ru.fizteh.fivt.storage.structured.Table;
-import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.json.JSONComplexObject;
-import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.json.JSONField;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 
 /**
  * Implementation of Storeable that can be put to the table it is assigned to as a value.<br/>
+ * Values of primitive columns are kept unboxed in an array of longs, strings are kept in a separate array and
+ * nulls are marked in a bitmap; see {@link RowLayout}. Besides the boxing methods of {@link Storeable},
+ * columns can be read and written with unboxed accessors such as {@link #getInt(int)} and {@link
+ * #setLong(int, long)}.<br/>
+ * Iterating over the row gives boxed column values; this is how the row is converted to JSON.<br/>
  * Not thread-safe.<br/>
  * Not bound to any table.
  */
-@JSONComplexObject(wrapper = true)
-public final class StoreableImpl implements Storeable, Serializable {
-    @JSONField
-    private final Object[] values;
-
-    private final List<Class<?>> types;
+public final class StoreableImpl implements Storeable, Iterable<Object>, Serializable {
+    private final RowLayout layout;
+    /**
+     * Values of primitive columns: integers as is, floats and doubles as their bits, booleans as 0 or 1.
+     */
+    private final long[] primitives;
+    private final String[] strings;
+    /**
+     * Bit is set for each column that is not null.
+     */
+    private final long[] nonNullBits;
 
     /**
      * Creates a new instance of Storeable with null values as default.
@@ -29,25 +40,74 @@ public final class StoreableImpl implements Storeable, Serializable {
      *         Host table.
      */
     StoreableImpl(Table host) {
-        if (host instanceof StoreableTableImpl) {
+        this(getRowLayout(host));
+    }
+
+    /**
+     * Creates a new instance of Storeable with null values as default.
+     * @param types
+     *         Column types of the host table. The list is shared, not copied.
+     */
+    StoreableImpl(List<Class<?>> types) {
+        this(new RowLayout(types));
+    }
+
+    /**
+     * Creates a new instance of Storeable with null values as default.
+     */
+    StoreableImpl(RowLayout layout) {
+        this.layout = layout;
+        this.primitives = new long[layout.getPrimitivesCount()];
+        this.strings = new String[layout.getStringsCount()];
+        this.nonNullBits = new long[(layout.getColumnsCount() + 63) >>> 6];
+    }
+
+    private StoreableImpl(StoreableImpl source) {
+        this.layout = source.layout;
+        this.primitives = source.primitives.clone();
+        this.strings = source.strings.clone();
+        this.nonNullBits = source.nonNullBits.clone();
+    }
+
+    /**
+     * Returns a new row with the same types and values.
+     */
+    StoreableImpl copy() {
+        return new StoreableImpl(this);
+    }
+
+    /**
+     * Returns column types of the table. For {@link StoreableTableImpl} its own list is returned.
+     */
+    static List<Class<?>> getColumnTypes(Table table) {
+        if (table instanceof StoreableTableImpl) {
             // Memory optimization.
-            types = ((StoreableTableImpl) host).getColumnTypes();
-        } else {
-            types = new ArrayList<>(host.getColumnsCount());
-            for (int i = 0; i < host.getColumnsCount(); i++) {
-                types.add(host.getColumnType(i));
-            }
+            return ((StoreableTableImpl) table).getColumnTypes();
+        }
+        List<Class<?>> types = new ArrayList<>(table.getColumnsCount());
+        for (int i = 0; i < table.getColumnsCount(); i++) {
+            types.add(table.getColumnType(i));
+        }
+        return types;
+    }
+
+    /**
+     * Returns layout of rows of the table. For {@link StoreableTableImpl} its own layout is returned.
+     */
+    static RowLayout getRowLayout(Table table) {
+        if (table instanceof StoreableTableImpl) {
+            return ((StoreableTableImpl) table).getRowLayout();
         }
-        this.values = new Object[host.getColumnsCount()];
+        return new RowLayout(getColumnTypes(table));
     }
 
     List<Class<?>> getTypes() {
-        return types;
+        return layout.getTypes();
     }
 
     private void ensureMatchColumnType(int columnIndex, Class<?> clazz) throws ColumnFormatException {
-        Class<?> columnType = types.get(columnIndex);
-        if (!columnType.equals(clazz)) {
+        Class<?> columnType = layout.getType(columnIndex);
+        if (columnType != clazz) {
             throw new ColumnFormatException(
                     String.format(
                             "wrong type (col %d: Expected instance of %s, but got %s)",
@@ -58,27 +118,204 @@ public final class StoreableImpl implements Storeable, Serializable {
     }
 
     private void checkIndex(int columnIndex) {
-        if (columnIndex < 0 || columnIndex >= values.length) {
+        if (columnIndex < 0 || columnIndex >= layout.getColumnsCount()) {
             throw new IndexOutOfBoundsException(
                     "Column index expected to be from zero to {columns.length - 1}, but got: " + columnIndex);
         }
     }
 
+    /**
+     * Returns true if the column is null.
+     */
+    public boolean isNull(int columnIndex) throws IndexOutOfBoundsException {
+        checkIndex(columnIndex);
+        return (nonNullBits[columnIndex >>> 6] & (1L << columnIndex)) == 0;
+    }
+
+    /**
+     * Makes the column null.
+     */
+    public void setNull(int columnIndex) throws IndexOutOfBoundsException {
+        checkIndex(columnIndex);
+        nonNullBits[columnIndex >>> 6] &= ~(1L << columnIndex);
+        if (layout.getKind(columnIndex) == RowLayout.Kind.STRING) {
+            strings[layout.getSlot(columnIndex)] = null;
+        }
+    }
+
+    /**
+     * Checks index and type of the column and returns its slot.
+     */
+    private int slotOf(int columnIndex, Class<?> clazz) throws ColumnFormatException, IndexOutOfBoundsException {
+        checkIndex(columnIndex);
+        ensureMatchColumnType(columnIndex, clazz);
+        return layout.getSlot(columnIndex);
+    }
+
+    private void setPrimitive(int columnIndex, Class<?> clazz, long bits) {
+        primitives[slotOf(columnIndex, clazz)] = bits;
+        nonNullBits[columnIndex >>> 6] |= 1L << columnIndex;
+    }
+
+    /**
+     * Returns bits of the primitive column.
+     * @throws NullPointerException
+     *         If the column is null, like unboxing of null does.
+     */
+    private long getPrimitive(int columnIndex, Class<?> clazz) {
+        int slot = slotOf(columnIndex, clazz);
+        if ((nonNullBits[columnIndex >>> 6] & (1L << columnIndex)) == 0) {
+            throw new NullPointerException("Column #" + columnIndex + " is null");
+        }
+        return primitives[slot];
+    }
+
+    public void setInt(int columnIndex, int value) throws ColumnFormatException, IndexOutOfBoundsException {
+        setPrimitive(columnIndex, Integer.class, value);
+    }
+
+    public void setLong(int columnIndex, long value) throws ColumnFormatException, IndexOutOfBoundsException {
+        setPrimitive(columnIndex, Long.class, value);
+    }
+
+    public void setByte(int columnIndex, byte value) throws ColumnFormatException, IndexOutOfBoundsException {
+        setPrimitive(columnIndex, Byte.class, value);
+    }
+
+    public void setFloat(int columnIndex, float value) throws ColumnFormatException, IndexOutOfBoundsException {
+        setPrimitive(columnIndex, Float.class, Float.floatToIntBits(value));
+    }
+
+    public void setDouble(int columnIndex, double value) throws ColumnFormatException, IndexOutOfBoundsException {
+        setPrimitive(columnIndex, Double.class, Double.doubleToLongBits(value));
+    }
+
+    public void setBoolean(int columnIndex, boolean value)
+            throws ColumnFormatException, IndexOutOfBoundsException {
+        setPrimitive(columnIndex, Boolean.class, value ? 1 : 0);
+    }
+
+    /**
+     * Sets value of the string column; null value makes the column null.
+     */
+    public void setString(int columnIndex, String value) throws ColumnFormatException, IndexOutOfBoundsException {
+        strings[slotOf(columnIndex, String.class)] = value;
+        if (value == null) {
+            nonNullBits[columnIndex >>> 6] &= ~(1L << columnIndex);
+        } else {
+            nonNullBits[columnIndex >>> 6] |= 1L << columnIndex;
+        }
+    }
+
+    /**
+     * @throws NullPointerException
+     *         If the column is null.
+     */
+    public int getInt(int columnIndex) throws ColumnFormatException, IndexOutOfBoundsException {
+        return (int) getPrimitive(columnIndex, Integer.class);
+    }
+
+    /**
+     * @throws NullPointerException
+     *         If the column is null.
+     */
+    public long getLong(int columnIndex) throws ColumnFormatException, IndexOutOfBoundsException {
+        return getPrimitive(columnIndex, Long.class);
+    }
+
+    /**
+     * @throws NullPointerException
+     *         If the column is null.
+     */
+    public byte getByte(int columnIndex) throws ColumnFormatException, IndexOutOfBoundsException {
+        return (byte) getPrimitive(columnIndex, Byte.class);
+    }
+
+    /**
+     * @throws NullPointerException
+     *         If the column is null.
+     */
+    public float getFloat(int columnIndex) throws ColumnFormatException, IndexOutOfBoundsException {
+        return Float.intBitsToFloat((int) getPrimitive(columnIndex, Float.class));
+    }
+
+    /**
+     * @throws NullPointerException
+     *         If the column is null.
+     */
+    public double getDouble(int columnIndex) throws ColumnFormatException, IndexOutOfBoundsException {
+        return Double.longBitsToDouble(getPrimitive(columnIndex, Double.class));
+    }
+
+    /**
+     * @throws NullPointerException
+     *         If the column is null.
+     */
+    public boolean getBoolean(int columnIndex) throws ColumnFormatException, IndexOutOfBoundsException {
+        return getPrimitive(columnIndex, Boolean.class) != 0;
+    }
+
     @Override
     public void setColumnAt(int columnIndex, Object value)
             throws ColumnFormatException, IndexOutOfBoundsException {
         checkIndex(columnIndex);
 
-        if (value != null) {
-            ensureMatchColumnType(columnIndex, value.getClass());
+        if (value == null) {
+            setNull(columnIndex);
+            return;
         }
-        values[columnIndex] = value;
+        ensureMatchColumnType(columnIndex, value.getClass());
+
+        int slot = layout.getSlot(columnIndex);
+        switch (layout.getKind(columnIndex)) {
+            case BOOLEAN:
+                primitives[slot] = (Boolean) value ? 1 : 0;
+                break;
+            case BYTE:
+                primitives[slot] = (Byte) value;
+                break;
+            case INT:
+                primitives[slot] = (Integer) value;
+                break;
+            case LONG:
+                primitives[slot] = (Long) value;
+                break;
+            case FLOAT:
+                primitives[slot] = Float.floatToIntBits((Float) value);
+                break;
+            case DOUBLE:
+                primitives[slot] = Double.doubleToLongBits((Double) value);
+                break;
+            default:
+                strings[slot] = (String) value;
+                break;
+        }
+        nonNullBits[columnIndex >>> 6] |= 1L << columnIndex;
     }
 
     @Override
     public Object getColumnAt(int columnIndex) throws IndexOutOfBoundsException {
-        checkIndex(columnIndex);
-        return values[columnIndex];
+        if (isNull(columnIndex)) {
+            return null;
+        }
+
+        int slot = layout.getSlot(columnIndex);
+        switch (layout.getKind(columnIndex)) {
+            case BOOLEAN:
+                return primitives[slot] != 0;
+            case BYTE:
+                return (byte) primitives[slot];
+            case INT:
+                return (int) primitives[slot];
+            case LONG:
+                return primitives[slot];
+            case FLOAT:
+                return Float.intBitsToFloat((int) primitives[slot]);
+            case DOUBLE:
+                return Double.longBitsToDouble(primitives[slot]);
+            default:
+                return strings[slot];
+        }
     }
 
     @Override
@@ -113,19 +350,42 @@ public final class StoreableImpl implements Storeable, Serializable {
 
     @Override
     public String getStringAt(int columnIndex) throws ColumnFormatException, IndexOutOfBoundsException {
-        return getTypedValue(columnIndex, String.class);
+        return strings[slotOf(columnIndex, String.class)];
     }
 
     private <T> T getTypedValue(int columnIndex, Class<T> clazz)
             throws IndexOutOfBoundsException, ColumnFormatException {
         checkIndex(columnIndex);
         ensureMatchColumnType(columnIndex, clazz);
-        return (T) values[columnIndex];
+        return (T) getColumnAt(columnIndex);
+    }
+
+    /**
+     * Iterates over boxed column values.
+     */
+    @Override
+    public Iterator<Object> iterator() {
+        return new Iterator<Object>() {
+            private int column;
+
+            @Override
+            public boolean hasNext() {
+                return column < layout.getColumnsCount();
+            }
+
+            @Override
+            public Object next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return getColumnAt(column++);
+            }
+        };
     }
 
     @Override
     public int hashCode() {
-        return values.length;
+        return layout.getColumnsCount();
     }
 
     @Override
@@ -135,12 +395,18 @@ public final class StoreableImpl implements Storeable, Serializable {
         }
         StoreableImpl storeable = (StoreableImpl) obj;
 
-        if (values.length != storeable.values.length) {
+        if (layout.getColumnsCount() != storeable.layout.getColumnsCount()) {
             return false;
         }
 
-        for (int col = 0; col < storeable.values.length; col++) {
-            if (!Objects.equals(values[col], storeable.values[col])) {
+        if (layout.isCompatibleWith(storeable.layout)) {
+            return Arrays.equals(nonNullBits, storeable.nonNullBits)
+                   && Arrays.equals(primitives, storeable.primitives)
+                   && Arrays.equals(strings, storeable.strings);
+        }
+
+        for (int col = 0; col < layout.getColumnsCount(); col++) {
+            if (!Objects.equals(getColumnAt(col), storeable.getColumnAt(col))) {
                 return false;
             }
         }
@@ -153,7 +419,7 @@ public final class StoreableImpl implements Storeable, Serializable {
         StringBuilder sb = new StringBuilder(StoreableImpl.class.getSimpleName()).append('[');
 
         boolean comma = false;
-        for (Object obj : values) {
+        for (Object obj : this) {
             if (comma) {
                 sb.append(',');
             }
@@ -1,6 +1,7 @@
 package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
 
 import ru.fizteh.fivt.storage.structured.ColumnFormatException;
+import ru.fizteh.fivt.storage.structured.Index;
 import ru.fizteh.fivt.storage.structured.Storeable;
 import ru.fizteh.fivt.storage.structured.Table;
 import ru.fizteh.fivt.storage.structured.TableProvider;
@@ -18,16 +19,25 @@ import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.test.TestBase;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.ParseException;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 public final class StoreableTableImpl implements AutoCloseableTable {
@@ -45,16 +55,40 @@ public final class StoreableTableImpl implements AutoCloseableTable {
 
     private static final String COLUMNS_FORMAT_FILENAME = "signature.tsv";
 
+    /**
+     * Number of decoded rows cached by each table. Rows are not cached if the property is not set or is not
+     * positive.
+     * @see DecodedRowCache
+     */
+    public static final String ROW_CACHE_SIZE_PROPERTY_NAME = "fizteh.db.rowCacheSize";
+
     private final TableProvider provider;
 
     private final StringTableImpl store;
 
     private final List<Class<?>> columnTypes;
 
+    private final RowLayout rowLayout;
+
+    private final RowCodec rowCodec;
+
+    /**
+     * Cache of decoded rows or null if rows are decoded on each read.
+     */
+    private final DecodedRowCache rowCache;
+
     private final ValidityController validityController = new ValidityController();
 
     private final Consumer<Table> onTableClosedListener;
 
+    /**
+     * Indexes of the table by names. Replaced as a whole under {@link #indexesLock}, so that commit listener
+     * can read it without locking.
+     */
+    private volatile Map<String, ColumnIndex> indexes = Collections.emptyMap();
+
+    private final Object indexesLock = new Object();
+
     private StoreableTableImpl(TableProvider provider,
                                Consumer<Table> onTableClosedListener,
                                StringTableImpl store,
@@ -63,14 +97,20 @@ public final class StoreableTableImpl implements AutoCloseableTable {
         this.onTableClosedListener = onTableClosedListener;
         this.store = store;
         this.columnTypes = Collections.unmodifiableList(new ArrayList<>(columnTypes));
+        this.rowLayout = new RowLayout(this.columnTypes);
+        this.rowCodec = RowCodec.forFormat(store.getLayout().getRowFormat(), this.columnTypes);
+        int rowCacheSize = Integer.getInteger(ROW_CACHE_SIZE_PROPERTY_NAME, 0);
+        this.rowCache = rowCacheSize > 0 ? new DecodedRowCache(rowCacheSize) : null;
     }
 
     static AutoCloseableTable createTable(TableProvider provider,
                                           Consumer<Table> onTableClosedListener,
                                           Path tablePath,
-                                          List<Class<?>> columnTypes) throws DatabaseIOException {
+                                          List<Class<?>> columnTypes,
+                                          TableLayout layout,
+                                          ValueCache valueCache) throws DatabaseIOException {
         // Creating storage.
-        StringTableImpl store = StringTableImpl.createTable(tablePath);
+        StringTableImpl store = StringTableImpl.createTable(tablePath, layout, valueCache);
 
         // Filling signature file.
         try (PrintWriter writer = new PrintWriter(tablePath.resolve(COLUMNS_FORMAT_FILENAME).toString())) {
@@ -89,7 +129,7 @@ public final class StoreableTableImpl implements AutoCloseableTable {
 
         AutoCloseableTable table =
                 new StoreableTableImpl(provider, onTableClosedListener, store, columnTypes);
-        return DBTableProviderFactory.wrapImplementation(table, AutoCloseableTable.class);
+        return DBTableProviderFactory.wrapTable(table);
     }
 
     /**
@@ -117,26 +157,34 @@ public final class StoreableTableImpl implements AutoCloseableTable {
         return columnTypes;
     }
 
-    static AutoCloseableTable getTable(TableProvider provider,
-                                       Consumer<Table> onTableClosedListener,
-                                       Path tablePath) throws DatabaseIOException {
-        StringTableImpl store = StringTableImpl
-                .getTable(tablePath, path -> path != null && path.toString().equals(COLUMNS_FORMAT_FILENAME));
-        List<Class<?>> columnTypes;
+    /**
+     * Returns name of the column type as it is written in the signature file.
+     */
+    static String getTypeName(Class<?> type) {
+        return CLASSES_TO_NAMES_MAP.get(type);
+    }
 
+    /**
+     * Reads column types of the table from its signature file.
+     * @param tableRoot
+     *         Table root directory.
+     * @param tableName
+     *         Table name for error messages.
+     */
+    static List<Class<?>> readColumnTypes(Path tableRoot, String tableName) throws DatabaseIOException {
         // Reading column types from signature file.
-        try (Scanner scanner = new Scanner(store.getTableRoot().resolve(COLUMNS_FORMAT_FILENAME))) {
+        try (Scanner scanner = new Scanner(tableRoot.resolve(COLUMNS_FORMAT_FILENAME))) {
             if (!scanner.hasNextLine()) {
                 throw new DBFileCorruptIOException("Empty column types description file");
             }
 
             String typesString = scanner.nextLine();
 
-            columnTypes = parseColumnTypes(typesString);
+            return parseColumnTypes(typesString);
         } catch (DatabaseIOException exc) {
             throw exc;
         } catch (IOException exc) {
-            throw new TableCorruptIOException(store.getName(), "Failed to open types description file", exc);
+            throw new TableCorruptIOException(tableName, "Failed to open types description file", exc);
         } catch (IllegalArgumentException exc) {
             // Honouring 'wrong-type' format.
             if (exc.getMessage().matches(TestBase.WRONG_TYPE_MESSAGE_REGEX)) {
@@ -144,32 +192,196 @@ public final class StoreableTableImpl implements AutoCloseableTable {
                 String descriptionPart = msg.substring(msg.indexOf('('), msg.lastIndexOf(')'));
                 throw new DatabaseIOException(
                         "wrong type (Invalid type description file for table "
-                        + store.getName()
+                        + tableName
                         + ": "
                         + descriptionPart
                         + ")");
             } else {
                 throw new TableCorruptIOException(
-                        store.getName(), "Invalid type description file: " + exc.getMessage());
+                        tableName, "Invalid type description file: " + exc.getMessage());
             }
         }
+    }
+
+    /**
+     * Reads table from the file system.
+     * @param validation
+     *         How to check rows of the table.
+     * @param validationListener
+     *         For {@link TableValidation#BACKGROUND} validation: is called exactly once when background check
+     *         finishes, with null if the table is valid or with corruption reason otherwise. It is not called
+     *         if this method throws an exception.
+     * @param valueCache
+     *         Cache of values of the table or null.
+     */
+    static AutoCloseableTable getTable(TableProvider provider,
+                                       Consumer<Table> onTableClosedListener,
+                                       Path tablePath,
+                                       TableValidation validation,
+                                       Consumer<TableCorruptIOException> validationListener,
+                                       ValueCache valueCache)
+            throws DatabaseIOException {
+        StringTableImpl store = StringTableImpl.getTable(
+                tablePath,
+                path -> path != null && (path.toString().equals(COLUMNS_FORMAT_FILENAME)
+                                         || path.toString().endsWith(ColumnIndex.FILE_SUFFIX)),
+                Boolean.getBoolean(StringTableImpl.LAZY_LOADING_PROPERTY_NAME),
+                valueCache);
+        List<Class<?>> columnTypes = readColumnTypes(store.getTableRoot(), store.getName());
 
         StoreableTableImpl table =
                 new StoreableTableImpl(provider, onTableClosedListener, store, columnTypes);
+        table.readIndexes();
+
+        if (validation == TableValidation.EAGER) {
+            table.validate();
+        } else if (validation == TableValidation.BACKGROUND) {
+            ForkJoinPool.commonPool().execute(
+                    () -> {
+                        TableCorruptIOException corruptionReason = null;
+                        try {
+                            table.validate();
+                        } catch (TableCorruptIOException exc) {
+                            corruptionReason = exc;
+                        } catch (RuntimeException exc) {
+                            // E.g. the provider has been closed meanwhile.
+                            Log.log(StoreableTableImpl.class, exc, "Background validation failed: " + store.getName());
+                        }
+                        validationListener.accept(corruptionReason);
+                    });
+        }
 
-        // Checking that all stored values are of proper type.
-        List<String> keys = table.list();
+        return DBTableProviderFactory.wrapTable(table);
+    }
 
-        for (String key : keys) {
-            try {
-                table.getWithoutChecks(key);
-            } catch (ImproperStoreableException exc) {
-                throw new TableCorruptIOException(
-                        store.getName(), "Value of improper format found: " + store.get(key));
+    /**
+     * Reads indexes of the table from the table root directory. Outdated indexes are built again.
+     * @throws TableCorruptIOException
+     *         If some index file cannot be read or some row cannot be indexed.
+     */
+    private void readIndexes() throws TableCorruptIOException {
+        Map<String, ColumnIndex> readIndexes = new HashMap<>();
+        try (DirectoryStream<Path> indexFiles =
+                     Files.newDirectoryStream(store.getTableRoot(), "*" + ColumnIndex.FILE_SUFFIX)) {
+            for (Path indexPath : indexFiles) {
+                String fileName = indexPath.getFileName().toString();
+                String name = fileName.substring(0, fileName.length() - ColumnIndex.FILE_SUFFIX.length());
+                int column = ColumnIndex.readColumn(indexPath);
+                if (column < 0 || column >= columnTypes.size()) {
+                    throw new DBFileCorruptIOException("Index of nonexistent column: " + fileName);
+                }
+
+                ColumnIndex index = new ColumnIndex(name, column, columnTypes.get(column), store, rowCodec);
+                index.read();
+                if (index.isOutdated()) {
+                    Log.log(StoreableTableImpl.class, "Outdated index " + name + " of " + store.getName() + " rebuilt");
+                    index.write();
+                }
+                readIndexes.put(name, index);
+            }
+        } catch (IllegalStateException exc) {
+            throw new TableCorruptIOException(store.getName(), exc.getMessage());
+        } catch (UncheckedIOException exc) {
+            if (exc.getCause() instanceof TableCorruptIOException) {
+                throw (TableCorruptIOException) exc.getCause();
             }
+            throw new TableCorruptIOException(store.getName(), exc.getMessage(), exc.getCause());
+        } catch (IOException exc) {
+            throw new TableCorruptIOException(store.getName(), "Failed to read indexes: " + exc.getMessage(), exc);
         }
 
-        return DBTableProviderFactory.wrapImplementation(table, AutoCloseableTable.class);
+        if (!readIndexes.isEmpty()) {
+            indexes = readIndexes;
+            store.setCommitListener(new IndexesUpdater());
+        }
+    }
+
+    @Override
+    public Index createIndex(int column, String name) throws IllegalArgumentException, IllegalStateException {
+        try (UseLock lock = validityController.use()) {
+            Utility.checkTableNameIsCorrect(name);
+            if (column < 0 || column >= columnTypes.size()) {
+                throw new IllegalArgumentException("Column index is out of bounds: " + column);
+            }
+
+            synchronized (indexesLock) {
+                ColumnIndex existing = indexes.get(name);
+                if (existing != null) {
+                    if (existing.getColumn() == column) {
+                        return null;
+                    }
+                    throw new IllegalArgumentException(
+                            "Index " + name + " already exists for column " + existing.getColumn());
+                }
+
+                ColumnIndex index = new ColumnIndex(name, column, columnTypes.get(column), store, rowCodec);
+                // No commit can be missed by the index between building and registering it.
+                store.runWithoutCommits(
+                        () -> {
+                            index.build();
+                            try {
+                                index.write();
+                            } catch (IOException exc) {
+                                throw new UncheckedIOException("Failed to write index " + name, exc);
+                            }
+
+                            Map<String, ColumnIndex> newIndexes = new HashMap<>(indexes);
+                            newIndexes.put(name, index);
+                            indexes = newIndexes;
+                            store.setCommitListener(new IndexesUpdater());
+                        });
+                return index;
+            }
+        }
+    }
+
+    @Override
+    public Index getIndex(String name) {
+        try (UseLock lock = validityController.use()) {
+            Utility.checkNotNull(name, "Index name");
+            return indexes.get(name);
+        }
+    }
+
+    /**
+     * Writes indexes changed since they have been written. Failures are logged: such indexes are built again
+     * on the next opening of the table.
+     */
+    private void writeIndexes() {
+        for (ColumnIndex index : indexes.values()) {
+            if (index.isOutdated()) {
+                try {
+                    index.write();
+                } catch (IOException exc) {
+                    Log.log(StoreableTableImpl.class, exc, "Failed to write index " + index.getName());
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that all stored values are of proper type. Rows are checked in parallel.
+     * @throws TableCorruptIOException
+     *         If some row cannot be deserialized or some table part is corrupt.
+     */
+    private void validate() throws TableCorruptIOException {
+        try {
+            List<String> keys = new ArrayList<>(store.list());
+            RowsValidationTask task = new RowsValidationTask(keys, 0, keys.size(), new AtomicReference<>());
+            ForkJoinPool.commonPool().invoke(task);
+
+            String improperKey = task.improperKey.get();
+            if (improperKey != null) {
+                throw new TableCorruptIOException(
+                        store.getName(), "Value of improper format found: " + store.get(improperKey));
+            }
+        } catch (UncheckedIOException exc) {
+            // Table parts of lazy tables are read only now.
+            if (exc.getCause() instanceof TableCorruptIOException) {
+                throw (TableCorruptIOException) exc.getCause();
+            }
+            throw exc;
+        }
     }
 
     /**
@@ -232,6 +444,18 @@ public final class StoreableTableImpl implements AutoCloseableTable {
         return columnTypes;
     }
 
+    RowLayout getRowLayout() {
+        return rowLayout;
+    }
+
+    RowCodec getRowCodec() {
+        return rowCodec;
+    }
+
+    TableLayout getLayout() {
+        return store.getLayout();
+    }
+
     @Override
     public Storeable put(String key, Storeable value) throws ColumnFormatException {
         try (UseLock lock = validityController.use()) {
@@ -240,8 +464,10 @@ public final class StoreableTableImpl implements AutoCloseableTable {
             checkStoreableAppropriate(this, value);
 
             Storeable previousValue = getWithoutChecks(key);
-            String serialized = provider.serialize(this, value);
-            store.put(key, serialized);
+            store.put(key, rowCodec.encode(value));
+            if (rowCache != null) {
+                rowCache.invalidate(key);
+            }
             return previousValue;
         }
     }
@@ -253,6 +479,9 @@ public final class StoreableTableImpl implements AutoCloseableTable {
 
             Storeable previousValue = getWithoutChecks(key);
             store.remove(key);
+            if (rowCache != null) {
+                rowCache.invalidate(key);
+            }
             return previousValue;
         }
     }
@@ -273,6 +502,38 @@ public final class StoreableTableImpl implements AutoCloseableTable {
         }
     }
 
+    @Override
+    public KeysPage listKeys(KeysPage.Position position, int limit) throws IllegalArgumentException {
+        try (UseLock lock = validityController.use()) {
+            return store.listKeys(position, limit);
+        }
+    }
+
+    /**
+     * Rows are decoded one by one while iterating.
+     * @throws ImproperStoreableException
+     *         From {@link Iterator#next()} if the row cannot be decoded.
+     */
+    @Override
+    public Iterator<Map.Entry<String, Storeable>> scan(String fromKey, String toKey) {
+        try (UseLock lock = validityController.use()) {
+            Iterator<Map.Entry<String, String>> records = store.scan(fromKey, toKey);
+            return new Iterator<Map.Entry<String, Storeable>>() {
+                @Override
+                public boolean hasNext() {
+                    return records.hasNext();
+                }
+
+                @Override
+                public Map.Entry<String, Storeable> next() {
+                    Map.Entry<String, String> record = records.next();
+                    return new AbstractMap.SimpleImmutableEntry<>(
+                            record.getKey(), decode(record.getKey(), record.getValue()));
+                }
+            };
+        }
+    }
+
     @Override
     public int commit() throws DatabaseIOException {
         try (UseLock lock = validityController.use()) {
@@ -280,6 +541,72 @@ public final class StoreableTableImpl implements AutoCloseableTable {
         }
     }
 
+    /**
+     * Commits changes made by this thread to all the given tables at once through the commit log.
+     * @see StringTableImpl#commit(java.util.Collection, CommitLog)
+     */
+    static int commit(List<StoreableTableImpl> tables, CommitLog commitLog) throws DatabaseIOException {
+        List<UseLock> locks = new ArrayList<>(tables.size());
+        try {
+            List<StringTableImpl> stores = new ArrayList<>(tables.size());
+            for (StoreableTableImpl table : tables) {
+                locks.add(table.validityController.use());
+                stores.add(table.store);
+            }
+            return StringTableImpl.commit(stores, commitLog);
+        } finally {
+            locks.forEach(UseLock::close);
+        }
+    }
+
+    /**
+     * Commits changes of the table read from the commit log left by the previous provider.
+     * @param changes
+     *         A pair (key, null) describes removal.
+     */
+    void commitReplayed(Map<String, String> changes) throws DatabaseIOException {
+        try (UseLock lock = validityController.use()) {
+            changes.forEach(
+                    (key, value) -> {
+                        if (value == null) {
+                            store.remove(key);
+                        } else {
+                            store.put(key, value);
+                        }
+                    });
+            store.commit();
+        }
+    }
+
+    /**
+     * Commits encoded rows loaded by {@link BulkImporter}.
+     * @param changes
+     *         Encoded rows by table part indices of their keys.
+     * @see StringTableImpl#commitChanges(Map)
+     */
+    int commitImported(Map<Integer, Map<String, String>> changes) throws DatabaseIOException {
+        try (UseLock lock = validityController.use()) {
+            return store.commitChanges(changes);
+        }
+    }
+
+    /**
+     * Captures the committed rows of the table for {@link TableExporter}.
+     * @see StringTableImpl#snapshotCommitted()
+     */
+    Consumer<BiConsumer<String, String>> snapshotCommitted() {
+        try (UseLock lock = validityController.use()) {
+            return store.snapshotCommitted();
+        }
+    }
+
+    /**
+     * Makes commits of this table go through the given commit log while the table has records in it.
+     */
+    void setCommitLog(CommitLog commitLog) {
+        store.setCommitLog(commitLog);
+    }
+
     @Override
     public int rollback() {
         try (UseLock lock = validityController.use()) {
@@ -338,12 +665,27 @@ public final class StoreableTableImpl implements AutoCloseableTable {
         if (valueStr == null) {
             return null;
         }
+        if (rowCache == null) {
+            return decode(key, valueStr);
+        }
 
+        StoreableImpl row = rowCache.get(key, valueStr);
+        if (row == null) {
+            // Codecs make rows of this class.
+            row = (StoreableImpl) decode(key, valueStr);
+            rowCache.put(key, valueStr, row.copy());
+        }
+        return row;
+    }
+
+    Storeable decode(String key, String valueStr) throws ImproperStoreableException {
         try {
-            return provider.deserialize(this, valueStr);
+            return rowCodec.decode(valueStr);
         } catch (ParseException exc) {
-            // This case can occur only during table check (after reading table).
-            throw new ImproperStoreableException(exc.getMessage(), exc);
+            // This case can occur only for rows that have been read from the file system and not checked yet.
+            throw new ImproperStoreableException(
+                    "Value of improper format found in table " + store.getName() + " for key " + key + ": "
+                    + exc.getMessage(), exc);
         }
     }
 
@@ -360,10 +702,91 @@ public final class StoreableTableImpl implements AutoCloseableTable {
         close();
     }
 
+    /**
+     * Deserializes rows with the given keys; splits the range if it is large. The first improper key found is
+     * stored in the shared reference, after that other tasks stop.
+     */
+    private class RowsValidationTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int ROWS_PER_TASK = 512;
+
+        private final List<String> keys;
+        private final int from;
+        private final int to;
+        private final AtomicReference<String> improperKey;
+
+        RowsValidationTask(List<String> keys, int from, int to, AtomicReference<String> improperKey) {
+            this.keys = keys;
+            this.from = from;
+            this.to = to;
+            this.improperKey = improperKey;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > ROWS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(
+                        new RowsValidationTask(keys, from, middle, improperKey),
+                        new RowsValidationTask(keys, middle, to, improperKey));
+                return;
+            }
+
+            for (int i = from; i < to && improperKey.get() == null; i++) {
+                try {
+                    getWithoutChecks(keys.get(i));
+                } catch (ImproperStoreableException exc) {
+                    improperKey.compareAndSet(null, keys.get(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies committed changes to indexes of the table.
+     */
+    private class IndexesUpdater implements StringTableImpl.CommitListener {
+        @Override
+        public void beforeCommit() throws DatabaseIOException {
+            for (ColumnIndex index : indexes.values()) {
+                try {
+                    index.markOutdated();
+                } catch (IOException exc) {
+                    throw new DatabaseIOException("Failed to mark index " + index.getName() + " outdated", exc);
+                }
+            }
+        }
+
+        @Override
+        public void onCommitted(String key, String oldValue, String newValue) {
+            Storeable oldRow = decodeForIndex(key, oldValue);
+            Storeable newRow = decodeForIndex(key, newValue);
+            for (ColumnIndex index : indexes.values()) {
+                index.update(key, oldRow, newRow);
+            }
+        }
+
+        private Storeable decodeForIndex(String key, String value) {
+            if (value == null) {
+                return null;
+            }
+            try {
+                return rowCodec.decode(value);
+            } catch (ParseException exc) {
+                // Improper row has not been indexed.
+                Log.log(StoreableTableImpl.class, exc, "Improper row is not indexed: " + key);
+                return null;
+            }
+        }
+    }
+
     @Override
     public void close() {
         try (KillLock lock = validityController.useAndKill()) {
             rollback();
+            // Changes committed through the commit log are written to part files before the indexes.
+            store.close();
+            writeIndexes();
             onTableClosedListener.accept(this);
         }
     }
@@ -7,100 +7,248 @@ import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Log;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Utility;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 
 /**
  * This class represents table stored in file system and parted into directories and files.<br/>
  * Each part of data is read on require.<br/>
+ * Operations on one key lock only the part of the key. Operations on many parts are not affected by
+ * commits until their changes are published.<br/>
  * Null keys/values are not permitted.
  * @author phoenix
  */
 public final class StringTableImpl {
-    private static final int DIRECTORIES_COUNT = 16;
-    private static final int FILES_COUNT = 16;
+    /**
+     * If this system property is set to true, tables are opened in lazy mode.
+     * @see #getTable(java.nio.file.Path, java.util.function.Predicate, boolean)
+     */
+    public static final String LAZY_LOADING_PROPERTY_NAME = "fizteh.db.lazy";
+
+    /**
+     * System property with the delay in milliseconds after which changes committed through the commit log are
+     * written to part files. Changes of the commits made meanwhile are written together.
+     * @see #commit(Collection, CommitLog)
+     */
+    public static final String COMMIT_LOG_APPLY_DELAY_PROPERTY_NAME = "fizteh.db.commitLogApplyDelay";
+
+    private static final long DEFAULT_COMMIT_LOG_APPLY_DELAY_MILLIS = 1000;
+    /**
+     * Number of keys requested at once by {@link #keysIterator()}.
+     */
+    private static final int KEYS_ITERATOR_PAGE_SIZE = 1024;
+
+    /**
+     * Value of {@link #committedRowsCount} that has not been counted yet.
+     */
+    private static final int UNKNOWN_ROWS_COUNT = -1;
+
+    /**
+     * Statistics file is written on commit at most once in this period and on closing the table. Outdated
+     * statistics file is detected and ignored.
+     */
+    private static final long STATISTICS_WRITE_INTERVAL_MILLIS = 1000;
 
     private static final String DIRECTORY_EXTENSION = "dir";
     private static final String FILE_EXTENSION = "dat";
 
+    /**
+     * Number of threads that write dirty table parts on commit. Shared by all tables.
+     */
+    private static final int COMMIT_THREADS_COUNT =
+            Math.min(8, Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+    private static final ExecutorService COMMIT_EXECUTOR = Executors.newFixedThreadPool(
+            COMMIT_THREADS_COUNT,
+            runnable -> {
+                Thread thread = new Thread(runnable, "Table part writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+
     private final Path tableRoot;
     private final String tableName;
     /**
-     * Lock for exploit of table and writing to the file system.
+     * Describes placement of keys among table parts.
+     */
+    private final TableLayout layout;
+    /**
+     * If true, table parts are read on first access and their files are mapped instead of being read into
+     * memory.
+     */
+    private final boolean lazy;
+    /**
+     * Taken for reading by all operations, including writing of commits, and for writing when the table
+     * parts are read from the file system or the table is closed.
      */
     private final ReadWriteLock persistenceLock = new ReentrantReadWriteLock(true);
     /**
-     * Mapping between table parts and local hashes of keys that can be stored inside them.
-     * @see #getHash(String)
+     * Locks of the committed state of table parts by part indices. Operations on one key take the lock of its
+     * part for reading; a commit takes the locks of the changed parts for writing only while it publishes the
+     * written files.
+     */
+    private final ReadWriteLock[] partLocks;
+    /**
+     * Taken for writing while a commit is published, so that operations on many parts can see all parts in
+     * the same committed state by taking it for reading.
+     */
+    private final ReadWriteLock publishLock = new ReentrantReadWriteLock(true);
+    /**
+     * Mapping between table parts and indices of parts where keys can be stored.
+     * @see TableLayout#getPartIndex(String)
      */
     private Map<Integer, TablePart> tableParts;
+    /**
+     * Indices of table parts changed by this thread since its last commit or rollback.
+     */
+    private final ThreadLocal<Set<Integer>> dirtyParts = ThreadLocal.withInitial(HashSet::new);
+    private volatile CommitMetrics lastCommitMetrics = CommitMetrics.NONE;
+    /**
+     * Number of committed rows in all table parts or {@link #UNKNOWN_ROWS_COUNT} if parts of the lazy table
+     * have not been counted yet. Modified under write lock, under publish lock or by
+     * {@link #getCommittedRowsCount()}.
+     */
+    private volatile int committedRowsCount = UNKNOWN_ROWS_COUNT;
+    /**
+     * Total size of table part files. Modified under write lock or by the thread that writes commits.
+     */
+    private volatile long committedBytesCount;
+    private volatile long lastCommitTime;
+    /**
+     * Time of the last write of statistics file. Modified under write lock or by the thread that writes
+     * commits.
+     */
+    private long statisticsWriteTime;
+    /**
+     * True if statistics file is outdated. Modified under write lock or by the thread that writes commits.
+     */
+    private boolean statisticsChanged;
+    /**
+     * Incremented under write lock or publish lock each time committed state of the table changes, so that
+     * each thread knows when its {@link #rowsDelta} must be counted again.
+     */
+    private volatile long commitsVersion;
+    /**
+     * Difference between the number of rows seen by this thread and the committed one.
+     */
+    private final ThreadLocal<RowsDelta> rowsDelta = ThreadLocal.withInitial(RowsDelta::new);
+    private final Object rowsCountLock = new Object();
+    /**
+     * Guards {@link #commitQueue} and {@link #batchInProgress}.
+     */
+    private final Object commitQueueLock = new Object();
+    /**
+     * Commits waiting for the next batch, in order of arrival.
+     */
+    private List<CommitRequest> commitQueue = new ArrayList<>();
+    /**
+     * True while some thread is writing a batch of commits.
+     */
+    private boolean batchInProgress;
+    private volatile CommitListener commitListener;
+    /**
+     * Lookups of absent keys answered by Bloom filters of parts that have not been loaded.
+     */
+    private final LongAdder bloomProbesAvoided = new LongAdder();
+    /**
+     * Lookups of absent keys that loaded a part because its Bloom filter contained the key.
+     */
+    private final LongAdder bloomFalsePositives = new LongAdder();
+    /**
+     * Segment of the cache of values read from mapped parts; null if the table is opened without cache.
+     */
+    private final ValueCache.Segment valueCache;
+    /**
+     * Commit log of the provider of this table or null if commits are written to part files directly.
+     */
+    private volatile CommitLog commitLog;
+    /**
+     * Changes committed through the commit log but not written to part files yet, by part indices. Guarded by
+     * {@link #batchInProgress}: modified only by the thread that holds it.
+     */
+    private Map<Integer, Map<String, String>> loggedChanges = new HashMap<>();
+    /**
+     * Number of commit log records {@link #loggedChanges} are merged from.
+     */
+    private int loggedRecordsCount;
+    private final AtomicBoolean applyScheduled = new AtomicBoolean(false);
 
     /**
      * Constructor for cloning and safe table creation/obtaining.
      */
-    private StringTableImpl(Path tableRoot) {
+    private StringTableImpl(Path tableRoot, TableLayout layout, boolean lazy, ValueCache valueCache) {
         this.tableName = tableRoot.getFileName().toString();
         this.tableRoot = tableRoot;
+        this.layout = layout;
+        this.lazy = lazy || valueCache != null;
+        this.valueCache = valueCache == null ? null : valueCache.newSegment(tableRoot);
         this.tableParts = new HashMap<>();
+        this.partLocks = new ReadWriteLock[layout.getPartsCount()];
+        for (int part = 0; part < partLocks.length; part++) {
+            partLocks[part] = new ReentrantReadWriteLock();
+        }
     }
 
     /**
-     * Builds table part relative filename hashcode;
-     * @param directory
-     *         Not limited due to hashing algorithm.
-     * @param file
-     *         Must be strictly less than {@link #FILES_COUNT}.
-     */
-    private static int buildHash(int directory, int file) {
-        return directory * FILES_COUNT + file;
-    }
-
-    /**
-     * Extracts directory hashcode from relative filename hashcode
+     * Constructs a new clear table with {@link TableLayout#DEFAULT default} layout.
+     * @param tableRoot
+     *         Path to table root directory.
      */
-    private static int getDirectoryFromHash(int hash) {
-        return hash / FILES_COUNT;
+    public static StringTableImpl createTable(Path tableRoot) throws DatabaseIOException {
+        return createTable(tableRoot, TableLayout.DEFAULT);
     }
 
     /**
-     * Extracts filename hashcode from relative filename hashcode.
+     * Constructs a new clear table.
+     * @param tableRoot
+     *         Path to table root directory.
+     * @param layout
+     *         Layout of the new table. It is persisted and cannot be changed later without rebucketing.
+     * @see TableRebucketer
      */
-    private static int getFileFromHash(int hash) {
-        return hash % FILES_COUNT;
-    }
-
-    private static int getHash(String key) {
-        byte byte0 = key.getBytes()[0];
-
-        int dir = (byte0 % DIRECTORIES_COUNT);
-        if (dir < 0) {
-            dir += DIRECTORIES_COUNT;
-        }
-
-        int file = (byte0 / DIRECTORIES_COUNT) % FILES_COUNT;
-        if (file < 0) {
-            file += FILES_COUNT;
-        }
-
-        return buildHash(dir, file);
+    public static StringTableImpl createTable(Path tableRoot, TableLayout layout) throws DatabaseIOException {
+        return createTable(tableRoot, layout, null);
     }
 
     /**
      * Constructs a new clear table.
      * @param tableRoot
      *         Path to table root directory.
+     * @param layout
+     *         Layout of the new table. It is persisted and cannot be changed later without rebucketing.
+     * @param valueCache
+     *         Cache of values of the table or null. If it is given, the table is opened in lazy mode.
+     * @see TableRebucketer
      */
-    public static StringTableImpl createTable(Path tableRoot) throws DatabaseIOException {
+    public static StringTableImpl createTable(Path tableRoot, TableLayout layout, ValueCache valueCache)
+            throws DatabaseIOException {
         try {
             try {
                 Files.createDirectory(tableRoot);
@@ -109,13 +257,17 @@ public final class StringTableImpl {
                         "Failed to create table directory: " + tableRoot.getFileName(), exc);
             }
 
-            StringTableImpl table = new StringTableImpl(tableRoot);
-            for (int dir = 0; dir < DIRECTORIES_COUNT; dir++) {
-                for (int file = 0; file < FILES_COUNT; file++) {
-                    int hash = buildHash(dir, file);
-                    table.tableParts.put(hash, new TablePart(table.makeTablePartFilePath(hash)));
-                }
+            if (!TableLayout.LEGACY.equals(layout)) {
+                layout.writeTo(tableRoot);
+            }
+
+            StringTableImpl table =
+                    new StringTableImpl(
+                            tableRoot, layout, Boolean.getBoolean(LAZY_LOADING_PROPERTY_NAME), valueCache);
+            for (int part = 0; part < layout.getPartsCount(); part++) {
+                table.tableParts.put(part, table.newTablePart(part));
             }
+            table.committedRowsCount = 0;
             return table;
         } catch (DatabaseIOException exc) {
             try {
@@ -128,7 +280,8 @@ public final class StringTableImpl {
     }
 
     /**
-     * Constructs table by reading its data from file system.
+     * Constructs table by reading its data from file system. Table is opened in lazy mode if {@link
+     * #LAZY_LOADING_PROPERTY_NAME} system property is set to true.
      * @param tableRoot
      *         Path to the root directory of the table.
      * @param extraFilesFilter
@@ -138,17 +291,76 @@ public final class StringTableImpl {
      */
     public static StringTableImpl getTable(Path tableRoot, Predicate<Path> extraFilesFilter)
             throws DatabaseIOException {
-        StringTableImpl table = new StringTableImpl(tableRoot);
-        table.checkFileSystem(extraFilesFilter);
+        return getTable(tableRoot, extraFilesFilter, Boolean.getBoolean(LAZY_LOADING_PROPERTY_NAME));
+    }
+
+    /**
+     * Constructs table by reading its data from file system.
+     * @param tableRoot
+     *         Path to the root directory of the table.
+     * @param extraFilesFilter
+     *         Filter that returns true if this extra file's existence can be ignored. Path is given relative
+     *         to the table root directory.
+     * @param lazy
+     *         If false, all table parts are read and checked now. If true, only the directory structure is
+     *         checked now; each part is read on first access and its file is mapped into memory, so that values
+     *         are decoded only when requested. Corruption of a part found on first access is reported by
+     *         {@link java.io.UncheckedIOException} with {@link TableCorruptIOException} cause.
+     * @throws DatabaseIOException
+     */
+    public static StringTableImpl getTable(Path tableRoot, Predicate<Path> extraFilesFilter, boolean lazy)
+            throws DatabaseIOException {
+        return getTable(tableRoot, extraFilesFilter, lazy, null);
+    }
+
+    /**
+     * Constructs table by reading its data from file system.
+     * @param tableRoot
+     *         Path to the root directory of the table.
+     * @param extraFilesFilter
+     *         Filter that returns true if this extra file's existence can be ignored. Path is given relative
+     *         to the table root directory.
+     * @param lazy
+     *         See {@link #getTable(Path, Predicate, boolean)}.
+     * @param valueCache
+     *         Cache of values read from mapped parts or null. If it is given, the table is opened in lazy mode.
+     * @throws DatabaseIOException
+     */
+    public static StringTableImpl getTable(
+            Path tableRoot, Predicate<Path> extraFilesFilter, boolean lazy, ValueCache valueCache)
+            throws DatabaseIOException {
+        TableLayout layout;
+        try {
+            layout = TableLayout.readFrom(tableRoot);
+        } catch (DatabaseIOException exc) {
+            throw new TableCorruptIOException(
+                    tableRoot.getFileName().toString(), exc.getMessage(), exc);
+        }
+
+        StringTableImpl table = new StringTableImpl(tableRoot, layout, lazy, valueCache);
+        Predicate<Path> tableFilesFilter = path -> path.toString().equals(TableLayout.LAYOUT_FILENAME)
+                                                   || path.toString().equals(TableStatistics.STATISTICS_FILENAME)
+                                                   || path.toString().endsWith(TablePart.TEMPORARY_FILE_SUFFIX)
+                                                   || path.toString().endsWith(PartBloomFilter.FILE_SUFFIX);
+        long partFilesSize = table.checkFileSystem(extraFilesFilter.or(tableFilesFilter));
         table.readFromFileSystem();
+        table.initStatistics(partFilesSize);
         return table;
     }
 
+    public TableLayout getLayout() {
+        return layout;
+    }
+
     public Path getTableRoot() {
         return tableRoot;
     }
 
-    private void checkNameFormat(String name, String extensionRegex, int minID, int maxID)
+    /**
+     * Checks that the name looks like {@code <id>.<extension>} and id is within the given bounds.
+     * @return id extracted from the name.
+     */
+    private int checkNameFormat(String name, String extensionRegex, int minID, int maxID)
             throws DBFileCorruptIOException {
         if (!name.matches("(0|([1-9][0-9]*))\\." + extensionRegex)) {
             throw new DBFileCorruptIOException("Invalid database element format: " + name);
@@ -158,6 +370,7 @@ public final class StringTableImpl {
         if (id < minID || id > maxID) {
             throw new DBFileCorruptIOException("Invalid database element id: " + name);
         }
+        return id;
     }
 
     /**
@@ -166,20 +379,24 @@ public final class StringTableImpl {
      * @param filter
      *         Filter that returns true if this extra file's existence can be ignored. Path is given relative
      *         to the table root directory.
+     * @return Total size of table part files.
      */
-    private void checkFileSystem(Predicate<Path> filter) throws DatabaseIOException {
+    private long checkFileSystem(Predicate<Path> filter) throws DatabaseIOException {
+        long partFilesSize = 0;
         try (DirectoryStream<Path> partsDirs = Files.newDirectoryStream(tableRoot)) {
             // Checking table part directories.
             for (Path partDirectory : partsDirs) {
                 Path relativePath = tableRoot.relativize(partDirectory);
 
+                int directory;
+
                 if (Files.isDirectory(partDirectory)) {
                     try {
-                        checkNameFormat(
+                        directory = checkNameFormat(
                                 partDirectory.getFileName().toString(),
                                 DIRECTORY_EXTENSION,
                                 0,
-                                DIRECTORIES_COUNT);
+                                layout.getDirectoriesCount() - 1);
                     } catch (DBFileCorruptIOException exc) {
                         if (filter.test(relativePath)) {
                             continue;
@@ -202,7 +419,11 @@ public final class StringTableImpl {
                         relativePath = tableRoot.relativize(partFile);
                         try {
                             checkNameFormat(
-                                    partFile.getFileName().toString(), FILE_EXTENSION, 0, FILES_COUNT);
+                                    partFile.getFileName().toString(),
+                                    FILE_EXTENSION,
+                                    0,
+                                    layout.getFilesCount(directory) - 1);
+                            partFilesSize += Files.size(partFile);
                         } catch (DBFileCorruptIOException exc) {
                             if (!filter.test(relativePath)) {
                                 throw exc;
@@ -217,6 +438,7 @@ public final class StringTableImpl {
         } catch (IOException exc) {
             throw new TableCorruptIOException(tableName, "Cannot scan table directory", exc);
         }
+        return partFilesSize;
     }
 
     void readFromFileSystem() throws DBFileCorruptIOException, TableCorruptIOException {
@@ -227,55 +449,185 @@ public final class StringTableImpl {
             tableParts = new HashMap<>();
 
             try {
-                for (int dir = 0; dir < DIRECTORIES_COUNT; dir++) {
-                    for (int file = 0; file < FILES_COUNT; file++) {
-                        int partHash = buildHash(dir, file);
-
-                        TablePart tablePart = new TablePart(makeTablePartFilePath(partHash));
-                        if (Files.exists(tablePart.getTablePartFilePath())) {
-                            tablePart.readFromFile();
-                        }
-
-                        // checking keys' hashes
-                        Set<String> keySet = tablePart.keySet();
-                        for (String key : keySet) {
-                            int keyHash = getHash(key);
-                            if (keyHash != partHash) {
-                                throw new TableCorruptIOException(
-                                        tableName, "Some keys are stored in improper places");
-                            }
-                        }
-
-                        tableParts.put(partHash, tablePart);
+                for (int part = 0; part < layout.getPartsCount(); part++) {
+                    TablePart tablePart = newTablePart(part);
+                    if (!lazy) {
+                        loadTablePart(part, tablePart);
                     }
+                    tableParts.put(part, tablePart);
                 }
             } catch (Exception exc) {
                 this.tableParts = oldTableParts;
                 throw exc;
             }
+            if (valueCache != null) {
+                // Values are cached by their parts; the old parts are not used any more.
+                valueCache.clear();
+            }
+            commitsVersion++;
         } finally {
             persistenceLock.writeLock().unlock();
         }
     }
 
+    private TablePart newTablePart(int partIndex) {
+        // Legacy tables must not contain files unknown to older versions.
+        return new TablePart(
+                makeTablePartFilePath(partIndex),
+                layout.getFormat(),
+                layout.getKeyOrder(),
+                valueCache,
+                !TableLayout.LEGACY.equals(layout));
+    }
+
+    /**
+     * Initializes statistics of the table that has just been read. Lazy table takes the number of rows from
+     * the statistics file, unless the file is outdated: then the rows are counted on demand.
+     * @param partFilesSize
+     *         Actual total size of table part files.
+     */
+    private void initStatistics(long partFilesSize) {
+        TableStatistics stored = TableStatistics.readFrom(tableRoot);
+
+        committedBytesCount = partFilesSize;
+        lastCommitTime = stored == null ? 0 : stored.getLastCommitTime();
+        if (!lazy) {
+            committedRowsCount = UNKNOWN_ROWS_COUNT;
+            getCommittedRowsCount();
+        } else if (stored != null && stored.getBytesCount() == partFilesSize) {
+            committedRowsCount = stored.getRowsCount();
+        } else {
+            committedRowsCount = UNKNOWN_ROWS_COUNT;
+        }
+    }
+
+    /**
+     * Reads the table part from the file system and checks that all its keys belong to it.
+     */
+    private void loadTablePart(int partIndex, TablePart tablePart)
+            throws DBFileCorruptIOException, TableCorruptIOException {
+        if (lazy) {
+            tablePart.mapFile();
+        } else {
+            tablePart.readFromFile();
+        }
+
+        // checking keys' hashes
+        boolean[] improperKeyFound = new boolean[1];
+        tablePart.forEachKey(
+                key -> {
+                    if (layout.getPartIndex(key) != partIndex) {
+                        improperKeyFound[0] = true;
+                    }
+                });
+        if (improperKeyFound[0]) {
+            throw new TableCorruptIOException(tableName, "Some keys are stored in improper places");
+        }
+    }
+
+    /**
+     * Takes the lock of the committed state of the part for reading. Must be called under read lock.
+     * @return Taken lock.
+     */
+    private Lock lockPart(int partIndex) {
+        Lock lock = partLocks[partIndex].readLock();
+        lock.lock();
+        return lock;
+    }
+
+    /**
+     * Loads the table part if it has not been loaded yet. Safe to call under read lock.
+     * @throws java.io.UncheckedIOException
+     *         If the part is corrupt. Its cause is {@link TableCorruptIOException}.
+     */
+    private TablePart ensureLoaded(int partIndex, TablePart tablePart) {
+        if (!tablePart.isLoaded()) {
+            synchronized (tablePart) {
+                if (!tablePart.isLoaded()) {
+                    try {
+                        loadTablePart(partIndex, tablePart);
+                    } catch (TableCorruptIOException exc) {
+                        throw new UncheckedIOException(exc.getMessage(), exc);
+                    } catch (DBFileCorruptIOException exc) {
+                        throw new UncheckedIOException(
+                                exc.getMessage(), new TableCorruptIOException(tableName, exc.getMessage(), exc));
+                    }
+                }
+            }
+        }
+        return tablePart;
+    }
+
     public String getName() {
         return tableName;
     }
 
+    /**
+     * Returns value of the key seen by this thread. If the part of the key has not been loaded yet, its
+     * Bloom filter is checked first, so that most lookups of absent keys do not load the part.
+     * @see #getBloomFilterMetrics()
+     */
     public String get(String key) {
         persistenceLock.readLock().lock();
         try {
-            return obtainTablePart(key).get(key);
+            Utility.checkNotNull(key, "Key");
+            int partIndex = layout.getPartIndex(key);
+            Lock partLock = lockPart(partIndex);
+            try {
+                TablePart tablePart = tableParts.get(partIndex);
+                if (tablePart.isLoaded() || tablePart.isChanged(key)) {
+                    return ensureLoaded(partIndex, tablePart).get(key);
+                }
+
+                PartBloomFilter filter = tablePart.getBloomFilter();
+                if (filter != null && !filter.mightContain(key)) {
+                    bloomProbesAvoided.increment();
+                    return null;
+                }
+                String value = ensureLoaded(partIndex, tablePart).get(key);
+                if (filter != null && value == null) {
+                    bloomFalsePositives.increment();
+                }
+                return value;
+            } finally {
+                partLock.unlock();
+            }
         } finally {
             persistenceLock.readLock().unlock();
         }
     }
 
+    /**
+     * Returns statistics of Bloom filter checks made by {@link #get(String)} since the table was opened.
+     */
+    public BloomFilterMetrics getBloomFilterMetrics() {
+        return new BloomFilterMetrics(bloomProbesAvoided.sum(), bloomFalsePositives.sum());
+    }
+
+    /**
+     * Returns statistics of the value cache of the table since it was opened.
+     * @see DBTableProviderFactory#DBTableProviderFactory(long, ValueCache.Policy)
+     */
+    public ValueCacheMetrics getValueCacheMetrics() {
+        return valueCache == null ? ValueCacheMetrics.NONE : valueCache.getMetrics();
+    }
+
     public String put(String key, String value) {
         Utility.checkNotNull(value, "Value");
         persistenceLock.readLock().lock();
         try {
-            return obtainTablePart(key).put(key, value);
+            Utility.checkNotNull(key, "Key");
+            int partIndex = layout.getPartIndex(key);
+            Lock partLock = lockPart(partIndex);
+            try {
+                String oldValue = obtainTablePart(partIndex, true).put(key, value);
+                if (oldValue == null) {
+                    addRowsDelta(1);
+                }
+                return oldValue;
+            } finally {
+                partLock.unlock();
+            }
         } finally {
             persistenceLock.readLock().unlock();
         }
@@ -284,101 +636,1158 @@ public final class StringTableImpl {
     public String remove(String key) {
         persistenceLock.readLock().lock();
         try {
-            return obtainTablePart(key).remove(key);
+            Utility.checkNotNull(key, "Key");
+            int partIndex = layout.getPartIndex(key);
+            Lock partLock = lockPart(partIndex);
+            try {
+                String oldValue = obtainTablePart(partIndex, true).remove(key);
+                if (oldValue != null) {
+                    addRowsDelta(-1);
+                }
+                return oldValue;
+            } finally {
+                partLock.unlock();
+            }
         } finally {
             persistenceLock.readLock().unlock();
         }
     }
 
     /**
-     * Counts the number of the records stored in all table parts assigned to this table.
+     * Returns the number of rows seen by this thread: committed ones with uncommitted changes of this thread
+     * applied.<br/>
+     * Takes constant time, unless this thread has uncommitted changes and another thread has committed since
+     * then: the changes are counted again then.
      */
     public int size() {
-        int rowsNumber = 0;
+        persistenceLock.readLock().lock();
+        publishLock.readLock().lock();
+        try {
+            return getCommittedRowsCount() + getRowsDelta();
+        } finally {
+            publishLock.readLock().unlock();
+            persistenceLock.readLock().unlock();
+        }
+    }
 
+    /**
+     * Returns statistics of committed data of this table; uncommitted changes are not taken into account.
+     */
+    public TableStatistics getStatistics() {
         persistenceLock.readLock().lock();
+        publishLock.readLock().lock();
         try {
-            for (TablePart part : tableParts.values()) {
-                rowsNumber += part.size();
-            }
+            return new TableStatistics(getCommittedRowsCount(), committedBytesCount, lastCommitTime);
         } finally {
+            publishLock.readLock().unlock();
             persistenceLock.readLock().unlock();
         }
+    }
+
+    /**
+     * Returns the number of committed rows, counting them if they are unknown. Must be called under read
+     * lock and publish lock.
+     */
+    private int getCommittedRowsCount() {
+        int rowsCount = committedRowsCount;
+        if (rowsCount == UNKNOWN_ROWS_COUNT) {
+            synchronized (rowsCountLock) {
+                rowsCount = committedRowsCount;
+                if (rowsCount == UNKNOWN_ROWS_COUNT) {
+                    rowsCount = 0;
+                    for (Map.Entry<Integer, TablePart> part : tableParts.entrySet()) {
+                        rowsCount += ensureLoaded(part.getKey(), part.getValue()).getCommittedSize();
+                    }
+                    committedRowsCount = rowsCount;
+                }
+            }
+        }
+        return rowsCount;
+    }
+
+    /**
+     * Returns the difference between the number of rows seen by this thread and the committed one. Must be
+     * called under read lock and publish lock.
+     */
+    private int getRowsDelta() {
+        RowsDelta delta = rowsDelta.get();
+        if (delta.version != commitsVersion) {
+            delta.rowsCount = 0;
+            for (int partIndex : dirtyParts.get()) {
+                delta.rowsCount += tableParts.get(partIndex).getSizeDelta();
+            }
+            delta.version = commitsVersion;
+        }
+        return delta.rowsCount;
+    }
 
-        return rowsNumber;
+    /**
+     * Accounts a change made by this thread. Must be called under read lock and the lock of the changed part.
+     */
+    private void addRowsDelta(int rowsCount) {
+        RowsDelta delta = rowsDelta.get();
+        // Outdated delta is counted again from scratch, including this change.
+        if (delta.version == commitsVersion) {
+            delta.rowsCount += rowsCount;
+        }
     }
 
+    /**
+     * Writes changes made by this thread to the file system.<br/>
+     * Commits are grouped: commits of all threads that arrive while a batch is being written make up the
+     * next batch, which is written with one write and sync of each changed part. Batches are written in
+     * order of arrival of their commits, and later commits override earlier ones. If the batch cannot be
+     * written, its commits are written one by one, so that each commit fails only because of its own
+     * changes.<br/>
+     * Only the changed parts are written, in parallel, to the side of the committed files: other threads keep
+     * reading and changing the table meanwhile. The new state becomes visible to other threads only after all
+     * of them are written, at once: only the changed parts and operations on many parts are locked while the
+     * written files replace the committed ones.<br/>
+     * While the table has records in the {@link #setCommitLog(CommitLog) commit log}, the batch is appended to
+     * the log instead, and part files are written in background.
+     * @return Number of committed changes.
+     * @see #getLastCommitMetrics()
+     */
     public int commit() throws DatabaseIOException {
-        int diffsCount = 0;
+        CommitRequest request = new CommitRequest();
+        request.diffsCount = collectChanges(request.changes);
 
-        persistenceLock.writeLock().lock();
-        try {
-            for (TablePart part : tableParts.values()) {
-                diffsCount += part.commit();
+        if (request.changes.isEmpty()) {
+            return 0;
+        }
+
+        List<CommitRequest> batch = null;
+        boolean interrupted = false;
+        synchronized (commitQueueLock) {
+            commitQueue.add(request);
+            while (!request.done) {
+                if (!batchInProgress) {
+                    // This thread writes all the commits waiting in the queue, including its own one.
+                    batchInProgress = true;
+                    batch = commitQueue;
+                    commitQueue = new ArrayList<>();
+                    break;
+                }
+                try {
+                    commitQueueLock.wait();
+                } catch (InterruptedException exc) {
+                    // Commit cannot be cancelled after it has been queued.
+                    interrupted = true;
+                }
             }
-        } finally {
-            persistenceLock.writeLock().unlock();
         }
-        return diffsCount;
-    }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
 
-    public int rollback() {
-        int diffsCount = 0;
+        if (batch != null) {
+            try {
+                writeBatchOrEach(batch);
+            } finally {
+                synchronized (commitQueueLock) {
+                    for (CommitRequest batchRequest : batch) {
+                        batchRequest.done = true;
+                    }
+                    batchInProgress = false;
+                    commitQueueLock.notifyAll();
+                }
+            }
+        }
 
-        for (TablePart part : tableParts.values()) {
-            diffsCount += part.rollback();
+        if (!request.written) {
+            if (request.error instanceof DatabaseIOException) {
+                throw (DatabaseIOException) request.error;
+            } else if (request.error instanceof RuntimeException) {
+                throw (RuntimeException) request.error;
+            } else {
+                throw new DatabaseIOException("Commit has not been written");
+            }
         }
 
-        return diffsCount;
+        // The changes are committed now, so this thread's diffs can be dropped.
+        rollback();
+        return request.diffsCount;
     }
 
     /**
-     * Collects all keys from all table parts assigned to this table.
+     * Commits the given changes like a commit of another thread: uncommitted changes of this thread are not
+     * affected. Lets rows be loaded without keeping them in thread-local diffs.
+     * @param changes
+     *         Changes by table part indices; a pair (key, null) describes removal. Keys must belong to the parts
+     *         they are given for. Must not be modified afterwards.
+     * @return Number of committed changes.
+     * @see BulkImporter
      */
-    public List<String> list() {
-        List<String> keySet = new LinkedList<>();
+    int commitChanges(Map<Integer, Map<String, String>> changes) throws DatabaseIOException {
+        CommitRequest request = new CommitRequest();
+        for (Map.Entry<Integer, Map<String, String>> partChanges : changes.entrySet()) {
+            if (!partChanges.getValue().isEmpty()) {
+                request.changes.put(partChanges.getKey(), partChanges.getValue());
+                request.diffsCount += partChanges.getValue().size();
+            }
+        }
+        if (request.changes.isEmpty()) {
+            return 0;
+        }
+
+        lockBatches();
+        try {
+            writeBatch(Collections.singletonList(request));
+        } finally {
+            unlockBatches();
+        }
+        return request.diffsCount;
+    }
 
+    /**
+     * Copies changes made by this thread to the given map by part indices.
+     * @return Number of the changes.
+     */
+    private int collectChanges(Map<Integer, Map<String, String>> target) {
+        int diffsCount = 0;
         persistenceLock.readLock().lock();
         try {
-            for (TablePart part : tableParts.values()) {
-                keySet.addAll(part.keySet());
+            for (int partIndex : dirtyParts.get()) {
+                Map<String, String> changes = tableParts.get(partIndex).getUncommittedChanges();
+                if (!changes.isEmpty()) {
+                    target.put(partIndex, changes);
+                    diffsCount += changes.size();
+                }
             }
         } finally {
             persistenceLock.readLock().unlock();
         }
-
-        return keySet;
+        return diffsCount;
     }
 
     /**
-     * Builds table file path from its hash that describes directory and file name.
+     * Waits until no batch of commits is being written and takes the right to write the next one. Commits of
+     * this table wait until {@link #unlockBatches()} is called.
      */
-    private Path makeTablePartFilePath(int hash) {
-        return tableRoot.resolve(
-                Paths.get(
-                        getDirectoryFromHash(hash) + "." + DIRECTORY_EXTENSION,
-                        getFileFromHash(hash) + "." + FILE_EXTENSION));
+    private void lockBatches() {
+        boolean interrupted = false;
+        synchronized (commitQueueLock) {
+            while (batchInProgress) {
+                try {
+                    commitQueueLock.wait();
+                } catch (InterruptedException exc) {
+                    interrupted = true;
+                }
+            }
+            batchInProgress = true;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
     }
 
-    /**
-     * Gets {@link TablePart} instance assigned to
-     * this {@code hash} from memory. Not thread-safe.
-     * @param key
-     *         key that is hold by desired table.
-     */
-    private TablePart obtainTablePart(String key) {
-        Utility.checkNotNull(key, "Key");
-        return tableParts.get(getHash(key));
+    private void unlockBatches() {
+        synchronized (commitQueueLock) {
+            batchInProgress = false;
+            commitQueueLock.notifyAll();
+        }
     }
 
     /**
-     * Counts number of uncommitted changes for this thread.
+     * Writes the batch of commits. If it fails, tries to write its commits one by one.
      */
-    public int getNumberOfUncommittedChanges() {
-        int diffsCount = 0;
-        for (TablePart part : tableParts.values()) {
-            diffsCount += part.getUncommittedChangesCount();
+    private void writeBatchOrEach(List<CommitRequest> batch) {
+        try {
+            writeBatch(batch);
+            return;
+        } catch (DatabaseIOException | RuntimeException exc) {
+            if (batch.size() == 1) {
+                batch.get(0).error = exc;
+                return;
+            }
+            Log.log(StringTableImpl.class, exc, "Failed to write batch of commits of table " + tableName);
+        }
+
+        for (CommitRequest request : batch) {
+            try {
+                writeBatch(Collections.singletonList(request));
+            } catch (DatabaseIOException | RuntimeException exc) {
+                request.error = exc;
+            }
+        }
+    }
+
+    /**
+     * Merges changes of all the given commits and writes changed parts in parallel.
+     */
+    private void writeBatch(List<CommitRequest> batch) throws DatabaseIOException {
+        long startTime = System.nanoTime();
+
+        // Changes of later commits override changes of earlier ones.
+        Map<Integer, Map<String, String>> mergedChanges = new HashMap<>();
+        int diffsCount = 0;
+        for (CommitRequest request : batch) {
+            diffsCount += request.diffsCount;
+            for (Map.Entry<Integer, Map<String, String>> partChanges : request.changes.entrySet()) {
+                Map<String, String> merged = mergedChanges.get(partChanges.getKey());
+                if (merged == null) {
+                    merged = new HashMap<>(partChanges.getValue());
+                    mergedChanges.put(partChanges.getKey(), merged);
+                } else {
+                    merged.putAll(partChanges.getValue());
+                }
+            }
+        }
+
+        CommitLog log = commitLog;
+        if (log != null && log.isLogged(tableName)) {
+            // Replay of the log must not override this commit, so it goes through the log too.
+            writeLogged(log, Collections.singletonMap(this, mergedChanges));
+            scheduleApply();
+            for (CommitRequest request : batch) {
+                request.written = true;
+            }
+            lastCommitMetrics = new CommitMetrics(
+                    batch.size(), diffsCount, mergedChanges.size(), 0, System.nanoTime() - startTime);
+            return;
+        }
+
+        long bytesWritten = 0;
+        List<Integer> partIndices = new ArrayList<>(mergedChanges.size());
+        List<TablePart.PendingCommit> pendingCommits = new ArrayList<>(mergedChanges.size());
+
+        // Committed state is changed by this thread only, so it is read without part locks until publishing.
+        persistenceLock.readLock().lock();
+        try {
+            for (Map.Entry<Integer, Map<String, String>> partChanges : mergedChanges.entrySet()) {
+                // Parts changed by commitChanges() may have not been loaded.
+                TablePart part = ensureLoaded(partChanges.getKey(), tableParts.get(partChanges.getKey()));
+                TablePart.PendingCommit pendingCommit = part.prepareCommit(partChanges.getValue());
+                if (pendingCommit != null) {
+                    partIndices.add(partChanges.getKey());
+                    pendingCommits.add(pendingCommit);
+                }
+            }
+
+            // Sizes before the commit, to update statistics incrementally.
+            int[] oldRowsCounts = new int[pendingCommits.size()];
+            long[] oldFileSizes = new long[pendingCommits.size()];
+            for (int i = 0; i < pendingCommits.size(); i++) {
+                TablePart part = pendingCommits.get(i).getPart();
+                oldRowsCounts[i] = part.getCommittedSize();
+                oldFileSizes[i] = getFileSize(part.getTablePartFilePath());
+            }
+
+            CommitListener listener = commitListener;
+            if (listener != null) {
+                try {
+                    listener.beforeCommit();
+                } catch (DatabaseIOException | RuntimeException exc) {
+                    abortAll(pendingCommits);
+                    throw exc;
+                }
+            }
+
+            writeInParallel(pendingCommits);
+
+            List<Map<String, String>> oldValues = listener == null ? null : collectOldValues(pendingCommits);
+            bytesWritten =
+                    publish(partIndices, pendingCommits, oldRowsCounts, oldFileSizes, listener, oldValues, true);
+
+            statisticsChanged = true;
+            if (lastCommitTime - statisticsWriteTime >= STATISTICS_WRITE_INTERVAL_MILLIS) {
+                writeStatistics();
+            }
+        } finally {
+            persistenceLock.readLock().unlock();
+        }
+
+        for (CommitRequest request : batch) {
+            request.written = true;
+        }
+
+        CommitMetrics metrics = new CommitMetrics(
+                batch.size(), diffsCount, pendingCommits.size(), bytesWritten, System.nanoTime() - startTime);
+        lastCommitMetrics = metrics;
+        Log.log(StringTableImpl.class, "Table " + tableName + " committed: " + metrics);
+    }
+
+    /**
+     * Returns committed values of the changed keys of each commit; null for absent ones.
+     */
+    private static List<Map<String, String>> collectOldValues(List<TablePart.PendingCommit> pendingCommits) {
+        List<Map<String, String>> oldValues = new ArrayList<>(pendingCommits.size());
+        for (TablePart.PendingCommit pendingCommit : pendingCommits) {
+            Map<String, String> partOldValues = new HashMap<>();
+            for (String key : pendingCommit.getChanges().keySet()) {
+                partOldValues.put(key, pendingCommit.getPart().getCommitted(key));
+            }
+            oldValues.add(partOldValues);
+        }
+        return oldValues;
+    }
+
+    /**
+     * Makes the written commits committed state of their parts at once: operations on the changed parts and
+     * on many parts wait meanwhile. Must be called under read lock by the thread that writes commits.
+     * @param partIndices
+     *         Indices of the parts of the commits.
+     * @param oldRowsCounts
+     *         Numbers of committed rows of the parts before the commits.
+     * @param oldFileSizes
+     *         Sizes of the files of the parts before the commits.
+     * @param listener
+     *         Listener that has been notified before writing or null.
+     * @param oldValues
+     *         Old values of the changed keys if the listener is not null.
+     * @param notify
+     *         False if the changes have been already reported to the listener.
+     * @return Number of bytes written by the commits.
+     */
+    private long publish(List<Integer> partIndices,
+                         List<TablePart.PendingCommit> pendingCommits,
+                         int[] oldRowsCounts,
+                         long[] oldFileSizes,
+                         CommitListener listener,
+                         List<Map<String, String>> oldValues,
+                         boolean notify) throws DatabaseIOException {
+        publishLock.writeLock().lock();
+        int lockedCount = 0;
+        try {
+            for (int partIndex : partIndices) {
+                partLocks[partIndex].writeLock().lock();
+                lockedCount++;
+            }
+
+            // Listener could be set while the files were written: it has seen the old state, so it must see
+            // this commit too.
+            CommitListener currentListener = notify ? commitListener : null;
+            if (currentListener != listener && currentListener != null) {
+                try {
+                    currentListener.beforeCommit();
+                } catch (DatabaseIOException | RuntimeException exc) {
+                    abortAll(pendingCommits);
+                    throw exc;
+                }
+                if (oldValues == null) {
+                    oldValues = collectOldValues(pendingCommits);
+                }
+            }
+
+            long bytesWritten = 0;
+            commitsVersion++;
+            for (int i = 0; i < pendingCommits.size(); i++) {
+                TablePart part = pendingCommits.get(i).getPart();
+                try {
+                    pendingCommits.get(i).publish();
+                } catch (IOException exc) {
+                    // Already published parts stay committed, because their files have been replaced.
+                    abortAll(pendingCommits.subList(i, pendingCommits.size()));
+                    throw new DatabaseIOException("Failed to persist table", exc);
+                }
+                bytesWritten += pendingCommits.get(i).getBytesWritten();
+
+                if (committedRowsCount != UNKNOWN_ROWS_COUNT) {
+                    committedRowsCount += part.getCommittedSize() - oldRowsCounts[i];
+                }
+                committedBytesCount += getFileSize(part.getTablePartFilePath()) - oldFileSizes[i];
+
+                if (currentListener != null) {
+                    Map<String, String> partOldValues = oldValues.get(i);
+                    for (Map.Entry<String, String> change : pendingCommits.get(i).getChanges().entrySet()) {
+                        String oldValue = partOldValues.get(change.getKey());
+                        if (!Objects.equals(oldValue, change.getValue())) {
+                            currentListener.onCommitted(change.getKey(), oldValue, change.getValue());
+                        }
+                    }
+                }
+            }
+            lastCommitTime = System.currentTimeMillis();
+            return bytesWritten;
+        } finally {
+            for (int i = lockedCount - 1; i >= 0; i--) {
+                partLocks[partIndices.get(i)].writeLock().unlock();
+            }
+            publishLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes statistics file of the table. Must be called under write lock or by the thread that writes
+     * commits. If it fails, the outdated file is detected and ignored on the next opening of the table.
+     */
+    private void writeStatistics() {
+        // Legacy tables must not contain files unknown to older versions.
+        if (committedRowsCount == UNKNOWN_ROWS_COUNT || TableLayout.LEGACY.equals(layout)) {
+            return;
+        }
+        statisticsChanged = false;
+        statisticsWriteTime = System.currentTimeMillis();
+        try {
+            new TableStatistics(committedRowsCount, committedBytesCount, lastCommitTime).writeTo(tableRoot);
+        } catch (IOException exc) {
+            Log.log(StringTableImpl.class, exc, "Failed to write statistics of table " + tableName);
+        }
+    }
+
+    /**
+     * Returns size of the file or 0 if it does not exist. Errors are ignored: the size is used for statistics
+     * only.
+     */
+    private static long getFileSize(Path path) {
+        try {
+            return Files.exists(path) ? Files.size(path) : 0;
+        } catch (IOException exc) {
+            return 0;
+        }
+    }
+
+    /**
+     * Writes all the given commits. If any of them fails, all of them are aborted.
+     */
+    private static void writeInParallel(List<TablePart.PendingCommit> pendingCommits)
+            throws DatabaseIOException {
+        if (pendingCommits.size() == 1) {
+            // No need to hand off a single part to another thread.
+            try {
+                pendingCommits.get(0).write();
+            } catch (IOException exc) {
+                abortAll(pendingCommits);
+                throw new DatabaseIOException("Failed to persist table", exc);
+            }
+            return;
+        }
+
+        List<Future<?>> futures = new ArrayList<>(pendingCommits.size());
+        for (TablePart.PendingCommit pendingCommit : pendingCommits) {
+            futures.add(
+                    COMMIT_EXECUTOR.submit(
+                            () -> {
+                                pendingCommit.write();
+                                return null;
+                            }));
+        }
+
+        // All writes must be finished before anything can be aborted.
+        Throwable failure = null;
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException exc) {
+                    interrupted = true;
+                } catch (ExecutionException exc) {
+                    if (failure == null) {
+                        failure = exc.getCause();
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (failure != null) {
+            abortAll(pendingCommits);
+            if (failure instanceof IOException) {
+                throw new DatabaseIOException("Failed to persist table", (IOException) failure);
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else {
+                throw (Error) failure;
+            }
+        }
+    }
+
+    private static void abortAll(List<TablePart.PendingCommit> pendingCommits) {
+        for (TablePart.PendingCommit pendingCommit : pendingCommits) {
+            pendingCommit.abort();
+        }
+    }
+
+    /**
+     * Commits changes made by this thread to all the given tables at once: the changes are appended to the
+     * commit log as one record with one sync and published in memory, part files are written later in
+     * background. Other threads see the changes of all the tables after the record is synced.
+     * @param tables
+     *         Tables of the provider the commit log belongs to.
+     * @return Total number of committed changes.
+     * @throws IllegalArgumentException
+     *         If there are different tables with the same name.
+     * @see CommitLog
+     */
+    static int commit(Collection<StringTableImpl> tables, CommitLog commitLog) throws DatabaseIOException {
+        Map<String, StringTableImpl> tablesByNames = new TreeMap<>();
+        for (StringTableImpl table : tables) {
+            StringTableImpl sameNameTable = tablesByNames.put(table.getName(), table);
+            if (sameNameTable != null && sameNameTable != table) {
+                throw new IllegalArgumentException("Different tables with the same name: " + table.getName());
+            }
+        }
+
+        Map<StringTableImpl, Map<Integer, Map<String, String>>> changes = new LinkedHashMap<>();
+        int diffsCount = 0;
+        for (StringTableImpl table : tablesByNames.values()) {
+            Map<Integer, Map<String, String>> tableChanges = new HashMap<>();
+            diffsCount += table.collectChanges(tableChanges);
+            if (!tableChanges.isEmpty()) {
+                changes.put(table, tableChanges);
+            }
+        }
+        if (changes.isEmpty()) {
+            return 0;
+        }
+
+        // Batches are locked in order of table names, so that concurrent transactions do not deadlock.
+        List<StringTableImpl> lockedTables = new ArrayList<>(changes.size());
+        try {
+            for (StringTableImpl table : changes.keySet()) {
+                table.lockBatches();
+                lockedTables.add(table);
+            }
+            writeLogged(commitLog, changes);
+        } finally {
+            for (int i = lockedTables.size() - 1; i >= 0; i--) {
+                lockedTables.get(i).unlockBatches();
+            }
+        }
+
+        for (StringTableImpl table : changes.keySet()) {
+            table.rollback();
+            table.scheduleApply();
+        }
+        return diffsCount;
+    }
+
+    /**
+     * Appends the changes of the given tables to the commit log as one record and publishes them in memory. Must
+     * be called by the thread that writes batches of commits of all the tables.
+     */
+    private static void writeLogged(CommitLog commitLog,
+                                    Map<StringTableImpl, Map<Integer, Map<String, String>>> changes)
+            throws DatabaseIOException {
+        List<StringTableImpl> lockedTables = new ArrayList<>(changes.size());
+        try {
+            List<LoggedCommit> loggedCommits = new ArrayList<>(changes.size());
+            Map<String, Map<String, String>> record = new LinkedHashMap<>();
+            for (Map.Entry<StringTableImpl, Map<Integer, Map<String, String>>> tableChanges : changes.entrySet()) {
+                StringTableImpl table = tableChanges.getKey();
+                table.persistenceLock.readLock().lock();
+                lockedTables.add(table);
+                loggedCommits.add(table.prepareLogged(tableChanges.getValue()));
+
+                Map<String, String> recordChanges = new HashMap<>();
+                tableChanges.getValue().values().forEach(recordChanges::putAll);
+                record.put(table.getName(), recordChanges);
+            }
+
+            try {
+                commitLog.append(record);
+            } catch (IOException exc) {
+                throw new DatabaseIOException("Failed to write commit log", exc);
+            }
+
+            for (int i = 0; i < loggedCommits.size(); i++) {
+                lockedTables.get(i).publishLogged(loggedCommits.get(i));
+            }
+        } finally {
+            for (StringTableImpl table : lockedTables) {
+                table.persistenceLock.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Prepares changes of a commit through the commit log for publishing in memory and notifies the listener.
+     * Must be called under read lock by the thread that writes commits.
+     */
+    private LoggedCommit prepareLogged(Map<Integer, Map<String, String>> changes) throws DatabaseIOException {
+        LoggedCommit loggedCommit = new LoggedCommit(changes);
+        for (Map.Entry<Integer, Map<String, String>> partChanges : changes.entrySet()) {
+            TablePart part = ensureLoaded(partChanges.getKey(), tableParts.get(partChanges.getKey()));
+            TablePart.PendingCommit pendingCommit = part.prepareInMemoryCommit(partChanges.getValue());
+            if (pendingCommit != null) {
+                loggedCommit.partIndices.add(partChanges.getKey());
+                loggedCommit.pendingCommits.add(pendingCommit);
+            }
+        }
+
+        int partsCount = loggedCommit.pendingCommits.size();
+        loggedCommit.oldRowsCounts = new int[partsCount];
+        loggedCommit.oldFileSizes = new long[partsCount];
+        for (int i = 0; i < partsCount; i++) {
+            TablePart part = loggedCommit.pendingCommits.get(i).getPart();
+            loggedCommit.oldRowsCounts[i] = part.getCommittedSize();
+            loggedCommit.oldFileSizes[i] = getFileSize(part.getTablePartFilePath());
+        }
+
+        loggedCommit.listener = commitListener;
+        if (loggedCommit.listener != null) {
+            loggedCommit.listener.beforeCommit();
+            loggedCommit.oldValues = collectOldValues(loggedCommit.pendingCommits);
+        }
+        return loggedCommit;
+    }
+
+    /**
+     * Publishes the changes appended to the commit log and remembers them to write to part files later. Must be
+     * called under read lock by the thread that writes commits.
+     */
+    private void publishLogged(LoggedCommit loggedCommit) throws DatabaseIOException {
+        publish(loggedCommit.partIndices,
+                loggedCommit.pendingCommits,
+                loggedCommit.oldRowsCounts,
+                loggedCommit.oldFileSizes,
+                loggedCommit.listener,
+                loggedCommit.oldValues,
+                true);
+        for (Map.Entry<Integer, Map<String, String>> partChanges : loggedCommit.changes.entrySet()) {
+            loggedChanges.computeIfAbsent(partChanges.getKey(), partIndex -> new HashMap<>())
+                         .putAll(partChanges.getValue());
+        }
+        loggedRecordsCount++;
+        statisticsChanged = true;
+    }
+
+    private void scheduleApply() {
+        if (applyScheduled.compareAndSet(false, true)) {
+            CommitLog.scheduleApply(
+                    () -> {
+                        applyScheduled.set(false);
+                        try {
+                            applyLogged();
+                        } catch (DatabaseIOException | RuntimeException exc) {
+                            Log.log(StringTableImpl.class, exc, "Failed to apply commit log to table " + tableName);
+                        }
+                    },
+                    Long.getLong(COMMIT_LOG_APPLY_DELAY_PROPERTY_NAME, DEFAULT_COMMIT_LOG_APPLY_DELAY_MILLIS));
+        }
+    }
+
+    /**
+     * Writes changes committed through the commit log to part files. Commits of this table wait meanwhile.
+     */
+    void applyLogged() throws DatabaseIOException {
+        lockBatches();
+        try {
+            writeLoggedChanges();
+        } finally {
+            unlockBatches();
+        }
+    }
+
+    /**
+     * Writes changes committed through the commit log to part files. Must be called by the thread that writes
+     * commits.
+     */
+    private void writeLoggedChanges() throws DatabaseIOException {
+        if (loggedChanges.isEmpty()) {
+            return;
+        }
+
+        persistenceLock.readLock().lock();
+        try {
+            List<Integer> partIndices = new ArrayList<>(loggedChanges.size());
+            List<TablePart.PendingCommit> pendingCommits = new ArrayList<>(loggedChanges.size());
+            for (Map.Entry<Integer, Map<String, String>> partChanges : loggedChanges.entrySet()) {
+                TablePart part = ensureLoaded(partChanges.getKey(), tableParts.get(partChanges.getKey()));
+                TablePart.PendingCommit pendingCommit = part.prepareCommit(partChanges.getValue(), true);
+                if (pendingCommit != null) {
+                    partIndices.add(partChanges.getKey());
+                    pendingCommits.add(pendingCommit);
+                }
+            }
+
+            int[] oldRowsCounts = new int[pendingCommits.size()];
+            long[] oldFileSizes = new long[pendingCommits.size()];
+            for (int i = 0; i < pendingCommits.size(); i++) {
+                TablePart part = pendingCommits.get(i).getPart();
+                oldRowsCounts[i] = part.getCommittedSize();
+                oldFileSizes[i] = getFileSize(part.getTablePartFilePath());
+            }
+
+            writeInParallel(pendingCommits);
+            publish(partIndices, pendingCommits, oldRowsCounts, oldFileSizes, null, null, false);
+
+            statisticsChanged = true;
+            if (lastCommitTime - statisticsWriteTime >= STATISTICS_WRITE_INTERVAL_MILLIS) {
+                writeStatistics();
+            }
+        } finally {
+            persistenceLock.readLock().unlock();
+        }
+
+        int recordsCount = loggedRecordsCount;
+        loggedChanges = new HashMap<>();
+        loggedRecordsCount = 0;
+        commitLog.onApplied(tableName, recordsCount);
+    }
+
+    /**
+     * Makes commits of this table go through the given commit log while the table has records in it.
+     */
+    void setCommitLog(CommitLog commitLog) {
+        this.commitLog = commitLog;
+    }
+
+    /**
+     * Returns statistics of the last batch of commits written to this table. Commits without changes do not
+     * affect it.
+     */
+    public CommitMetrics getLastCommitMetrics() {
+        return lastCommitMetrics;
+    }
+
+    public int rollback() {
+        int diffsCount = 0;
+
+        Set<Integer> dirtyPartIndices = dirtyParts.get();
+        for (int partIndex : dirtyPartIndices) {
+            diffsCount += tableParts.get(partIndex).rollback();
+        }
+        dirtyPartIndices.clear();
+
+        RowsDelta delta = rowsDelta.get();
+        delta.rowsCount = 0;
+        delta.version = commitsVersion;
+
+        return diffsCount;
+    }
+
+    /**
+     * Stops background maintenance of table parts and writes statistics file if it is outdated. The table must
+     * not be used after this call.
+     */
+    public void close() {
+        lockBatches();
+        try {
+            writeLoggedChanges();
+        } catch (DatabaseIOException | RuntimeException exc) {
+            // The changes are replayed from the commit log when the table is opened next time.
+            Log.log(StringTableImpl.class, exc, "Failed to apply commit log to table " + tableName);
+            loggedChanges = new HashMap<>();
+            loggedRecordsCount = 0;
+        } finally {
+            unlockBatches();
+        }
+
+        persistenceLock.writeLock().lock();
+        try {
+            if (statisticsChanged) {
+                writeStatistics();
+            }
+            for (TablePart part : tableParts.values()) {
+                part.discard();
+            }
+            if (valueCache != null) {
+                valueCache.close();
+            }
+        } finally {
+            persistenceLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Collects all keys from all table parts assigned to this table.
+     */
+    public List<String> list() {
+        List<String> keySet = new ArrayList<>();
+
+        persistenceLock.readLock().lock();
+        publishLock.readLock().lock();
+        try {
+            for (Map.Entry<Integer, TablePart> part : tableParts.entrySet()) {
+                ensureLoaded(part.getKey(), part.getValue()).forEachKey(keySet::add);
+            }
+        } finally {
+            publishLock.readLock().unlock();
+            persistenceLock.readLock().unlock();
+        }
+
+        return keySet;
+    }
+
+    /**
+     * Returns keys of the table parts starting from the given position, considering uncommitted changes of
+     * this thread. Parts are read one by one, each in natural order of its keys, until the page has {@code
+     * limit} keys. Only the keys of the page are kept at once, so memory does not depend on sizes of the parts;
+     * a part is scanned once for each page that takes keys from it.
+     * @see PageableTable#listKeys(KeysPage.Position, int)
+     */
+    public KeysPage listKeys(KeysPage.Position position, int limit) throws IllegalArgumentException {
+        int partsCount = layout.getPartsCount();
+        if (position == null || position.getPartIndex() < 0 || position.getPartIndex() >= partsCount) {
+            throw new IllegalArgumentException("Invalid position: " + position);
+        }
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be positive");
+        }
+
+        List<String> keys = new ArrayList<>();
+        int partIndex = position.getPartIndex();
+        String lastKey = position.getLastKey();
+
+        persistenceLock.readLock().lock();
+        publishLock.readLock().lock();
+        try {
+            for (; partIndex < partsCount; partIndex++, lastKey = null) {
+                int remaining = limit - keys.size();
+                TablePart part = ensureLoaded(partIndex, tableParts.get(partIndex));
+                if (part.listKeysAfter(lastKey, remaining, keys) == remaining) {
+                    // The part can have more keys; they follow the last one of the page.
+                    return new KeysPage(keys, new KeysPage.Position(partIndex, keys.get(keys.size() - 1)));
+                }
+            }
+        } finally {
+            publishLock.readLock().unlock();
+            persistenceLock.readLock().unlock();
+        }
+
+        return new KeysPage(keys, KeysPage.END_POSITION);
+    }
+
+    /**
+     * Iterates over keys of the table page by page, considering uncommitted changes of the thread that calls
+     * the iterator.
+     * @see #listKeys(KeysPage.Position, int)
+     */
+    public Iterator<String> keysIterator() {
+        return KeysPage.iterator(position -> listKeys(position, KEYS_ITERATOR_PAGE_SIZE));
+    }
+
+    /**
+     * Returns records with keys in the given range in order of keys, considering uncommitted changes of this
+     * thread. The iterator reflects the state at the moment of this call: sorted committed records of each
+     * part and the changes are captured, records are merged lazily while iterating.
+     * @param fromKey
+     *         Least key, inclusive; null for no lower bound.
+     * @param toKey
+     *         Upper bound, exclusive; null for no upper bound.
+     * @see TableLayout.KeyOrder
+     */
+    public Iterator<Map.Entry<String, String>> scan(String fromKey, String toKey) {
+        KeyRangeIterator iterator = new KeyRangeIterator(fromKey, toKey);
+        Set<Integer> dirtyPartIndices = dirtyParts.get();
+
+        persistenceLock.readLock().lock();
+        publishLock.readLock().lock();
+        try {
+            for (Map.Entry<Integer, TablePart> part : tableParts.entrySet()) {
+                TablePart tablePart = ensureLoaded(part.getKey(), part.getValue());
+                iterator.addPart(
+                        tablePart.getSortedRecords(),
+                        dirtyPartIndices.contains(part.getKey())
+                        ? tablePart.getSortedUncommittedChanges() : Collections.emptyList());
+            }
+        } finally {
+            publishLock.readLock().unlock();
+            persistenceLock.readLock().unlock();
+        }
+
+        return iterator;
+    }
+
+    /**
+     * Returns records with keys that start with the given prefix in order of keys, considering uncommitted
+     * changes of this thread.
+     * @see #scan(String, String)
+     */
+    public Iterator<Map.Entry<String, String>> prefixScan(String prefix) {
+        Utility.checkNotNull(prefix, "Prefix");
+        return scan(prefix, ScannableTable.prefixEnd(prefix));
+    }
+
+    /**
+     * Builds table file path from part index that describes directory and file name.
+     */
+    private Path makeTablePartFilePath(int partIndex) {
+        return tableRoot.resolve(
+                Paths.get(
+                        TableLayout.getDirectory(partIndex) + "." + DIRECTORY_EXTENSION,
+                        TableLayout.getFile(partIndex) + "." + FILE_EXTENSION));
+    }
+
+    /**
+     * Gets {@link TablePart} instance with the given index, loading it if necessary. Must be called under the
+     * lock of the part.
+     * @param forUpdate
+     *         If true, the part is remembered as changed by this thread.
+     */
+    private TablePart obtainTablePart(int partIndex, boolean forUpdate) {
+        if (forUpdate) {
+            dirtyParts.get().add(partIndex);
+        }
+        return ensureLoaded(partIndex, tableParts.get(partIndex));
+    }
+
+    /**
+     * Returns committed value of the key; uncommitted changes of all threads are ignored.
+     */
+    String getCommitted(String key) {
+        persistenceLock.readLock().lock();
+        try {
+            Utility.checkNotNull(key, "Key");
+            int partIndex = layout.getPartIndex(key);
+            Lock partLock = lockPart(partIndex);
+            try {
+                return obtainTablePart(partIndex, false).getCommitted(key);
+            } finally {
+                partLock.unlock();
+            }
+        } finally {
+            persistenceLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Passes each committed row to the given action; uncommitted changes of all threads are ignored.
+     */
+    void forEachCommitted(BiConsumer<String, String> action) {
+        persistenceLock.readLock().lock();
+        publishLock.readLock().lock();
+        try {
+            for (Map.Entry<Integer, TablePart> part : tableParts.entrySet()) {
+                ensureLoaded(part.getKey(), part.getValue()).forEachCommitted(action);
+            }
+        } finally {
+            publishLock.readLock().unlock();
+            persistenceLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Captures the committed records of all table parts as they are now. Commits wait only while the parts
+     * are taken, not while the snapshot is read: records of parts are immutable and later commits replace
+     * them. Commits through the commit log are included once they are published.
+     * @return Source that passes each record of the snapshot to the given consumer.
+     */
+    Consumer<BiConsumer<String, String>> snapshotCommitted() {
+        List<Consumer<BiConsumer<String, String>>> partSnapshots = new ArrayList<>(tableParts.size());
+        persistenceLock.readLock().lock();
+        try {
+            // Parts are loaded before commits are held off.
+            for (Map.Entry<Integer, TablePart> part : tableParts.entrySet()) {
+                ensureLoaded(part.getKey(), part.getValue());
+            }
+
+            publishLock.readLock().lock();
+            try {
+                for (TablePart part : tableParts.values()) {
+                    partSnapshots.add(part.getCommittedSnapshot());
+                }
+            } finally {
+                publishLock.readLock().unlock();
+            }
+        } finally {
+            persistenceLock.readLock().unlock();
+        }
+        return action -> partSnapshots.forEach(snapshot -> snapshot.accept(action));
+    }
+
+    /**
+     * Runs the given action so that no commit is published meanwhile. The action can read the table. A commit
+     * that is being written while the action sets the {@link #setCommitListener(CommitListener) listener} is
+     * reported to the new listener when it is published.
+     */
+    void runWithoutCommits(Runnable action) {
+        persistenceLock.readLock().lock();
+        publishLock.readLock().lock();
+        try {
+            action.run();
+        } finally {
+            publishLock.readLock().unlock();
+            persistenceLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Sets the listener that is notified about all commits of this table.
+     * @param listener
+     *         Listener or null.
+     */
+    void setCommitListener(CommitListener listener) {
+        commitListener = listener;
+    }
+
+    /**
+     * Counts number of uncommitted changes for this thread.
+     */
+    public int getNumberOfUncommittedChanges() {
+        int diffsCount = 0;
+        for (int partIndex : dirtyParts.get()) {
+            diffsCount += tableParts.get(partIndex).getUncommittedChangesCount();
         }
         return diffsCount;
     }
+
+    /**
+     * Receives changes of committed data. Methods are called by the thread that writes commits, so that no
+     * other commit can interfere, and must not access this table from other threads.
+     */
+    interface CommitListener {
+        /**
+         * Called before part files or the commit log are changed by a commit. If it throws, the commit fails.
+         */
+        void beforeCommit() throws DatabaseIOException;
+
+        /**
+         * Called for each changed row after the change is committed, while the commit is published: actions
+         * of {@link #runWithoutCommits(Runnable)} wait meanwhile.
+         * @param oldValue
+         *         Null if the row has been added.
+         * @param newValue
+         *         Null if the row has been removed.
+         */
+        void onCommitted(String key, String oldValue, String newValue);
+    }
+
+    /**
+     * Difference between the number of rows seen by a thread and the committed one.
+     */
+    private static final class RowsDelta {
+        private int rowsCount;
+        /**
+         * Value of {@link #commitsVersion} the difference has been counted for.
+         */
+        private long version = -1;
+    }
+
+    /**
+     * Changes of a commit through the commit log, prepared for publishing in memory.
+     */
+    private static final class LoggedCommit {
+        /**
+         * Changes by table part indices.
+         */
+        private final Map<Integer, Map<String, String>> changes;
+        private final List<Integer> partIndices = new ArrayList<>();
+        private final List<TablePart.PendingCommit> pendingCommits = new ArrayList<>();
+        private int[] oldRowsCounts;
+        private long[] oldFileSizes;
+        /**
+         * Listener notified before the commit or null.
+         */
+        private CommitListener listener;
+        private List<Map<String, String>> oldValues;
+
+        private LoggedCommit(Map<Integer, Map<String, String>> changes) {
+            this.changes = changes;
+        }
+    }
+
+    /**
+     * Changes committed by one thread, waiting to be written as a part of a batch.
+     */
+    private static final class CommitRequest {
+        /**
+         * Copies of the thread's changes by table part indices.
+         */
+        private final Map<Integer, Map<String, String>> changes = new HashMap<>();
+        private int diffsCount;
+        /**
+         * Set when the batch containing this commit has been processed, successfully or not. Guarded by
+         * {@link #commitQueueLock}.
+         */
+        private boolean done;
+        private boolean written;
+        private Exception error;
+    }
 }
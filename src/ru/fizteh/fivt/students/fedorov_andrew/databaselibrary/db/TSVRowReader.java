@@ -0,0 +1,137 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
+
+import java.text.ParseException;
+import java.util.AbstractMap;
+import java.util.Map;
+
+/**
+ * Reader of keyed rows given as lines of tab separated values: the key followed by values of the columns.<br/>
+ * Inside fields {@code \t}, {@code \n}, {@code \r} and {@code \\} stand for tab, line feed, carriage return and
+ * backslash, other backslashes are kept as they are. Field {@code \N} is null. {@code true} and {@code false}
+ * are case insensitive.<br/>
+ * All errors are reported as {@link ParseException} with message of form {@code wrong type (description)} and
+ * offset of the erroneous place in the line, like {@link JSONRowReader} does.
+ */
+final class TSVRowReader {
+    private static final char SEPARATOR = '\t';
+    private static final char ESCAPE_CHARACTER = '\\';
+    private static final String NULL_FIELD = "\\N";
+
+    private TSVRowReader() {
+
+    }
+
+    /**
+     * Returns the key of the row without reading its values.
+     */
+    static String readKey(String line) throws ParseException {
+        int separator = line.indexOf(SEPARATOR);
+        if (separator < 0) {
+            throw error("Key and values separated by tabs expected", 0);
+        }
+        if (line.regionMatches(0, NULL_FIELD, 0, separator)) {
+            throw error("Key must not be null", 0);
+        }
+        return unescape(line, 0, separator);
+    }
+
+    /**
+     * Reads the key and the row of the given layout.
+     */
+    static Map.Entry<String, StoreableImpl> read(String line, RowLayout layout) throws ParseException {
+        String key = readKey(line);
+        StoreableImpl row = new StoreableImpl(layout);
+        int columnsCount = layout.getColumnsCount();
+
+        int start = line.indexOf(SEPARATOR) + 1;
+        for (int column = 0; column < columnsCount; column++) {
+            int separator = line.indexOf(SEPARATOR, start);
+            boolean last = column == columnsCount - 1;
+            if (last != (separator < 0)) {
+                throw error("Irregular number of arguments given", last ? separator : line.length());
+            }
+            int end = last ? line.length() : separator;
+            readValue(line, start, end, row, layout, column);
+            start = end + 1;
+        }
+        return new AbstractMap.SimpleImmutableEntry<>(key, row);
+    }
+
+    private static void readValue(String line, int start, int end, StoreableImpl row, RowLayout layout, int column)
+            throws ParseException {
+        if (end - start == NULL_FIELD.length() && line.startsWith(NULL_FIELD, start)) {
+            return;
+        }
+
+        RowLayout.Kind kind = layout.getKind(column);
+        if (kind == RowLayout.Kind.STRING) {
+            row.setString(column, unescape(line, start, end));
+            return;
+        }
+        if (kind == RowLayout.Kind.BOOLEAN) {
+            if (matches(line, start, end, "true")) {
+                row.setBoolean(column, true);
+            } else if (matches(line, start, end, "false")) {
+                row.setBoolean(column, false);
+            } else {
+                throw error("Expected 'true' or 'false' as boolean", start);
+            }
+            return;
+        }
+
+        String value = line.substring(start, end);
+        try {
+            switch (kind) {
+            case BYTE:
+                row.setByte(column, Byte.parseByte(value));
+                break;
+            case INT:
+                row.setInt(column, Integer.parseInt(value));
+                break;
+            case LONG:
+                row.setLong(column, Long.parseLong(value));
+                break;
+            case FLOAT:
+                row.setFloat(column, Float.parseFloat(value));
+                break;
+            default:
+                row.setDouble(column, Double.parseDouble(value));
+                break;
+            }
+        } catch (NumberFormatException exc) {
+            throw error(
+                    "Column " + column + " expects " + layout.getType(column).getSimpleName() + " value, found: "
+                    + value, start);
+        }
+    }
+
+    private static boolean matches(String line, int start, int end, String literal) {
+        return end - start == literal.length() && line.regionMatches(true, start, literal, 0, end - start);
+    }
+
+    private static String unescape(String line, int start, int end) {
+        int escape = line.indexOf(ESCAPE_CHARACTER, start);
+        if (escape < 0 || escape >= end) {
+            return line.substring(start, end);
+        }
+
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int index = start; index < end; index++) {
+            char symbol = line.charAt(index);
+            if (symbol == ESCAPE_CHARACTER && index + 1 < end) {
+                char next = line.charAt(index + 1);
+                char unescaped = next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next;
+                if (unescaped != next || next == ESCAPE_CHARACTER) {
+                    symbol = unescaped;
+                    index++;
+                }
+            }
+            sb.append(symbol);
+        }
+        return sb.toString();
+    }
+
+    private static ParseException error(String message, int offset) {
+        return new ParseException("wrong type (" + message + ")", offset);
+    }
+}
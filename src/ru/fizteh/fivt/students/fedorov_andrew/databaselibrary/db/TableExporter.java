@@ -0,0 +1,364 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
+
+import ru.fizteh.fivt.storage.structured.Table;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.json.JSONMaker;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Utility;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Writes a consistent snapshot of the committed rows of a structured table.<br/>
+ * The snapshot is taken at once: commits wait only while references to the committed records of table parts
+ * are collected, and the records are written without any locks, so puts and commits of other threads go on
+ * during the export and are not seen by it. Uncommitted changes of the calling thread are not exported.<br/>
+ * Stored rows are written as they are whenever the format allows, so that the export is bound by the speed
+ * of the output rather than by encoding.
+ */
+public final class TableExporter {
+    /**
+     * Size of the buffer between the exporter and the output.
+     */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final StoreableTableImpl table;
+
+    /**
+     * @throws IllegalArgumentException
+     *         If the table is not a table of a local database.
+     */
+    public TableExporter(Table table) throws IllegalArgumentException {
+        Utility.checkNotNull(table, "Table");
+        this.table = DBTableProvider.unwrap(table);
+    }
+
+    /**
+     * Exports the rows to the file, replacing it if it exists. The file is deleted if the export fails.
+     * @see #export(OutputStream, Format)
+     */
+    public ExportMetrics exportFile(Path file, Format format) throws IOException {
+        Utility.checkNotNull(file, "File");
+        boolean exported = false;
+        try (OutputStream output = Files.newOutputStream(file)) {
+            ExportMetrics metrics = export(output, format);
+            exported = true;
+            return metrics;
+        } finally {
+            if (!exported) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * Exports the rows to the output. The output is flushed but not closed.
+     */
+    public ExportMetrics export(OutputStream output, Format format) throws IOException {
+        Utility.checkNotNull(output, "Output");
+        Utility.checkNotNull(format, "Format");
+
+        long startTime = System.nanoTime();
+        Consumer<BiConsumer<String, String>> snapshot = table.snapshotCommitted();
+        RecordOutput recordOutput = new RecordOutput(output);
+
+        long rowsCount;
+        try {
+            rowsCount = format.write(table, snapshot, recordOutput);
+        } catch (UncheckedIOException exc) {
+            throw exc.getCause();
+        }
+        recordOutput.flush();
+        return new ExportMetrics(rowsCount, recordOutput.bytesCount, System.nanoTime() - startTime);
+    }
+
+    /**
+     * Formats of exported rows.
+     */
+    public enum Format {
+        /**
+         * JSON arrays of the key followed by values of the columns, one per line, e.g. {@code ["key",1,"value"]}:
+         * the format {@link BulkImporter.Format#JSON_LINES} reads. Keys and strings are escaped like {@link
+         * ru.fizteh.fivt.storage.structured.TableProvider#serialize(Table,
+         * ru.fizteh.fivt.storage.structured.Storeable) serialize} does it, and line breaks inside them are
+         * written as {@code \n} and {@code \r}, so that each row takes exactly one line.
+         */
+        JSON_LINES("jsonl") {
+            @Override
+            long write(StoreableTableImpl table, Consumer<BiConsumer<String, String>> snapshot, RecordOutput output)
+                    throws IOException {
+                // Rows of JSON format are written as stored; rows of other formats are decoded.
+                boolean storedAsJSON = table.getLayout().getRowFormat() == TableLayout.RowFormat.JSON;
+                long[] rowsCount = new long[1];
+
+                snapshot.accept(
+                        (key, value) -> {
+                            String row = storedAsJSON ? value : JSONMaker.makeJSON(table.decode(key, value));
+                            try {
+                                output.write('[');
+                                output.write('\"');
+                                output.writeEscaped(key);
+                                output.write('\"');
+                                if (row.length() > 2) {
+                                    output.write(',');
+                                    // Line breaks can be found inside strings only.
+                                    output.writeLineBreaksEscaped(row, 1, row.length());
+                                } else {
+                                    output.write(']');
+                                }
+                                output.write('\n');
+                            } catch (IOException exc) {
+                                throw new UncheckedIOException(exc);
+                            }
+                            rowsCount[0]++;
+                        });
+                return rowsCount[0];
+            }
+        },
+        /**
+         * Native binary dump: rows are written as they are stored in table parts, in the row format of the
+         * table.<br/>
+         * Header: {@link #DUMP_MAGIC} and {@link #DUMP_VERSION} as ints, name of the {@link TableLayout.RowFormat
+         * row format} in modified UTF-8 (see {@link DataOutputStream#writeUTF(String)}), number of columns as an
+         * int and names of column types in modified UTF-8, as in the signature file.<br/>
+         * Each row: byte 1, then the key and the stored value, each as the int length of its UTF-8 bytes
+         * followed by the bytes.<br/>
+         * End: byte 0 and the number of rows as a long.
+         */
+        DUMP("dump") {
+            @Override
+            long write(StoreableTableImpl table, Consumer<BiConsumer<String, String>> snapshot, RecordOutput output)
+                    throws IOException {
+                DataOutputStream header = new DataOutputStream(output);
+                List<Class<?>> columnTypes = table.getColumnTypes();
+
+                header.writeInt(DUMP_MAGIC);
+                header.writeInt(DUMP_VERSION);
+                header.writeUTF(table.getLayout().getRowFormat().name());
+                header.writeInt(columnTypes.size());
+                for (Class<?> type : columnTypes) {
+                    header.writeUTF(StoreableTableImpl.getTypeName(type));
+                }
+
+                long[] rowsCount = new long[1];
+                snapshot.accept(
+                        (key, value) -> {
+                            try {
+                                output.write(1);
+                                output.writeSized(key);
+                                output.writeSized(value);
+                            } catch (IOException exc) {
+                                throw new UncheckedIOException(exc);
+                            }
+                            rowsCount[0]++;
+                        });
+
+                output.write(0);
+                output.writeLong(rowsCount[0]);
+                return rowsCount[0];
+            }
+        };
+
+        /**
+         * First int of a dump.
+         */
+        public static final int DUMP_MAGIC = 0x46444244;
+        public static final int DUMP_VERSION = 1;
+
+        private final String name;
+
+        Format(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns format with the given name, which is also the extension of files of the format.
+         * @throws IllegalArgumentException
+         *         If the format is unknown.
+         */
+        public static Format forName(String name) throws IllegalArgumentException {
+            for (Format format : values()) {
+                if (format.name.equalsIgnoreCase(name)) {
+                    return format;
+                }
+            }
+            throw new IllegalArgumentException("Unknown format: " + name);
+        }
+
+        /**
+         * Chooses format by extension of the file.
+         * @throws IllegalArgumentException
+         *         If the extension is not a name of a format.
+         */
+        public static Format forFile(Path file) throws IllegalArgumentException {
+            String fileName = file.getFileName().toString();
+            int dot = fileName.lastIndexOf('.');
+            if (dot < 0) {
+                throw new IllegalArgumentException("Cannot choose format of a file without extension: " + file);
+            }
+            return forName(fileName.substring(dot + 1));
+        }
+
+        /**
+         * Writes all rows of the snapshot.
+         * @return Number of written rows.
+         * @throws UncheckedIOException
+         *         If the output fails while rows are written.
+         */
+        abstract long write(StoreableTableImpl table,
+                            Consumer<BiConsumer<String, String>> snapshot,
+                            RecordOutput output) throws IOException;
+    }
+
+    /**
+     * Buffer that encodes strings to UTF-8 right in place and counts bytes passed to the output. Keys and
+     * stored rows are mostly ASCII, which is copied char by char without encoders and temporary arrays.
+     */
+    private static final class RecordOutput extends OutputStream {
+        private final OutputStream output;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position;
+        private long bytesCount;
+
+        RecordOutput(OutputStream output) {
+            this.output = output;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (position == buffer.length) {
+                flushBuffer();
+            }
+            buffer[position++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > buffer.length - position) {
+                flushBuffer();
+                if (len > buffer.length) {
+                    output.write(b, off, len);
+                    bytesCount += len;
+                    return;
+                }
+            }
+            System.arraycopy(b, off, buffer, position, len);
+            position += len;
+        }
+
+        void writeLong(long v) throws IOException {
+            for (int shift = Long.SIZE - Byte.SIZE; shift >= 0; shift -= Byte.SIZE) {
+                write((int) (v >>> shift));
+            }
+        }
+
+        void writeInt(int v) throws IOException {
+            for (int shift = Integer.SIZE - Byte.SIZE; shift >= 0; shift -= Byte.SIZE) {
+                write(v >>> shift);
+            }
+        }
+
+        /**
+         * Writes chars of the string from {@code start} to {@code end} in UTF-8.
+         */
+        void writeChars(String s, int start, int end) throws IOException {
+            int index = start;
+            while (index < end) {
+                if (position == buffer.length) {
+                    flushBuffer();
+                }
+                int chunkEnd = Math.min(end, index + buffer.length - position);
+                for (; index < chunkEnd; index++) {
+                    char symbol = s.charAt(index);
+                    if (symbol >= 0x80) {
+                        // The rest is encoded at once, so that surrogate pairs are kept together.
+                        write(s.substring(index, end).getBytes(StandardCharsets.UTF_8));
+                        return;
+                    }
+                    buffer[position++] = (byte) symbol;
+                }
+            }
+        }
+
+        /**
+         * Writes the string in UTF-8 escaping quotes and escape symbols like {@link JSONMaker} does, and line
+         * breaks.
+         */
+        void writeEscaped(String s) throws IOException {
+            int start = 0;
+            for (int i = 0, length = s.length(); i < length; i++) {
+                char symbol = s.charAt(i);
+                if (symbol == '\"' || symbol == '\\') {
+                    writeChars(s, start, i);
+                    write('\\');
+                    start = i;
+                } else if (symbol == '\n' || symbol == '\r') {
+                    writeChars(s, start, i);
+                    writeLineBreak(symbol);
+                    start = i + 1;
+                }
+            }
+            writeChars(s, start, s.length());
+        }
+
+        /**
+         * Writes chars of the string from {@code start} to {@code end} in UTF-8 escaping line breaks only.
+         */
+        void writeLineBreaksEscaped(String s, int start, int end) throws IOException {
+            int chunkStart = start;
+            for (int i = start; i < end; i++) {
+                char symbol = s.charAt(i);
+                if (symbol == '\n' || symbol == '\r') {
+                    writeChars(s, chunkStart, i);
+                    writeLineBreak(symbol);
+                    chunkStart = i + 1;
+                }
+            }
+            writeChars(s, chunkStart, end);
+        }
+
+        private void writeLineBreak(char symbol) throws IOException {
+            write('\\');
+            write(symbol == '\n' ? 'n' : 'r');
+        }
+
+        /**
+         * Writes the int length of the string in UTF-8 and then the string in UTF-8.
+         */
+        void writeSized(String s) throws IOException {
+            for (int i = 0, length = s.length(); i < length; i++) {
+                if (s.charAt(i) >= 0x80) {
+                    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                    writeInt(bytes.length);
+                    write(bytes);
+                    return;
+                }
+            }
+            writeInt(s.length());
+            writeChars(s, 0, s.length());
+        }
+
+        private void flushBuffer() throws IOException {
+            output.write(buffer, 0, position);
+            bytesCount += position;
+            position = 0;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushBuffer();
+            output.flush();
+        }
+    }
+}
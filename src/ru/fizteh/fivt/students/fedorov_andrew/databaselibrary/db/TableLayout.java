@@ -0,0 +1,352 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
+
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.exception.DBFileCorruptIOException;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.exception.DatabaseIOException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * Describes how keys of a table are spread among table parts, how these parts are placed in the file
+ * system and in which format they are written. Also keeps the format of rows of structured tables and the order
+ * of keys inside parts, which are chosen at table creation as well.<br/>
+ * Part number {@code p} is stored in file {@code (p / 16).dir/(p % 16).dat}.<br/>
+ * Layout is persisted in the table root directory; tables without layout file are considered to have {@link
+ * #LEGACY} layout.<br/>
+ * Immutable.
+ */
+public final class TableLayout {
+    /**
+     * Name of the file inside table root directory where layout is stored.
+     */
+    public static final String LAYOUT_FILENAME = "layout.properties";
+
+    public static final int MIN_PARTS_COUNT = 1;
+    public static final int MAX_PARTS_COUNT = 64 * 1024;
+    public static final int DEFAULT_PARTS_COUNT = 256;
+
+    /**
+     * Maximal number of part files inside one directory.
+     */
+    static final int FILES_PER_DIRECTORY = 16;
+
+    /**
+     * Layout that was used before layout files appeared: 16 x 16 parts chosen by the first byte of the key.
+     */
+    public static final TableLayout LEGACY =
+            new TableLayout(Hashing.FIRST_BYTE, DEFAULT_PARTS_COUNT, PartFormat.PLAIN);
+
+    /**
+     * Layout for newly created tables.
+     */
+    public static final TableLayout DEFAULT =
+            new TableLayout(Hashing.FULL_KEY, DEFAULT_PARTS_COUNT, PartFormat.PLAIN);
+
+    private static final String HASHING_PROPERTY = "hashing";
+    private static final String PARTS_COUNT_PROPERTY = "parts";
+    private static final String FORMAT_PROPERTY = "format";
+    private static final String ROW_FORMAT_PROPERTY = "rows";
+    private static final String KEY_ORDER_PROPERTY = "order";
+
+    private final Hashing hashing;
+    private final int partsCount;
+    private final PartFormat format;
+    private final RowFormat rowFormat;
+    private final KeyOrder keyOrder;
+
+    /**
+     * Creates layout with {@link RowFormat#JSON JSON} row format.
+     * @throws IllegalArgumentException
+     *         If parts count is out of bounds or does not fit the hashing scheme.
+     */
+    public TableLayout(Hashing hashing, int partsCount, PartFormat format) throws IllegalArgumentException {
+        this(hashing, partsCount, format, RowFormat.JSON);
+    }
+
+    /**
+     * Creates layout with {@link KeyOrder#HASH hash} key order.
+     * @throws IllegalArgumentException
+     *         If parts count is out of bounds or does not fit the hashing scheme.
+     */
+    public TableLayout(Hashing hashing, int partsCount, PartFormat format, RowFormat rowFormat)
+            throws IllegalArgumentException {
+        this(hashing, partsCount, format, rowFormat, KeyOrder.HASH);
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *         If parts count is out of bounds or does not fit the hashing scheme.
+     */
+    public TableLayout(Hashing hashing, int partsCount, PartFormat format, RowFormat rowFormat, KeyOrder keyOrder)
+            throws IllegalArgumentException {
+        if (hashing == null) {
+            throw new IllegalArgumentException("Hashing must not be null");
+        }
+        if (format == null) {
+            throw new IllegalArgumentException("Part format must not be null");
+        }
+        if (rowFormat == null) {
+            throw new IllegalArgumentException("Row format must not be null");
+        }
+        if (keyOrder == null) {
+            throw new IllegalArgumentException("Key order must not be null");
+        }
+        if (partsCount < MIN_PARTS_COUNT || partsCount > MAX_PARTS_COUNT) {
+            throw new IllegalArgumentException(
+                    "Parts count must be between " + MIN_PARTS_COUNT + " and " + MAX_PARTS_COUNT);
+        }
+        if (hashing == Hashing.FIRST_BYTE && partsCount != DEFAULT_PARTS_COUNT) {
+            throw new IllegalArgumentException(
+                    "First byte hashing supports only " + DEFAULT_PARTS_COUNT + " parts");
+        }
+        this.hashing = hashing;
+        this.partsCount = partsCount;
+        this.format = format;
+        this.rowFormat = rowFormat;
+        this.keyOrder = keyOrder;
+    }
+
+    /**
+     * Creates layout with full key hashing, plain part format and the given number of parts.
+     */
+    public static TableLayout withPartsCount(int partsCount) throws IllegalArgumentException {
+        return new TableLayout(Hashing.FULL_KEY, partsCount, PartFormat.PLAIN);
+    }
+
+    /**
+     * Returns the same layout but with another part format.
+     */
+    public TableLayout withFormat(PartFormat format) throws IllegalArgumentException {
+        return new TableLayout(hashing, partsCount, format, rowFormat, keyOrder);
+    }
+
+    /**
+     * Returns the same layout but with another row format.
+     */
+    public TableLayout withRowFormat(RowFormat rowFormat) throws IllegalArgumentException {
+        return new TableLayout(hashing, partsCount, format, rowFormat, keyOrder);
+    }
+
+    /**
+     * Returns the same layout but with another key order.
+     */
+    public TableLayout withKeyOrder(KeyOrder keyOrder) throws IllegalArgumentException {
+        return new TableLayout(hashing, partsCount, format, rowFormat, keyOrder);
+    }
+
+    /**
+     * Reads layout of the table. If there is no layout file, {@link #LEGACY} layout is returned.
+     */
+    static TableLayout readFrom(Path tableRoot) throws DatabaseIOException {
+        Path layoutPath = tableRoot.resolve(LAYOUT_FILENAME);
+        if (!Files.exists(layoutPath)) {
+            return LEGACY;
+        }
+
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(layoutPath, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException exc) {
+            throw new DBFileCorruptIOException("Failed to read table layout: " + exc.getMessage(), exc);
+        }
+
+        try {
+            Hashing hashing = Hashing.valueOf(properties.getProperty(HASHING_PROPERTY, "").trim());
+            int partsCount = Integer.parseInt(properties.getProperty(PARTS_COUNT_PROPERTY, "").trim());
+            PartFormat format = PartFormat.valueOf(
+                    properties.getProperty(FORMAT_PROPERTY, PartFormat.PLAIN.name()).trim());
+            RowFormat rowFormat = RowFormat.valueOf(
+                    properties.getProperty(ROW_FORMAT_PROPERTY, RowFormat.JSON.name()).trim());
+            KeyOrder keyOrder = KeyOrder.valueOf(
+                    properties.getProperty(KEY_ORDER_PROPERTY, KeyOrder.HASH.name()).trim());
+            return new TableLayout(hashing, partsCount, format, rowFormat, keyOrder);
+        } catch (IllegalArgumentException exc) {
+            throw new DBFileCorruptIOException("Invalid table layout: " + exc.getMessage());
+        }
+    }
+
+    /**
+     * Writes layout to the table root directory.
+     */
+    void writeTo(Path tableRoot) throws DatabaseIOException {
+        Properties properties = new Properties();
+        properties.setProperty(HASHING_PROPERTY, hashing.name());
+        properties.setProperty(PARTS_COUNT_PROPERTY, String.valueOf(partsCount));
+        properties.setProperty(FORMAT_PROPERTY, format.name());
+        properties.setProperty(ROW_FORMAT_PROPERTY, rowFormat.name());
+        properties.setProperty(KEY_ORDER_PROPERTY, keyOrder.name());
+
+        try (Writer writer = Files.newBufferedWriter(
+                tableRoot.resolve(LAYOUT_FILENAME), StandardCharsets.UTF_8)) {
+            properties.store(writer, null);
+        } catch (IOException exc) {
+            throw new DatabaseIOException("Failed to write table layout: " + exc.getMessage(), exc);
+        }
+    }
+
+    public Hashing getHashing() {
+        return hashing;
+    }
+
+    public int getPartsCount() {
+        return partsCount;
+    }
+
+    public PartFormat getFormat() {
+        return format;
+    }
+
+    public RowFormat getRowFormat() {
+        return rowFormat;
+    }
+
+    public KeyOrder getKeyOrder() {
+        return keyOrder;
+    }
+
+    /**
+     * Returns number of part directories.
+     */
+    int getDirectoriesCount() {
+        return (partsCount + FILES_PER_DIRECTORY - 1) / FILES_PER_DIRECTORY;
+    }
+
+    /**
+     * Returns number of part files that can be stored inside the given directory.
+     */
+    int getFilesCount(int directory) {
+        return Math.min(FILES_PER_DIRECTORY, partsCount - directory * FILES_PER_DIRECTORY);
+    }
+
+    /**
+     * Returns number of the part where the given key must be stored.
+     */
+    int getPartIndex(String key) {
+        return hashing.getPartIndex(key, partsCount);
+    }
+
+    static int getDirectory(int partIndex) {
+        return partIndex / FILES_PER_DIRECTORY;
+    }
+
+    static int getFile(int partIndex) {
+        return partIndex % FILES_PER_DIRECTORY;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof TableLayout)) {
+            return false;
+        }
+        TableLayout layout = (TableLayout) obj;
+        return hashing == layout.hashing
+               && partsCount == layout.partsCount
+               && format == layout.format
+               && rowFormat == layout.rowFormat
+               && keyOrder == layout.keyOrder;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = (hashing.hashCode() * 31 + partsCount) * 31 + format.hashCode();
+        return (hash * 31 + rowFormat.hashCode()) * 31 + keyOrder.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return TableLayout.class.getSimpleName() + "[" + hashing + ", " + partsCount + ", " + format + ", "
+               + rowFormat + ", " + keyOrder + "]";
+    }
+
+    /**
+     * Formats of table part files.
+     */
+    public enum PartFormat {
+        /**
+         * Keys with value offsets followed by values. The whole file is rewritten on each commit.
+         */
+        PLAIN,
+        /**
+         * Sequence of put and removal records. Commit appends records for changed keys only; the file is
+         * compacted in background when it contains too many overwritten records.
+         * @see PartLog
+         */
+        LOG
+    }
+
+    /**
+     * Formats of rows of structured tables, as they are stored in table parts.
+     */
+    public enum RowFormat {
+        /**
+         * JSON array of column values, as returned by {@link ru.fizteh.fivt.storage.structured
+         * .TableProvider#serialize(ru.fizteh.fivt.storage.structured.Table,
+         * ru.fizteh.fivt.storage.structured.Storeable) serialize}.
+         */
+        JSON,
+        /**
+         * Compact format driven by column types of the table.
+         * @see BinaryRowCodec
+         */
+        BINARY
+    }
+
+    /**
+     * Orders of keys inside table parts. Keys of different parts are not ordered in any case: a part is chosen
+     * by {@link Hashing}.
+     */
+    public enum KeyOrder {
+        /**
+         * Keys are kept in hash order. Sorted snapshot of a part is built only when the part is scanned by
+         * key range and is dropped by the next commit of the part.
+         */
+        HASH,
+        /**
+         * Sorted snapshot of each part is built when the part is read and maintained by commits; plain part
+         * files are written in key order, so that they are read back without sorting.
+         */
+        SORTED
+    }
+
+    /**
+     * Ways to choose table part for a key.
+     */
+    public enum Hashing {
+        /**
+         * Old scheme: directory and file are chosen by the first byte of the key. Keys with common first
+         * character are stored in the same part.
+         */
+        FIRST_BYTE {
+            @Override
+            int getPartIndex(String key, int partsCount) {
+                byte byte0 = key.getBytes(StandardCharsets.UTF_8)[0];
+
+                int dir = Math.floorMod(byte0, FILES_PER_DIRECTORY);
+                int file = Math.floorMod(byte0 / FILES_PER_DIRECTORY, FILES_PER_DIRECTORY);
+                return dir * FILES_PER_DIRECTORY + file;
+            }
+        },
+        /**
+         * Hash of the whole key is spread with murmur3 finalizer and taken modulo parts count.
+         */
+        FULL_KEY {
+            @Override
+            int getPartIndex(String key, int partsCount) {
+                int hash = key.hashCode();
+                hash ^= hash >>> 16;
+                hash *= 0x85ebca6b;
+                hash ^= hash >>> 13;
+                hash *= 0xc2b2ae35;
+                hash ^= hash >>> 16;
+                return Math.floorMod(hash, partsCount);
+            }
+        };
+
+        abstract int getPartIndex(String key, int partsCount);
+    }
+}
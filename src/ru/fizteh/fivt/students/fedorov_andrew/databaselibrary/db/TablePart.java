@@ -2,69 +2,253 @@ package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
 
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.exception.DBFileCorruptIOException;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.exception.DatabaseIOException;
-import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Utility;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Log;
 
 import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.PriorityQueue;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 /**
- * This class represents a table part implemented as usual {@link java.util.HashMap} and stored in a separate
- * file.<br/>
- * This class is not thread-safe.
+ * This class represents a table part stored in a separate file.<br/>
+ * Committed state is an immutable snapshot that is replaced on each commit; uncommitted changes of each thread
+ * are kept in a thread-local diff laid over it.<br/>
+ * This class is not thread-safe. The only exception is background compaction of {@link
+ * TableLayout.PartFormat#LOG log} parts that is synchronized with commits internally.
  * @author phoenix
  */
 public class TablePart {
-    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    /**
+     * Suffix of the file where new contents of the part are written before replacing the old file.
+     */
+    static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+    private final TableLayout.PartFormat format;
+    private final TableLayout.KeyOrder keyOrder;
+    /**
+     * Guards the file and {@link #lastCommittedMap} modifications against concurrent compaction.
+     */
+    private final Object fileLock = new Object();
+    /**
+     * For log format: length of the valid part of the file.
+     */
+    private long logValidLength;
+    /**
+     * For log format: number of records in the file, including overwritten and removal ones.
+     */
+    private int logRecordsCount;
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean(false);
+    /**
+     * Set when the table is closed; compaction must not touch the files after that.
+     */
+    private boolean discarded;
+    /**
+     * Set while a {@link PendingCommit} of a log part is neither published nor aborted: its records may be
+     * appended to the file but are not reflected in {@link #lastCommittedMap} yet.
+     */
+    private boolean commitInProgress;
     /**
      * A pair (key, value) describes put. A pair (key, null) describes removal.
      */
     private final ThreadLocal<Map<String, String>> diffMap = ThreadLocal.withInitial(HashMap::new);
     private Path tablePartFilePath;
     /**
-     * Map with last changes that are written to the file system.<br/>
+     * Map with last changes that are written to the file system. Never modified, only replaced by a newer
+     * version.<br/>
+     * Null if the part is {@link #mapFile() mapped}.
+     */
+    private volatile PersistentHashMap lastCommittedMap;
+    /**
+     * Committed state of the part if it is {@link #mapFile() mapped}, null otherwise. Readers that find it null
+     * read {@link #lastCommittedMap} and read both again if it is null too: the part has been mapped again
+     * meanwhile.
+     */
+    private volatile MappedPartFile mappedFile;
+    /**
+     * Set when the mapped part has been moved to memory by a commit {@link #prepareInMemoryCommit(Map)
+     * published in memory}: the file written for the commit later is mapped again.
+     */
+    private boolean mapWrittenFile;
+    /**
+     * Committed records sorted by keys or null if they have not been sorted since the last change.
+     * @see #getSortedRecords()
+     */
+    private volatile SortedRecords sortedRecords;
+    /**
+     * Bloom filter that corresponds to the filter file of the part; null if there is no filter file or it has
+     * not been read yet.
+     */
+    private volatile PartBloomFilter bloomFilter;
+    private volatile boolean bloomFilterRead;
+    private volatile boolean loaded;
+    /**
+     * Cache of committed values of the {@link #mapFile() mapped} part or null.
+     */
+    private final ValueCache.Segment valueCache;
+    /**
+     * Whether Bloom filter files are written and read.
      */
-    private Map<String, String> lastCommittedMap;
+    private final boolean bloomFilters;
 
     /**
-     * Private constructor for cloning.
+     * Initalizes a new filemap object assigned to the specified file in {@link TableLayout.PartFormat#PLAIN
+     * plain} format.<br/>
+     * @param tablePartFilePath
+     *         path to database file. If it does not exist, a new empty file is created.
      */
-    private TablePart() {
+    public TablePart(Path tablePartFilePath) {
+        this(tablePartFilePath, TableLayout.PartFormat.PLAIN);
+    }
 
+    /**
+     * Initalizes a new filemap object assigned to the specified file.<br/>
+     * @param tablePartFilePath
+     *         path to database file. If it does not exist, a new empty file is created.
+     * @param format
+     *         Format of the file.
+     */
+    public TablePart(Path tablePartFilePath, TableLayout.PartFormat format) {
+        this(tablePartFilePath, format, TableLayout.KeyOrder.HASH);
     }
 
     /**
      * Initalizes a new filemap object assigned to the specified file.<br/>
      * @param tablePartFilePath
      *         path to database file. If it does not exist, a new empty file is created.
+     * @param format
+     *         Format of the file.
+     * @param keyOrder
+     *         Order of keys in the part.
      */
-    public TablePart(Path tablePartFilePath) {
+    public TablePart(Path tablePartFilePath, TableLayout.PartFormat format, TableLayout.KeyOrder keyOrder) {
+        this(tablePartFilePath, format, keyOrder, null, true);
+    }
+
+    /**
+     * Initalizes a new filemap object assigned to the specified file.<br/>
+     * @param tablePartFilePath
+     *         path to database file. If it does not exist, a new empty file is created.
+     * @param format
+     *         Format of the file.
+     * @param keyOrder
+     *         Order of keys in the part.
+     * @param valueCache
+     *         Cache of values read from the part file when it is {@link #mapFile() mapped}; can be null.
+     * @param bloomFilters
+     *         Whether the part keeps a Bloom filter file next to the part file. Parts of legacy tables must
+     *         not, as older versions reject unknown files.
+     */
+    TablePart(
+            Path tablePartFilePath,
+            TableLayout.PartFormat format,
+            TableLayout.KeyOrder keyOrder,
+            ValueCache.Segment valueCache,
+            boolean bloomFilters) {
         if (tablePartFilePath == null) {
             throw new IllegalArgumentException("Please specify database file path");
         }
+        if (format == null) {
+            throw new IllegalArgumentException("Please specify database file format");
+        }
+        if (keyOrder == null) {
+            throw new IllegalArgumentException("Please specify key order");
+        }
 
         this.tablePartFilePath = tablePartFilePath;
+        this.format = format;
+        this.keyOrder = keyOrder;
+        this.valueCache = valueCache;
+        this.bloomFilters = bloomFilters;
 
-        lastCommittedMap = new HashMap<>();
+        lastCommittedMap = PersistentHashMap.EMPTY;
+        sortedRecords = keyOrder == TableLayout.KeyOrder.SORTED ? SortedRecords.EMPTY : null;
     }
 
     public String get(String key) {
         if (diffMap.get().containsKey(key)) {
             return diffMap.get().get(key);
         } else {
-            return lastCommittedMap.get(key);
+            return getCommitted(key);
+        }
+    }
+
+    /**
+     * Returns committed value of the key, ignoring the thread local diff.
+     */
+    String getCommitted(String key) {
+        while (true) {
+            MappedPartFile file = mappedFile;
+            if (file != null) {
+                if (valueCache == null || !file.containsKey(key)) {
+                    return file.get(key);
+                } else {
+                    return valueCache.get(this, key, file::get);
+                }
+            }
+            PersistentHashMap map = lastCommittedMap;
+            if (map != null) {
+                return map.get(key);
+            }
+            checkLoaded();
+        }
+    }
+
+    private boolean isCommitted(String key) {
+        while (true) {
+            MappedPartFile file = mappedFile;
+            if (file != null) {
+                return file.containsKey(key);
+            }
+            PersistentHashMap map = lastCommittedMap;
+            if (map != null) {
+                return map.containsKey(key);
+            }
+            checkLoaded();
+        }
+    }
+
+    /**
+     * Returns number of committed records, ignoring the thread local diff.
+     */
+    int getCommittedSize() {
+        while (true) {
+            MappedPartFile file = mappedFile;
+            if (file != null) {
+                return file.size();
+            }
+            PersistentHashMap map = lastCommittedMap;
+            if (map != null) {
+                return map.size();
+            }
+            checkLoaded();
+        }
+    }
+
+    /**
+     * Called by readers that have found neither the mapped file nor the committed map: it is fine only if the
+     * part has been mapped again between the reads, and they read both again then.
+     * @throws IllegalStateException
+     *         If the part is not loaded.
+     */
+    private void checkLoaded() throws IllegalStateException {
+        if (!loaded) {
+            throw new IllegalStateException("Table part is not loaded: " + tablePartFilePath);
         }
     }
 
@@ -72,8 +256,153 @@ public class TablePart {
         return tablePartFilePath;
     }
 
+    /**
+     * Returns actual set of keys (considering the thread local diff).
+     */
     public Set<String> keySet() {
-        return makeNewActualVersion().keySet();
+        Set<String> keySet = new HashSet<>();
+        forEachKey(keySet::add);
+        return keySet;
+    }
+
+    /**
+     * Passes each actual key (considering the thread local diff) to the given action. Committed keys are
+     * read from an immutable snapshot, nothing is copied.
+     */
+    public void forEachKey(Consumer<String> action) {
+        Map<String, String> diff = diffMap.get();
+
+        MappedPartFile file = mappedFile;
+        if (file != null) {
+            file.forEachKey(
+                    key -> {
+                        if (!diff.containsKey(key)) {
+                            action.accept(key);
+                        }
+                    });
+        } else {
+            getCommittedSnapshot().accept(
+                    (key, value) -> {
+                        if (!diff.containsKey(key)) {
+                            action.accept(key);
+                        }
+                    });
+        }
+
+        for (Entry<String, String> entry : diff.entrySet()) {
+            if (entry.getValue() != null) {
+                action.accept(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Adds to the list actual keys (considering the thread local diff) that follow the given one in natural
+     * order, at most {@code limit} of them, in that order. Only the added keys are kept at once, whatever the
+     * size of the part.
+     * @param afterKey
+     *         Key to start after or null to start from the least key.
+     * @return Number of the added keys.
+     */
+    int listKeysAfter(String afterKey, int limit, List<String> target) {
+        // The greatest of the least keys found so far is on the top, to be replaced by a lesser one.
+        PriorityQueue<String> leastKeys = new PriorityQueue<>(Collections.reverseOrder());
+        forEachKey(
+                key -> {
+                    if (afterKey != null && key.compareTo(afterKey) <= 0) {
+                        return;
+                    }
+                    if (leastKeys.size() < limit) {
+                        leastKeys.add(key);
+                    } else if (key.compareTo(leastKeys.peek()) < 0) {
+                        leastKeys.poll();
+                        leastKeys.add(key);
+                    }
+                });
+
+        int start = target.size();
+        target.addAll(leastKeys);
+        target.subList(start, target.size()).sort(null);
+        return leastKeys.size();
+    }
+
+    /**
+     * Passes each committed record to the given action, ignoring the thread local diff.
+     */
+    void forEachCommitted(BiConsumer<String, String> action) {
+        getCommittedSnapshot().accept(action);
+    }
+
+    /**
+     * Returns the committed records as they are now. They are immutable, so later commits do not change them
+     * and they can be read without locks.
+     * @return Source that passes each record to the given consumer.
+     */
+    Consumer<BiConsumer<String, String>> getCommittedSnapshot() {
+        while (true) {
+            MappedPartFile file = mappedFile;
+            if (file != null) {
+                return file::forEach;
+            }
+            PersistentHashMap map = lastCommittedMap;
+            if (map != null) {
+                return map::forEach;
+            }
+            checkLoaded();
+        }
+    }
+
+    /**
+     * Returns committed records sorted by keys, ignoring the thread local diff. For {@link
+     * TableLayout.KeyOrder#HASH hash} order the records are sorted on the first call after a change.
+     */
+    SortedRecords getSortedRecords() {
+        SortedRecords records = sortedRecords;
+        if (records == null) {
+            records = SortedRecords.of(this::forEachCommitted);
+            sortedRecords = records;
+        }
+        return records;
+    }
+
+    /**
+     * Returns Bloom filter of the keys of the part file, reading it from its file on the first call. Lets
+     * answer that a key is absent without loading the part. Safe to call concurrently.
+     * @return Filter or null if there is no filter file, it is damaged or the part keeps no filters.
+     */
+    PartBloomFilter getBloomFilter() {
+        if (!bloomFilters) {
+            return null;
+        }
+        if (!bloomFilterRead) {
+            synchronized (this) {
+                if (!bloomFilterRead) {
+                    try {
+                        bloomFilter = PartBloomFilter.read(tablePartFilePath);
+                    } catch (DBFileCorruptIOException exc) {
+                        Log.log(TablePart.class, exc, "Bloom filter is ignored");
+                    }
+                    bloomFilterRead = true;
+                }
+            }
+        }
+        return bloomFilter;
+    }
+
+    /**
+     * Returns true if this thread has uncommitted change of the key.
+     */
+    boolean isChanged(String key) {
+        return diffMap.get().containsKey(key);
+    }
+
+    /**
+     * Returns changes made by this thread, sorted by keys. A pair (key, null) describes removal.
+     */
+    List<Entry<String, String>> getSortedUncommittedChanges() {
+        List<Entry<String, String>> changes = new ArrayList<>(diffMap.get().entrySet());
+        changes.sort(Entry.comparingByKey());
+        return changes;
     }
 
     public String put(String key, String value) {
@@ -88,119 +417,102 @@ public class TablePart {
      * Thread-local uncommitted diffs are not effected.<br/>
      * @throws ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.exception.DBFileCorruptIOException
      */
-    @SuppressWarnings("unchecked")
     public void readFromFile() throws DBFileCorruptIOException {
-        // For recover purposes.
-        Map<String, String> oldLastCommittedMap = lastCommittedMap;
-        lastCommittedMap = new HashMap<>();
-
-        try (DataInputStream stream = new DataInputStream(
-                new FileInputStream(
-                        tablePartFilePath.toString()))) {
-            // Structure: (no spaces or newlines) <key 1 bytes>00<4
-            // bytes:offset> <key 2 bytes>00<4 bytes:offset> ... <value 1 bytes>
-            // <value 2 bytes>...
-
-            byte[] buffer = new byte[1024];
-            int bufferSize = 0;
-
-            byte[] temporaryBuffer = new byte[READ_BUFFER_SIZE];
-
-            while (true) {
-                int read = stream.read(temporaryBuffer);
-                if (read < 0) {
-                    break;
-                }
-
-                buffer = Utility.insertArray(temporaryBuffer, 0, read, buffer, bufferSize);
-                bufferSize += read;
-            }
-
-            TreeMap<Integer, String> offsets = new TreeMap<>();
-
-            int bufferOffset = 0;
-
-            int nextValue = bufferSize - 1;
-
-            // reading keys and value shift information
-            for (int i = 0; i < bufferSize; ) {
-                if (i == nextValue) {
-                    throw new DBFileCorruptIOException(
-                            String.format(
-                                    "Attempt to read key part from %s to %s, but value should "
-                                    + "start here", bufferOffset, i));
-                }
-                if (buffer[i] == 0) {
-                    String currentKey = new String(buffer, bufferOffset, i - bufferOffset, "UTF-8");
-                    if (i + 4 >= bufferSize) {
-                        throw new DBFileCorruptIOException(
-                                String.format(
-                                        "There is no value offset for key '%s' after byte %s",
-                                        currentKey,
-                                        i));
-                    }
-                    int valueShift = 0;
-                    for (int j = 0; j < 4; j++, i++) {
-                        valueShift = (valueShift << 8) | (buffer[i] & 0xFF);
-                    }
-                    bufferOffset = i;
+        if (format == TableLayout.PartFormat.LOG) {
+            readFromLogFile();
+            return;
+        }
 
-                    offsets.put(valueShift, currentKey);
+        deleteTemporaryFile();
 
-                    nextValue = offsets.firstKey();
+        PersistentHashMap.Builder builder = new PersistentHashMap.Builder();
+        MappedPartFile file = MappedPartFile.open(tablePartFilePath);
+        file.forEach(builder::put);
 
-                    if (i > nextValue) {
-                        throw new DBFileCorruptIOException(
-                                String.format(
-                                        "Value shift for key '%s' is to early: %s; current " + "position: %s",
-                                        currentKey,
-                                        valueShift,
-                                        i));
-                    } else if (i == nextValue) {
-                        break;
-                    }
-                } else {
-                    i++;
-                }
-            }
+        lastCommittedMap = builder.build();
+        mappedFile = null;
+        // Files of sorted parts are written in key order, so they are sorted in linear time.
+        sortedRecords = keyOrder == TableLayout.KeyOrder.SORTED ? SortedRecords.of(file::forEach) : null;
+        loaded = true;
+    }
 
-            // Empty map.
-            if (offsets.isEmpty()) {
-                return;
-            }
+    /**
+     * Lazy alternative of {@link #readFromFile()}: the file is mapped into memory and only its keys are
+     * indexed; values are decoded when they are requested. Parts in {@link TableLayout.PartFormat#LOG log}
+     * format are read as usual.
+     * @throws ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.exception.DBFileCorruptIOException
+     */
+    public void mapFile() throws DBFileCorruptIOException {
+        if (format == TableLayout.PartFormat.LOG) {
+            readFromLogFile();
+            return;
+        }
 
-            // Reading values.
+        deleteTemporaryFile();
 
-            // Value matching this key is now being built.
-            String currentKey = offsets.get(nextValue);
+        mappedFile = MappedPartFile.open(tablePartFilePath);
+        lastCommittedMap = null;
+        sortedRecords = null;
+        loaded = true;
+    }
 
-            // Next value start boundary.
-            offsets.remove(nextValue);
+    /**
+     * Returns true if committed data has been read from the file.
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
 
-            // Reading up to the last value (exclusive).
-            while (!offsets.isEmpty()) {
-                nextValue = offsets.firstKey();
+    /**
+     * Removes the leftover of a rewrite interrupted by crash.
+     */
+    private void deleteTemporaryFile() throws DBFileCorruptIOException {
+        try {
+            Files.deleteIfExists(getTemporaryFilePath(tablePartFilePath));
+            Files.deleteIfExists(getTemporaryFilePath(PartBloomFilter.getFilterPath(tablePartFilePath)));
+        } catch (IOException exc) {
+            throw new DBFileCorruptIOException(
+                    "Failed to remove temporary file of " + tablePartFilePath.toString(), exc);
+        }
+    }
 
-                String value = new String(buffer, bufferOffset, nextValue - bufferOffset);
-                lastCommittedMap.put(currentKey, value);
+    static Path getTemporaryFilePath(Path tablePartFilePath) {
+        return tablePartFilePath.resolveSibling(tablePartFilePath.getFileName() + TEMPORARY_FILE_SUFFIX);
+    }
 
-                bufferOffset = nextValue;
-                currentKey = offsets.get(nextValue);
+    private void readFromLogFile() throws DBFileCorruptIOException {
+        deleteTemporaryFile();
 
-                offsets.remove(nextValue);
+        if (!Files.exists(tablePartFilePath)) {
+            synchronized (fileLock) {
+                lastCommittedMap = PersistentHashMap.EMPTY;
+                logValidLength = 0;
+                logRecordsCount = 0;
             }
+            sortedRecords = keyOrder == TableLayout.KeyOrder.SORTED ? SortedRecords.EMPTY : null;
+            loaded = true;
+            return;
+        }
 
-            // Putting the last value.
-            String value = new String(buffer, bufferOffset, bufferSize - bufferOffset);
-            lastCommittedMap.put(currentKey, value);
+        PersistentHashMap.Builder builder = new PersistentHashMap.Builder();
+        try {
+            PartLog.Stats stats = PartLog.read(tablePartFilePath, builder);
+            synchronized (fileLock) {
+                lastCommittedMap = builder.build();
+                logValidLength = stats.validLength;
+                logRecordsCount = stats.recordsCount;
+            }
+            sortedRecords = null;
+            if (keyOrder == TableLayout.KeyOrder.SORTED) {
+                getSortedRecords();
+            }
+            loaded = true;
+        } catch (DBFileCorruptIOException exc) {
+            throw exc;
         } catch (IOException exc) {
-            // Recover.
-            lastCommittedMap = oldLastCommittedMap;
             throw new DBFileCorruptIOException(
                     "Failed to read data from file: " + tablePartFilePath.toString(), exc);
         }
-
-        // Everything went ok.
     }
 
     public String remove(String key) {
@@ -210,81 +522,70 @@ public class TablePart {
             if (oldValue == null) {
                 return null;
             } else {
-                // Postponed put will be cancelled.
-                diffMap.get().remove(key);
+                // Postponed put will be cancelled; committed value, if any, is removed too.
+                if (isCommitted(key)) {
+                    diffMap.get().put(key, null);
+                } else {
+                    diffMap.get().remove(key);
+                }
                 return oldValue;
             }
         } else {
             diffMap.get().put(key, null);
-            return lastCommittedMap.get(key);
+            return getCommitted(key);
         }
     }
 
     /**
-     * Makes a separate up-to-date version which is a commit of the thread diff to the clone of {@link
-     * #lastCommittedMap}.
-     * @return Separate actual version. Changes in this instance have not effect on true database state.
+     * Returns actual size for the moment (considering the thread local diff).
      */
-    private Map<String, String> makeNewActualVersion() {
-        return makeActualVersion(new HashMap<>(lastCommittedMap));
+    public int size() {
+        return getCommittedSize() + getSizeDelta();
     }
 
     /**
-     * Convenience method for private actual version supplying.
-     * @param actualVersion
-     *         Map to commit thread diffs to.
-     * @return actualVersion (the same instance) with committed diffs.
+     * Returns the difference between the actual size and the committed one, made by the thread local diff.
      */
-    private Map<String, String> makeActualVersion(Map<String, String> actualVersion) {
+    int getSizeDelta() {
+        int delta = 0;
         for (Entry<String, String> e : diffMap.get().entrySet()) {
-            if (e.getValue() == null) {
-                actualVersion.remove(e.getKey());
-            } else {
-                actualVersion.put(e.getKey(), e.getValue());
+            boolean committed = isCommitted(e.getKey());
+            if (e.getValue() == null && committed) {
+                delta--;
+            } else if (e.getValue() != null && !committed) {
+                delta++;
             }
         }
-
-        return actualVersion;
-    }
-
-    /**
-     * Returns actual size for the moment (considering the thread local diff).
-     */
-    public int size() {
-        return makeNewActualVersion().size();
+        return delta;
     }
 
     /**
-     * Writes changes to the file.
-     * @throws java.io.IOException
+     * Serializes records in {@link TableLayout.PartFormat#PLAIN plain format}.
+     * @param keys
+     *         Distinct keys.
+     * @param values
+     *         Values of the keys in the same order.
      */
-    private void writeToFile() throws IOException {
+    private static byte[] serialize(List<String> keys, List<String> values) throws IOException {
         ByteArrayOutputStream stream = new ByteArrayOutputStream(1024);
-        Iterator<String> keyIterator = lastCommittedMap.keySet().iterator();
 
         Charset charset = Charset.forName("UTF-8");
 
-        int[] shiftPositions = new int[lastCommittedMap.size()];
+        int[] shiftPositions = new int[keys.size()];
 
         byte[] intZero = new byte[] {0, 0, 0, 0};
 
-        int keyID = 0;
-
-        while (keyIterator.hasNext()) {
-            stream.write(keyIterator.next().getBytes(charset));
+        for (int keyID = 0; keyID < keys.size(); keyID++) {
+            stream.write(keys.get(keyID).getBytes(charset));
             shiftPositions[keyID] = stream.size();
-            keyID++;
             stream.write(intZero);
         }
 
-        int[] links = new int[lastCommittedMap.size()];
+        int[] links = new int[keys.size()];
 
-        keyID = 0;
-        keyIterator = lastCommittedMap.keySet().iterator();
-        while (keyIterator.hasNext()) {
+        for (int keyID = 0; keyID < values.size(); keyID++) {
             links[keyID] = stream.size();
-            keyID++;
-            stream.write(lastCommittedMap.get(keyIterator.next()).getBytes(charset));
+            stream.write(values.get(keyID).getBytes(charset));
         }
 
         byte[] bytes = stream.toByteArray();
@@ -299,42 +600,145 @@ public class TablePart {
             bytes[pos + 3] = (byte) (value & 0xFF);
         }
 
-        // If db file not exists, create new empty file.
-        if (!Files.exists(tablePartFilePath)) {
-            // Not creating file that will be empty.
-            if (bytes.length == 0) {
-                return;
+        return bytes;
+    }
+
+    /**
+     * Writes changes made by this thread to the file system. The same as {@link #prepareCommit(Map)} of
+     * {@link #getUncommittedChanges()} followed by writing and publishing of the prepared commit in this
+     * thread.
+     * @return Number of uncommitted changes before this call.
+     */
+    public int commit() throws DatabaseIOException {
+        int diffsCount = getUncommittedChangesCount();
+
+        PendingCommit pendingCommit = prepareCommit(getUncommittedChanges());
+        if (pendingCommit != null) {
+            try {
+                pendingCommit.write();
+                pendingCommit.publish();
+            } catch (IOException exc) {
+                pendingCommit.abort();
+                throw new DatabaseIOException("Failed to persist table", exc);
             }
+        }
+        diffMap.get().clear();
+
+        return diffsCount;
+    }
 
-            // Creating parent directories.
-            Path tablePartFileParent = tablePartFilePath.getParent();
-            if (!Files.exists(tablePartFileParent)) {
-                Files.createDirectory(tablePartFileParent);
+    /**
+     * Returns a copy of changes made by this thread. A pair (key, value) describes put, a pair (key, null)
+     * describes removal.
+     */
+    Map<String, String> getUncommittedChanges() {
+        return new HashMap<>(diffMap.get());
+    }
+
+    /**
+     * Prepares the given changes for committing; they can be made by any threads. Thread-local diffs are
+     * not affected.<br/>
+     * The returned commit must be either {@link PendingCommit#publish() published} or {@link
+     * PendingCommit#abort() aborted}. Compaction of the part is suspended until then.
+     * @param changes
+     *         Changes in the same form as {@link #getUncommittedChanges()} returns. Must not be modified
+     *         afterwards.
+     * @return Prepared commit or null if there are no changes.
+     */
+    PendingCommit prepareCommit(Map<String, String> changes) {
+        return prepareCommit(changes, false);
+    }
+
+    /**
+     * Prepares the given changes for committing.
+     * @param published
+     *         True if the changes have been already {@link #prepareInMemoryCommit(Map) published in memory}
+     *         and only the file must be brought up to date.
+     * @see #prepareCommit(Map)
+     */
+    PendingCommit prepareCommit(Map<String, String> changes, boolean published) {
+        if (changes.isEmpty()) {
+            return null;
+        }
+
+        if (format != TableLayout.PartFormat.LOG) {
+            return new PendingCommit(changes, false);
+        }
+        if (published) {
+            synchronized (fileLock) {
+                commitInProgress = true;
             }
-            Files.createFile(tablePartFilePath);
+            return new PendingCommit(changes, false);
         }
 
-        try (DataOutputStream output = new DataOutputStream(
-                new FileOutputStream(
-                        tablePartFilePath.toString()))) {
-            output.write(bytes);
+        // Only the keys that really changed are appended to the log.
+        Map<String, String> effectiveChanges = new HashMap<>();
+        synchronized (fileLock) {
+            for (Entry<String, String> entry : changes.entrySet()) {
+                String committedValue = lastCommittedMap.get(entry.getKey());
+                if (entry.getValue() == null
+                    ? committedValue != null : !entry.getValue().equals(committedValue)) {
+                    effectiveChanges.put(entry.getKey(), entry.getValue());
+                }
+            }
+            commitInProgress = true;
         }
+        return new PendingCommit(effectiveChanges, false);
     }
 
-    public int commit() throws DatabaseIOException {
-        int diffsCount = getUncommittedChangesCount();
+    /**
+     * Prepares the given changes for publishing in memory only: they are persisted elsewhere, and the file is
+     * brought up to date later by a commit {@link #prepareCommit(Map, boolean) prepared} for them. The part must
+     * be loaded. The returned commit must not be written.
+     * @return Prepared commit or null if there are no changes.
+     * @see CommitLog
+     */
+    PendingCommit prepareInMemoryCommit(Map<String, String> changes) {
+        return changes.isEmpty() ? null : new PendingCommit(changes, true);
+    }
+
+    /**
+     * Rewrites the log file so that it contains only live records. Does nothing for plain format, for
+     * discarded parts and when there is nothing to compact.
+     */
+    public void compact() throws DatabaseIOException {
+        compactionScheduled.set(false);
+        if (format != TableLayout.PartFormat.LOG) {
+            return;
+        }
 
-        if (diffsCount > 0) {
-            makeActualVersion(lastCommittedMap);
-            diffMap.get().clear();
+        synchronized (fileLock) {
+            // Compaction of the skipped part is scheduled again by the next commit.
+            if (discarded || commitInProgress || !Files.exists(tablePartFilePath)
+                || logRecordsCount == lastCommittedMap.size()) {
+                return;
+            }
             try {
-                writeToFile();
+                logValidLength = PartLog.rewrite(tablePartFilePath, lastCommittedMap);
             } catch (IOException exc) {
-                throw new DatabaseIOException("Failed to persist table", exc);
+                throw new DatabaseIOException("Failed to compact table part " + tablePartFilePath, exc);
             }
+            logRecordsCount = lastCommittedMap.size();
         }
+    }
 
-        return diffsCount;
+    /**
+     * Forbids any further compaction of this part. Waits for running compaction to finish.
+     */
+    public void discard() {
+        synchronized (fileLock) {
+            discarded = true;
+        }
+    }
+
+    /**
+     * For log format returns number of records in the file including dead ones; for plain format returns
+     * number of committed records.
+     */
+    public int getStoredRecordsCount() {
+        synchronized (fileLock) {
+            return format == TableLayout.PartFormat.LOG ? logRecordsCount : getCommittedSize();
+        }
     }
 
     public int rollback() {
@@ -346,4 +750,290 @@ public class TablePart {
     public int getUncommittedChangesCount() {
         return diffMap.get().size();
     }
+
+    /**
+     * Changes prepared for writing to the file system.<br/>
+     * Committed state of the part is not changed until {@link #publish()}, so that commits of several parts
+     * can be written in parallel and made visible together. Methods must not be called concurrently.
+     */
+    final class PendingCommit {
+        /**
+         * For plain format - all the given changes, for log format - effective ones only.
+         */
+        private final Map<String, String> changes;
+        /**
+         * True if the changes are published in memory only.
+         */
+        private final boolean inMemory;
+        private long bytesWritten;
+        /**
+         * Set when the temporary file (plain format) or new log records (log format) have been written.
+         */
+        private boolean fileWritten;
+        private MappedPartFile newMappedFile;
+        private long newLogValidLength;
+        /**
+         * For sorted parts: the new committed records, built before publishing.
+         */
+        private SortedRecords newSortedRecords;
+        /**
+         * Filter of the keys of both the old and the new file, or null if the filter is not changed.
+         */
+        private PartBloomFilter newBloomFilter;
+        /**
+         * For plain format: set when the temporary file of the filter has been written.
+         */
+        private boolean bloomFilterWritten;
+
+        private PendingCommit(Map<String, String> changes, boolean inMemory) {
+            this.changes = changes;
+            this.inMemory = inMemory;
+        }
+
+        TablePart getPart() {
+            return TablePart.this;
+        }
+
+        /**
+         * Returns changes that are committed; a pair (key, null) describes removal.
+         */
+        Map<String, String> getChanges() {
+            return changes;
+        }
+
+        /**
+         * Number of bytes written to the file system by {@link #write()}.
+         */
+        long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        /**
+         * For plain format: writes the new contents of the part to the temporary file. For log format:
+         * appends records of the changes to the log. Written data is synced to the disk.
+         */
+        void write() throws IOException {
+            if (format == TableLayout.PartFormat.LOG) {
+                writeToLog();
+                return;
+            }
+
+            // New state is the committed one with changes laid over it.
+            List<String> keys = new ArrayList<>();
+            List<String> values = new ArrayList<>();
+            if (keyOrder == TableLayout.KeyOrder.SORTED) {
+                newSortedRecords = getSortedRecords().withChanges(changes);
+                newSortedRecords.forEach(
+                        (key, value) -> {
+                            keys.add(key);
+                            values.add(value);
+                        });
+            } else {
+                BiConsumer<String, String> unchangedCollector = (key, value) -> {
+                    if (!changes.containsKey(key)) {
+                        keys.add(key);
+                        values.add(value);
+                    }
+                };
+                forEachCommitted(unchangedCollector);
+                for (Entry<String, String> entry : changes.entrySet()) {
+                    if (entry.getValue() != null) {
+                        keys.add(entry.getKey());
+                        values.add(entry.getValue());
+                    }
+                }
+            }
+
+            byte[] bytes = serialize(keys, values);
+            Path temporaryPath = getTemporaryFilePath(tablePartFilePath);
+
+            // Not creating file that will be empty.
+            if (bytes.length > 0 || Files.exists(tablePartFilePath)) {
+                if (bloomFilters) {
+                    // Removed keys are kept in the filter while the old file can still be seen.
+                    List<String> filterKeys = new ArrayList<>(keys);
+                    for (Entry<String, String> entry : changes.entrySet()) {
+                        if (entry.getValue() == null) {
+                            filterKeys.add(entry.getKey());
+                        }
+                    }
+                    newBloomFilter = PartBloomFilter.of(filterKeys);
+                    bloomFilterWritten = true;
+                    newBloomFilter.writeTemporary(tablePartFilePath);
+                }
+
+                Files.createDirectories(tablePartFilePath.getParent());
+                fileWritten = true;
+                try (FileChannel channel = FileChannel.open(
+                        temporaryPath,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.WRITE)) {
+                    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    channel.force(true);
+                }
+                bytesWritten = bytes.length;
+            }
+
+            if (mappedFile != null || mapWrittenFile) {
+                // Mapping stays valid when the file is moved to its place.
+                newMappedFile = MappedPartFile.open(fileWritten ? temporaryPath : tablePartFilePath);
+            }
+        }
+
+        private void writeToLog() throws IOException {
+            if (changes.isEmpty()) {
+                return;
+            }
+
+            // Read outside of the file lock: the part monitor is taken before the file lock when loading.
+            PartBloomFilter oldFilter = getBloomFilter();
+            if (keyOrder == TableLayout.KeyOrder.SORTED) {
+                // Committed records are changed by publishing only, so they are merged in advance.
+                newSortedRecords = getSortedRecords().withChanges(changes);
+            }
+            synchronized (fileLock) {
+                if (bloomFilters) {
+                    writeLogBloomFilter(oldFilter);
+                }
+
+                long oldLength = Files.exists(tablePartFilePath) ? logValidLength : 0;
+                fileWritten = true;
+                newLogValidLength = PartLog.append(tablePartFilePath, logValidLength, changes);
+                bytesWritten = newLogValidLength - oldLength;
+            }
+        }
+
+        /**
+         * Replaces the filter of the log part by the one that contains the put keys too. The old filter is
+         * extended if it has room; otherwise a new one is built from the committed keys and the changed ones.
+         */
+        private void writeLogBloomFilter(PartBloomFilter oldFilter) throws IOException {
+            List<String> putKeys = new ArrayList<>();
+            for (Entry<String, String> entry : changes.entrySet()) {
+                if (entry.getValue() != null) {
+                    putKeys.add(entry.getKey());
+                }
+            }
+
+            newBloomFilter = oldFilter == null ? null : oldFilter.withKeys(putKeys);
+            if (newBloomFilter == null) {
+                List<String> keys = new ArrayList<>(changes.keySet());
+                lastCommittedMap.forEach(
+                        (key, value) -> {
+                            if (!changes.containsKey(key)) {
+                                keys.add(key);
+                            }
+                        });
+                newBloomFilter = PartBloomFilter.of(keys);
+            }
+            newBloomFilter.writeTemporary(tablePartFilePath);
+            PartBloomFilter.publish(tablePartFilePath);
+            bloomFilter = newBloomFilter;
+        }
+
+        /**
+         * Makes the written changes committed state of the part.
+         * @throws IOException
+         *         If the temporary file cannot replace the part file. The commit must be aborted then.
+         */
+        void publish() throws IOException {
+            if (inMemory) {
+                publishInMemory();
+            } else if (format == TableLayout.PartFormat.LOG) {
+                synchronized (fileLock) {
+                    if (fileWritten) {
+                        logValidLength = newLogValidLength;
+                        logRecordsCount += changes.size();
+                        lastCommittedMap = lastCommittedMap.withChanges(changes);
+                        sortedRecords = newSortedRecords;
+                    }
+                    commitInProgress = false;
+
+                    if (PartCompactor.needsCompaction(logRecordsCount, lastCommittedMap.size())
+                        && compactionScheduled.compareAndSet(false, true)) {
+                        PartCompactor.schedule(TablePart.this);
+                    }
+                }
+            } else {
+                if (bloomFilterWritten) {
+                    // The filter covers both files, so it is replaced first.
+                    PartBloomFilter.publish(tablePartFilePath);
+                    bloomFilterWritten = false;
+                    bloomFilter = newBloomFilter;
+                    bloomFilterRead = true;
+                }
+                if (fileWritten) {
+                    Files.move(
+                            getTemporaryFilePath(tablePartFilePath),
+                            tablePartFilePath,
+                            StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                }
+                if (newMappedFile != null) {
+                    mappedFile = newMappedFile;
+                    if (mapWrittenFile) {
+                        // The file contains all the changes published in memory, so the heap copy is dropped.
+                        lastCommittedMap = null;
+                        mapWrittenFile = false;
+                    }
+                    if (valueCache != null) {
+                        // Values of the other keys are the same in the new file.
+                        for (String key : changes.keySet()) {
+                            valueCache.invalidate(TablePart.this, key);
+                        }
+                    }
+                } else {
+                    lastCommittedMap = lastCommittedMap.withChanges(changes);
+                }
+                sortedRecords = newSortedRecords;
+            }
+        }
+
+        private void publishInMemory() {
+            synchronized (fileLock) {
+                if (mappedFile != null) {
+                    // The file does not contain the changes: the part is kept in memory until they are written.
+                    PersistentHashMap.Builder builder = new PersistentHashMap.Builder();
+                    mappedFile.forEach(builder::put);
+                    lastCommittedMap = builder.build();
+                    mappedFile = null;
+                    mapWrittenFile = true;
+                }
+                SortedRecords newRecords =
+                        keyOrder == TableLayout.KeyOrder.SORTED ? getSortedRecords().withChanges(changes) : null;
+                lastCommittedMap = lastCommittedMap.withChanges(changes);
+                sortedRecords = newRecords;
+            }
+        }
+
+        /**
+         * Removes everything written by {@link #write()}.
+         */
+        void abort() {
+            try {
+                if (format == TableLayout.PartFormat.LOG) {
+                    synchronized (fileLock) {
+                        commitInProgress = false;
+                        if (fileWritten) {
+                            PartLog.truncate(tablePartFilePath, logValidLength);
+                        }
+                    }
+                } else {
+                    if (fileWritten) {
+                        Files.deleteIfExists(getTemporaryFilePath(tablePartFilePath));
+                    }
+                    if (bloomFilterWritten) {
+                        Files.deleteIfExists(
+                                getTemporaryFilePath(PartBloomFilter.getFilterPath(tablePartFilePath)));
+                    }
+                }
+            } catch (IOException exc) {
+                Log.log(TablePart.class, exc, "Failed to clean up after failed commit of " + tablePartFilePath);
+            }
+        }
+    }
 }
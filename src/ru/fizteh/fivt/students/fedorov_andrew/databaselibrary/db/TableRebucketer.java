@@ -0,0 +1,164 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
+
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.exception.DatabaseIOException;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Log;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Utility;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.function.UnaryOperator;
+
+/**
+ * Offline tool that moves all records of a table to a new set of table parts chosen by {@link
+ * TableLayout.Hashing#FULL_KEY full key hashing}.<br/>
+ * Table must not be used by anybody during rebucketing. Part and row formats of the table are preserved.<br/>
+ * New parts are built in a sibling directory; then the old table directory is replaced with it. Other
+ * files from the table root (e.g. signature file) are copied as is.
+ */
+public final class TableRebucketer {
+    private static final String NEW_TABLE_SUFFIX = ".rebucket";
+    private static final String OLD_TABLE_SUFFIX = ".old";
+
+    private TableRebucketer() {
+
+    }
+
+    /**
+     * Usage: {@code TableRebucketer <table directory> <parts count>}.
+     */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: TableRebucketer <table directory> <parts count>");
+            System.exit(1);
+        }
+
+        try {
+            Path tableRoot = Paths.get(args[0]).toAbsolutePath().normalize();
+            int partsCount = Integer.parseInt(args[1]);
+
+            int recordsCount = rebucket(tableRoot, partsCount);
+            System.out.println(
+                    "Moved " + recordsCount + " records of " + tableRoot.getFileName() + " to " + partsCount
+                    + " parts");
+        } catch (IOException | IllegalArgumentException exc) {
+            Log.log(TableRebucketer.class, exc, "Rebucketing failed");
+            System.err.println(exc.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Rebuckets the table located in the given directory.
+     * @param tableRoot
+     *         Table root directory.
+     * @param partsCount
+     *         New number of table parts.
+     * @return Number of moved records.
+     * @throws IllegalArgumentException
+     *         If parts count is out of bounds.
+     * @throws DatabaseIOException
+     *         If failed to read the old table or to write the new one. The old table is left untouched in
+     *         this case.
+     */
+    public static int rebucket(Path tableRoot, int partsCount)
+            throws IllegalArgumentException, DatabaseIOException {
+        TableLayout partsLayout = TableLayout.withPartsCount(partsCount);
+        return rebuild(
+                tableRoot,
+                oldLayout -> partsLayout.withFormat(oldLayout.getFormat())
+                                        .withRowFormat(oldLayout.getRowFormat())
+                                        .withKeyOrder(oldLayout.getKeyOrder()),
+                (key, value) -> value);
+    }
+
+    /**
+     * Moves all records of the table located in the given directory to a new table with another layout.
+     * @param tableRoot
+     *         Table root directory.
+     * @param layoutChange
+     *         Makes layout of the new table from the layout of the old one.
+     * @param converter
+     *         Converts stored values for the new table.
+     * @return Number of moved records.
+     * @throws DatabaseIOException
+     *         If failed to read the old table, to convert some value or to write the new table. The old table
+     *         is left untouched in this case.
+     */
+    static int rebuild(Path tableRoot, UnaryOperator<TableLayout> layoutChange, ValueConverter converter)
+            throws DatabaseIOException {
+        StringTableImpl oldTable =
+                StringTableImpl.getTable(tableRoot, path -> !Files.isDirectory(tableRoot.resolve(path)));
+        TableLayout newLayout = layoutChange.apply(oldTable.getLayout());
+
+        Path newTableRoot = tableRoot.resolveSibling(tableRoot.getFileName() + NEW_TABLE_SUFFIX);
+        Path oldTableRoot = tableRoot.resolveSibling(tableRoot.getFileName() + OLD_TABLE_SUFFIX);
+
+        int recordsCount = 0;
+
+        try {
+            StringTableImpl newTable = StringTableImpl.createTable(newTableRoot, newLayout);
+            for (String key : oldTable.list()) {
+                newTable.put(key, converter.convert(key, oldTable.get(key)));
+                recordsCount++;
+            }
+            newTable.commit();
+
+            // Copying extra files of upper layers (like signature).
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(tableRoot)) {
+                for (Path file : files) {
+                    String fileName = file.getFileName().toString();
+                    if (!Files.isDirectory(file)
+                        && !fileName.equals(TableLayout.LAYOUT_FILENAME)
+                        && !fileName.equals(TableStatistics.STATISTICS_FILENAME)) {
+                        Files.copy(file, newTableRoot.resolve(file.getFileName()));
+                    }
+                }
+            }
+        } catch (IOException exc) {
+            try {
+                if (Files.exists(newTableRoot)) {
+                    Utility.rm(newTableRoot);
+                }
+            } catch (IOException rmExc) {
+                Log.log(TableRebucketer.class, rmExc, "Failed to cleanup after rebucketing failure");
+            }
+            throw exc instanceof DatabaseIOException
+                  ? (DatabaseIOException) exc
+                  : new DatabaseIOException("Failed to build new table parts: " + exc.getMessage(), exc);
+        }
+
+        try {
+            Files.move(tableRoot, oldTableRoot);
+        } catch (IOException exc) {
+            throw new DatabaseIOException(
+                    "Failed to move away old table directory; rebuilt table is left in " + newTableRoot, exc);
+        }
+
+        try {
+            Files.move(newTableRoot, tableRoot);
+        } catch (IOException exc) {
+            throw new DatabaseIOException(
+                    "Failed to replace table directory; rebuilt table is left in " + newTableRoot
+                    + ", original table in " + oldTableRoot, exc);
+        }
+
+        try {
+            Utility.rm(oldTableRoot);
+        } catch (IOException exc) {
+            Log.log(TableRebucketer.class, exc, "Failed to remove old table directory: " + oldTableRoot);
+        }
+
+        return recordsCount;
+    }
+
+    /**
+     * Converts a stored value while the table is rebuilt.
+     */
+    @FunctionalInterface
+    interface ValueConverter {
+        String convert(String key, String value) throws DatabaseIOException;
+    }
+}
@@ -0,0 +1,100 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Statistics of committed table data. They are stored in a small file in the table root directory, so that
+ * they can be obtained without reading table parts.<br/>
+ * Immutable.
+ * @see StringTableImpl#getStatistics()
+ */
+public final class TableStatistics {
+    public static final String STATISTICS_FILENAME = "statistics.properties";
+
+    private static final String ROWS_PROPERTY = "rows";
+    private static final String BYTES_PROPERTY = "bytes";
+    private static final String LAST_COMMIT_PROPERTY = "lastCommit";
+
+    private final int rowsCount;
+    private final long bytesCount;
+    private final long lastCommitTime;
+
+    TableStatistics(int rowsCount, long bytesCount, long lastCommitTime) {
+        this.rowsCount = rowsCount;
+        this.bytesCount = bytesCount;
+        this.lastCommitTime = lastCommitTime;
+    }
+
+    /**
+     * Reads statistics of the table.
+     * @return Statistics or null if there is no statistics file or it cannot be read.
+     */
+    static TableStatistics readFrom(Path tableRoot) {
+        Path statisticsPath = tableRoot.resolve(STATISTICS_FILENAME);
+        if (!Files.exists(statisticsPath)) {
+            return null;
+        }
+
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(statisticsPath, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+            return new TableStatistics(
+                    Integer.parseInt(properties.getProperty(ROWS_PROPERTY, "").trim()),
+                    Long.parseLong(properties.getProperty(BYTES_PROPERTY, "").trim()),
+                    Long.parseLong(properties.getProperty(LAST_COMMIT_PROPERTY, "").trim()));
+        } catch (IOException | IllegalArgumentException exc) {
+            // Statistics are only a hint: they are recounted from table data.
+            return null;
+        }
+    }
+
+    /**
+     * Writes statistics to the table root directory. The old file is replaced atomically.
+     */
+    void writeTo(Path tableRoot) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(ROWS_PROPERTY, String.valueOf(rowsCount));
+        properties.setProperty(BYTES_PROPERTY, String.valueOf(bytesCount));
+        properties.setProperty(LAST_COMMIT_PROPERTY, String.valueOf(lastCommitTime));
+
+        Path statisticsPath = tableRoot.resolve(STATISTICS_FILENAME);
+        Path temporaryPath = TablePart.getTemporaryFilePath(statisticsPath);
+        try (Writer writer = Files.newBufferedWriter(temporaryPath, StandardCharsets.UTF_8)) {
+            properties.store(writer, null);
+        }
+        Files.move(temporaryPath, statisticsPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Number of committed rows.
+     */
+    public int getRowsCount() {
+        return rowsCount;
+    }
+
+    /**
+     * Total size of table part files.
+     */
+    public long getBytesCount() {
+        return bytesCount;
+    }
+
+    /**
+     * Time of the last commit in milliseconds since the epoch, 0 if the table has not been committed yet.
+     */
+    public long getLastCommitTime() {
+        return lastCommitTime;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d rows, %d bytes, last commit at %d", rowsCount, bytesCount, lastCommitTime);
+    }
+}
@@ -0,0 +1,43 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
+
+/**
+ * Ways to check that rows of tables read from the file system match their column types.<br/>
+ * Chosen by {@link #PROPERTY_NAME} system property when a provider is created; default is {@link #EAGER}.
+ */
+public enum TableValidation {
+    /**
+     * All rows are checked in parallel when the table is loaded; corrupt table cannot be obtained.
+     */
+    EAGER,
+    /**
+     * Rows are not checked on loading. Each row is checked when it is read: its deserialization fails with
+     * {@link ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.exception.ImproperStoreableException}.
+     */
+    ON_READ,
+    /**
+     * Tables are loaded without checks, then all rows are checked in background. If a corrupt row is
+     * found, the table is closed and marked as corrupt in its provider.
+     * @see AutoCloseableProvider#awaitValidation()
+     */
+    BACKGROUND;
+
+    public static final String PROPERTY_NAME = "fizteh.db.validation";
+
+    /**
+     * Reads validation mode from {@link #PROPERTY_NAME} system property.
+     * @throws IllegalArgumentException
+     *         If the property value is not a name of a validation mode.
+     */
+    static TableValidation fromSystemProperties() throws IllegalArgumentException {
+        String value = System.getProperty(PROPERTY_NAME);
+        if (value == null) {
+            return EAGER;
+        }
+
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException exc) {
+            throw new IllegalArgumentException("Unknown table validation mode: " + value, exc);
+        }
+    }
+}
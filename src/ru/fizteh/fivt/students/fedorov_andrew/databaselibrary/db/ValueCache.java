@@ -0,0 +1,325 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Cache of committed values of tables whose parts are mapped into memory instead of being read to the heap,
+ * so that tables larger than the heap can be opened while frequently read values are still decoded once.
+ * <br/>
+ * The cache has a memory budget shared by all tables that use it; the size of each value is estimated from
+ * the lengths of its key and value. When the budget is exceeded, the least recently used values are evicted.
+ * With {@link Policy#TINY_LFU} policy a new value is admitted only if it has been requested more often than
+ * the value it would evict; request frequencies are kept approximately in a count-min sketch that is halved
+ * periodically, so that the cache is not flushed by one-off scans.<br/>
+ * Each table takes its {@link Segment} that counts hits, misses, evictions and resident bytes of the table.
+ * Thread-safe.
+ * @see DBTableProviderFactory#DBTableProviderFactory(long, Policy)
+ */
+public final class ValueCache {
+    /**
+     * Approximate heap size of an entry without characters of the key and the value: map entry, entry key,
+     * string objects and arrays headers.
+     */
+    private static final int ENTRY_OVERHEAD = 160;
+
+    private final long budgetBytes;
+    private final Policy policy;
+    /**
+     * Entries in access order: the eldest is evicted first.
+     */
+    private final LinkedHashMap<EntryKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch sketch;
+    private final List<Segment> segments = new ArrayList<>();
+    private long residentBytes;
+
+    /**
+     * @param budgetBytes
+     *         Maximal estimated heap size of cached values.
+     * @throws IllegalArgumentException
+     *         If the budget is not positive or the policy is null.
+     */
+    public ValueCache(long budgetBytes, Policy policy) throws IllegalArgumentException {
+        if (budgetBytes <= 0) {
+            throw new IllegalArgumentException("Cache budget must be positive");
+        }
+        if (policy == null) {
+            throw new IllegalArgumentException("Eviction policy must not be null");
+        }
+        this.budgetBytes = budgetBytes;
+        this.policy = policy;
+        this.sketch = policy == Policy.TINY_LFU ? new FrequencySketch(budgetBytes) : null;
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Returns estimated heap size of all cached values.
+     */
+    public synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    /**
+     * Returns metrics of the tables that use the cache now, by their root directories.
+     */
+    public synchronized Map<Path, ValueCacheMetrics> getMetrics() {
+        Map<Path, ValueCacheMetrics> metrics = new HashMap<>();
+        for (Segment segment : segments) {
+            metrics.merge(segment.tableRoot, segment.getMetrics(), ValueCacheMetrics::plus);
+        }
+        return metrics;
+    }
+
+    /**
+     * Creates segment for a table that is opened.
+     */
+    synchronized Segment newSegment(Path tableRoot) {
+        Segment segment = new Segment(tableRoot);
+        segments.add(segment);
+        return segment;
+    }
+
+    static long estimateSize(String key, String value) {
+        return ENTRY_OVERHEAD + 2L * (key.length() + value.length());
+    }
+
+    private void removeEntry(Iterator<Map.Entry<EntryKey, Entry>> iterator, Entry entry) {
+        iterator.remove();
+        residentBytes -= entry.size;
+        entry.segment.residentBytes -= entry.size;
+    }
+
+    /**
+     * Puts the loaded value unless it is larger than the whole budget or is not admitted by the policy.
+     */
+    private synchronized void admit(Segment segment, EntryKey entryKey, String value) {
+        long size = estimateSize(entryKey.key, value);
+        if (size > budgetBytes || entries.containsKey(entryKey)) {
+            return;
+        }
+
+        Iterator<Map.Entry<EntryKey, Entry>> eldest = entries.entrySet().iterator();
+        if (sketch != null && residentBytes + size > budgetBytes && eldest.hasNext()
+            && sketch.frequency(entryKey) <= sketch.frequency(eldest.next().getKey())) {
+            return;
+        }
+
+        eldest = entries.entrySet().iterator();
+        while (residentBytes + size > budgetBytes) {
+            Entry victim = eldest.next().getValue();
+            removeEntry(eldest, victim);
+            victim.segment.evictions++;
+        }
+
+        entries.put(entryKey, new Entry(segment, value, size));
+        residentBytes += size;
+        segment.residentBytes += size;
+    }
+
+    /**
+     * Eviction policies.
+     */
+    public enum Policy {
+        /**
+         * Least recently used value is evicted; every loaded value is admitted.
+         */
+        LRU,
+        /**
+         * Least recently used value is evicted, but only for a value that is requested more frequently.
+         */
+        TINY_LFU
+    }
+
+    /**
+     * Values of one table. Values are identified by their owner (table part) and key; the owner must evict
+     * its values when they change.
+     */
+    final class Segment {
+        private final Path tableRoot;
+        private long hits;
+        private long misses;
+        private long evictions;
+        private long residentBytes;
+
+        private Segment(Path tableRoot) {
+            this.tableRoot = tableRoot;
+        }
+
+        /**
+         * Returns the cached value or loads and caches it.
+         * @param loader
+         *         Loads value of the key; is called outside of the cache lock. Null values are not cached.
+         */
+        String get(Object owner, String key, Function<String, String> loader) {
+            EntryKey entryKey = new EntryKey(owner, key);
+            synchronized (ValueCache.this) {
+                if (sketch != null) {
+                    sketch.increment(entryKey);
+                }
+                Entry entry = entries.get(entryKey);
+                if (entry != null) {
+                    hits++;
+                    return entry.value;
+                }
+                misses++;
+            }
+
+            String value = loader.apply(key);
+            if (value != null) {
+                admit(this, entryKey, value);
+            }
+            return value;
+        }
+
+        /**
+         * Removes the value of the key if it is cached.
+         */
+        void invalidate(Object owner, String key) {
+            synchronized (ValueCache.this) {
+                Entry entry = entries.remove(new EntryKey(owner, key));
+                if (entry != null) {
+                    ValueCache.this.residentBytes -= entry.size;
+                    residentBytes -= entry.size;
+                }
+            }
+        }
+
+        /**
+         * Removes all values of this segment.
+         */
+        void clear() {
+            synchronized (ValueCache.this) {
+                Iterator<Map.Entry<EntryKey, Entry>> iterator = entries.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Entry entry = iterator.next().getValue();
+                    if (entry.segment == this) {
+                        removeEntry(iterator, entry);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Removes all values of this segment and unregisters it.
+         */
+        void close() {
+            synchronized (ValueCache.this) {
+                clear();
+                segments.remove(this);
+            }
+        }
+
+        ValueCacheMetrics getMetrics() {
+            synchronized (ValueCache.this) {
+                return new ValueCacheMetrics(hits, misses, evictions, residentBytes);
+            }
+        }
+    }
+
+    private static final class EntryKey {
+        private final Object owner;
+        private final String key;
+        private final int hash;
+
+        EntryKey(Object owner, String key) {
+            this.owner = owner;
+            this.key = key;
+            this.hash = System.identityHashCode(owner) * 31 + key.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof EntryKey)) {
+                return false;
+            }
+            EntryKey entryKey = (EntryKey) obj;
+            return owner == entryKey.owner && key.equals(entryKey.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+        private final Segment segment;
+        private final String value;
+        private final long size;
+
+        Entry(Segment segment, String value, long size) {
+            this.segment = segment;
+            this.value = value;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Count-min sketch of request frequencies with four rows of byte counters saturating at 15. All counters
+     * are halved after a number of increments proportional to the width, so old popularity fades.
+     */
+    private static final class FrequencySketch {
+        private static final int ROWS = 4;
+        private static final int MAX_COUNT = 15;
+        private static final int[] SEEDS = {0x9E3779B1, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+        /**
+         * Expected minimal size of an entry, used to choose the width from the budget.
+         */
+        private static final int BYTES_PER_COUNTER = 256;
+
+        private final byte[][] counters;
+        private final int shift;
+        private final int sampleSize;
+        private int incrementsCount;
+
+        FrequencySketch(long budgetBytes) {
+            long desiredWidth = Math.max(256, Math.min(1 << 22, budgetBytes / BYTES_PER_COUNTER));
+            int width = Integer.highestOneBit((int) desiredWidth);
+            this.counters = new byte[ROWS][width];
+            this.shift = 32 - Integer.numberOfTrailingZeros(width);
+            this.sampleSize = width * 10;
+        }
+
+        private int index(EntryKey entryKey, int row) {
+            return (entryKey.hash * SEEDS[row]) >>> shift;
+        }
+
+        void increment(EntryKey entryKey) {
+            for (int row = 0; row < ROWS; row++) {
+                int index = index(entryKey, row);
+                if (counters[row][index] < MAX_COUNT) {
+                    counters[row][index]++;
+                }
+            }
+            if (++incrementsCount == sampleSize) {
+                incrementsCount = 0;
+                for (byte[] row : counters) {
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] >>= 1;
+                    }
+                }
+            }
+        }
+
+        int frequency(EntryKey entryKey) {
+            int frequency = MAX_COUNT;
+            for (int row = 0; row < ROWS; row++) {
+                frequency = Math.min(frequency, counters[row][index(entryKey, row)]);
+            }
+            return frequency;
+        }
+    }
+}
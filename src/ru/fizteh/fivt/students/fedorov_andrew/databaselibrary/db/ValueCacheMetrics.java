@@ -0,0 +1,84 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db;
+
+/**
+ * Statistics of the {@link ValueCache value cache} for one table.<br/>
+ * Immutable.
+ * @see StringTableImpl#getValueCacheMetrics()
+ * @see ValueCache#getMetrics()
+ */
+public final class ValueCacheMetrics {
+    /**
+     * Metrics of a table without cache.
+     */
+    static final ValueCacheMetrics NONE = new ValueCacheMetrics(0, 0, 0, 0);
+
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long residentBytes;
+
+    ValueCacheMetrics(long hits, long misses, long evictions, long residentBytes) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.residentBytes = residentBytes;
+    }
+
+    /**
+     * Number of lookups of committed values found in the cache.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Number of lookups of committed values that read the part file.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Share of lookups found in the cache; 0 if there were no lookups.
+     */
+    public double getHitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * Number of values evicted to keep the cache within its budget.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Estimated heap size of the cached values with their keys.
+     */
+    public long getResidentBytes() {
+        return residentBytes;
+    }
+
+    /**
+     * Sums metrics of two caches of the same table.
+     */
+    ValueCacheMetrics plus(ValueCacheMetrics other) {
+        return new ValueCacheMetrics(
+                hits + other.hits,
+                misses + other.misses,
+                evictions + other.evictions,
+                residentBytes + other.residentBytes);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%d hits, %d misses (%.2f%% hit ratio), %d evictions, %d bytes resident",
+                hits,
+                misses,
+                getHitRatio() * 100,
+                evictions,
+                residentBytes);
+    }
+}
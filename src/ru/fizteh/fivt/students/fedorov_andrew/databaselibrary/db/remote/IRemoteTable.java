@@ -2,6 +2,7 @@ package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.remote;
 
 import ru.fizteh.fivt.storage.structured.ColumnFormatException;
 import ru.fizteh.fivt.storage.structured.Storeable;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.KeysPage;
 
 import java.io.IOException;
 import java.rmi.Remote;
@@ -66,6 +67,17 @@ interface IRemoteTable extends Remote {
      */
     List<String> list() throws RemoteException;
 
+    /**
+     * Выводит очередную страницу списка ключей таблицы, с учётом незафиксированных изменений.
+     * @param position
+     *         Позиция первой страницы или позиция, возвращённая предыдущей страницей.
+     * @param limit
+     *         Желаемое число ключей на странице.
+     * @return Страница ключей.
+     * @see ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.PageableTable#listKeys(KeysPage.Position, int)
+     */
+    KeysPage listKeys(KeysPage.Position position, int limit) throws RemoteException;
+
     /**
      * Выполняет фиксацию изменений.
      * @return Число записанных изменений.
@@ -3,6 +3,8 @@ package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.remote;
 import ru.fizteh.fivt.storage.structured.ColumnFormatException;
 import ru.fizteh.fivt.storage.structured.Storeable;
 import ru.fizteh.fivt.storage.structured.Table;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.KeysPage;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.PageableTable;
 
 import java.io.IOException;
 import java.rmi.RemoteException;
@@ -54,6 +56,11 @@ class RemoteTableImpl extends UnicastRemoteObject implements IRemoteTable {
         return table.list();
     }
 
+    @Override
+    public KeysPage listKeys(KeysPage.Position position, int limit) throws RemoteException {
+        return PageableTable.listKeys(table, position, limit);
+    }
+
     @Override
     public int commit() throws IOException {
         return table.commit();
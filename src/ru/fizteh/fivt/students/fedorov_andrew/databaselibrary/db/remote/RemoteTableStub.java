@@ -2,7 +2,8 @@ package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.remote;
 
 import ru.fizteh.fivt.storage.structured.ColumnFormatException;
 import ru.fizteh.fivt.storage.structured.Storeable;
-import ru.fizteh.fivt.storage.structured.Table;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.KeysPage;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.PageableTable;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.exception.InvalidatedObjectException;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.exception.UnexpectedRemoteException;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.ValidityController;
@@ -19,7 +20,7 @@ import java.util.List;
  * Stub of remote table that is transferred from server to client. <br/>
  * I created this stub because task API is not friendly and there are no RemoteExceptions.
  */
-final class RemoteTableStub implements Table, Serializable, Closeable {
+final class RemoteTableStub implements PageableTable, Serializable, Closeable {
     // Frankly speaking there is no need to perform forceClose() method. It it done to decrease count of
     // remote requests.
 
@@ -125,6 +126,20 @@ final class RemoteTableStub implements Table, Serializable, Closeable {
         }
     }
 
+    @Override
+    public KeysPage listKeys(KeysPage.Position position, int limit) {
+        try (UseLock lock = validityController.use()) {
+            try {
+                return remoteTable.listKeys(position, limit);
+            } catch (InvalidatedObjectException exc) {
+                forceClose(lock);
+                throw exc;
+            }
+        } catch (RemoteException exc) {
+            throw new UnexpectedRemoteException(exc);
+        }
+    }
+
     @Override
     public int commit() throws IOException {
         try (UseLock lock = validityController.use()) {
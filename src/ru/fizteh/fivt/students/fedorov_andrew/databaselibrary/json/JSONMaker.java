@@ -1,196 +1,280 @@
-package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.json;
-
-import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Utility;
-
-import java.lang.reflect.Array;
-import java.lang.reflect.Field;
-import java.util.IdentityHashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
-
-import static ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.json.JSONHelper.*;
-
-/**
- * This class helps to construct a JSON string from any object using special annotations.
- * @author Phoenix
- * @see JSONComplexObject
- * @see JSONField
- */
-public final class JSONMaker {
-    private JSONMaker() { }
-
-    /**
-     * Appends JSON interpretation of obj to the given string builder.
-     * @param sb
-     *         string builder for JSON.
-     * @param obj
-     *         object to convert to JSON. Can be null.
-     * @param name
-     *         if the object is named, name is printed before its contents. If null, object is considered not
-     *         named.
-     * @param identityMap
-     *         map to put objects to solve problem of cyclic links.
-     * @throws IllegalArgumentException
-     * @throws IllegalAccessException
-     */
-    private static void appendJSONString(final StringBuilder sb,
-                                         final Object obj,
-                                         final String name,
-                                         final IdentityHashMap<Object, Boolean> identityMap)
-            throws IllegalArgumentException, IllegalAccessException {
-        if (name != null) {
-            sb.append(QUOTES).append(name).append(QUOTES).append(KEY_VALUE_SEPARATOR);
-        }
-        if (obj == null) {
-            sb.append(NULL);
-            return;
-        }
-
-        // Checking cyclic links.
-        if (identityMap.containsKey(obj)) {
-            sb.append(CYCLIC);
-            return;
-        }
-        identityMap.put(obj, Boolean.TRUE);
-
-        Class<?> objClass = obj.getClass();
-
-        if (objClass.getAnnotation(JSONComplexObject.class) != null) {
-            // Convenience trick.
-            FieldJSONAppender jsonAppender = (field, overrideName) -> {
-                String fieldName = field.getAnnotation(JSONField.class).name();
-                boolean accessible = field.isAccessible();
-                field.setAccessible(true);
-
-                if (overrideName != null && overrideName.isEmpty()) {
-                    if (fieldName.isEmpty()) {
-                        overrideName = field.getName();
-                    } else {
-                        overrideName = fieldName;
-                    }
-                }
-
-                appendJSONString(
-                        sb, field.get(obj), overrideName, identityMap);
-                field.setAccessible(accessible);
-            };
-
-            // Fields to convert to json.
-            List<Field> annotatedFields = Utility.getAllAnnotatedFields(objClass, JSONField.class);
-            if (annotatedFields.isEmpty()) {
-                throw new IllegalArgumentException(
-                        "Illegal annotation @JSONComplexObject: there are no @JSONField annotated fields");
-            } else if (objClass.getAnnotation(JSONComplexObject.class).wrapper()) {
-                if (annotatedFields.size() > 1) {
-                    throw new IllegalArgumentException(
-                            "Illegal annotation @JSONComplexObject: there are more then one @JSONField");
-                }
-                jsonAppender.appendInfo(annotatedFields.get(0), name);
-
-            } else {
-                sb.append(OPENING_CURLY_BRACE);
-                boolean comma = false;
-
-                for (Field field : annotatedFields) {
-                    if (comma) {
-                        sb.append(ELEMENT_SEPARATOR);
-                    }
-                    comma = true;
-                    jsonAppender.appendInfo(field);
-                }
-                sb.append(CLOSING_CURLY_BRACE);
-            }
-        } else if (obj instanceof Map) {
-            sb.append(OPENING_CURLY_BRACE);
-            Set<Entry> set = ((Map) obj).entrySet();
-
-            for (Entry e : set) {
-                appendJSONString(sb, e.getValue(), e.getKey().toString(), identityMap);
-            }
-
-            sb.append(CLOSING_CURLY_BRACE);
-        } else if (objClass.isArray() || obj instanceof Iterable) {
-            sb.append(OPENING_SQUARE_BRACE);
-
-            if (obj instanceof Iterable) {
-                boolean comma = false;
-                for (Object piece : (Iterable) obj) {
-                    if (comma) {
-                        sb.append(ELEMENT_SEPARATOR);
-                    }
-                    comma = true;
-                    appendJSONString(sb, piece, null, identityMap);
-                }
-            } else {
-                int length = Array.getLength(obj);
-                boolean comma = false;
-                for (int i = 0; i < length; i++) {
-                    if (comma) {
-                        sb.append(ELEMENT_SEPARATOR);
-                    }
-                    comma = true;
-                    appendJSONString(sb, Array.get(obj, i), null, identityMap);
-                }
-            }
-
-            sb.append(CLOSING_SQUARE_BRACE);
-        } else if (obj instanceof Number) {
-            sb.append(obj.toString());
-        } else if (obj instanceof Boolean) {
-            sb.append(obj.toString());
-        } else {
-            sb.append(QUOTES).append(JSONHelper.escape(obj.toString())).append(QUOTES);
-        }
-
-        identityMap.remove(obj);
-    }
-
-    /**
-     * Serializes an object using JSON-style.<br/>
-     * If cyclic link found, 'cyclic' is printed instead of cyclic description of the object.<br/>
-     * <ul>
-     * <li>Arrays and Iterables are supported</li>
-     * <li>Maps are supported (keys are treated as string names)</li>
-     * <li>Numbers and Strings are supported</li>
-     * <li>Complex objects are supported</li>
-     * <li>{@link ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.json.JSONComplexObject} instances
-     * are
-     * supported</li>
-     * </ul>
-     * Objects that do not conform to any of categories above are converted to strings.
-     * @param object
-     *         object to serialize.
-     * @return JSON string.
-     * @throws RuntimeException
-     *         {@link IllegalAccessException } can be wrapped in it.
-     * @see Iterable
-     * @see Object#toString()
-     * @see Number
-     * @see JSONComplexObject
-     * @see JSONField
-     */
-    public static String makeJSON(Object object) throws RuntimeException {
-        try {
-            StringBuilder sb = new StringBuilder();
-            appendJSONString(sb, object, null, new IdentityHashMap<>());
-            return sb.toString();
-        } catch (IllegalAccessException ex) {
-            throw new RuntimeException(ex);
-        }
-    }
-
-    /**
-     * Convenience structure used in method {@link #appendJSONString(StringBuilder, Object, String,
-     * java.util.IdentityHashMap)}.
-     */
-    @FunctionalInterface
-    private interface FieldJSONAppender {
-        void appendInfo(Field field, String overrideName) throws IllegalAccessException;
-
-        default void appendInfo(Field field) throws IllegalAccessException {
-            appendInfo(field, "");
-        }
-    }
-}
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.json;
+
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.AnnotatedField;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import static ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.json.JSONHelper.*;
+
+/**
+ * This class helps to construct a JSON string from any object using special annotations.<br/>
+ * Annotations of each class are inspected once: the fields to write, their names and getters are kept in
+ * {@link ComplexClass}. Each thread reuses its own buffer.
+ * @author Phoenix
+ * @see JSONComplexObject
+ * @see JSONField
+ */
+public final class JSONMaker {
+    /**
+     * Buffers that grew larger are not kept for reuse.
+     */
+    private static final int MAX_REUSED_BUFFER_CAPACITY = 1 << 16;
+    private static final int INITIAL_DEPTH = 8;
+
+    private static final ClassValue<ComplexClass> COMPLEX_CLASSES = new ClassValue<ComplexClass>() {
+        @Override
+        protected ComplexClass computeValue(Class<?> type) {
+            return new ComplexClass(type);
+        }
+    };
+
+    /**
+     * Writer that is not used by its thread now. While a thread writes, this is null, so reentrant calls (e.g.
+     * from {@link Object#toString()} of some value) take a new writer.
+     */
+    private static final ThreadLocal<Writer> IDLE_WRITERS = ThreadLocal.withInitial(Writer::new);
+
+    private JSONMaker() { }
+
+    /**
+     * Serializes an object using JSON-style.<br/>
+     * If cyclic link found, 'cyclic' is printed instead of cyclic description of the object.<br/>
+     * <ul>
+     * <li>Arrays and Iterables are supported</li>
+     * <li>Maps are supported (keys are treated as string names)</li>
+     * <li>Numbers and Strings are supported</li>
+     * <li>Complex objects are supported</li>
+     * <li>{@link ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.json.JSONComplexObject} instances
+     * are
+     * supported</li>
+     * </ul>
+     * Objects that do not conform to any of categories above are converted to strings.
+     * @param object
+     *         object to serialize.
+     * @return JSON string.
+     * @throws RuntimeException
+     *         {@link IllegalArgumentException} if some complex object is annotated improperly.
+     * @see Iterable
+     * @see Object#toString()
+     * @see Number
+     * @see JSONComplexObject
+     * @see JSONField
+     */
+    public static String makeJSON(Object object) throws RuntimeException {
+        Writer writer = IDLE_WRITERS.get();
+        if (writer == null) {
+            writer = new Writer();
+        } else {
+            IDLE_WRITERS.set(null);
+        }
+
+        try {
+            writer.append(object, null);
+            return writer.sb.toString();
+        } finally {
+            writer.reset();
+            IDLE_WRITERS.set(writer);
+        }
+    }
+
+    /**
+     * Fields of a class annotated with {@link JSONComplexObject}, gathered once per class.
+     */
+    private static final class ComplexClass {
+        private final boolean complex;
+        private final boolean wrapper;
+        private final List<AnnotatedField<JSONField>> fields;
+        /**
+         * JSON names of the fields.
+         */
+        private final String[] names;
+
+        ComplexClass(Class<?> type) {
+            JSONComplexObject annotation = type.getAnnotation(JSONComplexObject.class);
+            complex = annotation != null;
+            wrapper = complex && annotation.wrapper();
+            fields = complex ? AnnotatedField.of(type, JSONField.class) : null;
+
+            if (complex) {
+                names = new String[fields.size()];
+                for (int i = 0; i < names.length; i++) {
+                    String name = fields.get(i).getAnnotation().name();
+                    names[i] = name.isEmpty() ? fields.get(i).getName() : name;
+                }
+            } else {
+                names = null;
+            }
+        }
+
+        /**
+         * Checks the annotations are used properly. Violations are reported on each write, not on the
+         * inspection of the class.
+         */
+        void checkAnnotations() throws IllegalArgumentException {
+            if (fields.isEmpty()) {
+                throw new IllegalArgumentException(
+                        "Illegal annotation @JSONComplexObject: there are no @JSONField annotated fields");
+            } else if (wrapper && fields.size() > 1) {
+                throw new IllegalArgumentException(
+                        "Illegal annotation @JSONComplexObject: there are more then one @JSONField");
+            }
+        }
+    }
+
+    /**
+     * Reusable state of one serialization: the buffer and the stack of objects being written, that is used to
+     * find cyclic links. Values that cannot contain other objects are never put to the stack.
+     */
+    private static final class Writer {
+        private StringBuilder sb = new StringBuilder();
+        private Object[] ancestors = new Object[INITIAL_DEPTH];
+        private int depth;
+
+        void reset() {
+            if (sb.capacity() > MAX_REUSED_BUFFER_CAPACITY) {
+                sb = new StringBuilder();
+            } else {
+                sb.setLength(0);
+            }
+            Arrays.fill(ancestors, 0, depth, null);
+            depth = 0;
+        }
+
+        /**
+         * Appends JSON interpretation of obj.
+         * @param obj
+         *         object to convert to JSON. Can be null.
+         * @param name
+         *         if the object is named, name is printed before its contents. If null, object is considered
+         *         not named.
+         */
+        void append(Object obj, String name) {
+            if (name != null) {
+                sb.append(QUOTES).append(name).append(QUOTES).append(KEY_VALUE_SEPARATOR);
+            }
+            if (obj == null) {
+                sb.append(NULL);
+                return;
+            }
+
+            Class<?> objClass = obj.getClass();
+
+            // Plain values first: they cannot make cyclic links.
+            if (objClass == String.class) {
+                appendEscaped((String) obj);
+                return;
+            } else if (objClass == Integer.class || objClass == Long.class || objClass == Short.class
+                       || objClass == Byte.class) {
+                sb.append(((Number) obj).longValue());
+                return;
+            } else if (objClass == Double.class) {
+                sb.append(((Double) obj).doubleValue());
+                return;
+            } else if (objClass == Float.class) {
+                sb.append(((Float) obj).floatValue());
+                return;
+            } else if (objClass == Boolean.class) {
+                sb.append(((Boolean) obj).booleanValue());
+                return;
+            }
+
+            // Checking cyclic links.
+            for (int i = 0; i < depth; i++) {
+                if (ancestors[i] == obj) {
+                    sb.append(CYCLIC);
+                    return;
+                }
+            }
+            if (depth == ancestors.length) {
+                ancestors = Arrays.copyOf(ancestors, depth * 2);
+            }
+            ancestors[depth++] = obj;
+
+            ComplexClass complexClass = COMPLEX_CLASSES.get(objClass);
+
+            if (complexClass.complex) {
+                complexClass.checkAnnotations();
+                if (complexClass.wrapper) {
+                    String fieldName = name != null && name.isEmpty() ? complexClass.names[0] : name;
+                    append(complexClass.fields.get(0).get(obj), fieldName);
+                } else {
+                    sb.append(OPENING_CURLY_BRACE);
+                    for (int i = 0; i < complexClass.names.length; i++) {
+                        if (i > 0) {
+                            sb.append(ELEMENT_SEPARATOR);
+                        }
+                        append(complexClass.fields.get(i).get(obj), complexClass.names[i]);
+                    }
+                    sb.append(CLOSING_CURLY_BRACE);
+                }
+            } else if (obj instanceof Map) {
+                sb.append(OPENING_CURLY_BRACE);
+                Set<Entry> set = ((Map) obj).entrySet();
+
+                for (Entry e : set) {
+                    append(e.getValue(), e.getKey().toString());
+                }
+
+                sb.append(CLOSING_CURLY_BRACE);
+            } else if (objClass.isArray() || obj instanceof Iterable) {
+                sb.append(OPENING_SQUARE_BRACE);
+
+                if (obj instanceof Iterable) {
+                    boolean comma = false;
+                    for (Object piece : (Iterable) obj) {
+                        if (comma) {
+                            sb.append(ELEMENT_SEPARATOR);
+                        }
+                        comma = true;
+                        append(piece, null);
+                    }
+                } else if (obj instanceof Object[]) {
+                    Object[] array = (Object[]) obj;
+                    for (int i = 0; i < array.length; i++) {
+                        if (i > 0) {
+                            sb.append(ELEMENT_SEPARATOR);
+                        }
+                        append(array[i], null);
+                    }
+                } else {
+                    int length = Array.getLength(obj);
+                    for (int i = 0; i < length; i++) {
+                        if (i > 0) {
+                            sb.append(ELEMENT_SEPARATOR);
+                        }
+                        append(Array.get(obj, i), null);
+                    }
+                }
+
+                sb.append(CLOSING_SQUARE_BRACE);
+            } else if (obj instanceof Number || obj instanceof Boolean) {
+                sb.append(obj.toString());
+            } else {
+                appendEscaped(obj.toString());
+            }
+
+            ancestors[--depth] = null;
+        }
+
+        /**
+         * Appends the string in quotes, escaping quotes and escape symbols like {@link JSONHelper#escape(String)}
+         * does.
+         */
+        private void appendEscaped(String s) {
+            sb.append(QUOTES);
+            for (int i = 0, length = s.length(); i < length; i++) {
+                char symbol = s.charAt(i);
+                if (symbol == QUOTES || symbol == ESCAPE_SYMBOL) {
+                    sb.append(ESCAPE_SYMBOL);
+                }
+                sb.append(symbol);
+            }
+            sb.append(QUOTES);
+        }
+    }
+}
@@ -3,19 +3,34 @@ package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.shell;
 import ru.fizteh.fivt.storage.structured.Storeable;
 import ru.fizteh.fivt.storage.structured.Table;
 import ru.fizteh.fivt.storage.structured.TableProvider;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.BulkImporter;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.ExportMetrics;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.ImportMetrics;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.PageableTable;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.ScannableTable;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.StoreableTableImpl;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.TableExporter;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.exception.DatabaseIOException;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.exception.InvocationException;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.exception.NoActiveTableException;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.exception.TerminalException;
 
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.ParseException;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 public class SingleDBCommands extends SimpleCommandContainer<SingleDatabaseShellState> {
+    /**
+     * Desired number of keys requested from the table at once by {@link #LIST}.
+     */
+    private static final int LIST_PAGE_SIZE = 1024;
+
     public static final Command<SingleDatabaseShellState> COMMIT =
             new AbstractCommand<SingleDatabaseShellState>(
                     "commit", null, "saves all changes made from the last commit", 1) {
@@ -156,23 +171,85 @@ public class SingleDBCommands extends SimpleCommandContainer<SingleDatabaseShell
                     // not used
                 }
             };
+    public static final Command<SingleDatabaseShellState> IMPORT =
+            new AbstractCommand<SingleDatabaseShellState>(
+                    "import",
+                    "<file> [tsv|jsonl]",
+                    "loads rows from the file into current table and commits them; format is chosen by the file "
+                    + "extension if not given",
+                    2,
+                    3) {
+                @Override
+                public void executeSafely(SingleDatabaseShellState state, String[] args)
+                        throws IOException, ParseException, NoActiveTableException {
+                    Path file = Paths.get(args[1]);
+                    BulkImporter.Format format =
+                            args.length > 2 ? BulkImporter.Format.forName(args[2]) : BulkImporter.Format.forFile(file);
+
+                    ImportMetrics metrics = new BulkImporter(state.getActiveTable()).importFile(file, format);
+                    state.getOutputStream().println(
+                            String.format(
+                                    "imported %d rows, %.0f rows/s",
+                                    metrics.getRowsCount(),
+                                    metrics.getRowsPerSecond()));
+                }
+            };
+    public static final Command<SingleDatabaseShellState> EXPORT =
+            new AbstractCommand<SingleDatabaseShellState>(
+                    "export",
+                    "<file> [jsonl|dump]",
+                    "writes committed rows of current table to the file without stopping other writers; format is "
+                    + "chosen by the file extension if not given",
+                    2,
+                    3) {
+                @Override
+                public void executeSafely(SingleDatabaseShellState state, String[] args)
+                        throws IOException, NoActiveTableException {
+                    Path file = Paths.get(args[1]);
+                    TableExporter.Format format = args.length > 2
+                                                  ? TableExporter.Format.forName(args[2])
+                                                  : TableExporter.Format.forFile(file);
+
+                    ExportMetrics metrics = new TableExporter(state.getActiveTable()).exportFile(file, format);
+                    state.getOutputStream().println(
+                            String.format(
+                                    "exported %d rows, %.1f MB/s",
+                                    metrics.getRowsCount(),
+                                    metrics.getMegabytesPerSecond()));
+                }
+            };
     public static final Command<SingleDatabaseShellState> LIST =
             new AbstractCommand<SingleDatabaseShellState>(
                     "list", null, "prints all keys stored in the map", 1) {
                 @Override
                 public void executeSafely(SingleDatabaseShellState state, String[] args)
                         throws NoActiveTableException {
-                    List<String> keySet = state.getActiveTable().list();
-                    StringBuilder sb = new StringBuilder();
+                    // Keys are printed page by page, the whole key set is never built.
+                    Iterator<String> keys =
+                            PageableTable.keysIterator(state.getActiveTable(), LIST_PAGE_SIZE);
+                    PrintStream output = state.getOutputStream();
 
                     boolean comma = false;
 
-                    for (String key : keySet) {
-                        sb.append(comma ? ", " : "").append(key);
+                    while (keys.hasNext()) {
+                        output.print(comma ? ", " : "");
+                        output.print(keys.next());
                         comma = true;
                     }
 
-                    state.getOutputStream().println(sb);
+                    output.println();
+                }
+            };
+    public static final Command<SingleDatabaseShellState> PREFIX =
+            new AbstractCommand<SingleDatabaseShellState>(
+                    "prefix", "<prefix>", "prints rows with keys starting with the prefix in order of keys", 2) {
+                @Override
+                public void executeSafely(SingleDatabaseShellState state, String[] args)
+                        throws NoActiveTableException {
+                    String prefix = args[1];
+                    printRows(
+                            state, ScannableTable.scan(
+                                    state.getActiveTable(), prefix, ScannableTable.prefixEnd(prefix)));
                 }
             };
     public static final Command<SingleDatabaseShellState> PUT = new AbstractCommand<SingleDatabaseShellState>(
@@ -218,6 +295,21 @@ public class SingleDBCommands extends SimpleCommandContainer<SingleDatabaseShell
                     }
                 }
             };
+    public static final Command<SingleDatabaseShellState> SCAN =
+            new AbstractCommand<SingleDatabaseShellState>(
+                    "scan",
+                    "<from> [<to>]",
+                    "prints rows with keys from <from> (inclusive) to <to> (exclusive) in order of keys",
+                    2,
+                    3) {
+                @Override
+                public void executeSafely(SingleDatabaseShellState state, String[] args)
+                        throws NoActiveTableException {
+                    printRows(
+                            state,
+                            ScannableTable.scan(state.getActiveTable(), args[1], args.length > 2 ? args[2] : null));
+                }
+            };
     public static final Command<SingleDatabaseShellState> SHOW =
             new AbstractCommand<SingleDatabaseShellState>(
                     "show", "tables", "prints info on all tables assigned to the working database", 2) {
@@ -257,4 +349,18 @@ public class SingleDBCommands extends SimpleCommandContainer<SingleDatabaseShell
     public static SingleDBCommands getInstance() {
         return INSTANCE;
     }
+
+    /**
+     * Prints each row as its key and serialized value separated by space, one row per line.
+     */
+    private static void printRows(SingleDatabaseShellState state, Iterator<Map.Entry<String, Storeable>> rows)
+            throws NoActiveTableException {
+        Table table = state.getActiveTable();
+        PrintStream output = state.getOutputStream();
+
+        while (rows.hasNext()) {
+            Map.Entry<String, Storeable> row = rows.next();
+            output.println(row.getKey() + " " + state.getProvider().serialize(table, row.getValue()));
+        }
+    }
 }
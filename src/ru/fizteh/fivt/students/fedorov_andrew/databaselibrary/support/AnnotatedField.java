@@ -0,0 +1,84 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Field annotated with some annotation together with a getter of its value.<br/>
+ * The getter is a method handle made once, so reading the field needs neither annotation lookups nor toggling
+ * of accessibility. Serializers keep lists of these per class.<br/>
+ * Immutable, thread-safe.
+ * @param <A>
+ *         Type of the annotation.
+ * @see Utility#getAllAnnotatedFields(Class, Class)
+ */
+public final class AnnotatedField<A extends Annotation> {
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private final String name;
+    private final A annotation;
+    private final MethodHandle getter;
+
+    private AnnotatedField(Field field, A annotation) {
+        this.name = field.getName();
+        this.annotation = annotation;
+
+        field.setAccessible(true);
+        try {
+            MethodHandle handle = MethodHandles.lookup().unreflectGetter(field);
+            if (Modifier.isStatic(field.getModifiers())) {
+                handle = MethodHandles.dropArguments(handle, 0, Object.class);
+            }
+            this.getter = handle.asType(GETTER_TYPE);
+        } catch (IllegalAccessException exc) {
+            throw new IllegalArgumentException("Cannot access field " + field.getName(), exc);
+        }
+    }
+
+    /**
+     * Returns all fields of the class and its superclasses annotated with the given annotation, in the order of
+     * {@link Utility#getAllAnnotatedFields(Class, Class)}.
+     * @throws IllegalArgumentException
+     *         If some field cannot be made accessible.
+     */
+    public static <A extends Annotation> List<AnnotatedField<A>> of(Class<?> clazz, Class<A> annotationClass)
+            throws IllegalArgumentException {
+        List<AnnotatedField<A>> fields = new ArrayList<>();
+        for (Field field : Utility.getAllAnnotatedFields(clazz, annotationClass)) {
+            fields.add(new AnnotatedField<>(field, field.getAnnotation(annotationClass)));
+        }
+        return Collections.unmodifiableList(fields);
+    }
+
+    /**
+     * Name of the field in java code.
+     */
+    public String getName() {
+        return name;
+    }
+
+    public A getAnnotation() {
+        return annotation;
+    }
+
+    /**
+     * Returns value of the field of the given object.
+     */
+    public Object get(Object owner) {
+        try {
+            return (Object) getter.invokeExact(owner);
+        } catch (RuntimeException | Error exc) {
+            throw exc;
+        } catch (Throwable thr) {
+            // Field getters throw nothing checked.
+            throw new RuntimeException(thr);
+        }
+    }
+}
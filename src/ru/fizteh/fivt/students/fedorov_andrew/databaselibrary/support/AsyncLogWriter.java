@@ -0,0 +1,219 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes log records on a background thread, so that callers do not wait for the disk.<br/>
+ * Records are kept in a bounded queue; the background thread takes them in batches, writes each batch followed
+ * by line separators and flushes the target once per batch. When the queue is full, new records are dropped or
+ * callers wait, as {@link OverflowPolicy} says.<br/>
+ * Thread-safe.
+ * @see LoggingProxyFactoryBase#wrap(AsyncLogWriter, Object, Class)
+ */
+public final class AsyncLogWriter implements Closeable {
+    /**
+     * How often the background thread checks if the writer is closed while there are no records.
+     */
+    private static final long POLL_TIMEOUT_MILLIS = 100;
+
+    private final Writer target;
+    private final BlockingQueue<String> queue;
+    private final OverflowPolicy overflowPolicy;
+    private final int batchSize;
+    private final Thread drainer;
+
+    private final AtomicLong queuedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    /**
+     * Number of queued records that have been written or failed to be written. Guarded by this writer's
+     * monitor, so that {@link #flush()} can wait for it.
+     */
+    private long processedCount;
+    private long writtenCount;
+
+    private volatile boolean closed;
+
+    /**
+     * Constructs the writer and starts its background thread.
+     * @param target
+     *         Where to write records. It is used only by the background thread and closed on {@link #close()}.
+     * @param capacity
+     *         Maximal number of records waiting to be written.
+     * @param overflowPolicy
+     *         What to do with records that do not fit into the queue.
+     * @param batchSize
+     *         Maximal number of records written between flushes of the target.
+     * @throws IllegalArgumentException
+     *         If capacity or batch size is not positive.
+     */
+    public AsyncLogWriter(Writer target, int capacity, OverflowPolicy overflowPolicy, int batchSize)
+            throws IllegalArgumentException {
+        Utility.checkNotNull(target, "Target writer");
+        Utility.checkNotNull(overflowPolicy, "Overflow policy");
+        if (capacity <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("Capacity and batch size must be positive");
+        }
+
+        this.target = target;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.overflowPolicy = overflowPolicy;
+        this.batchSize = batchSize;
+        this.drainer = new Thread(this::drain, "Async log writer");
+        this.drainer.setDaemon(true);
+        this.drainer.start();
+    }
+
+    /**
+     * Queues the record to be written on a separate line.
+     * @return True if the record has been queued, false if it has been dropped because the queue is full or
+     * the writer is closed.
+     */
+    public boolean writeRecord(String record) {
+        boolean queued = false;
+        if (!closed) {
+            if (overflowPolicy == OverflowPolicy.DROP) {
+                queued = queue.offer(record);
+            } else {
+                try {
+                    queue.put(record);
+                    queued = true;
+                } catch (InterruptedException exc) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        if (queued) {
+            queuedCount.incrementAndGet();
+        } else {
+            droppedCount.incrementAndGet();
+        }
+        return queued;
+    }
+
+    private void drain() {
+        List<String> batch = new ArrayList<>(batchSize);
+        try {
+            while (!closed || !queue.isEmpty()) {
+                String first = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                writeBatch(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException exc) {
+            Log.log(AsyncLogWriter.class, exc, "Async log writer interrupted");
+        }
+    }
+
+    private void writeBatch(List<String> batch) {
+        int written = 0;
+        try {
+            for (String record : batch) {
+                target.write(record);
+                target.write(System.lineSeparator());
+                written++;
+            }
+            target.flush();
+        } catch (IOException exc) {
+            Log.log(AsyncLogWriter.class, exc, "Failed to write log records");
+        }
+
+        droppedCount.addAndGet(batch.size() - written);
+        synchronized (this) {
+            writtenCount += written;
+            processedCount += batch.size();
+            notifyAll();
+        }
+    }
+
+    /**
+     * Waits until all records queued before this call are written and the target is flushed.
+     * @throws InterruptedException
+     *         If interrupted while waiting.
+     */
+    public void flush() throws InterruptedException {
+        long expected = queuedCount.get();
+        synchronized (this) {
+            while (processedCount < expected && drainer.isAlive()) {
+                wait(POLL_TIMEOUT_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Writes the remaining records, stops the background thread and closes the target. Records given after
+     * this call are dropped.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            drainer.join();
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Records that have been queued concurrently with closing.
+        List<String> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        if (!rest.isEmpty()) {
+            writeBatch(rest);
+        }
+        target.close();
+    }
+
+    /**
+     * Number of records accepted to the queue.
+     */
+    public long getQueuedCount() {
+        return queuedCount.get();
+    }
+
+    /**
+     * Number of records dropped because the queue was full or the writer was closed, or because the target
+     * failed to write them.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Number of records written to the target.
+     */
+    public synchronized long getWrittenCount() {
+        return writtenCount;
+    }
+
+    /**
+     * Number of records waiting in the queue now.
+     */
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    /**
+     * What to do with a record that does not fit into the full queue.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Drop the record, so the caller never waits.
+         */
+        DROP,
+        /**
+         * Wait until the background thread makes room for the record.
+         */
+        BLOCK
+    }
+}
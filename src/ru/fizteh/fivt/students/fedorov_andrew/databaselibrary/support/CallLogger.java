@@ -0,0 +1,146 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support;
+
+import ru.fizteh.fivt.proxy.LoggingProxyFactory;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Reports calls of some object's methods to a log in the format of the given {@link LoggingProxyFactoryBase}.
+ * Used by proxies of that factory and by decorators written by hand.<br/>
+ * Decorators should check {@link #isEnabled()} before each call and only then make the call through
+ * {@link #call(Object, String, Call, Object...)} or {@link #run(Object, String, VoidCall, Object...)}, so that
+ * they do no logging work while logging is off.<br/>
+ * Thread-safe.
+ */
+public final class CallLogger {
+    private final LoggingProxyFactoryBase factory;
+    private final ReportSink sink;
+
+    /**
+     * Constructs logger that writes and flushes each report on the caller's thread.
+     */
+    public CallLogger(LoggingProxyFactoryBase factory, Writer writer) {
+        this.factory = factory;
+        this.sink = report -> {
+            try {
+                writer.write(report);
+                writer.write(System.lineSeparator());
+                writer.flush();
+            } catch (IOException exc) {
+                Log.log(LoggingProxyFactory.class, exc, "Failed to write log report");
+            }
+        };
+    }
+
+    /**
+     * Constructs logger that queues reports to the asynchronous writer.
+     */
+    public CallLogger(LoggingProxyFactoryBase factory, AsyncLogWriter writer) {
+        this.factory = factory;
+        this.sink = writer::writeRecord;
+    }
+
+    /**
+     * Decides if the coming call must be reported. Must be asked once per call and before it: the call can
+     * turn logging off, and sampling counts the calls.
+     */
+    public boolean isEnabled() {
+        return factory.isLoggingEnabled() && factory.isSampled();
+    }
+
+    /**
+     * Writes report of a finished call.
+     * @param target
+     *         Object whose method has been called.
+     * @param arguments
+     *         Arguments of the call; null if the method has no parameters.
+     * @param isVoid
+     *         If the method returns nothing.
+     */
+    public void report(long timestamp,
+                       Object target,
+                       String method,
+                       Object[] arguments,
+                       Throwable thrown,
+                       Object returnValue,
+                       boolean isVoid) {
+        sink.accept(
+                factory.constructReport(
+                        timestamp, target.getClass().getSimpleName(), method, arguments, thrown, returnValue, isVoid));
+    }
+
+    /**
+     * Makes the call and reports it.
+     * @param target
+     *         Object whose method is called.
+     * @param method
+     *         Name of the method.
+     * @param arguments
+     *         Arguments of the method, for the report.
+     */
+    public <R, E extends Exception> R call(Object target, String method, Call<R, E> call, Object... arguments)
+            throws E {
+        long timestamp = System.currentTimeMillis();
+        R returnValue = null;
+        Throwable thrown = null;
+        try {
+            returnValue = call.call();
+            return returnValue;
+        } catch (Exception | Error exc) {
+            thrown = exc;
+            throw exc;
+        } finally {
+            report(timestamp, target, method, nullIfEmpty(arguments), thrown, returnValue, false);
+        }
+    }
+
+    /**
+     * Makes the call of a void method and reports it.
+     * @see #call(Object, String, Call, Object...)
+     */
+    public <E extends Exception> void run(Object target, String method, VoidCall<E> call, Object... arguments)
+            throws E {
+        long timestamp = System.currentTimeMillis();
+        Throwable thrown = null;
+        try {
+            call.run();
+        } catch (Exception | Error exc) {
+            thrown = exc;
+            throw exc;
+        } finally {
+            report(timestamp, target, method, nullIfEmpty(arguments), thrown, null, true);
+        }
+    }
+
+    /**
+     * Proxies give null arguments to methods without parameters; reports of decorators must not differ.
+     */
+    private static Object[] nullIfEmpty(Object[] arguments) {
+        return arguments.length == 0 ? null : arguments;
+    }
+
+    /**
+     * Call of a method that returns a value.
+     */
+    @FunctionalInterface
+    public interface Call<R, E extends Exception> {
+        R call() throws E;
+    }
+
+    /**
+     * Call of a void method.
+     */
+    @FunctionalInterface
+    public interface VoidCall<E extends Exception> {
+        void run() throws E;
+    }
+
+    /**
+     * Where reports go.
+     */
+    @FunctionalInterface
+    private interface ReportSink {
+        void accept(String report);
+    }
+}
@@ -2,20 +2,27 @@ package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support;
 
 import ru.fizteh.fivt.proxy.LoggingProxyFactory;
 
-import java.io.IOException;
 import java.io.Writer;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Base class that implements Logging proxy factory. When you extend it you have only to implement method
  * that
- * makes log message from given data.
+ * makes log message from given data.<br/>
+ * Reports are written on the caller's thread to the given {@link Writer}, or on a background thread by
+ * {@link AsyncLogWriter}. Only one call of every {@link #setSamplingPeriod(int) sampling period} calls is
+ * reported.<br/>
+ * Decorators written by hand report calls in the same format through {@link CallLogger}.
  */
 public abstract class LoggingProxyFactoryBase implements LoggingProxyFactory {
     private volatile boolean loggingEnabled = true;
+    private volatile int samplingPeriod = 1;
+    private final AtomicLong callsCount = new AtomicLong();
+    private final AtomicLong skippedCount = new AtomicLong();
 
     /**
      * Constructs log message from the given data.
@@ -51,20 +58,67 @@ public abstract class LoggingProxyFactoryBase implements LoggingProxyFactory {
         this.loggingEnabled = loggingEnabled;
     }
 
+    public int getSamplingPeriod() {
+        return samplingPeriod;
+    }
+
+    /**
+     * Makes proxies report only one of every given number of calls; 1 means that all calls are reported.
+     * @throws IllegalArgumentException
+     *         If the period is not positive.
+     */
+    public void setSamplingPeriod(int samplingPeriod) throws IllegalArgumentException {
+        if (samplingPeriod <= 0) {
+            throw new IllegalArgumentException("Sampling period must be positive");
+        }
+        this.samplingPeriod = samplingPeriod;
+    }
+
+    /**
+     * Number of calls that have not been reported because of sampling.
+     */
+    public long getSkippedCount() {
+        return skippedCount.get();
+    }
+
     @Override
     public Object wrap(Writer writer, Object implementation, Class<?> interfaceClass) {
+        return wrap(new CallLogger(this, writer), implementation, interfaceClass);
+    }
+
+    /**
+     * Like {@link #wrap(Writer, Object, Class)}, but reports are queued to the given writer and written on
+     * its background thread.
+     */
+    public Object wrap(AsyncLogWriter writer, Object implementation, Class<?> interfaceClass) {
+        return wrap(new CallLogger(this, writer), implementation, interfaceClass);
+    }
+
+    private Object wrap(CallLogger logger, Object implementation, Class<?> interfaceClass) {
         return Proxy.newProxyInstance(
                 implementation.getClass().getClassLoader(),
                 new Class<?>[] {interfaceClass},
-                new Handler(writer, implementation));
+                new Handler(logger, implementation));
+    }
+
+    /**
+     * Decides if the current call must be reported, according to the sampling period.
+     */
+    boolean isSampled() {
+        int period = samplingPeriod;
+        if (period == 1 || callsCount.getAndIncrement() % period == 0) {
+            return true;
+        }
+        skippedCount.incrementAndGet();
+        return false;
     }
 
     private class Handler implements InvocationHandler {
-        private final Writer writer;
+        private final CallLogger logger;
         private final Object wrappedObject;
 
-        public Handler(Writer writer, Object wrappedObject) {
-            this.writer = writer;
+        public Handler(CallLogger logger, Object wrappedObject) {
+            this.logger = logger;
             this.wrappedObject = wrappedObject;
         }
 
@@ -98,7 +152,7 @@ public abstract class LoggingProxyFactoryBase implements LoggingProxyFactory {
             Throwable thrown = null;
 
             // We must know it before invocation. Simple reason: suppose the invoked method turns off logging.
-            boolean doWriteLog = isLoggingEnabled();
+            boolean doWriteLog = logger.isEnabled();
 
             try {
                 boolean accessible = method.isAccessible();
@@ -111,22 +165,14 @@ public abstract class LoggingProxyFactoryBase implements LoggingProxyFactory {
                 Log.log(LoggingProxyFactory.class, exc, "Error on proxy invocation");
             } finally {
                 if (doWriteLog) {
-                    String report = constructReport(
+                    logger.report(
                             timestamp,
-                            wrappedObject.getClass().getSimpleName(),
+                            wrappedObject,
                             method.getName(),
                             args,
                             thrown,
                             returnValue,
                             void.class.equals(method.getReturnType()));
-
-                    try {
-                        writer.write(report);
-                        writer.write(System.lineSeparator());
-                        writer.flush();
-                    } catch (IOException exc) {
-                        Log.log(LoggingProxyFactory.class, exc, "Failed to write log report");
-                    }
                 }
             }
 
@@ -2,21 +2,57 @@ package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support;
 
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.exception.InvalidatedObjectException;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
- * Convenience class to control one's validity.
+ * Convenience class to control one's validity.<br/>
+ * Uses of the object are counted in striped counters: each thread increments the counter of its stripe, so
+ * threads that use the object at the same time do not write to the same memory. Killing thread announces itself
+ * in a volatile field and waits until all counters drop to zero; the last user to leave wakes it up. Users that
+ * come after it wait until the object is killed and then fail. Threads that already use the object, as told by
+ * their own use depth, may use it again while the killer waits, as with a reentrant lock.
  */
 public final class ValidityController implements Serializable {
-    private final ReadWriteLock validityLock = new ReentrantReadWriteLock(true);
-    private boolean valid = true;
+    /**
+     * Distance between counters in the array, in longs: counters of different stripes must not share cache
+     * lines.
+     */
+    private static final int STRIPE_STRIDE = 8;
+    private static final int MAX_STRIPES = 64;
+    private static final int STRIPES = Math.min(
+            MAX_STRIPES, Integer.highestOneBit(Runtime.getRuntime().availableProcessors()) << 1);
 
-    private void checkValid() {
-        if (!valid) {
-            throw new InvalidatedObjectException("Object has been invalidated");
+    /**
+     * Like a deserialized lock, deserialized controller is not used by anybody.
+     */
+    private transient AtomicLongArray useCounters = new AtomicLongArray(STRIPES * STRIPE_STRIDE);
+    /**
+     * Number of use locks held by each thread. Only threads that already use the object pass a pending kill.
+     */
+    private transient ThreadLocal<int[]> useDepth = ThreadLocal.withInitial(() -> new int[1]);
+    private volatile boolean valid = true;
+    /**
+     * Thread that kills the object or waits for users to finish to kill it; null if there is no such thread.
+     */
+    private transient volatile Thread killer;
+    /**
+     * Number of kill locks held by {@link #killer}. Guarded by this controller's monitor.
+     */
+    private transient int killDepth;
+
+    private static int counterIndex(Thread thread) {
+        return ((int) thread.getId() & (STRIPES - 1)) * STRIPE_STRIDE;
+    }
+
+    private long usesCount() {
+        long sum = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            sum += useCounters.get(stripe * STRIPE_STRIDE);
         }
+        return sum;
     }
 
     /**
@@ -27,13 +63,60 @@ public final class ValidityController implements Serializable {
      *         if this object has been already invalidated.
      */
     public UseLock use() throws InvalidatedObjectException {
-        validityLock.readLock().lock();
-        try {
-            checkValid();
-            validityLock.readLock().lock();
-            return new UseLock();
-        } finally {
-            validityLock.readLock().unlock();
+        Thread current = Thread.currentThread();
+        int index = counterIndex(current);
+        int[] depth = useDepth.get();
+
+        while (true) {
+            useCounters.incrementAndGet(index);
+            // The counter is incremented before reading the killer: a killer that has not seen the increment
+            // is seen here.
+            Thread currentKiller = killer;
+
+            if (currentKiller == null || currentKiller == current || depth[0] > 0) {
+                // No kill is pending, or it is our own, or we use the object already: waiting would never end
+                // then.
+                if (valid) {
+                    depth[0]++;
+                    return new UseLock(index, depth);
+                }
+                release(index);
+                throw new InvalidatedObjectException("Object has been invalidated");
+            }
+
+            release(index);
+            synchronized (this) {
+                awaitNoKiller();
+            }
+        }
+    }
+
+    /**
+     * Waits until the current killer finishes. Like taking a lock, cannot be interrupted. Must be called with
+     * the monitor held.
+     */
+    private void awaitNoKiller() {
+        boolean interrupted = false;
+        while (killer != null) {
+            try {
+                wait();
+            } catch (InterruptedException exc) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void release(int index) {
+        useCounters.decrementAndGet(index);
+        // The counter is decremented before reading the killer, so either the killer sees the decrement or the
+        // last user sees the killer and wakes it up.
+        if (killer != null && usesCount() == 0) {
+            synchronized (this) {
+                notifyAll();
+            }
         }
     }
 
@@ -42,14 +125,42 @@ public final class ValidityController implements Serializable {
      * @throws InvalidatedObjectException
      *         if this object has been already invalidated.
      */
-    public KillLock useAndKill() throws InvalidatedObjectException {
-        validityLock.writeLock().lock();
-        try {
+    public synchronized KillLock useAndKill() throws InvalidatedObjectException {
+        Thread current = Thread.currentThread();
+        if (killer != current) {
+            awaitNoKiller();
+            checkValid();
+
+            killer = current;
+            boolean interrupted = false;
+            // New users see the killer and wait; only the current ones are waited for.
+            while (usesCount() != 0) {
+                try {
+                    wait();
+                } catch (InterruptedException exc) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                current.interrupt();
+            }
+        } else {
             checkValid();
-            validityLock.writeLock().lock();
-            return new KillLock();
-        } finally {
-            validityLock.writeLock().unlock();
+        }
+
+        killDepth++;
+        return new KillLock();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        useCounters = new AtomicLongArray(STRIPES * STRIPE_STRIDE);
+        useDepth = ThreadLocal.withInitial(() -> new int[1]);
+    }
+
+    private void checkValid() {
+        if (!valid) {
+            throw new InvalidatedObjectException("Object has been invalidated");
         }
     }
 
@@ -59,19 +170,30 @@ public final class ValidityController implements Serializable {
     }
 
     public class UseLock implements ValidityLock {
-        private boolean allowMultipleCloseAttempts = false;
+        private final int counterIndex;
+        /**
+         * Use depth of the thread that has taken the lock.
+         */
+        private final int[] depth;
+        private boolean closed = false;
+
+        UseLock(int counterIndex, int[] depth) {
+            this.counterIndex = counterIndex;
+            this.depth = depth;
+        }
 
         @Override
         public void close() {
-            if (!allowMultipleCloseAttempts) {
-                validityLock.readLock().unlock();
+            if (!closed) {
+                closed = true;
+                depth[0]--;
+                release(counterIndex);
             }
         }
 
         public KillLock obtainKillLockInstead() {
-            close();
-            allowMultipleCloseAttempts = true;
             // Further close() calls (e.g., from try-with-resources) will be ignored for UseLock.
+            close();
             return useAndKill();
         }
     }
@@ -79,8 +201,13 @@ public final class ValidityController implements Serializable {
     public class KillLock implements ValidityLock {
         @Override
         public void close() {
-            valid = false;
-            validityLock.writeLock().unlock();
+            synchronized (ValidityController.this) {
+                valid = false;
+                if (--killDepth == 0) {
+                    killer = null;
+                    ValidityController.this.notifyAll();
+                }
+            }
         }
     }
 
@@ -0,0 +1,150 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.test;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import ru.fizteh.fivt.storage.structured.Storeable;
+import ru.fizteh.fivt.storage.structured.Table;
+import ru.fizteh.fivt.storage.structured.TableProvider;
+import ru.fizteh.fivt.storage.structured.TableProviderFactory;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.BulkImporter;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.ImportMetrics;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.test.support.TestUtils;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class BulkImportTest extends TestBase {
+    private static final List<Class<?>> COLUMN_TYPES = Arrays.asList(Integer.class, String.class, Boolean.class);
+    private static final String TABLE_NAME = "table";
+
+    @Rule
+    public ExpectedException exception = ExpectedException.none();
+    private TableProviderFactory factory;
+    private TableProvider provider;
+    private Table table;
+
+    @Before
+    public void prepare() throws Exception {
+        factory = TestUtils.obtainFactory();
+        provider = factory.create(DB_ROOT.toString());
+        table = provider.createTable(TABLE_NAME, COLUMN_TYPES);
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        ((AutoCloseable) factory).close();
+        cleanDBRoot();
+    }
+
+    private static BufferedReader lines(String... lines) {
+        return new BufferedReader(new StringReader(String.join("\n", lines)));
+    }
+
+    private String getSerialized(String key) {
+        Storeable row = table.get(key);
+        return row == null ? null : provider.serialize(table, row);
+    }
+
+    @Test
+    public void testImportTSV() throws Exception {
+        ImportMetrics metrics = new BulkImporter(table).importRows(
+                lines("a\t1\tfirst\ttrue", "", "b\\tc\t\\N\ttab\\there\t\\N", "a\t2\tsecond\tFALSE"),
+                BulkImporter.Format.TSV);
+
+        assertEquals(3, metrics.getRowsCount());
+        assertEquals(2, table.size());
+        assertEquals("[2,\"second\",false]", getSerialized("a"));
+        assertEquals("[null,\"tab\there\",null]", getSerialized("b\tc"));
+        assertEquals("tab\there", table.get("b\tc").getStringAt(1));
+    }
+
+    @Test
+    public void testImportJSONLines() throws Exception {
+        new BulkImporter(table).importRows(
+                lines("[\"a\", 1, \"first\", true]", "[\"b \\\"quoted\\\"\", null, null, null]"),
+                BulkImporter.Format.JSON_LINES);
+
+        assertEquals(2, table.size());
+        assertEquals("[1,\"first\",true]", getSerialized("a"));
+        assertEquals("[null,null,null]", getSerialized("b \"quoted\""));
+    }
+
+    @Test
+    public void testImportInManyCommits() throws Exception {
+        StringBuilder source = new StringBuilder();
+        int rowsCount = 2000;
+        for (int i = 0; i < rowsCount; i++) {
+            source.append("key").append(i).append('\t').append(i).append("\tvalue").append(i).append("\ttrue\n");
+        }
+
+        ImportMetrics metrics = new BulkImporter(table, 3, 400).importRows(
+                new BufferedReader(new StringReader(source.toString())), BulkImporter.Format.TSV);
+
+        assertTrue(metrics.getCommitsCount() >= rowsCount / 400);
+        assertEquals(rowsCount, table.size());
+        for (int i = 0; i < rowsCount; i += 97) {
+            assertEquals("[" + i + ",\"value" + i + "\",true]", getSerialized("key" + i));
+        }
+
+        // Imported rows are committed.
+        ((AutoCloseable) factory).close();
+        factory = TestUtils.obtainFactory();
+        provider = factory.create(DB_ROOT.toString());
+        table = provider.getTable(TABLE_NAME);
+        assertEquals(rowsCount, table.size());
+        assertEquals("[1999,\"value1999\",true]", getSerialized("key1999"));
+    }
+
+    @Test
+    public void testImportDoesNotAffectUncommittedChanges() throws Exception {
+        table.put("own", provider.deserialize(table, "[0, \"own\", false]"));
+
+        new BulkImporter(table).importRows(lines("imported\t1\tx\ttrue"), BulkImporter.Format.TSV);
+
+        assertEquals(1, table.getNumberOfUncommittedChanges());
+        assertEquals(2, table.size());
+        assertEquals(1, table.rollback());
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void testImportReportsNumberOfWrongLine() throws Exception {
+        try {
+            new BulkImporter(table).importRows(
+                    lines("a\t1\tfirst\ttrue", "b\tnot a number\tsecond\ttrue"), BulkImporter.Format.TSV);
+            fail("Wrong row imported");
+        } catch (ParseException exc) {
+            assertEquals(2, exc.getErrorOffset());
+            assertThat(exc.getMessage(), startsWith("Line 2: wrong type ("));
+        }
+    }
+
+    @Test
+    public void testImportOfIrregularNumberOfColumns() throws Exception {
+        exception.expect(ParseException.class);
+        exception.expectMessage(startsWith("Line 1: wrong type (Irregular number of arguments given)"));
+
+        new BulkImporter(table).importRows(lines("a\t1\tfirst\ttrue\textra"), BulkImporter.Format.TSV);
+    }
+
+    @Test
+    public void testFormatIsChosenByExtension() {
+        assertEquals(BulkImporter.Format.TSV, BulkImporter.Format.forFile(DB_ROOT.resolve("rows.tsv")));
+        assertEquals(BulkImporter.Format.JSON_LINES, BulkImporter.Format.forFile(DB_ROOT.resolve("rows.JSONL")));
+
+        exception.expect(IllegalArgumentException.class);
+        BulkImporter.Format.forFile(DB_ROOT.resolve("rows.csv"));
+    }
+}
@@ -18,6 +18,9 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.*;
@@ -229,8 +232,14 @@ public class DatabaseShellTest extends InterpreterTestBase<SingleDatabaseShellSt
                 "using " + table,
                 String.format("table_name row_count$%n^%s 5", table),
                 String.format("%s not exists", fakeTable),
-                String.format("using %s$%n^a, b, c, d, e", table));
-        assertTrue("Interactive mode test fail", getOutput().matches(regex));
+                String.format("using %s$%n^(?<keys>[a-e], [a-e], [a-e], [a-e], [a-e])", table));
+        Matcher matcher = Pattern.compile(regex).matcher(getOutput());
+        assertTrue("Interactive mode test fail", matcher.matches());
+
+        // Keys order depends on table layout.
+        String[] keys = matcher.group("keys").split(", ");
+        Arrays.sort(keys);
+        assertArrayEquals(new String[] {"a", "b", "c", "d", "e"}, keys);
     }
 
     @Test
@@ -272,6 +281,69 @@ public class DatabaseShellTest extends InterpreterTestBase<SingleDatabaseShellSt
         assertEquals(makeTerminalExpectedMessage("using " + table, "3"), getOutput());
     }
 
+    @Test
+    public void testImport() throws TerminalException, IOException {
+        String table = "table";
+        createTableWithStringColumn(table);
+        Path rows = Files.createTempFile("rows", ".tsv");
+        try {
+            Files.write(rows, Arrays.asList("a\tfirst", "b\tsecond\\tline"));
+            runBatchExpectZero("use " + table, "import " + rows, "get b", "size");
+        } finally {
+            Files.delete(rows);
+        }
+
+        String output = getOutput();
+        assertThat(output, containsString("imported 2 rows"));
+        assertThat(output, containsString(makeTerminalExpectedMessage("found", "[\"second\tline\"]", "2")));
+    }
+
+    @Test
+    public void testExport() throws TerminalException, IOException {
+        String table = "table";
+        createTableWithStringColumn(table);
+        Path rows = Files.createTempFile("rows", ".jsonl");
+        try {
+            runBatchExpectZero("use " + table, "put a [\"first\"]", "commit", "put b [\"second\"]", "export " + rows);
+            assertEquals(Arrays.asList("[\"a\",\"first\"]"), Files.readAllLines(rows));
+        } finally {
+            Files.delete(rows);
+        }
+
+        assertThat(getOutput(), containsString("exported 1 rows"));
+    }
+
+    @Test
+    public void testScanAndPrefix() throws TerminalException {
+        String table = "table";
+        createTableWithStringColumn(table);
+        runBatchExpectZero(
+                "use " + table,
+                "put ab [\"1\"]; put b [\"2\"]; put aa [\"3\"]; put c [\"4\"]; commit",
+                "remove b; put ac [\"5\"]",
+                "scan aa c",
+                "scan b",
+                "prefix a");
+        assertEquals(
+                makeTerminalExpectedMessage(
+                        "using " + table,
+                        "new",
+                        "new",
+                        "new",
+                        "new",
+                        "4",
+                        "removed",
+                        "new",
+                        "aa [\"3\"]",
+                        "ab [\"1\"]",
+                        "ac [\"5\"]",
+                        "c [\"4\"]",
+                        "aa [\"3\"]",
+                        "ab [\"1\"]",
+                        "ac [\"5\"]"),
+                getOutput());
+    }
+
     @Test
     public void testShowUnexpectedOption() throws TerminalException {
         String option = "what?";
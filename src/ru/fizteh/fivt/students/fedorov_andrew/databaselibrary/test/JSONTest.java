@@ -99,6 +99,26 @@ public class JSONTest {
         assertEquals("{\"b\":{\"a\":cyclic}}", json);
     }
 
+    @Test
+    public void testNestedCallFromToString() {
+        Object inner = new Object() {
+            @Override
+            public String toString() {
+                return JSONMaker.makeJSON(Arrays.asList(1, "x"));
+            }
+        };
+
+        assertEquals("[\"[1,\\\"x\\\"]\",2.5]", JSONMaker.makeJSON(new Object[] {inner, 2.5}));
+        assertEquals("[true,null]", JSONMaker.makeJSON(Arrays.asList(true, null)));
+    }
+
+    @Test
+    public void testSameObjectTwiceIsNotCyclic() {
+        List<Long> list = Arrays.asList(1L, 2L);
+
+        assertEquals("[[1,2],[1,2]]", JSONMaker.makeJSON(new Object[] {list, list}));
+    }
+
     @JSONComplexObject
     class CyclicA {
         @JSONField
@@ -2,16 +2,21 @@ package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.test;
 
 import org.junit.Test;
 import ru.fizteh.fivt.proxy.LoggingProxyFactory;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.AsyncLogWriter;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.CallLogger;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.LoggingProxyFactoryXML;
 
 import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
 import java.io.StringReader;
+import java.io.Writer;
 import java.text.ParseException;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.*;
@@ -82,4 +87,99 @@ public class LoggingProxyFactoryXMLTest extends LoggingProxyFactoryTestBase {
         wrapped.equals(null);
         assertEquals("", getOutput());
     }
+
+    @Test
+    public void testCallLoggerReportsLikeProxy() throws Exception {
+        CallLogger logger = new CallLogger((LoggingProxyFactoryXML) factory, writer);
+        TestFace face = new TestFaceImpl();
+
+        wrapped.boolMethod(1, null);
+        assertTrue(logger.isEnabled());
+        logger.call(face, "boolMethod", () -> face.boolMethod(1, null), 1, null);
+        wrapped.doNothing();
+        assertTrue(logger.isEnabled());
+        logger.run(face, "doNothing", face::doNothing);
+
+        String[] lines = getOutput().replaceAll("timestamp=\"[0-9]+\"", "").split(NEW_LINE);
+        assertEquals(4, lines.length);
+        assertEquals(lines[0], lines[1]);
+        assertEquals(lines[2], lines[3]);
+    }
+
+    @Test
+    public void testSampling() {
+        ((LoggingProxyFactoryXML) factory).setSamplingPeriod(3);
+        for (int i = 0; i < 6; i++) {
+            wrapped.doNothing();
+        }
+
+        assertEquals(2, getOutput().split(NEW_LINE).length);
+        assertEquals(4, ((LoggingProxyFactoryXML) factory).getSkippedCount());
+    }
+
+    @Test
+    public void testAsyncWriting() throws Exception {
+        AsyncLogWriter asyncWriter = new AsyncLogWriter(writer, 16, AsyncLogWriter.OverflowPolicy.BLOCK, 2);
+        wrapped = (TestFace) ((LoggingProxyFactoryXML) factory).wrap(asyncWriter, new TestFaceImpl(), TestFace.class);
+
+        for (int i = 0; i < 5; i++) {
+            wrapped.boolMethod(i, null);
+        }
+        asyncWriter.flush();
+
+        String[] lines = getOutput().split(NEW_LINE);
+        assertEquals(5, lines.length);
+        for (int i = 0; i < 5; i++) {
+            assertThat(lines[i], containsString("<argument>" + i + "</argument>"));
+        }
+        assertEquals(5, asyncWriter.getQueuedCount());
+        assertEquals(5, asyncWriter.getWrittenCount());
+        assertEquals(0, asyncWriter.getDroppedCount());
+
+        asyncWriter.close();
+        assertFalse(asyncWriter.writeRecord("late"));
+        assertEquals(1, asyncWriter.getDroppedCount());
+    }
+
+    @Test
+    public void testAsyncWritingDropsOverflow() throws Exception {
+        CountDownLatch writeStarted = new CountDownLatch(1);
+        CountDownLatch writeAllowed = new CountDownLatch(1);
+        Writer slowWriter = new Writer() {
+            @Override
+            public void write(char[] cbuf, int off, int len) throws IOException {
+                writeStarted.countDown();
+                try {
+                    writeAllowed.await();
+                } catch (InterruptedException exc) {
+                    throw new IOException(exc);
+                }
+                writer.write(cbuf, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                writer.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                writer.close();
+            }
+        };
+        AsyncLogWriter asyncWriter = new AsyncLogWriter(slowWriter, 1, AsyncLogWriter.OverflowPolicy.DROP, 1);
+
+        assertTrue(asyncWriter.writeRecord("first"));
+        writeStarted.await();
+        // The first record is being written, the second waits in the queue, there is no room for the third.
+        assertTrue(asyncWriter.writeRecord("second"));
+        assertFalse(asyncWriter.writeRecord("third"));
+        assertEquals(1, asyncWriter.getPendingCount());
+
+        writeAllowed.countDown();
+        asyncWriter.close();
+        assertEquals("first" + NEW_LINE + "second" + NEW_LINE, getOutput());
+        assertEquals(2, asyncWriter.getQueuedCount());
+        assertEquals(1, asyncWriter.getDroppedCount());
+    }
 }
@@ -1,12 +1,33 @@
 package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.test;
 
 import org.junit.runner.RunWith;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.CommitMetrics;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.KeysPage;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.StringTableImpl;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.TableLayout;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.TableLayout.PartFormat;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.TablePart;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.TableStatistics;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.exception.DatabaseIOException;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Utility;
 
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.Map.Entry;
 
 import static org.junit.Assert.*;
@@ -14,6 +35,14 @@ import static ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.test.suppor
 
 @RunWith(org.junit.runners.JUnit4.class)
 public class ReadWriteTest {
+    /**
+     * Format of the file for {@link #performReadWriteFileMapTest(int, int, int, int, int, int)}.
+     */
+    private PartFormat format;
+    /**
+     * Whether the file must be mapped instead of being read.
+     */
+    private boolean mapped;
 
     /**
      * One test for reading/writing map.
@@ -48,10 +77,10 @@ public class ReadWriteTest {
             map.put(key, value);
         }
 
-        Path testPath = Paths.get(System.getProperty("user.home"), "test", "java_test.dat");
+        Path testPath = getTestPath();
         Files.deleteIfExists(testPath);
 
-        TablePart testFileMap = new TablePart(testPath);
+        TablePart testFileMap = new TablePart(testPath, format);
 
         for (Entry<String, String> e : map.entrySet()) {
             testFileMap.put(e.getKey(), e.getValue());
@@ -59,9 +88,11 @@ public class ReadWriteTest {
 
         testFileMap.commit();
 
-        testFileMap = new TablePart(testPath);
+        testFileMap = new TablePart(testPath, format);
 
-        if (Files.exists(testPath)) {
+        if (mapped) {
+            testFileMap.mapFile();
+        } else if (Files.exists(testPath)) {
             testFileMap.readFromFile();
         }
 
@@ -72,12 +103,620 @@ public class ReadWriteTest {
         }
     }
 
+    private Path getTestPath() {
+        return Paths.get(System.getProperty("user.home"), "test", "java_test.dat");
+    }
+
     /**
      * Integrity test for reading/writing map.
      * @throws Exception
      */
     @org.junit.Test
     public void testReadWriteFileMap() throws Exception {
+        performReadWriteFileMapTests(PartFormat.PLAIN, false);
+    }
+
+    /**
+     * Integrity test for writing map and reading it through memory mapping.
+     * @throws Exception
+     */
+    @org.junit.Test
+    public void testReadWriteMappedFileMap() throws Exception {
+        performReadWriteFileMapTests(PartFormat.PLAIN, true);
+    }
+
+    @org.junit.Test
+    public void testMappedFileMapCommit() throws Exception {
+        Path testPath = getTestPath();
+        Files.deleteIfExists(testPath);
+
+        TablePart part = new TablePart(testPath);
+        for (int i = 0; i < 100; i++) {
+            part.put("key" + i, "value" + i);
+        }
+        part.commit();
+
+        part = new TablePart(testPath);
+        part.mapFile();
+        assertEquals(100, part.size());
+
+        part.put("key0", "changed");
+        part.put("new", "value");
+        part.remove("key1");
+        part.remove("absent");
+        assertEquals(100, part.size());
+        assertEquals(100, part.keySet().size());
+        assertFalse(part.keySet().contains("key1"));
+        part.commit();
+
+        assertEquals("changed", part.get("key0"));
+        assertNull(part.get("key1"));
+
+        part = new TablePart(testPath);
+        part.mapFile();
+        assertEquals(100, part.size());
+        assertEquals("changed", part.get("key0"));
+        assertEquals("value", part.get("new"));
+        assertEquals("value99", part.get("key99"));
+        assertNull(part.get("key1"));
+    }
+
+    /**
+     * Random puts, removals, commits and rollbacks must give the same state as a usual map. Keys built of "Aa"
+     * and "BB" blocks have equal hash codes.
+     */
+    @org.junit.Test
+    public void testPartMatchesReferenceMap() throws Exception {
+        Path testPath = getTestPath();
+        Files.deleteIfExists(testPath);
+
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            keys.add("key" + i);
+        }
+        for (int mask = 0; mask < 16; mask++) {
+            StringBuilder key = new StringBuilder();
+            for (int bit = 0; bit < 4; bit++) {
+                key.append((mask & (1 << bit)) == 0 ? "Aa" : "BB");
+            }
+            keys.add(key.toString());
+        }
+
+        TablePart part = new TablePart(testPath);
+        Map<String, String> committed = new HashMap<>();
+        Map<String, String> actual = new HashMap<>();
+
+        for (int operation = 0; operation < 20000; operation++) {
+            String key = randElement(keys);
+            int choice = randInt(0, 99);
+            if (choice < 60) {
+                String value = randString(randInt(1, 5));
+                assertEquals(actual.put(key, value), part.put(key, value));
+            } else if (choice < 95) {
+                assertEquals(actual.remove(key), part.remove(key));
+            } else if (choice < 98) {
+                part.commit();
+                committed = new HashMap<>(actual);
+            } else {
+                part.rollback();
+                actual = new HashMap<>(committed);
+            }
+        }
+        part.commit();
+
+        assertEquals(actual.size(), part.size());
+        assertEquals(actual.keySet(), part.keySet());
+        for (String key : keys) {
+            assertEquals(actual.get(key), part.get(key));
+        }
+
+        part = new TablePart(testPath);
+        part.readFromFile();
+        assertEquals(actual.keySet(), part.keySet());
+        for (String key : keys) {
+            assertEquals(actual.get(key), part.get(key));
+        }
+    }
+
+    /**
+     * Integrity test for reading/writing map in log format.
+     * @throws Exception
+     */
+    @org.junit.Test
+    public void testReadWriteLogFileMap() throws Exception {
+        performReadWriteFileMapTests(PartFormat.LOG, false);
+    }
+
+    @org.junit.Test
+    public void testLogFileMapReplaysOverwritesAndRemovals() throws Exception {
+        Path testPath = getTestPath();
+        Files.deleteIfExists(testPath);
+
+        TablePart part = new TablePart(testPath, PartFormat.LOG);
+        for (int i = 0; i < 100; i++) {
+            part.put("key" + i, "old" + i);
+        }
+        part.commit();
+
+        for (int i = 0; i < 100; i += 2) {
+            part.put("key" + i, "new" + i);
+        }
+        part.remove("key1");
+        // No-op changes must not produce records.
+        part.put("key3", "old3");
+        part.remove("absent");
+        part.commit();
+
+        assertEquals(151, part.getStoredRecordsCount());
+
+        part = new TablePart(testPath, PartFormat.LOG);
+        part.readFromFile();
+        assertEquals(151, part.getStoredRecordsCount());
+        assertEquals(99, part.size());
+        assertEquals("new0", part.get("key0"));
+        assertEquals("old3", part.get("key3"));
+        assertNull(part.get("key1"));
+
+        long sizeBeforeCompaction = Files.size(testPath);
+        part.compact();
+        assertEquals(99, part.getStoredRecordsCount());
+        assertTrue(Files.size(testPath) < sizeBeforeCompaction);
+
+        part = new TablePart(testPath, PartFormat.LOG);
+        part.readFromFile();
+        assertEquals(99, part.size());
+        assertEquals("new98", part.get("key98"));
+        assertEquals("old99", part.get("key99"));
+    }
+
+    @org.junit.Test
+    public void testLogFileMapIgnoresIncompleteRecord() throws Exception {
+        Path testPath = getTestPath();
+        Files.deleteIfExists(testPath);
+
+        TablePart part = new TablePart(testPath, PartFormat.LOG);
+        part.put("a", "1");
+        part.commit();
+        long validSize = Files.size(testPath);
+        part.put("b", "2");
+        part.commit();
+
+        // Simulating crash in the middle of append.
+        try (FileChannel channel = FileChannel.open(testPath, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(testPath) - 1);
+        }
+
+        part = new TablePart(testPath, PartFormat.LOG);
+        part.readFromFile();
+        assertEquals(1, part.size());
+        assertEquals("1", part.get("a"));
+
+        // The broken tail is overwritten by the next commit.
+        part.put("c", "3");
+        part.commit();
+        assertTrue(Files.size(testPath) > validSize);
+
+        part = new TablePart(testPath, PartFormat.LOG);
+        part.readFromFile();
+        assertEquals(2, part.size());
+        assertEquals("3", part.get("c"));
+        assertNull(part.get("b"));
+    }
+
+    @org.junit.Test
+    public void testCommitWritesOnlyDirtyParts() throws Exception {
+        Path tableRoot = getTestPath().resolveSibling("commit_table");
+        if (Files.exists(tableRoot)) {
+            Utility.rm(tableRoot);
+        }
+        try {
+            StringTableImpl table = StringTableImpl.createTable(tableRoot);
+            for (int i = 0; i < 100; i++) {
+                table.put("key" + i, "value" + i);
+            }
+
+            assertEquals(100, table.commit());
+            CommitMetrics metrics = table.getLastCommitMetrics();
+            assertEquals(1, metrics.getCommitsCount());
+            assertEquals(100, metrics.getChangesCount());
+            assertEquals(listPartFiles(tableRoot).size(), metrics.getDirtyPartsCount());
+            assertTrue(metrics.getBytesWritten() > 0);
+
+            table.put("key0", "new value");
+            assertEquals(1, table.commit());
+            CommitMetrics lastMetrics = table.getLastCommitMetrics();
+            assertEquals(1, lastMetrics.getDirtyPartsCount());
+
+            // Commits without changes keep the metrics of the last written batch.
+            assertEquals(0, table.commit());
+            assertSame(lastMetrics, table.getLastCommitMetrics());
+            assertEquals(1, table.getLastCommitMetrics().getDirtyPartsCount());
+
+            table = StringTableImpl.getTable(tableRoot, path -> false);
+            assertEquals(100, table.size());
+            assertEquals("new value", table.get("key0"));
+            assertEquals("value99", table.get("key99"));
+        } finally {
+            Utility.rm(tableRoot);
+        }
+    }
+
+    @org.junit.Test
+    public void testFailedCommitKeepsCommittedState() throws Exception {
+        Path tableRoot = getTestPath().resolveSibling("commit_table");
+        if (Files.exists(tableRoot)) {
+            Utility.rm(tableRoot);
+        }
+        try {
+            StringTableImpl table = StringTableImpl.createTable(tableRoot);
+            table.put("a", "1");
+            table.put("b", "2");
+            table.commit();
+
+            table.put("a", "10");
+            table.put("c", "3");
+
+            // Temporary files of the existing parts cannot be written.
+            List<Path> temporaryDirectories = new ArrayList<>();
+            try (DirectoryStream<Path> partDirectories = Files.newDirectoryStream(tableRoot, "*.dir")) {
+                for (Path partDirectory : partDirectories) {
+                    try (DirectoryStream<Path> partFiles = Files.newDirectoryStream(partDirectory)) {
+                        for (Path partFile : partFiles) {
+                            Path temporaryDirectory = partFile.resolveSibling(partFile.getFileName() + ".tmp");
+                            Files.createDirectory(temporaryDirectory);
+                            Files.createFile(temporaryDirectory.resolve("blocker"));
+                            temporaryDirectories.add(temporaryDirectory);
+                        }
+                    }
+                }
+            }
+
+            try {
+                table.commit();
+                fail("Commit must fail");
+            } catch (DatabaseIOException exc) {
+                // Expected.
+            }
+            assertEquals(2, table.getNumberOfUncommittedChanges());
+
+            // Other threads still see the old state.
+            String[] seenValues = new String[2];
+            Thread reader = new Thread(
+                    () -> {
+                        seenValues[0] = table.get("a");
+                        seenValues[1] = table.get("c");
+                    });
+            reader.start();
+            reader.join();
+            assertEquals("1", seenValues[0]);
+            assertNull(seenValues[1]);
+
+            for (Path temporaryDirectory : temporaryDirectories) {
+                Utility.rm(temporaryDirectory);
+            }
+            assertEquals(2, table.commit());
+            assertEquals("10", StringTableImpl.getTable(tableRoot, path -> false).get("a"));
+        } finally {
+            Utility.rm(tableRoot);
+        }
+    }
+
+    @org.junit.Test
+    public void testConcurrentCommits() throws Exception {
+        Path tableRoot = getTestPath().resolveSibling("commit_table");
+        if (Files.exists(tableRoot)) {
+            Utility.rm(tableRoot);
+        }
+        try {
+            StringTableImpl table = StringTableImpl.createTable(tableRoot);
+            int threadsCount = 8;
+            int commitsCount = 20;
+
+            ExecutorService executor = Executors.newFixedThreadPool(threadsCount);
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < threadsCount; t++) {
+                int thread = t;
+                results.add(
+                        executor.submit(
+                                () -> {
+                                    int committed = 0;
+                                    for (int c = 0; c < commitsCount; c++) {
+                                        table.put("common", "value" + thread);
+                                        table.put("key" + thread + "_" + c, "value" + c);
+                                        committed += table.commit();
+                                    }
+                                    return committed;
+                                }));
+            }
+            for (Future<Integer> result : results) {
+                assertEquals(commitsCount * 2, (int) result.get());
+            }
+            executor.shutdown();
+
+            StringTableImpl reopened = StringTableImpl.getTable(tableRoot, path -> false);
+            assertEquals(threadsCount * commitsCount + 1, reopened.size());
+            assertEquals("value" + (commitsCount - 1), reopened.get("key0_" + (commitsCount - 1)));
+            assertTrue(reopened.get("common").startsWith("value"));
+        } finally {
+            Utility.rm(tableRoot);
+        }
+    }
+
+    @org.junit.Test
+    public void testConcurrentCommitsFailIndependently() throws Exception {
+        Path tableRoot = getTestPath().resolveSibling("commit_table");
+        if (Files.exists(tableRoot)) {
+            Utility.rm(tableRoot);
+        }
+        try {
+            StringTableImpl table = StringTableImpl.createTable(tableRoot);
+            table.put("a", "1");
+            table.commit();
+            Path brokenPart = listPartFiles(tableRoot).get(0);
+
+            // Looking for a key stored in another part.
+            String goodKey = null;
+            for (int i = 0; goodKey == null; i++) {
+                table.put("key" + i, "1");
+                table.commit();
+                if (listPartFiles(tableRoot).size() > 1) {
+                    goodKey = "key" + i;
+                }
+            }
+
+            Path temporaryDirectory = brokenPart.resolveSibling(brokenPart.getFileName() + ".tmp");
+            Files.createDirectory(temporaryDirectory);
+            Files.createFile(temporaryDirectory.resolve("blocker"));
+
+            String key = goodKey;
+            ExecutorService executor = Executors.newFixedThreadPool(2);
+            Future<Integer> failing = executor.submit(
+                    () -> {
+                        table.put("a", "2");
+                        return table.commit();
+                    });
+            Future<Integer> succeeding = executor.submit(
+                    () -> {
+                        table.put(key, "2");
+                        return table.commit();
+                    });
+
+            assertEquals(1, (int) succeeding.get());
+            try {
+                failing.get();
+                fail("Commit must fail");
+            } catch (ExecutionException exc) {
+                assertTrue(exc.getCause() instanceof DatabaseIOException);
+            }
+            executor.shutdown();
+
+            Utility.rm(temporaryDirectory);
+            StringTableImpl reopened = StringTableImpl.getTable(tableRoot, path -> false);
+            assertEquals("1", reopened.get("a"));
+            assertEquals("2", reopened.get(key));
+        } finally {
+            Utility.rm(tableRoot);
+        }
+    }
+
+    @org.junit.Test
+    public void testCommitOfManyPartsIsSeenAtOnce() throws Exception {
+        Path tableRoot = getTestPath().resolveSibling("publish_table");
+        if (Files.exists(tableRoot)) {
+            Utility.rm(tableRoot);
+        }
+        try {
+            StringTableImpl table = StringTableImpl.createTable(tableRoot);
+            int keysCount = 32;
+            int commitsCount = 100;
+            String lastKey = "key" + (keysCount - 1);
+            for (int i = 0; i < keysCount; i++) {
+                table.put("key" + i, "0");
+            }
+            table.commit();
+            assertTrue("Keys must be stored in several parts", listPartFiles(tableRoot).size() > 1);
+
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            Future<?> reader = executor.submit(
+                    () -> {
+                        int lastSeen = 0;
+                        while (lastSeen < commitsCount) {
+                            Set<String> values = new HashSet<>();
+                            table.scan(null, null).forEachRemaining(entry -> values.add(entry.getValue()));
+                            assertEquals("Scan must see one commit: " + values, 1, values.size());
+
+                            int first = Integer.parseInt(table.get("key0"));
+                            int last = Integer.parseInt(table.get(lastKey));
+                            assertTrue("Later read must not see older commit", last >= first);
+                            lastSeen = last;
+                        }
+                        return null;
+                    });
+
+            for (int c = 1; c <= commitsCount; c++) {
+                for (int i = 0; i < keysCount; i++) {
+                    table.put("key" + i, Integer.toString(c));
+                }
+                table.commit();
+            }
+            reader.get();
+            executor.shutdown();
+        } finally {
+            Utility.rm(tableRoot);
+        }
+    }
+
+    @org.junit.Test
+    public void testSizeCountsOwnChangesOverConcurrentCommits() throws Exception {
+        Path tableRoot = getTestPath().resolveSibling("size_table");
+        if (Files.exists(tableRoot)) {
+            Utility.rm(tableRoot);
+        }
+        try {
+            StringTableImpl table = StringTableImpl.createTable(tableRoot);
+            for (int i = 0; i < 10; i++) {
+                table.put("key" + i, "old");
+            }
+            assertEquals(10, table.size());
+            table.commit();
+
+            table.put("key0", "new");
+            table.remove("key1");
+            table.remove("key1");
+            table.put("key10", "new");
+            table.put("key11", "new");
+            table.remove("key11");
+            assertEquals(10, table.size());
+
+            Thread other = new Thread(
+                    () -> {
+                        table.put("key10", "other");
+                        table.remove("key2");
+                        table.put("key12", "other");
+                        try {
+                            table.commit();
+                        } catch (DatabaseIOException exc) {
+                            throw new AssertionError(exc);
+                        }
+                    });
+            other.start();
+            other.join();
+
+            // Committed now: key0..key9 except key2, key10 and key12. This thread removes key1 and overwrites key10.
+            assertEquals(table.list().size(), table.size());
+            assertEquals(10, table.size());
+            table.rollback();
+            assertEquals(11, table.size());
+        } finally {
+            Utility.rm(tableRoot);
+        }
+    }
+
+    @org.junit.Test
+    public void testLazyTableTakesSizeFromStatistics() throws Exception {
+        Path tableRoot = getTestPath().resolveSibling("statistics_table");
+        if (Files.exists(tableRoot)) {
+            Utility.rm(tableRoot);
+        }
+        try {
+            StringTableImpl table = StringTableImpl.createTable(tableRoot);
+            for (int i = 0; i < 100; i++) {
+                table.put("key" + i, "value" + i);
+            }
+            long beforeCommit = System.currentTimeMillis();
+            table.commit();
+
+            TableStatistics statistics = table.getStatistics();
+            assertEquals(100, statistics.getRowsCount());
+            long partFilesSize = 0;
+            for (Path partFile : listPartFiles(tableRoot)) {
+                partFilesSize += Files.size(partFile);
+            }
+            assertEquals(partFilesSize, statistics.getBytesCount());
+            assertTrue(statistics.getLastCommitTime() >= beforeCommit);
+
+            Path statisticsPath = tableRoot.resolve(TableStatistics.STATISTICS_FILENAME);
+            List<String> lines = Files.readAllLines(statisticsPath);
+            List<String> fakeLines = new ArrayList<>();
+            for (String line : lines) {
+                fakeLines.add(line.startsWith("rows=") ? "rows=12345" : line);
+            }
+
+            // Statistics matching part files are trusted without reading the parts.
+            Files.write(statisticsPath, fakeLines);
+            assertEquals(12345, StringTableImpl.getTable(tableRoot, path -> false, true).size());
+            assertEquals(100, StringTableImpl.getTable(tableRoot, path -> false, false).size());
+
+            // Outdated statistics are ignored.
+            table.put("key100", "value");
+            table.commit();
+            Files.write(statisticsPath, fakeLines);
+            assertEquals(101, StringTableImpl.getTable(tableRoot, path -> false, true).size());
+        } finally {
+            Utility.rm(tableRoot);
+        }
+    }
+
+    @org.junit.Test
+    public void testListKeysByPages() throws Exception {
+        Path tableRoot = getTestPath().resolveSibling("pages_table");
+        if (Files.exists(tableRoot)) {
+            Utility.rm(tableRoot);
+        }
+        try {
+            StringTableImpl table = StringTableImpl.createTable(tableRoot, TableLayout.withPartsCount(4));
+            Set<String> expectedKeys = new HashSet<>();
+            for (int i = 0; i < 1000; i++) {
+                table.put("key" + i, "value");
+                expectedKeys.add("key" + i);
+            }
+            table.commit();
+            table.remove("key0");
+            table.put("new key", "value");
+            expectedKeys.remove("key0");
+            expectedKeys.add("new key");
+
+            // Parts hold several pages of keys each.
+            assertTrue(expectedKeys.size() > 3 * 50 * table.getLayout().getPartsCount());
+            List<String> keys = new ArrayList<>();
+            KeysPage.Position position = KeysPage.FIRST_POSITION;
+            while (position != KeysPage.END_POSITION) {
+                KeysPage page = table.listKeys(position, 50);
+                assertTrue(page.getKeys().size() <= 50);
+                assertTrue(page.isLast() || page.getKeys().size() == 50);
+                keys.addAll(page.getKeys());
+                position = page.getNextPosition();
+            }
+            assertEquals(expectedKeys.size(), keys.size());
+            assertEquals(expectedKeys, new HashSet<>(keys));
+
+            keys.clear();
+            table.keysIterator().forEachRemaining(keys::add);
+            assertEquals(expectedKeys.size(), keys.size());
+            assertEquals(expectedKeys, new HashSet<>(keys));
+
+            // Removal of a listed key does not shift the rest of its part.
+            KeysPage firstPage = table.listKeys(KeysPage.FIRST_POSITION, 50);
+            keys = new ArrayList<>(firstPage.getKeys());
+            table.remove(keys.get(0));
+            position = firstPage.getNextPosition();
+            while (position != KeysPage.END_POSITION) {
+                KeysPage page = table.listKeys(position, 50);
+                keys.addAll(page.getKeys());
+                position = page.getNextPosition();
+            }
+            assertEquals(expectedKeys.size(), keys.size());
+            assertEquals(expectedKeys, new HashSet<>(keys));
+
+            try {
+                table.listKeys(KeysPage.END_POSITION, 50);
+                fail("Invalid position must be rejected");
+            } catch (IllegalArgumentException exc) {
+                // Expected.
+            }
+        } finally {
+            Utility.rm(tableRoot);
+        }
+    }
+
+    private static List<Path> listPartFiles(Path tableRoot) throws IOException {
+        List<Path> partFiles = new ArrayList<>();
+        try (DirectoryStream<Path> partDirectories = Files.newDirectoryStream(tableRoot, "*.dir")) {
+            for (Path partDirectory : partDirectories) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(partDirectory, "*.dat")) {
+                    for (Path partFile : files) {
+                        partFiles.add(partFile);
+                    }
+                }
+            }
+        }
+        return partFiles;
+    }
+
+    private void performReadWriteFileMapTests(PartFormat format, boolean mapped) throws Exception {
+        this.format = format;
+        this.mapped = mapped;
+
         int tests = randInt(10, 50);
 
         int keysMin = 1;
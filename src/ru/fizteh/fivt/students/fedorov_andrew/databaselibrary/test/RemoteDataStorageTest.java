@@ -13,13 +13,19 @@ import ru.fizteh.fivt.storage.structured.Table;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.AutoCloseableProvider;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.AutoCloseableTableProviderFactory;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.DBTableProviderFactory;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.KeysPage;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.PageableTable;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.remote.RemoteDatabaseStorage;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.remote.RemoteTableProviderFactoryImpl;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.exception.InvalidatedObjectException;
 
 import java.io.IOException;
 import java.rmi.registry.Registry;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import static org.junit.Assert.*;
 
@@ -89,6 +95,33 @@ public class RemoteDataStorageTest extends TestBase {
         assertSame(remoteTableB, remoteTableC);
     }
 
+    @Test
+    public void testRemoteTableListsKeysByPages() throws Exception {
+        RemoteDatabaseStorage storage = new RemoteDatabaseStorage();
+        RemoteTableProvider provider = storage.connect("localhost", Registry.REGISTRY_PORT);
+
+        Table remoteTable = provider.createTable("table", Arrays.asList(String.class));
+        Set<String> expectedKeys = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            remoteTable.put("key" + i, provider.createFor(remoteTable, Arrays.asList("value")));
+            expectedKeys.add("key" + i);
+        }
+
+        List<String> keys = new ArrayList<>();
+        int pagesCount = 0;
+        KeysPage.Position position = KeysPage.FIRST_POSITION;
+        while (position != KeysPage.END_POSITION) {
+            KeysPage page = ((PageableTable) remoteTable).listKeys(position, 100);
+            keys.addAll(page.getKeys());
+            position = page.getNextPosition();
+            pagesCount++;
+        }
+
+        assertEquals(expectedKeys.size(), keys.size());
+        assertEquals(expectedKeys, new HashSet<>(keys));
+        assertTrue(pagesCount > 1);
+    }
+
     @Test
     public void testServerTableCloseInvalidatesRemoteTable() throws Exception {
         RemoteDatabaseStorage storage = new RemoteDatabaseStorage();
@@ -15,6 +15,7 @@ import ru.fizteh.fivt.storage.structured.Table;
 import ru.fizteh.fivt.storage.structured.TableProvider;
 import ru.fizteh.fivt.storage.structured.TableProviderFactory;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.DBTableProviderFactory;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.StoreableImpl;
 
 import java.io.IOException;
 import java.util.Arrays;
@@ -182,4 +183,51 @@ public class StoreableTest extends TestBase {
 
         assertNull(storeable.getColumnAt(0));
     }
+
+    @Test
+    public void testUnboxedAccessors() {
+        StoreableImpl row = (StoreableImpl) storeable;
+        row.setString(0, "Word");
+        row.setInt(1, 200);
+        row.setDouble(2, -0.5);
+        row.setFloat(3, 3.14f);
+        row.setBoolean(4, true);
+        row.setByte(5, (byte) 12);
+        row.setLong(6, 1L << 48);
+
+        assertEquals(200, row.getInt(1));
+        assertEquals(-0.5, row.getDouble(2), 0.0);
+        assertEquals(3.14f, row.getFloat(3), 0.0f);
+        assertTrue(row.getBoolean(4));
+        assertEquals((byte) 12, row.getByte(5));
+        assertEquals(1L << 48, row.getLong(6));
+        assertEquals("StoreableImpl[Word,200,-0.5,3.14,true,12,281474976710656]", row.toString());
+
+        // Unboxed and boxed accessors see the same values.
+        Storeable boxed = provider.createFor(table, Arrays.asList("Word", 200, -0.5, 3.14f, true, (byte) 12, 1L << 48));
+        assertEquals(boxed, row);
+        assertEquals(Integer.valueOf(200), row.getIntAt(1));
+
+        row.setNull(1);
+        row.setString(0, null);
+        assertTrue(row.isNull(0));
+        assertTrue(row.isNull(1));
+        assertNull(row.getColumnAt(1));
+        assertNotEquals(boxed, row);
+    }
+
+    @Test
+    public void testUnboxedGetOfNull() {
+        exception.expect(NullPointerException.class);
+        ((StoreableImpl) storeable).getInt(1);
+    }
+
+    @Test
+    public void testUnboxedSetOfWrongType() {
+        exception.expect(ColumnFormatException.class);
+        exception.expectMessage(
+                wrongTypeMatcherAndAllOf(
+                        containsString("Expected instance of " + INT_TYPE), containsString("got " + LONG_TYPE)));
+        ((StoreableImpl) storeable).setLong(1, 1);
+    }
 }
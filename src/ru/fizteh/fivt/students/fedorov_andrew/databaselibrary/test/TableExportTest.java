@@ -0,0 +1,234 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.test;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import ru.fizteh.fivt.storage.structured.Storeable;
+import ru.fizteh.fivt.storage.structured.Table;
+import ru.fizteh.fivt.storage.structured.TableProviderFactory;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.AutoCloseableProvider;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.BulkImporter;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.ExportMetrics;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.TableExporter;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.TableLayout;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.test.support.TestUtils;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class TableExportTest extends TestBase {
+    private static final List<Class<?>> COLUMN_TYPES = Arrays.asList(Integer.class, String.class, Boolean.class);
+
+    private TableProviderFactory factory;
+    private AutoCloseableProvider provider;
+    private Table table;
+
+    @Before
+    public void prepare() throws Exception {
+        factory = TestUtils.obtainFactory();
+        provider = (AutoCloseableProvider) factory.create(DB_ROOT.toString());
+        table = provider.createTable("table", COLUMN_TYPES);
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        ((AutoCloseable) factory).close();
+        cleanDBRoot();
+    }
+
+    private void putRow(Table target, String key, Integer number, String string, Boolean flag) {
+        target.put(key, provider.createFor(target, Arrays.asList(number, string, flag)));
+    }
+
+    private static String exportToString(Table source, TableExporter.Format format) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new TableExporter(source).export(output, format);
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, String> readJSONLines(String text) {
+        Map<String, String> lines = new HashMap<>();
+        for (String line : text.split("\n")) {
+            if (!line.isEmpty()) {
+                lines.put(line.substring(0, line.indexOf("\",") + 1), line);
+            }
+        }
+        return lines;
+    }
+
+    @Test
+    public void testExportJSONLinesIsImportedBack() throws Exception {
+        putRow(table, "a", 1, "first", true);
+        putRow(table, "b \"quoted\" \\", null, "x \"y\"", null);
+        table.commit();
+        putRow(table, "uncommitted", 2, "second", false);
+
+        String exported = exportToString(table, TableExporter.Format.JSON_LINES);
+        assertEquals(2, readJSONLines(exported).size());
+        assertTrue(exported.contains("[\"a\",1,\"first\",true]\n"));
+
+        Table copy = provider.createTable("copy", COLUMN_TYPES);
+        new BulkImporter(copy).importRows(
+                new BufferedReader(new StringReader(exported)), BulkImporter.Format.JSON_LINES);
+        assertEquals(2, copy.size());
+        assertEquals("[null,\"x \\\"y\\\"\",null]", provider.serialize(copy, copy.get("b \"quoted\" \\")));
+    }
+
+    @Test
+    public void testExportOfBinaryRowsAsJSONLines() throws Exception {
+        Table binary = provider.createTable(
+                "binary", COLUMN_TYPES, TableLayout.DEFAULT.withRowFormat(TableLayout.RowFormat.BINARY));
+        putRow(binary, "a", -5, "first", true);
+        putRow(binary, "b", null, null, false);
+        binary.commit();
+
+        Map<String, String> lines = readJSONLines(exportToString(binary, TableExporter.Format.JSON_LINES));
+        assertEquals("[\"a\",-5,\"first\",true]", lines.get("[\"a\""));
+        assertEquals("[\"b\",null,null,false]", lines.get("[\"b\""));
+    }
+
+    @Test
+    public void testExportOfLineBreaksIsImportedBack() throws Exception {
+        Table binary = provider.createTable(
+                "binary", COLUMN_TYPES, TableLayout.DEFAULT.withRowFormat(TableLayout.RowFormat.BINARY));
+        String key = "multi\nline\r\nkey \\n";
+        String value = "first line\nsecond line\r\n\\r";
+        for (Table source : Arrays.asList(table, binary)) {
+            putRow(source, key, 1, value, true);
+            putRow(source, "single", 2, "line", false);
+            source.commit();
+
+            String exported = exportToString(source, TableExporter.Format.JSON_LINES);
+            assertEquals(source.getName(), 2, exported.split("\n").length);
+            assertFalse(source.getName(), exported.contains("\r"));
+
+            Table copy = provider.createTable(source.getName() + "Copy", COLUMN_TYPES);
+            new BulkImporter(copy).importRows(
+                    new BufferedReader(new StringReader(exported)), BulkImporter.Format.JSON_LINES);
+            assertEquals(source.getName(), 2, copy.size());
+            assertEquals(source.getName(), value, copy.get(key).getStringAt(1));
+            assertEquals(source.getName(), "line", copy.get("single").getStringAt(1));
+        }
+    }
+
+    @Test
+    public void testExportDump() throws Exception {
+        putRow(table, "a", 1, "первый", true);
+        table.commit();
+
+        Path file = DB_ROOT.resolve("table.dump");
+        ExportMetrics metrics = new TableExporter(table).exportFile(file, TableExporter.Format.forFile(file));
+        assertEquals(1, metrics.getRowsCount());
+        assertEquals(Files.size(file), metrics.getBytesCount());
+
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file)))) {
+            assertEquals(TableExporter.Format.DUMP_MAGIC, input.readInt());
+            assertEquals(TableExporter.Format.DUMP_VERSION, input.readInt());
+            assertEquals(TableLayout.RowFormat.JSON.name(), input.readUTF());
+            assertEquals(3, input.readInt());
+            assertEquals("int", input.readUTF());
+            assertEquals("String", input.readUTF());
+            assertEquals("boolean", input.readUTF());
+
+            assertEquals(1, input.readByte());
+            assertEquals("a", readBytes(input));
+            assertEquals("[1,\"первый\",true]", readBytes(input));
+            assertEquals(0, input.readByte());
+            assertEquals(1, input.readLong());
+            assertEquals(-1, input.read());
+        }
+    }
+
+    private static String readBytes(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The output commits new versions of all rows from another thread when the exporter writes to it for the
+     * first time, which happens after the buffer of the exporter is filled and before the snapshot is read to
+     * the end. The commit must not wait for the export and must not be seen by it.
+     */
+    @Test
+    public void testExportIsConsistentWhileCommitsContinue() throws Exception {
+        int rowsCount = 5000;
+        String padding = String.join("", Collections.nCopies(300, "p"));
+        for (int i = 0; i < rowsCount; i++) {
+            putRow(table, "key" + i, 0, padding, true);
+        }
+        table.commit();
+
+        AtomicReference<Throwable> committerFailure = new AtomicReference<>();
+        Thread committer = new Thread(
+                () -> {
+                    try {
+                        for (int i = 0; i < rowsCount; i++) {
+                            putRow(table, "key" + i, 1, padding, false);
+                        }
+                        table.remove("key0");
+                        putRow(table, "new", 1, padding, false);
+                        table.commit();
+                    } catch (Throwable exc) {
+                        committerFailure.set(exc);
+                    }
+                });
+
+        ByteArrayOutputStream exported = new ByteArrayOutputStream();
+        OutputStream output = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (committer.getState() == Thread.State.NEW) {
+                    committer.start();
+                    try {
+                        committer.join(TimeUnit.SECONDS.toMillis(30));
+                    } catch (InterruptedException exc) {
+                        throw new IOException(exc);
+                    }
+                    assertFalse("Commit waits for the export", committer.isAlive());
+                }
+                exported.write(b, off, len);
+            }
+        };
+
+        ExportMetrics metrics = new TableExporter(table).export(output, TableExporter.Format.JSON_LINES);
+        assertNull(committerFailure.get());
+        assertFalse(committer.getState() == Thread.State.NEW);
+
+        Map<String, String> lines = readJSONLines(new String(exported.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(rowsCount, metrics.getRowsCount());
+        assertEquals(rowsCount, lines.size());
+        for (int i = 0; i < rowsCount; i++) {
+            assertEquals("[\"key" + i + "\",0,\"" + padding + "\",true]", lines.get("[\"key" + i + "\""));
+        }
+
+        Storeable row = table.get("key1");
+        assertEquals(Integer.valueOf(1), row.getIntAt(0));
+        assertEquals(rowsCount, table.size());
+    }
+}
@@ -12,20 +12,39 @@ import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 import ru.fizteh.fivt.storage.structured.ColumnFormatException;
+import ru.fizteh.fivt.storage.structured.Index;
+import ru.fizteh.fivt.storage.structured.IndexProvider;
 import ru.fizteh.fivt.storage.structured.Storeable;
 import ru.fizteh.fivt.storage.structured.Table;
 import ru.fizteh.fivt.storage.structured.TableProvider;
 import ru.fizteh.fivt.storage.structured.TableProviderFactory;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.AutoCloseableProvider;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.BloomFilterMetrics;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.DBTableProviderFactory;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.RowFormatConverter;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.ScannableTable;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.StoreableTableImpl;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.StringTableImpl;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.TableLayout;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.TableLayout.KeyOrder;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.TableLayout.PartFormat;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.TableLayout.RowFormat;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.TableRebucketer;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.TableValidation;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.ValueCache;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.db.ValueCacheMetrics;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.exception.ImproperStoreableException;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.exception.InvalidatedObjectException;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.exception.TableCorruptIOException;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.parallel.ControllableAgent;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.parallel.ControllableRunnable;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.parallel.ControllableRunner;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Utility;
 import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.test.support.TestUtils;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -36,8 +55,11 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.*;
@@ -70,6 +92,9 @@ public class TableProviderTest extends TestBase {
 
     @After
     public void cleanupProvider() throws Exception {
+        System.clearProperty(TableValidation.PROPERTY_NAME);
+        System.clearProperty(StoreableTableImpl.ROW_CACHE_SIZE_PROPERTY_NAME);
+        System.clearProperty(StringTableImpl.COMMIT_LOG_APPLY_DELAY_PROPERTY_NAME);
         if (provider instanceof AutoCloseable) {
             ((AutoCloseable) provider).close();
         }
@@ -477,6 +502,65 @@ public class TableProviderTest extends TestBase {
         assertEquals("3, 4", storeable.getStringAt(1));
     }
 
+    @Test
+    public void testDeserializeTypedValues() throws IOException, ParseException {
+        Table table = createTable(
+                Integer.class, Long.class, Byte.class, Double.class, Float.class, Boolean.class, String.class,
+                String.class);
+
+        Storeable storeable = provider.deserialize(
+                table, "  [ -2147483648 ,9223372036854775807,+12,1.5e3, -0.25 ,TRUE,\"a\\\\b \\\" c\\n\", NULL]  ");
+
+        assertEquals(Integer.MIN_VALUE, (int) storeable.getIntAt(0));
+        assertEquals(Long.MAX_VALUE, (long) storeable.getLongAt(1));
+        assertEquals(12, (byte) storeable.getByteAt(2));
+        assertEquals(1500.0, storeable.getDoubleAt(3), 0);
+        assertEquals(-0.25f, storeable.getFloatAt(4), 0);
+        assertEquals(true, storeable.getBooleanAt(5));
+        assertEquals("a\\b \" c\\n", storeable.getStringAt(6));
+        assertEquals(null, storeable.getStringAt(7));
+    }
+
+    @Test
+    public void testDeserializeOutOfRangeValue() throws IOException, ParseException {
+        Table table = createTable(Byte.class);
+
+        exception.expect(ParseException.class);
+        exception.expectMessage(wrongTypeMatcherAndAllOf(containsString("expects Byte")));
+
+        provider.deserialize(table, "[128]");
+    }
+
+    @Test
+    public void testDeserializeFractionalInteger() throws IOException, ParseException {
+        Table table = createTable(Integer.class);
+
+        exception.expect(ParseException.class);
+        exception.expectMessage(wrongTypeMatcherAndAllOf(containsString("expects Integer")));
+
+        provider.deserialize(table, "[1.0]");
+    }
+
+    @Test
+    public void testDeserializeComplexValue() throws IOException, ParseException {
+        Table table = createTable(Integer.class, String.class);
+
+        exception.expect(ParseException.class);
+        exception.expectMessage(wrongTypeMatcherAndAllOf(containsString("Complex types are not supported")));
+
+        provider.deserialize(table, "[1, [\"2\"]]");
+    }
+
+    @Test
+    public void testDeserializeUnquotedString() throws IOException, ParseException {
+        Table table = createTable(String.class);
+
+        exception.expect(ParseException.class);
+        exception.expectMessage(wrongTypeMatcherAndAllOf(containsString("String expected to be in quotes")));
+
+        provider.deserialize(table, "[abc]");
+    }
+
     @Test
     public void testPutOneStoreableToAnotherTable2() throws IOException {
         String nameA = "tableA";
@@ -548,7 +632,9 @@ public class TableProviderTest extends TestBase {
 
         try (DirectoryStream<Path> partDirs = Files.newDirectoryStream(DB_ROOT.resolve(tmpTable))) {
             for (Path path : partDirs) {
-                paths.add(path);
+                if (Files.isDirectory(path)) {
+                    paths.add(path);
+                }
             }
         }
 
@@ -576,4 +662,853 @@ public class TableProviderTest extends TestBase {
                 "Table " + tmpTable + " is corrupt: Some keys are stored in improper places");
         provider.getTable(tmpTable);
     }
+
+    private int countPartFiles(Path tableRoot) throws IOException {
+        return (int) Files.walk(tableRoot).filter(path -> path.toString().endsWith(".dat")).count();
+    }
+
+    @Test
+    public void testCreateTableWithPartsCount() throws Exception {
+        String tableName = "table";
+        Table table = ((AutoCloseableProvider) provider)
+                .createTable(tableName, DEFAULT_COLUMN_TYPES, TableLayout.withPartsCount(4));
+
+        for (int i = 0; i < 100; i++) {
+            table.put("user:" + i, provider.createFor(table, Arrays.asList("value" + i)));
+        }
+        table.commit();
+
+        assertEquals(4, countPartFiles(DB_ROOT.resolve(tableName)));
+
+        prepareProvider();
+        table = provider.getTable(tableName);
+        assertEquals(100, table.size());
+        assertEquals("value42", table.get("user:42").getStringAt(0));
+    }
+
+    @Test
+    public void testCreateTableWithTooManyParts() throws Exception {
+        exception.expect(IllegalArgumentException.class);
+        exception.expectMessage("Parts count must be between");
+
+        ((AutoCloseableProvider) provider)
+                .createTable(
+                        "table",
+                        DEFAULT_COLUMN_TYPES,
+                        TableLayout.withPartsCount(TableLayout.MAX_PARTS_COUNT + 1));
+    }
+
+    @Test
+    public void testCreateTableWithLogFormat() throws Exception {
+        String tableName = "table";
+        Table table = ((AutoCloseableProvider) provider).createTable(
+                tableName, DEFAULT_COLUMN_TYPES, TableLayout.withPartsCount(4).withFormat(PartFormat.LOG));
+
+        for (int i = 0; i < 100; i++) {
+            table.put("key" + i, provider.createFor(table, Arrays.asList("value" + i)));
+        }
+        table.commit();
+        table.remove("key0");
+        table.put("key1", provider.createFor(table, Arrays.asList("changed")));
+        table.commit();
+
+        prepareProvider();
+        table = provider.getTable(tableName);
+        assertEquals(99, table.size());
+        assertNull(table.get("key0"));
+        assertEquals("changed", table.get("key1").getStringAt(0));
+        assertEquals(
+                PartFormat.LOG,
+                StringTableImpl.getTable(DB_ROOT.resolve(tableName), path -> true).getLayout().getFormat());
+
+        provider.removeTable(tableName);
+        assertFalse(Files.exists(DB_ROOT.resolve(tableName)));
+    }
+
+    @Test
+    public void testOpenTableWithoutLayoutFile() throws Exception {
+        Path tableRoot = DB_ROOT.resolve("legacy");
+        StringTableImpl table = StringTableImpl.createTable(tableRoot, TableLayout.LEGACY);
+        table.put("user:1", "a");
+        table.put("user:2", "b");
+        table.put("order:1", "c");
+        table.commit();
+
+        assertFalse(Files.exists(tableRoot.resolve(TableLayout.LAYOUT_FILENAME)));
+        // All keys starting with the same character share one part.
+        assertEquals(2, countPartFiles(tableRoot));
+        // Older versions reject tables with files they do not know.
+        try (Stream<Path> files = Files.walk(tableRoot)) {
+            files.filter(Files::isRegularFile).forEach(
+                    file -> assertTrue(file.toString(), file.getFileName().toString().matches("\\d+\\.dat")));
+        }
+
+        table = StringTableImpl.getTable(tableRoot, path -> false);
+        assertEquals(TableLayout.LEGACY, table.getLayout());
+        assertEquals("b", table.get("user:2"));
+        assertEquals(3, table.size());
+    }
+
+    @Test
+    public void testRebucketTable() throws Exception {
+        Path tableRoot = DB_ROOT.resolve("legacy");
+        StringTableImpl table = StringTableImpl.createTable(tableRoot, TableLayout.LEGACY);
+        for (int i = 0; i < 100; i++) {
+            table.put("user:" + i, "value" + i);
+        }
+        table.commit();
+        Files.createFile(tableRoot.resolve("extra.txt"));
+
+        assertEquals(100, TableRebucketer.rebucket(tableRoot, 8));
+
+        assertTrue(Files.exists(tableRoot.resolve("extra.txt")));
+        assertEquals(8, countPartFiles(tableRoot));
+
+        table = StringTableImpl.getTable(tableRoot, path -> path.toString().equals("extra.txt"));
+        assertEquals(TableLayout.withPartsCount(8), table.getLayout());
+        assertEquals(100, table.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("value" + i, table.get("user:" + i));
+        }
+    }
+
+    @Test
+    public void testOpenTableLazily() throws Exception {
+        Path tableRoot = DB_ROOT.resolve("lazy");
+        StringTableImpl table = StringTableImpl.createTable(tableRoot);
+        for (int i = 0; i < 1000; i++) {
+            table.put("key" + i, "value" + i);
+        }
+        table.commit();
+
+        table = StringTableImpl.getTable(tableRoot, path -> false, true);
+        assertEquals("value500", table.get("key500"));
+        assertEquals(1000, table.size());
+        assertEquals(1000, table.list().size());
+
+        table.put("key500", "changed");
+        table.remove("key501");
+        table.commit();
+
+        table = StringTableImpl.getTable(tableRoot, path -> false, true);
+        assertEquals(999, table.size());
+        assertEquals("changed", table.get("key500"));
+        assertNull(table.get("key501"));
+    }
+
+    @Test
+    public void testLazyTableReportsCorruptPartOnAccess() throws Exception {
+        Path tableRoot = DB_ROOT.resolve("lazy");
+        StringTableImpl table = StringTableImpl.createTable(tableRoot, TableLayout.withPartsCount(1));
+        table.put("key", "value");
+        table.commit();
+
+        try (PrintWriter writer = new PrintWriter(tableRoot.resolve("0.dir").resolve("0.dat").toString())) {
+            writer.print("failure");
+        }
+
+        // Parts are not read on opening.
+        table = StringTableImpl.getTable(tableRoot, path -> false, true);
+
+        try {
+            table.get("key");
+            fail("Corrupt part must be reported");
+        } catch (UncheckedIOException exc) {
+            assertThat(exc.getCause(), instanceOf(TableCorruptIOException.class));
+            assertThat(exc.getCause().getMessage(), startsWith("Table lazy is corrupt"));
+        }
+    }
+
+    @Test
+    public void testBloomFiltersAnswerAbsentKeys() throws Exception {
+        Path tableRoot = DB_ROOT.resolve("lazy");
+        for (PartFormat format : PartFormat.values()) {
+            StringTableImpl table = StringTableImpl.createTable(tableRoot, TableLayout.DEFAULT.withFormat(format));
+            for (int i = 0; i < 1000; i++) {
+                table.put("key" + i, "value" + i);
+            }
+            table.commit();
+            table.remove("key1");
+            table.commit();
+
+            table = StringTableImpl.getTable(tableRoot, path -> false, true);
+            for (int i = 0; i < 1000; i++) {
+                assertNull(table.get("absent" + i));
+            }
+            BloomFilterMetrics metrics = table.getBloomFilterMetrics();
+            // Parts loaded because of false positives are not checked any more.
+            assertTrue(metrics.getProbesAvoided() > 900);
+            assertTrue(metrics.getFalsePositiveRate() < 0.05);
+
+            // Removed keys and uncommitted changes are never hidden by filters.
+            assertNull(table.get("key1"));
+            table.put("absent0", "new");
+            assertEquals("new", table.get("absent0"));
+            for (int i = 2; i < 1000; i++) {
+                assertEquals("value" + i, table.get("key" + i));
+            }
+
+            Utility.rm(tableRoot);
+        }
+    }
+
+    @Test
+    public void testDamagedBloomFilterIsIgnored() throws Exception {
+        Path tableRoot = DB_ROOT.resolve("lazy");
+        StringTableImpl table = StringTableImpl.createTable(tableRoot, TableLayout.withPartsCount(1));
+        table.put("key", "value");
+        table.commit();
+
+        Path filterPath = tableRoot.resolve("0.dir").resolve("0.dat.bloom");
+        byte[] bytes = Files.readAllBytes(filterPath);
+        // Filter without bits would hide the key.
+        Arrays.fill(bytes, 20, bytes.length, (byte) 0);
+        Files.write(filterPath, bytes);
+
+        table = StringTableImpl.getTable(tableRoot, path -> false, true);
+        assertEquals("value", table.get("key"));
+        assertEquals(0, table.getBloomFilterMetrics().getProbesAvoided());
+    }
+
+    @Test
+    public void testValueCacheStaysWithinBudget() throws Exception {
+        Path tableRoot = DB_ROOT.resolve("cached");
+        ValueCache cache = new ValueCache(4000, ValueCache.Policy.LRU);
+        StringTableImpl table = StringTableImpl.createTable(tableRoot, TableLayout.DEFAULT, cache);
+        for (int i = 0; i < 100; i++) {
+            table.put("key" + i, "value" + i);
+        }
+        table.commit();
+        table.close();
+
+        table = StringTableImpl.getTable(tableRoot, path -> false, false, cache);
+        for (int i = 0; i < 100; i++) {
+            assertEquals("value" + i, table.get("key" + i));
+        }
+        assertEquals("value99", table.get("key99"));
+        assertNull(table.get("absent"));
+
+        ValueCacheMetrics metrics = table.getValueCacheMetrics();
+        assertEquals(1, metrics.getHits());
+        assertEquals(100, metrics.getMisses());
+        assertTrue(metrics.getEvictions() > 0);
+        assertTrue(metrics.getResidentBytes() > 0 && metrics.getResidentBytes() <= 4000);
+        assertEquals(metrics.getResidentBytes(), cache.getResidentBytes());
+        assertEquals(metrics.getResidentBytes(), cache.getMetrics().get(tableRoot).getResidentBytes());
+
+        // Committed changes replace cached values.
+        table.put("key99", "new value");
+        table.remove("key98");
+        table.commit();
+        assertEquals("new value", table.get("key99"));
+        assertNull(table.get("key98"));
+
+        table.close();
+        assertEquals(0, cache.getResidentBytes());
+    }
+
+    @Test
+    public void testTinyLfuCacheKeepsFrequentValues() throws Exception {
+        Path tableRoot = DB_ROOT.resolve("cached");
+        StringTableImpl table = StringTableImpl.createTable(tableRoot);
+        for (int i = 0; i < 500; i++) {
+            table.put("key" + i, "value" + i);
+        }
+        table.commit();
+
+        for (ValueCache.Policy policy : ValueCache.Policy.values()) {
+            table = StringTableImpl.getTable(tableRoot, path -> false, true, new ValueCache(2000, policy));
+            for (int round = 0; round < 10; round++) {
+                for (int i = 0; i < 5; i++) {
+                    table.get("key" + i);
+                }
+            }
+            // One-off reads of many other keys.
+            for (int i = 5; i < 500; i++) {
+                table.get("key" + i);
+            }
+            long missesBefore = table.getValueCacheMetrics().getMisses();
+            for (int i = 0; i < 5; i++) {
+                table.get("key" + i);
+            }
+            long hotMisses = table.getValueCacheMetrics().getMisses() - missesBefore;
+            assertEquals(policy.toString(), policy == ValueCache.Policy.LRU ? 5 : 0, hotMisses);
+            table.close();
+        }
+    }
+
+    @Test
+    public void testCachedRowsAreCopiedAndRespectDiffs() throws Exception {
+        System.setProperty(StoreableTableImpl.ROW_CACHE_SIZE_PROPERTY_NAME, "16");
+        Table table = createTable(Integer.class, String.class);
+        table.put("key", provider.createFor(table, Arrays.asList(1, "committed")));
+        table.commit();
+
+        Storeable row = table.get("key");
+        row.setColumnAt(1, "changed by caller");
+        assertEquals("committed", table.get("key").getStringAt(1));
+
+        table.put("key", provider.createFor(table, Arrays.asList(2, "uncommitted")));
+        assertEquals("uncommitted", table.get("key").getStringAt(1));
+        // Other threads still see the committed row.
+        String[] seenValue = new String[1];
+        Thread reader = new Thread(() -> seenValue[0] = table.get("key").getStringAt(1));
+        reader.start();
+        reader.join();
+        assertEquals("committed", seenValue[0]);
+        assertEquals("uncommitted", table.get("key").getStringAt(1));
+
+        table.rollback();
+        assertEquals("committed", table.get("key").getStringAt(1));
+        table.remove("key");
+        assertNull(table.get("key"));
+        table.commit();
+        assertNull(table.get("key"));
+    }
+
+    @Test
+    public void testCreateTableWithBinaryRows() throws Exception {
+        String tableName = "table";
+        List<Class<?>> columnTypes = Arrays.asList(
+                Integer.class,
+                Long.class,
+                Byte.class,
+                Float.class,
+                Double.class,
+                Boolean.class,
+                String.class,
+                String.class);
+        Table table = ((AutoCloseableProvider) provider).createTable(
+                tableName, columnTypes, TableLayout.DEFAULT.withRowFormat(RowFormat.BINARY));
+
+        List<Storeable> rows = Arrays.asList(
+                provider.createFor(
+                        table,
+                        Arrays.asList(
+                                Integer.MIN_VALUE,
+                                Long.MAX_VALUE,
+                                (byte) -1,
+                                Float.NaN,
+                                -0.0,
+                                true,
+                                "Строка с \"кавычками\"\n",
+                                "")),
+                provider.createFor(
+                        table,
+                        Arrays.asList(-1, Long.MIN_VALUE, Byte.MAX_VALUE, 1.5f, Double.MAX_VALUE, false, null, null)),
+                provider.createFor(table, Arrays.asList(null, null, null, null, null, null, null, null)),
+                provider.createFor(
+                        table, Arrays.asList(0, 0L, (byte) 0, 0f, 0.0, null, String.join("", Collections.nCopies(
+                                100, "long string ")), "\u0000\u007f\u0080\uffff")));
+        for (int i = 0; i < rows.size(); i++) {
+            table.put("key" + i, rows.get(i));
+        }
+        table.commit();
+
+        String stored = StringTableImpl.getTable(DB_ROOT.resolve(tableName), path -> true).get("key1");
+        assertThat(stored, not(startsWith("[")));
+
+        prepareProvider();
+        table = provider.getTable(tableName);
+        assertEquals(rows.size(), table.size());
+        for (int i = 0; i < rows.size(); i++) {
+            assertEquals(rows.get(i), table.get("key" + i));
+        }
+        assertEquals(
+                RowFormat.BINARY,
+                StringTableImpl.getTable(DB_ROOT.resolve(tableName), path -> true).getLayout().getRowFormat());
+    }
+
+    @Test
+    public void testBinaryRowOfImproperFormat() throws Exception {
+        String tableName = "table";
+        Table table = ((AutoCloseableProvider) provider).createTable(
+                tableName,
+                Arrays.asList(Integer.class, String.class),
+                TableLayout.DEFAULT.withRowFormat(RowFormat.BINARY));
+        table.put("a", provider.createFor(table, Arrays.asList(1, "one")));
+        table.commit();
+
+        StringTableImpl store = StringTableImpl.getTable(DB_ROOT.resolve(tableName), path -> true);
+        String valid = store.get("a");
+        store.put("b", valid.substring(0, valid.length() - 1));
+        store.put("c", valid + "x");
+        store.put("d", valid.charAt(0) + "\u0400" + valid.substring(2));
+        store.put("e", (char) 4 + valid.substring(1));
+        store.commit();
+        System.setProperty(TableValidation.PROPERTY_NAME, "on_read");
+        prepareProvider();
+
+        table = provider.getTable(tableName);
+        assertEquals("one", table.get("a").getStringAt(1));
+        for (String key : Arrays.asList("b", "c", "d", "e")) {
+            try {
+                table.get(key);
+                fail("Improper row must not be read: " + key);
+            } catch (ImproperStoreableException exc) {
+                assertThat(exc.getMessage(), containsString("for key " + key));
+            }
+        }
+    }
+
+    @Test
+    public void testConvertTableRowFormat() throws Exception {
+        String tableName = "table";
+        Table table = provider.createTable(tableName, Arrays.asList(Integer.class, String.class));
+        for (int i = 0; i < 100; i++) {
+            table.put("key" + i, provider.createFor(table, Arrays.asList(i, i % 2 == 0 ? "value" + i : null)));
+        }
+        table.commit();
+        ((AutoCloseable) provider).close();
+
+        Path tableRoot = DB_ROOT.resolve(tableName);
+        assertEquals(100, RowFormatConverter.convert(tableRoot, RowFormat.BINARY));
+        assertEquals(
+                TableLayout.DEFAULT.withRowFormat(RowFormat.BINARY),
+                StringTableImpl.getTable(tableRoot, path -> true).getLayout());
+
+        // Rebucketing keeps the row format.
+        TableRebucketer.rebucket(tableRoot, 8);
+        assertEquals(
+                TableLayout.withPartsCount(8).withRowFormat(RowFormat.BINARY),
+                StringTableImpl.getTable(tableRoot, path -> true).getLayout());
+
+        prepareProvider();
+        table = provider.getTable(tableName);
+        assertEquals(100, table.size());
+        for (int i = 0; i < 100; i++) {
+            Storeable row = table.get("key" + i);
+            assertEquals(i, (int) row.getIntAt(0));
+            assertEquals(i % 2 == 0 ? "value" + i : null, row.getStringAt(1));
+        }
+    }
+
+    @Test
+    public void testScanConsidersUncommittedChanges() throws Exception {
+        Table table = createTable(String.class);
+        for (String key : Arrays.asList("b", "ab", "a", "abc", "c", "ac", "abd")) {
+            table.put(key, provider.createFor(table, Arrays.asList(key)));
+        }
+        table.commit();
+
+        table.remove("abc");
+        table.put("abe", provider.createFor(table, Arrays.asList("new")));
+        table.put("ac", provider.createFor(table, Arrays.asList("changed")));
+        table.remove("zzz");
+
+        ScannableTable scannable = (ScannableTable) table;
+        assertEquals(Arrays.asList("ab", "abd", "abe", "ac"), scannedKeys(scannable.scan("ab", "b")));
+        assertEquals(Arrays.asList("a", "ab", "abd", "abe", "ac"), scannedKeys(scannable.scan(null, "b")));
+        assertEquals(Arrays.asList("b", "c"), scannedKeys(scannable.scan("b", null)));
+        assertEquals(Arrays.asList("ab", "abd", "abe"), scannedKeys(scannable.prefixScan("ab")));
+        assertEquals(Collections.emptyList(), scannedKeys(scannable.scan("c", "b")));
+        assertEquals(Collections.emptyList(), scannedKeys(scannable.prefixScan("abc")));
+
+        Iterator<Map.Entry<String, Storeable>> rows = scannable.prefixScan("ac");
+        assertEquals("changed", rows.next().getValue().getStringAt(0));
+        assertFalse(rows.hasNext());
+
+        // Committed rows are not affected by uncommitted changes of the iterating thread.
+        table.rollback();
+        assertEquals(Arrays.asList("ab", "abc", "abd"), scannedKeys(scannable.prefixScan("ab")));
+    }
+
+    @Test
+    public void testScanSortedTable() throws Exception {
+        String tableName = "table";
+        for (PartFormat format : PartFormat.values()) {
+            TableLayout layout = TableLayout.withPartsCount(4).withFormat(format).withKeyOrder(KeyOrder.SORTED);
+            Table table = ((AutoCloseableProvider) provider).createTable(tableName, DEFAULT_COLUMN_TYPES, layout);
+            List<String> keys = new LinkedList<>();
+            for (int i = 0; i < 200; i++) {
+                String key = "key" + ThreadLocalRandom.current().nextInt(1000);
+                table.put(key, provider.createFor(table, Arrays.asList(key)));
+            }
+            table.commit();
+            for (int i = 0; i < 200; i += 3) {
+                table.remove("key" + i);
+            }
+            table.commit();
+            keys.addAll(table.list());
+            Collections.sort(keys);
+
+            prepareProvider();
+            table = provider.getTable(tableName);
+            assertEquals(layout, StringTableImpl.getTable(DB_ROOT.resolve(tableName), path -> true).getLayout());
+            assertEquals(keys, scannedKeys(((ScannableTable) table).scan(null, null)));
+            assertEquals(
+                    keys.stream().filter(key -> key.startsWith("key5")).collect(Collectors.toList()),
+                    scannedKeys(((ScannableTable) table).prefixScan("key5")));
+
+            provider.removeTable(tableName);
+        }
+    }
+
+    @Test
+    public void testPrefixEnd() {
+        assertEquals("ac", ScannableTable.prefixEnd("ab"));
+        assertEquals("b", ScannableTable.prefixEnd("a\uffff"));
+        assertNull(ScannableTable.prefixEnd("\uffff\uffff"));
+        assertNull(ScannableTable.prefixEnd(""));
+    }
+
+    private static List<String> scannedKeys(Iterator<Map.Entry<String, Storeable>> rows) {
+        List<String> keys = new LinkedList<>();
+        while (rows.hasNext()) {
+            keys.add(rows.next().getKey());
+        }
+        return keys;
+    }
+
+    @Test
+    public void testIndexFindsCommittedRows() throws Exception {
+        Table table = createTable(String.class, Integer.class);
+        IndexProvider indexProvider = (IndexProvider) provider;
+        for (int i = 0; i < 100; i++) {
+            table.put("key" + i, provider.createFor(table, Arrays.asList("value" + i, i % 10 == 0 ? null : i)));
+        }
+        table.put("duplicate", provider.createFor(table, Arrays.asList("duplicate", 55)));
+        table.commit();
+
+        Index index = indexProvider.createIndex(table, 1, "numbers");
+        assertEquals("numbers", index.getName());
+        assertSame(index, indexProvider.getIndex("numbers"));
+        assertEquals("value42", index.get("42").getStringAt(0));
+        assertNull(index.get("10"));
+        // The least key is found among rows with the same value.
+        assertEquals("duplicate", index.get("55").getStringAt(0));
+
+        table.put("key42", provider.createFor(table, Arrays.asList("changed", 420)));
+        table.remove("duplicate");
+        assertEquals("value42", index.get("42").getStringAt(0));
+        assertNull(index.get("420"));
+
+        table.commit();
+        assertNull(index.get("42"));
+        assertEquals("changed", index.get("420").getStringAt(0));
+        assertEquals("value55", index.get("55").getStringAt(0));
+
+        Index strings = indexProvider.createIndex(table, 0, "strings");
+        assertEquals(420, (int) strings.get("changed").getIntAt(1));
+        assertNull(indexProvider.createIndex(table, 0, "strings"));
+        assertNull(indexProvider.getIndex("nothing"));
+    }
+
+    @Test
+    public void testCreateIndexWithInvalidArguments() throws Exception {
+        Table table = createTable(String.class, Integer.class);
+        IndexProvider indexProvider = (IndexProvider) provider;
+        indexProvider.createIndex(table, 1, "numbers");
+
+        for (Runnable action : Arrays.<Runnable>asList(
+                () -> indexProvider.createIndex(table, 0, "numbers"),
+                () -> indexProvider.createIndex(table, 2, "other"),
+                () -> indexProvider.createIndex(table, 0, "table"),
+                () -> indexProvider.getIndex("numbers").get("not a number"))) {
+            try {
+                action.run();
+                fail("Invalid arguments must be rejected");
+            } catch (IllegalArgumentException exc) {
+                // Expected.
+            }
+        }
+
+        // Indexes and tables share one namespace.
+        try {
+            provider.createTable("numbers", Arrays.asList(String.class));
+            fail("Table with name of an index created");
+        } catch (IllegalArgumentException exc) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testIndexIsReadBackWithoutScanningRows() throws Exception {
+        Table table = createTable(String.class, Integer.class);
+        for (int i = 0; i < 100; i++) {
+            table.put("key" + i, provider.createFor(table, Arrays.asList("value" + i, i)));
+        }
+        table.commit();
+        ((IndexProvider) provider).createIndex(table, 1, "numbers");
+        table.put("key100", provider.createFor(table, Arrays.asList("value100", 100)));
+        table.commit();
+        ((AutoCloseable) provider).close();
+        assertTrue(Files.exists(DB_ROOT.resolve("table").resolve("numbers.index")));
+
+        // Changes made past the index are not seen by the index that is up to date.
+        StringTableImpl store = StringTableImpl.getTable(DB_ROOT.resolve("table"), path -> true);
+        store.remove("key1");
+        store.commit();
+
+        prepareProvider();
+        Index index = ((IndexProvider) provider).getIndex("numbers");
+        assertEquals("value100", index.get("100").getStringAt(0));
+        assertNull(index.get("1"));
+        assertEquals("value2", index.get("2").getStringAt(0));
+    }
+
+    @Test
+    public void testOutdatedIndexIsRebuilt() throws Exception {
+        Table table = createTable(String.class, Integer.class);
+        table.put("a", provider.createFor(table, Arrays.asList("a", 1)));
+        table.commit();
+        ((IndexProvider) provider).createIndex(table, 1, "numbers");
+
+        // The provider is not closed, as if the process has crashed after commit.
+        table.put("b", provider.createFor(table, Arrays.asList("b", 2)));
+        table.commit();
+        prepareProvider();
+
+        Index index = ((IndexProvider) provider).getIndex("numbers");
+        assertEquals("a", index.get("1").getStringAt(0));
+        assertEquals("b", index.get("2").getStringAt(0));
+    }
+
+    @Test
+    public void testIndexOfTableWithImproperRow() throws Exception {
+        createTableWithImproperRow("table");
+        System.setProperty(TableValidation.PROPERTY_NAME, "on_read");
+        prepareProvider();
+
+        exception.expect(IllegalStateException.class);
+        exception.expectMessage("Value of improper format found in table table for key b");
+        ((IndexProvider) provider).createIndex(provider.getTable("table"), 0, "numbers");
+    }
+
+    /**
+     * Creates table with integer column where row 'a' is valid and row 'b' contains a string.
+     */
+    private void createTableWithImproperRow(String tableName) throws IOException {
+        Table table = provider.createTable(tableName, Arrays.asList(Integer.class));
+        table.put("a", provider.createFor(table, Arrays.asList(1)));
+        table.commit();
+
+        StringTableImpl store = StringTableImpl.getTable(DB_ROOT.resolve(tableName), path -> true);
+        store.put("b", "[\"not a number\"]");
+        store.commit();
+    }
+
+    @Test
+    public void testEagerValidationFindsImproperRow() throws Exception {
+        createTableWithImproperRow("table");
+        prepareProvider();
+
+        expectTableCorruptAndAllOf("table", containsString("Value of improper format found"));
+        provider.getTable("table");
+    }
+
+    @Test
+    public void testValidationOnRead() throws Exception {
+        createTableWithImproperRow("table");
+        System.setProperty(TableValidation.PROPERTY_NAME, "on_read");
+        prepareProvider();
+
+        Table table = provider.getTable("table");
+        assertEquals(1, (int) table.get("a").getIntAt(0));
+
+        exception.expect(ImproperStoreableException.class);
+        exception.expectMessage("Value of improper format found in table table for key b");
+        table.get("b");
+    }
+
+    @Test
+    public void testBackgroundValidation() throws Exception {
+        createTableWithImproperRow("table");
+        provider.createTable("valid", Arrays.asList(Integer.class));
+        System.setProperty(TableValidation.PROPERTY_NAME, TableValidation.BACKGROUND.name());
+        prepareProvider();
+
+        ((AutoCloseableProvider) provider).awaitValidation();
+
+        assertNotNull(provider.getTable("valid"));
+        expectTableCorruptAndAllOf("table", containsString("Value of improper format found"));
+        provider.getTable("table");
+    }
+
+    @Test
+    public void testUnknownValidationMode() throws Exception {
+        System.setProperty(TableValidation.PROPERTY_NAME, "sometimes");
+
+        exception.expect(IllegalArgumentException.class);
+        exception.expectMessage("Unknown table validation mode: sometimes");
+        prepareProvider();
+    }
+
+    @Test
+    public void testCommitOfManyTables() throws Exception {
+        AutoCloseableProvider ownProvider = (AutoCloseableProvider) provider;
+        Table first = provider.createTable("first", Arrays.asList(Integer.class));
+        Table second = ownProvider.createTable(
+                "second", Arrays.asList(Integer.class), TableLayout.withPartsCount(4).withFormat(PartFormat.LOG));
+        Table untouched = provider.createTable("untouched", Arrays.asList(Integer.class));
+
+        for (int i = 0; i < 10; i++) {
+            first.put("key" + i, provider.createFor(first, Arrays.asList(i)));
+            second.put("key" + i, provider.createFor(second, Arrays.asList(-i)));
+        }
+        first.commit();
+        first.remove("key0");
+        second.put("key10", provider.createFor(second, Arrays.asList(-10)));
+
+        assertEquals(12, ownProvider.commit(Arrays.asList(first, second, untouched, first)));
+        assertEquals(0, first.getNumberOfUncommittedChanges());
+        assertEquals(0, second.getNumberOfUncommittedChanges());
+
+        int[] seen = new int[2];
+        Thread reader = new Thread(
+                () -> {
+                    seen[0] = first.size();
+                    seen[1] = second.get("key10").getIntAt(0);
+                });
+        reader.start();
+        reader.join();
+        assertEquals(9, seen[0]);
+        assertEquals(-10, seen[1]);
+
+        // Direct commits still work and see the committed changes.
+        second.remove("key10");
+        assertEquals(1, second.commit());
+
+        ownProvider.close();
+        assertFalse("Commit log must be removed", Files.exists(DB_ROOT.resolve("commits.wal")));
+        prepareProvider();
+        assertNull(provider.getTable("first").get("key0"));
+        assertEquals(9, (int) provider.getTable("first").get("key9").getIntAt(0));
+        assertEquals(10, provider.getTable("second").size());
+        assertEquals(0, provider.getTable("untouched").size());
+    }
+
+    @Test
+    public void testCommitOfForeignTable() throws Exception {
+        Table table = createTable(String.class);
+        try (AutoCloseableProvider other = new DBTableProviderFactory().create(DB_ROOT.toString())) {
+            exception.expect(IllegalArgumentException.class);
+            exception.expectMessage("Table does not belong to this provider: table");
+            other.commit(Collections.singletonList(table));
+        }
+    }
+
+    @Test
+    public void testCommitLogIsReplayedAfterCrash() throws Exception {
+        // Changes are not written to part files before the crash.
+        System.setProperty(StringTableImpl.COMMIT_LOG_APPLY_DELAY_PROPERTY_NAME, "3600000");
+        AutoCloseableProvider ownProvider = (AutoCloseableProvider) provider;
+        Table first = provider.createTable("first", Arrays.asList(Integer.class));
+        Table second = ownProvider.createTable(
+                "second", Arrays.asList(Integer.class), TableLayout.withPartsCount(4).withFormat(PartFormat.LOG));
+        first.put("a", provider.createFor(first, Arrays.asList(1)));
+        first.commit();
+
+        first.put("a", provider.createFor(first, Arrays.asList(2)));
+        second.put("b", provider.createFor(second, Arrays.asList(3)));
+        ownProvider.commit(Arrays.asList(first, second));
+        // The table has records in the log, so this commit goes through the log too.
+        first.put("a", provider.createFor(first, Arrays.asList(4)));
+        first.commit();
+        assertTrue(Files.exists(DB_ROOT.resolve("commits.wal")));
+        assertFalse(provider.getTableNames().contains("commits.wal"));
+
+        // The provider is not closed, as if the process has crashed after commit.
+        System.clearProperty(StringTableImpl.COMMIT_LOG_APPLY_DELAY_PROPERTY_NAME);
+        prepareProvider();
+
+        assertEquals(4, (int) provider.getTable("first").get("a").getIntAt(0));
+        assertEquals(3, (int) provider.getTable("second").get("b").getIntAt(0));
+        assertFalse("Commit log must be removed", Files.exists(DB_ROOT.resolve("commits.wal")));
+    }
+
+    @Test
+    public void testCommitLogOfCorruptTableIsKeptUntilRepair() throws Exception {
+        System.setProperty(StringTableImpl.COMMIT_LOG_APPLY_DELAY_PROPERTY_NAME, "3600000");
+        AutoCloseableProvider ownProvider = (AutoCloseableProvider) provider;
+        Table first = provider.createTable("first", Arrays.asList(Integer.class));
+        Table second = provider.createTable("second", Arrays.asList(Integer.class));
+        first.put("a", provider.createFor(first, Arrays.asList(1)));
+        second.put("b", provider.createFor(second, Arrays.asList(2)));
+        ownProvider.commit(Arrays.asList(first, second));
+
+        // The provider is not closed, as if the process has crashed after commit; then the first table breaks.
+        System.clearProperty(StringTableImpl.COMMIT_LOG_APPLY_DELAY_PROPERTY_NAME);
+        Path signature = DB_ROOT.resolve("first").resolve("signature.tsv");
+        byte[] signatureBytes = Files.readAllBytes(signature);
+        Files.delete(signature);
+        prepareProvider();
+
+        assertEquals(2, (int) provider.getTable("second").get("b").getIntAt(0));
+        assertTrue("Commit log must be kept", Files.exists(DB_ROOT.resolve("commits.wal")));
+        // Direct commits of the replayed table must not be overridden by the kept log.
+        second = provider.getTable("second");
+        second.put("b", provider.createFor(second, Arrays.asList(3)));
+        second.commit();
+        try {
+            provider.getTable("first");
+            fail("Table without signature must be corrupt");
+        } catch (IllegalArgumentException exc) {
+            assertThat(exc.getMessage(), containsString("Table first is corrupt"));
+        }
+        ((AutoCloseableProvider) provider).close();
+
+        Files.write(signature, signatureBytes);
+        prepareProvider();
+
+        assertEquals(1, (int) provider.getTable("first").get("a").getIntAt(0));
+        assertEquals(3, (int) provider.getTable("second").get("b").getIntAt(0));
+        assertFalse("Commit log must be removed", Files.exists(DB_ROOT.resolve("commits.wal")));
+    }
+
+    @Test
+    public void testRemovedTableIsNotReplayed() throws Exception {
+        System.setProperty(StringTableImpl.COMMIT_LOG_APPLY_DELAY_PROPERTY_NAME, "3600000");
+        AutoCloseableProvider ownProvider = (AutoCloseableProvider) provider;
+        Table table = createTable(String.class);
+        Table other = provider.createTable("other", Arrays.asList(String.class));
+        table.put("removed", provider.createFor(table, Arrays.asList("removed")));
+        other.put("kept", provider.createFor(other, Arrays.asList("kept")));
+        ownProvider.commit(Arrays.asList(table, other));
+
+        provider.removeTable("table");
+        createTable(String.class);
+        System.clearProperty(StringTableImpl.COMMIT_LOG_APPLY_DELAY_PROPERTY_NAME);
+        prepareProvider();
+
+        assertEquals(0, provider.getTable("table").size());
+        assertEquals("kept", provider.getTable("other").get("kept").getStringAt(0));
+    }
+
+    @Test
+    public void testLoggedCommitKeepsPartMappedAfterApply() throws Exception {
+        System.setProperty(StringTableImpl.COMMIT_LOG_APPLY_DELAY_PROPERTY_NAME, "0");
+        try (DBTableProviderFactory cachingFactory = new DBTableProviderFactory(1 << 20, ValueCache.Policy.LRU)) {
+            AutoCloseableProvider ownProvider = cachingFactory.create(DB_ROOT.toString());
+            Table first = ownProvider.createTable("first", Arrays.asList(Integer.class));
+            Table second = ownProvider.createTable("second", Arrays.asList(Integer.class));
+            for (int i = 0; i < 10; i++) {
+                first.put("key" + i, ownProvider.createFor(first, Arrays.asList(i)));
+            }
+            first.commit();
+            ownProvider.close();
+
+            // Parts are mapped when the tables are opened again.
+            ownProvider = cachingFactory.create(DB_ROOT.toString());
+            first = ownProvider.getTable("first");
+            second = ownProvider.getTable("second");
+            first.put("key0", ownProvider.createFor(first, Arrays.asList(-1)));
+            second.put("key0", ownProvider.createFor(second, Arrays.asList(0)));
+            ownProvider.commit(Arrays.asList(first, second));
+            while (Files.exists(DB_ROOT.resolve("commits.wal"))) {
+                Thread.sleep(10L);
+            }
+
+            // Values of a mapped part are looked up in the value cache, values of a part in memory are not.
+            ValueCache cache = cachingFactory.getValueCache();
+            ValueCacheMetrics before = cache.getMetrics().get(DB_ROOT.resolve("first"));
+            for (int i = 1; i < 10; i++) {
+                assertEquals(i, (int) first.get("key" + i).getIntAt(0));
+            }
+            assertEquals(-1, (int) first.get("key0").getIntAt(0));
+            ValueCacheMetrics after = cache.getMetrics().get(DB_ROOT.resolve("first"));
+            assertEquals(before.getHits() + before.getMisses() + 10, after.getHits() + after.getMisses());
+            ownProvider.close();
+        }
+    }
 }
@@ -0,0 +1,200 @@
+package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.test;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.exception.InvalidatedObjectException;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.ValidityController;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.ValidityController.KillLock;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.ValidityController.UseLock;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class ValidityControllerTest {
+    private static final long TIMEOUT = 5000L;
+
+    @Rule
+    public ExpectedException exception = ExpectedException.none();
+
+    @Test
+    public void testUseAfterKill() {
+        ValidityController controller = new ValidityController();
+        try (UseLock lock = controller.use()) {
+            assertNotNull(lock);
+        }
+        try (KillLock lock = controller.useAndKill()) {
+            assertNotNull(lock);
+        }
+
+        exception.expect(InvalidatedObjectException.class);
+        controller.use();
+    }
+
+    @Test
+    public void testKillAfterKill() {
+        ValidityController controller = new ValidityController();
+        controller.useAndKill().close();
+
+        exception.expect(InvalidatedObjectException.class);
+        controller.useAndKill();
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void testKillerCanUse() {
+        ValidityController controller = new ValidityController();
+        try (KillLock lock = controller.useAndKill()) {
+            try (UseLock useLock = controller.use()) {
+                assertNotNull(useLock);
+            }
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void testObtainKillLockInstead() {
+        ValidityController controller = new ValidityController();
+        try (UseLock lock = controller.use()) {
+            lock.obtainKillLockInstead().close();
+        }
+
+        exception.expect(InvalidatedObjectException.class);
+        controller.use();
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void testKillerWaitsForUsers() throws Exception {
+        ValidityController controller = new ValidityController();
+        CountDownLatch killStarted = new CountDownLatch(1);
+        CountDownLatch killed = new CountDownLatch(1);
+
+        UseLock lock = controller.use();
+        Thread killer = new Thread(
+                () -> {
+                    killStarted.countDown();
+                    controller.useAndKill().close();
+                    killed.countDown();
+                }, "Killer");
+        killer.start();
+        killStarted.await();
+
+        // Nested use while the killer waits must not deadlock.
+        Thread.sleep(100L);
+        try (UseLock nestedLock = controller.use()) {
+            assertEquals("Object killed while it is used", 1, killed.getCount());
+        }
+        lock.close();
+
+        killer.join();
+        assertEquals(0, killed.getCount());
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void testNewUserWaitsForKillerAndFails() throws Exception {
+        ValidityController controller = new ValidityController();
+        AtomicReference<Throwable> userResult = new AtomicReference<>();
+        CountDownLatch userStarted = new CountDownLatch(1);
+
+        Thread user;
+        try (KillLock lock = controller.useAndKill()) {
+            user = new Thread(
+                    () -> {
+                        userStarted.countDown();
+                        try {
+                            controller.use().close();
+                        } catch (Throwable exc) {
+                            userResult.set(exc);
+                        }
+                    }, "User");
+            user.start();
+            userStarted.await();
+            Thread.sleep(100L);
+            assertTrue("User has not waited for the killer", user.isAlive());
+        }
+
+        user.join();
+        assertTrue(userResult.get() instanceof InvalidatedObjectException);
+    }
+
+    /**
+     * A user that shares the counter stripe with a holder of a use lock does not use the object itself, so it
+     * must wait for the pending kill like any other new user.
+     */
+    @Test(timeout = TIMEOUT)
+    public void testNewUserOfBusyStripeWaitsForKiller() throws Exception {
+        ValidityController controller = new ValidityController();
+        CountDownLatch used = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicReference<Throwable> userResult = new AtomicReference<>();
+
+        Thread holder = new Thread(
+                () -> {
+                    try (UseLock lock = controller.use()) {
+                        used.countDown();
+                        release.await();
+                    } catch (InterruptedException exc) {
+                        Thread.currentThread().interrupt();
+                    }
+                }, "Holder");
+        holder.start();
+        used.await();
+
+        Thread killer = new Thread(() -> controller.useAndKill().close(), "Killer");
+        killer.start();
+        while (killer.getState() != Thread.State.WAITING) {
+            Thread.sleep(10L);
+        }
+
+        // Stripes are chosen by thread id modulo a power of two not greater than 64.
+        Runnable useTask = () -> {
+            try {
+                controller.use().close();
+                userResult.set(new AssertionError("Object has been used during the kill"));
+            } catch (Throwable exc) {
+                userResult.set(exc);
+            }
+        };
+        Thread user;
+        do {
+            user = new Thread(useTask, "User");
+        } while (user.getId() % 64 != holder.getId() % 64);
+        user.start();
+
+        Thread.sleep(100L);
+        assertTrue("User has not waited for the killer", user.isAlive());
+        assertNull(userResult.get());
+
+        release.countDown();
+        killer.join();
+        user.join();
+        assertTrue(userResult.get() instanceof InvalidatedObjectException);
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void testDeserializedControllerIsNotUsed() throws Exception {
+        ValidityController controller = new ValidityController();
+        ValidityController copy;
+
+        try (UseLock lock = controller.use()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(controller);
+            }
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                copy = (ValidityController) in.readObject();
+            }
+        }
+
+        copy.useAndKill().close();
+        exception.expect(InvalidatedObjectException.class);
+        copy.use();
+    }
+}
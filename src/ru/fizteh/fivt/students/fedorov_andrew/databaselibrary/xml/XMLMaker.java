@@ -1,24 +1,46 @@
 package ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.xml;
 
-import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.Utility;
+import ru.fizteh.fivt.students.fedorov_andrew.databaselibrary.support.AnnotatedField;
 
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 import java.io.StringWriter;
 import java.lang.reflect.Array;
-import java.lang.reflect.Field;
-import java.util.IdentityHashMap;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 
+/**
+ * Serializes objects to XML using {@link XMLComplexObject} and {@link XMLField} annotations.<br/>
+ * Annotations of each class are inspected once and kept in {@link ComplexClass}.
+ */
 public class XMLMaker {
     private static final String LIST_TAG = "list";
     private static final String LIST_ELEMENT = "value";
     private static final String CYCLIC_LINK = "cyclic";
     private static final String NULL_ELEMENT = "null";
 
+    private static final ClassValue<ComplexClass> COMPLEX_CLASSES = new ClassValue<ComplexClass>() {
+        @Override
+        protected ComplexClass computeValue(Class<?> type) {
+            return new ComplexClass(type);
+        }
+    };
+
+    /**
+     * Factories are not required to be thread-safe, and looking them up is too slow to do on each call.
+     */
+    private static final ThreadLocal<XMLOutputFactory> FACTORIES =
+            ThreadLocal.withInitial(XMLOutputFactory::newFactory);
+
+    private static void checkNotInline(Object object, boolean inline) throws IllegalArgumentException {
+        if (inline) {
+            throw new IllegalArgumentException("This object cannot be inlined: " + object);
+        }
+    }
+
     /**
      * Writes some xml.
      * @param writer
@@ -31,24 +53,16 @@ public class XMLMaker {
      *         if this is an attribute or not.
      * @param childName
      *         name of each child node (only for iterables/arrays). Can be null or empty.
-     * @param identityMap
-     *         map to determine cyclic links and handle them in proper way.
+     * @param ancestors
+     *         objects being written, to determine cyclic links and handle them in proper way.
      * @throws javax.xml.stream.XMLStreamException
-     * @throws IllegalAccessException
      */
     private static void writeXML(XMLStreamWriter writer,
                                  Object object,
                                  String tagName,
                                  boolean inline,
                                  String childName,
-                                 IdentityHashMap<Object, Boolean> identityMap)
-            throws XMLStreamException, IllegalAccessException {
-        ConditionVerifier inlineUseVerifier = () -> {
-            if (inline) {
-                throw new IllegalArgumentException("This object cannot be inlined: " + object);
-            }
-        };
-
+                                 List<Object> ancestors) throws XMLStreamException {
         if (tagName != null && !inline) {
             writer.writeStartElement(tagName);
         }
@@ -58,81 +72,27 @@ public class XMLMaker {
         } else {
             Class<?> objClass = object.getClass();
 
-            if (identityMap.containsKey(object)) {
+            if (isAncestor(ancestors, object)) {
                 writer.writeCharacters(CYCLIC_LINK);
             } else {
-                identityMap.put(object, Boolean.TRUE);
+                ancestors.add(object);
 
-                if (objClass.getAnnotation(XMLComplexObject.class) != null) {
-                    inlineUseVerifier.verify();
+                ComplexClass complexClass = COMPLEX_CLASSES.get(objClass);
 
-                    // Convenience trick.
-                    FieldXMLAppender xmlAppender = (field, overrideName) -> {
-                        XMLField fieldAnno = field.getAnnotation(XMLField.class);
+                if (complexClass.complex) {
+                    checkNotInline(object, inline);
+                    complexClass.checkAnnotations();
 
-                        String fieldName = fieldAnno.name();
-                        boolean accessible = field.isAccessible();
-                        field.setAccessible(true);
-
-                        if (overrideName != null && overrideName.isEmpty()) {
-                            if (fieldName.isEmpty()) {
-                                overrideName = field.getName();
-                            } else {
-                                overrideName = fieldName;
-                            }
-                        }
-
-                        Object fieldValue = field.get(object);
-                        if (fieldValue != null
-                            || fieldAnno.nullPolicy() == XMLField.NULLPOLICY_FULL_IF_NULL) {
-                            writeXML(
-                                    writer,
-                                    field.get(object),
-                                    overrideName,
-                                    fieldAnno.inline(),
-                                    fieldAnno.childName(),
-                                    identityMap);
-                        } else if (fieldAnno.nullPolicy() == XMLField.NULLPOLICY_EMPTY_IF_NULL) {
-                            writer.writeEmptyElement(overrideName);
-                        }
-                        field.setAccessible(accessible);
-                    };
-
-                    List<Field> annotatedFields = Utility.getAllAnnotatedFields(objClass, XMLField.class);
-
-                    if (annotatedFields.isEmpty()) {
-                        throw new IllegalArgumentException(
-                                "Class "
-                                + objClass.getSimpleName()
-                                + " does not have any XML fields and cannot be serialized");
-                    } else if (objClass.getAnnotation(XMLComplexObject.class).wrapper()) {
-                        if (annotatedFields.size() != 1) {
-                            throw new IllegalArgumentException(
-                                    "Class "
-                                    + objClass.getSimpleName()
-                                    + " has more then one XML fields, thus it cannot be annotated as "
-                                    + "'wrapper'");
-                        }
-                        xmlAppender.appendInfo(annotatedFields.get(0), tagName);
+                    if (complexClass.wrapper) {
+                        writeField(writer, object, 0, complexClass, tagName, ancestors);
                     } else {
-                        // Attributes first.
-                        for (Field field : annotatedFields) {
-                            XMLField fieldAnno = field.getAnnotation(XMLField.class);
-                            if (fieldAnno.inline()) {
-                                xmlAppender.appendInfo(field);
-                            }
-                        }
-
-                        // Tags then.
-                        for (Field field : annotatedFields) {
-                            XMLField fieldAnno = field.getAnnotation(XMLField.class);
-                            if (!fieldAnno.inline()) {
-                                xmlAppender.appendInfo(field);
-                            }
+                        // Attributes go first: the order is prepared by ComplexClass.
+                        for (int i = 0; i < complexClass.names.length; i++) {
+                            writeField(writer, object, i, complexClass, "", ancestors);
                         }
                     }
                 } else if (object instanceof Iterable || objClass.isArray()) {
-                    inlineUseVerifier.verify();
+                    checkNotInline(object, inline);
 
                     Iterator<Object> iter = (object instanceof Iterable
                                              ? ((Iterable) object).iterator()
@@ -162,7 +122,7 @@ public class XMLMaker {
                         Object next = iter.next();
                         writer.writeStartElement(
                                 childName == null || childName.isEmpty() ? LIST_ELEMENT : childName);
-                        writeXML(writer, next, null, false, null, identityMap);
+                        writeXML(writer, next, null, false, null, ancestors);
                         writer.writeEndElement();
                     }
                     if (tagName == null) {
@@ -177,7 +137,7 @@ public class XMLMaker {
                     }
                 }
 
-                identityMap.remove(object);
+                ancestors.remove(ancestors.size() - 1);
             }
         }
 
@@ -186,36 +146,112 @@ public class XMLMaker {
         }
     }
 
+    private static boolean isAncestor(List<Object> ancestors, Object object) {
+        for (int i = 0; i < ancestors.size(); i++) {
+            if (ancestors.get(i) == object) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes field of a complex object.
+     * @param overrideName
+     *         Name of the tag or attribute; if empty, name of the field is used.
+     */
+    private static void writeField(XMLStreamWriter writer,
+                                   Object object,
+                                   int index,
+                                   ComplexClass complexClass,
+                                   String overrideName,
+                                   List<Object> ancestors) throws XMLStreamException {
+        XMLField fieldAnno = complexClass.fields.get(index).getAnnotation();
+        if (overrideName != null && overrideName.isEmpty()) {
+            overrideName = complexClass.names[index];
+        }
+
+        Object fieldValue = complexClass.fields.get(index).get(object);
+        if (fieldValue != null || fieldAnno.nullPolicy() == XMLField.NULLPOLICY_FULL_IF_NULL) {
+            writeXML(writer, fieldValue, overrideName, fieldAnno.inline(), fieldAnno.childName(), ancestors);
+        } else if (fieldAnno.nullPolicy() == XMLField.NULLPOLICY_EMPTY_IF_NULL) {
+            writer.writeEmptyElement(overrideName);
+        }
+    }
+
     public static String makeXML(Object object, String tagName) {
         try {
-            XMLOutputFactory factory = XMLOutputFactory.newFactory();
             StringWriter stringWriter = new StringWriter();
-            XMLStreamWriter xmlWriter = factory.createXMLStreamWriter(stringWriter);
+            XMLStreamWriter xmlWriter = FACTORIES.get().createXMLStreamWriter(stringWriter);
 
-            writeXML(xmlWriter, object, tagName, false, null, new IdentityHashMap<>());
+            writeXML(xmlWriter, object, tagName, false, null, new ArrayList<>());
 
             return stringWriter.toString();
-        } catch (IllegalAccessException | XMLStreamException exc) {
+        } catch (XMLStreamException exc) {
             throw new RuntimeException(exc);
         }
     }
 
     /**
-     * Convenience structure used in method {@link #writeXML(javax.xml.stream.XMLStreamWriter, Object,
-     * String,
-     * boolean, String, java.util.IdentityHashMap)}.
+     * Fields of a class annotated with {@link XMLComplexObject}, gathered once per class. Inline fields
+     * (attributes) are placed before the others.
      */
-    @FunctionalInterface
-    private interface FieldXMLAppender {
-        void appendInfo(Field field, String overrideName) throws IllegalAccessException, XMLStreamException;
+    private static final class ComplexClass {
+        private final Class<?> type;
+        private final boolean complex;
+        private final boolean wrapper;
+        private final List<AnnotatedField<XMLField>> fields;
+        /**
+         * Tag or attribute names of the fields.
+         */
+        private final String[] names;
+
+        ComplexClass(Class<?> type) {
+            this.type = type;
+            XMLComplexObject annotation = type.getAnnotation(XMLComplexObject.class);
+            complex = annotation != null;
+            wrapper = complex && annotation.wrapper();
+
+            if (complex) {
+                fields = new ArrayList<>();
+                List<AnnotatedField<XMLField>> annotatedFields = AnnotatedField.of(type, XMLField.class);
+                for (AnnotatedField<XMLField> field : annotatedFields) {
+                    if (field.getAnnotation().inline()) {
+                        fields.add(field);
+                    }
+                }
+                for (AnnotatedField<XMLField> field : annotatedFields) {
+                    if (!field.getAnnotation().inline()) {
+                        fields.add(field);
+                    }
+                }
 
-        default void appendInfo(Field field) throws IllegalAccessException, XMLStreamException {
-            appendInfo(field, "");
+                names = new String[fields.size()];
+                for (int i = 0; i < names.length; i++) {
+                    String name = fields.get(i).getAnnotation().name();
+                    names[i] = name.isEmpty() ? fields.get(i).getName() : name;
+                }
+            } else {
+                fields = null;
+                names = null;
+            }
         }
-    }
 
-    @FunctionalInterface
-    interface ConditionVerifier {
-        void verify() throws RuntimeException;
+        /**
+         * Checks the annotations are used properly. Violations are reported on each write, not on the
+         * inspection of the class.
+         */
+        void checkAnnotations() throws IllegalArgumentException {
+            if (fields.isEmpty()) {
+                throw new IllegalArgumentException(
+                        "Class " + type.getSimpleName() + " does not have any XML fields and cannot be serialized");
+            } else if (wrapper && fields.size() != 1) {
+                throw new IllegalArgumentException(
+                        "Class "
+                        + type.getSimpleName()
+                        + " has more then one XML fields, thus it cannot be annotated as "
+                        + "'wrapper'");
+            }
+        }
     }
 }